@@ -40,7 +40,9 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -335,6 +337,17 @@ public interface DirectoryService extends ServerEntryFactory
     List<String> getInterceptors( OperationEnum operation );
 
 
+    /**
+     * Returns the precompiled pipeline of interceptors for a given operation.
+     * The returned pipeline is immutable : it is replaced as a whole when an
+     * interceptor is added or removed.
+     *
+     * @param operation The operation
+     * @return the interceptors pipeline for the given operation.
+     */
+    InterceptorPipeline getInterceptorPipeline( OperationEnum operation );
+
+
     /**
      * Sets the interceptors in the server.
      *
@@ -564,6 +577,12 @@ public interface DirectoryService extends ServerEntryFactory
     CacheService getCacheService();
 
 
+    /**
+     * @return the registry holding the operation, partition and interceptor metrics
+     */
+    MetricsRegistry getMetrics();
+
+
     /**
      * @return The AccessControl AdministrativePoint cache
      */
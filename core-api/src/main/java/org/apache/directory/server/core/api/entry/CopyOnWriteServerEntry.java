@@ -0,0 +1,396 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * A ClonedServerEntry which does not copy the original entry upfront. The copy
+ * only contains references to the original attributes, and an attribute is cloned
+ * the first time it is handed out or modified in place. Attributes which are removed
+ * or replaced before being read, typically the ones stripped because they have not
+ * been requested, are never copied.
+ * <br>
+ * Iterating over the attributes, or getting the cloned entry, clones all the remaining
+ * attributes, as the caller may modify them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CopyOnWriteServerEntry extends ClonedServerEntry
+{
+    /** Tells if all the attributes have been cloned */
+    private boolean materialized;
+
+
+    /**
+     * Creates a new instance of CopyOnWriteServerEntry.
+     *
+     * @param originalEntry The original entry
+     */
+    public CopyOnWriteServerEntry( Entry originalEntry )
+    {
+        this.originalEntry = originalEntry;
+
+        if ( originalEntry instanceof DefaultEntry )
+        {
+            // Only copies the attributes map
+            this.clonedEntry = originalEntry.shallowClone();
+        }
+        else
+        {
+            this.clonedEntry = originalEntry.clone();
+            materialized = true;
+        }
+    }
+
+
+    /**
+     * Replaces an attribute shared with the original entry by a copy
+     */
+    private Attribute copy( Attribute attribute, Attribute original )
+    {
+        if ( ( attribute == null ) || ( attribute != original ) )
+        {
+            return attribute;
+        }
+
+        Attribute copy = attribute.clone();
+
+        try
+        {
+            clonedEntry.put( copy );
+        }
+        catch ( LdapException le )
+        {
+            // Can't happen, the attribute is already in the entry
+            throw new IllegalStateException( le.getMessage(), le );
+        }
+
+        return copy;
+    }
+
+
+    private Attribute copy( AttributeType attributeType )
+    {
+        if ( materialized )
+        {
+            return clonedEntry.get( attributeType );
+        }
+
+        return copy( clonedEntry.get( attributeType ), originalEntry.get( attributeType ) );
+    }
+
+
+    private Attribute copy( String upId )
+    {
+        if ( materialized )
+        {
+            return clonedEntry.get( upId );
+        }
+
+        return copy( clonedEntry.get( upId ), originalEntry.get( upId ) );
+    }
+
+
+    /**
+     * Clones all the attributes still shared with the original entry
+     */
+    private void materialize()
+    {
+        if ( materialized )
+        {
+            return;
+        }
+
+        Attribute[] attributes = clonedEntry.getAttributes().toArray( new Attribute[clonedEntry.size()] );
+
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                copy( attribute, originalEntry.get( attribute.getAttributeType() ) );
+            }
+            else
+            {
+                copy( attribute, originalEntry.get( attribute.getUpId() ) );
+            }
+        }
+
+        materialized = true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry getClonedEntry()
+    {
+        materialize();
+
+        return clonedEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Attribute get( AttributeType attributeType )
+    {
+        return copy( attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Attribute get( String alias )
+    {
+        return copy( alias );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<Attribute> getAttributes()
+    {
+        materialize();
+
+        return clonedEntry.getAttributes();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Attribute> iterator()
+    {
+        materialize();
+
+        return clonedEntry.iterator();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        copy( attributeType );
+
+        return clonedEntry.add( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( AttributeType attributeType, String... values ) throws LdapException
+    {
+        copy( attributeType );
+
+        return clonedEntry.add( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        copy( attributeType );
+
+        return clonedEntry.add( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( String upId, AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( String upId, AttributeType attributeType, String... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( String upId, AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        return add( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( Attribute... attributes ) throws LdapException
+    {
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.getAttributeType() != null )
+            {
+                copy( attribute.getAttributeType() );
+            }
+            else
+            {
+                copy( attribute.getUpId() );
+            }
+        }
+
+        return clonedEntry.add( attributes );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( String upId, String... values ) throws LdapException
+    {
+        copy( upId );
+
+        return clonedEntry.add( upId, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( String upId, byte[]... values ) throws LdapException
+    {
+        copy( upId );
+
+        return clonedEntry.add( upId, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry add( String upId, Value<?>... values ) throws LdapException
+    {
+        copy( upId );
+
+        return clonedEntry.add( upId, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove( AttributeType attributeType, byte[]... values ) throws LdapException
+    {
+        copy( attributeType );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove( AttributeType attributeType, String... values ) throws LdapException
+    {
+        copy( attributeType );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove( AttributeType attributeType, Value<?>... values ) throws LdapException
+    {
+        copy( attributeType );
+
+        return clonedEntry.remove( attributeType, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove( String upId, byte[]... values ) throws LdapException
+    {
+        copy( upId );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove( String upId, String... values ) throws LdapException
+    {
+        copy( upId );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean remove( String upId, Value<?>... values ) throws LdapException
+    {
+        copy( upId );
+
+        return clonedEntry.remove( upId, values );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry toClientEntry() throws LdapException
+    {
+        // The attributes are cloned anyway
+        Entry clientEntry = new DefaultEntry( clonedEntry.getDn() );
+
+        for ( Attribute attribute : clonedEntry )
+        {
+            clientEntry.add( attribute.clone() );
+        }
+
+        return clientEntry;
+    }
+}
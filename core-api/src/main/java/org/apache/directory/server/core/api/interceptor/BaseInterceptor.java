@@ -303,6 +303,23 @@ public abstract class BaseInterceptor implements Interceptor
      */
     protected Interceptor getNextInterceptor( OperationContext operationContext )
     {
+        InterceptorPipeline pipeline = operationContext.getInterceptorPipeline();
+
+        if ( pipeline != null )
+        {
+            // Fast path : walk the precompiled pipeline by index
+            int position = operationContext.getCurrentInterceptor();
+
+            if ( position == pipeline.size() )
+            {
+                return finalInterceptor;
+            }
+
+            operationContext.setCurrentInterceptor( position + 1 );
+
+            return pipeline.get( position );
+        }
+
         String currentInterceptor = operationContext.getNextInterceptor();
 
         if ( currentInterceptor.equals( "FINAL" ) )
@@ -0,0 +1,118 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.interceptor;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.server.core.api.OperationEnum;
+
+
+/**
+ * An immutable, precompiled list of the interceptors to call for a given operation.
+ * Only the interceptors implementing the operation are stored, in the order they
+ * have to be called. The OperationContext walks this pipeline by index, so we don't
+ * have to lookup the interceptor by its name at each step.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class InterceptorPipeline
+{
+    /** The operation this pipeline is associated with */
+    private final OperationEnum operation;
+
+    /** The interceptors to call, in order */
+    private final Interceptor[] interceptors;
+
+    /** The interceptor's names, in the same order */
+    private final List<String> names;
+
+
+    /**
+     * Creates a new instance of InterceptorPipeline.
+     *
+     * @param operation The associated operation
+     * @param interceptors The ordered list of interceptors implementing this operation
+     */
+    public InterceptorPipeline( OperationEnum operation, List<Interceptor> interceptors )
+    {
+        this.operation = operation;
+        this.interceptors = interceptors.toArray( new Interceptor[interceptors.size()] );
+
+        List<String> names = new ArrayList<String>( this.interceptors.length );
+
+        for ( Interceptor interceptor : this.interceptors )
+        {
+            names.add( interceptor.getName() );
+        }
+
+        this.names = Collections.unmodifiableList( names );
+    }
+
+
+    /**
+     * @return The associated operation
+     */
+    public OperationEnum getOperation()
+    {
+        return operation;
+    }
+
+
+    /**
+     * @return The number of interceptors in this pipeline
+     */
+    public int size()
+    {
+        return interceptors.length;
+    }
+
+
+    /**
+     * Gets the interceptor at a given position
+     *
+     * @param position The interceptor's position in the pipeline
+     * @return The interceptor
+     */
+    public Interceptor get( int position )
+    {
+        return interceptors[position];
+    }
+
+
+    /**
+     * @return The unmodifiable list of the interceptor's names, in the pipeline order
+     */
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return operation + " : " + names;
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 
 
 /**
@@ -64,6 +65,9 @@ public abstract class AbstractOperationContext implements OperationContext
     /** The interceptors to call for this operation */
     protected List<String> interceptors;
 
+    /** The precompiled interceptors pipeline, if any */
+    protected InterceptorPipeline pipeline;
+
     /** The current interceptor position */
     protected int currentInterceptor;
 
@@ -295,6 +299,34 @@ public abstract class AbstractOperationContext implements OperationContext
     public final void setInterceptors( List<String> interceptors )
     {
         this.interceptors = interceptors;
+        pipeline = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void setInterceptorPipeline( InterceptorPipeline pipeline )
+    {
+        this.pipeline = pipeline;
+
+        if ( pipeline != null )
+        {
+            interceptors = pipeline.getNames();
+        }
+        else
+        {
+            interceptors = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final InterceptorPipeline getInterceptorPipeline()
+    {
+        return pipeline;
     }
 
 
@@ -73,7 +73,7 @@ public class BindOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.BIND ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.BIND ) );
         }
     }
 
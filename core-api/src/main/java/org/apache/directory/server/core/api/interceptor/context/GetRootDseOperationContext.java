@@ -42,7 +42,8 @@ public class GetRootDseOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.GET_ROOT_DSE ) );
+            setInterceptorPipeline( session.getDirectoryService()
+                .getInterceptorPipeline( OperationEnum.GET_ROOT_DSE ) );
         }
     }
 
@@ -58,7 +59,8 @@ public class GetRootDseOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.GET_ROOT_DSE ) );
+            setInterceptorPipeline( session.getDirectoryService()
+                .getInterceptorPipeline( OperationEnum.GET_ROOT_DSE ) );
         }
     }
 
@@ -47,7 +47,7 @@ public class LookupOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -63,7 +63,7 @@ public class LookupOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -79,7 +79,7 @@ public class LookupOperationContext extends FilteringOperationContext
         
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -95,7 +95,7 @@ public class LookupOperationContext extends FilteringOperationContext
         
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.LOOKUP ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.LOOKUP ) );
         }
     }
 
@@ -51,7 +51,8 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorPipeline( session.getDirectoryService()
+                .getInterceptorPipeline( OperationEnum.MOVE_AND_RENAME ) );
         }
     }
 
@@ -71,7 +72,8 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorPipeline( session.getDirectoryService()
+                .getInterceptorPipeline( OperationEnum.MOVE_AND_RENAME ) );
         }
 
         try
@@ -93,7 +95,8 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorPipeline( session.getDirectoryService()
+                .getInterceptorPipeline( OperationEnum.MOVE_AND_RENAME ) );
         }
 
         if ( newSuperiorDn == null )
@@ -28,6 +28,7 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 
 
 /**
@@ -230,6 +231,22 @@ public interface OperationContext
     void setInterceptors( List<String> interceptors );
 
 
+    /**
+     * Sets the precompiled pipeline of interceptors to go through for an operation.
+     * The list of interceptor's names is set accordingly.
+     * 
+     * @param pipeline The interceptors pipeline
+     */
+    void setInterceptorPipeline( InterceptorPipeline pipeline );
+
+
+    /**
+     * @return The precompiled pipeline of interceptors, or null if only the list
+     * of interceptor's names has been set
+     */
+    InterceptorPipeline getInterceptorPipeline();
+
+
     /**
      * Gets the session associated with this operation.
      *
@@ -76,7 +76,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -91,7 +91,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
 
         this.filter = searchRequest.getFilter();
@@ -127,7 +127,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -151,7 +151,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
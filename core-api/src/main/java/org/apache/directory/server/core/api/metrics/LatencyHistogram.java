@@ -0,0 +1,288 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock-free histogram of latencies, expressed in nanoseconds. Values are stored
+ * in log-linear buckets : each power of two is split in 16 sub-buckets, so the
+ * percentiles are computed with a relative error lower than 6.25%, whatever the
+ * magnitude of the values. Recording a value does not allocate anything.
+ * <br>
+ * Values of 2^41 ns (around 36 minutes) and above are stored in an overflow bucket.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+    /** The number of bits used to select a sub-bucket */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** The number of sub-buckets per power of two */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The highest power of two we store */
+    private static final int MAX_EXPONENT = 40;
+
+    /** The total number of buckets : the values up to 2^(MAX_EXPONENT+1) - 1, plus one overflow bucket */
+    private static final int BUCKET_COUNT = ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKET_COUNT + 1;
+
+    /** The histogram name */
+    private final String name;
+
+    /** The number of values per bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+
+    /** The number of recorded values */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of the recorded values */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** The highest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of LatencyHistogram.
+     *
+     * @param name The histogram name
+     */
+    public LatencyHistogram( String name )
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * @return The histogram name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Records a latency
+     *
+     * @param nanos The latency, in nanoseconds
+     */
+    public void record( long nanos )
+    {
+        if ( nanos < 0 )
+        {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet( getBucketIndex( nanos ) );
+        count.incrementAndGet();
+        sum.addAndGet( nanos );
+
+        long currentMax = max.get();
+
+        while ( ( nanos > currentMax ) && !max.compareAndSet( currentMax, nanos ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * Records the time elapsed since a given start time
+     *
+     * @param startNanos The start time, as returned by System.nanoTime()
+     */
+    public void recordSince( long startNanos )
+    {
+        record( System.nanoTime() - startNanos );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMean()
+    {
+        long nb = count.get();
+
+        if ( nb == 0 )
+        {
+            return 0L;
+        }
+
+        return sum.get() / nb;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPercentile50()
+    {
+        return getValueAtPercentile( 50d );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPercentile90()
+    {
+        return getValueAtPercentile( 90d );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPercentile99()
+    {
+        return getValueAtPercentile( 99d );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPercentile999()
+    {
+        return getValueAtPercentile( 99.9d );
+    }
+
+
+    /**
+     * Gets the value under which a given percentage of the recorded values are.
+     * As the histogram is updated concurrently, the result is an approximation.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The highest value of the bucket containing the percentile, in nanoseconds
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long total = 0L;
+        long[] snapshot = new long[BUCKET_COUNT];
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            snapshot[i] = buckets.get( i );
+            total += snapshot[i];
+        }
+
+        if ( total == 0 )
+        {
+            return 0L;
+        }
+
+        long target = Math.max( 1L, ( long ) Math.ceil( total * Math.min( percentile, 100d ) / 100d ) );
+        long seen = 0L;
+
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += snapshot[i];
+
+            if ( seen >= target )
+            {
+                return Math.min( getBucketUpperBound( i ), max.get() );
+            }
+        }
+
+        return max.get();
+    }
+
+
+    /**
+     * Computes the bucket a value belongs to. Values below 16 have their own
+     * bucket, then each power of two is split in 16 sub-buckets.
+     */
+    static int getBucketIndex( long value )
+    {
+        if ( value < SUB_BUCKET_COUNT )
+        {
+            return ( int ) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+
+        if ( exponent > MAX_EXPONENT )
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = ( int ) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKET_COUNT - 1 );
+
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+
+    /**
+     * Computes the highest value stored in a bucket
+     */
+    static long getBucketUpperBound( int index )
+    {
+        if ( index < SUB_BUCKET_COUNT )
+        {
+            return index;
+        }
+
+        if ( index == BUCKET_COUNT - 1 )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        long width = 1L << ( exponent - SUB_BUCKET_BITS );
+
+        return ( ( SUB_BUCKET_COUNT + subBucket ) << ( exponent - SUB_BUCKET_BITS ) ) + width - 1;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return name + " : count=" + getCount() + ", mean=" + getMean() + "ns, p50=" + getPercentile50()
+            + "ns, p99=" + getPercentile99() + "ns, max=" + getMax() + "ns";
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+/**
+ * The JMX view of a {@link LatencyHistogram}. All the values are in nanoseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface LatencyHistogramMBean
+{
+    /**
+     * @return The number of recorded values
+     */
+    long getCount();
+
+
+    /**
+     * @return The mean of the recorded values
+     */
+    long getMean();
+
+
+    /**
+     * @return The highest recorded value
+     */
+    long getMax();
+
+
+    /**
+     * @return The median
+     */
+    long getPercentile50();
+
+
+    /**
+     * @return The 90th percentile
+     */
+    long getPercentile90();
+
+
+    /**
+     * @return The 99th percentile
+     */
+    long getPercentile99();
+
+
+    /**
+     * @return The 99.9th percentile
+     */
+    long getPercentile999();
+}
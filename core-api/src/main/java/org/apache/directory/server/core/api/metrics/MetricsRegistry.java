@@ -0,0 +1,243 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.directory.server.core.api.OperationEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The registry holding all the metrics of a DirectoryService : latency histograms
+ * per operation, per partition and per interceptor, and counters. Metrics are
+ * created on first use and live as long as the registry.
+ * <br>
+ * The metrics can be published as JMX MBeans, under the
+ * <em>org.apache.directory.server:type=Metrics,instance=&lt;instance&gt;,name=&lt;metric&gt;</em>
+ * ObjectName.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistry
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( MetricsRegistry.class );
+
+    /** The JMX domain */
+    public static final String JMX_DOMAIN = "org.apache.directory.server";
+
+    /** The histograms, by name */
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** The counters, by name */
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    /** The instance name used in the JMX ObjectNames, null if the MBeans aren't registered */
+    private volatile String jmxInstance;
+
+    /** The registered MBeans */
+    private final List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+
+
+    /**
+     * Gets the name of the latency histogram of an operation, without its prefix. A
+     * search only builds a cursor, the entries being read when the client iterates on
+     * it : the search histogram measures the creation of this cursor, and its name
+     * says so.
+     *
+     * @param operation The operation
+     * @return The histogram name suffix, like <em>add</em> or <em>search.cursor</em>
+     */
+    public static String getOperationMetricName( OperationEnum operation )
+    {
+        if ( operation == OperationEnum.SEARCH )
+        {
+            return operation.getMethodName() + ".cursor";
+        }
+
+        return operation.getMethodName();
+    }
+
+
+    /**
+     * Gets a histogram, creating it if needed
+     *
+     * @param name The histogram name
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram( String name )
+    {
+        LatencyHistogram histogram = histograms.get( name );
+
+        if ( histogram == null )
+        {
+            histogram = new LatencyHistogram( name );
+            LatencyHistogram existing = histograms.putIfAbsent( name, histogram );
+
+            if ( existing != null )
+            {
+                return existing;
+            }
+
+            register( name, histogram );
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Gets a counter, creating it if needed
+     *
+     * @param name The counter name
+     * @return The counter
+     */
+    public Counter getCounter( String name )
+    {
+        Counter counter = counters.get( name );
+
+        if ( counter == null )
+        {
+            counter = new Counter( name );
+            Counter existing = counters.putIfAbsent( name, counter );
+
+            if ( existing != null )
+            {
+                return existing;
+            }
+
+            register( name, counter );
+        }
+
+        return counter;
+    }
+
+
+    /**
+     * @return A snapshot of the histograms, sorted by name
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms()
+    {
+        return new TreeMap<String, LatencyHistogram>( histograms );
+    }
+
+
+    /**
+     * @return A snapshot of the counters, sorted by name
+     */
+    public SortedMap<String, Counter> getCounters()
+    {
+        return new TreeMap<String, Counter>( counters );
+    }
+
+
+    /**
+     * Publishes all the metrics, existing and future ones, in the platform MBeanServer
+     *
+     * @param instance The DirectoryService instance ID
+     */
+    public synchronized void registerMBeans( String instance )
+    {
+        jmxInstance = instance;
+
+        for ( Map.Entry<String, LatencyHistogram> entry : histograms.entrySet() )
+        {
+            register( entry.getKey(), entry.getValue() );
+        }
+
+        for ( Map.Entry<String, Counter> entry : counters.entrySet() )
+        {
+            register( entry.getKey(), entry.getValue() );
+        }
+    }
+
+
+    /**
+     * Removes all the metrics from the platform MBeanServer
+     */
+    public synchronized void unregisterMBeans()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for ( ObjectName name : registeredNames )
+        {
+            try
+            {
+                if ( server.isRegistered( name ) )
+                {
+                    server.unregisterMBean( name );
+                }
+            }
+            catch ( JMException jme )
+            {
+                LOG.warn( "Cannot unregister the {} MBean : {}", name, jme.getMessage() );
+            }
+        }
+
+        registeredNames.clear();
+        jmxInstance = null;
+    }
+
+
+    /**
+     * Registers a metric in the platform MBeanServer, if the MBeans are published
+     */
+    private synchronized void register( String name, Object metric )
+    {
+        String instance = jmxInstance;
+
+        if ( instance == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ObjectName objectName = new ObjectName( JMX_DOMAIN + ":type=Metrics,instance="
+                + ObjectName.quote( instance ) + ",name=" + ObjectName.quote( name ) );
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            if ( !server.isRegistered( objectName ) )
+            {
+                server.registerMBean( metric, objectName );
+                registeredNames.add( objectName );
+            }
+        }
+        catch ( JMException jme )
+        {
+            // Not fatal, the metric is still available through the registry
+            LOG.warn( "Cannot register the {} metric MBean : {}", name, jme.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.Subordinates;
+
+
+/**
+ * A read-only partition exposing the content of a {@link MetricsRegistry} to LDAP
+ * clients. The context entry (<em>ou=monitor</em> by default) has one child per
+ * metric, named after it :
+ * <pre>
+ * dn: cn=operation.add,ou=monitor
+ * objectClass: top
+ * objectClass: extensibleObject
+ * cn: operation.add
+ * description: count=1234
+ * description: mean=5678
+ * description: p99=23000
+ * ...
+ * </pre>
+ * The entries are built from the registry each time they are read, they are
+ * never stored. Latencies are expressed in nanoseconds. Any attempt to update
+ * the partition is rejected.
+ * <br>
+ * The partition reads the registry given to {@link #setMetrics(MetricsRegistry)},
+ * which is done by the nexus when the partition is added to the DirectoryService.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** The default partition ID */
+    public static final String DEFAULT_ID = "monitor";
+
+    /** The default partition suffix */
+    public static final String DEFAULT_SUFFIX = "ou=monitor";
+
+    /** The filter evaluator */
+    private ExpressionEvaluator evaluator;
+
+
+    /**
+     * Creates a new instance of MonitorPartition, with the default ID and suffix.
+     *
+     * @param schemaManager The SchemaManager
+     * @throws LdapException If the default suffix can't be parsed
+     */
+    public MonitorPartition( SchemaManager schemaManager ) throws LdapException
+    {
+        this.schemaManager = schemaManager;
+        setId( DEFAULT_ID );
+        setSuffixDn( new Dn( schemaManager, DEFAULT_SUFFIX ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doInit() throws Exception
+    {
+        if ( !suffixDn.isSchemaAware() )
+        {
+            suffixDn.apply( schemaManager );
+        }
+
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doDestroy()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void doRepair()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry getContextEntry()
+    {
+        try
+        {
+            return createContextEntry();
+        }
+        catch ( LdapException le )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        Dn base = searchContext.getDn();
+        SearchScope scope = searchContext.getScope();
+        ExprNode filter = searchContext.getFilter();
+
+        if ( !base.equals( suffixDn ) && ( findEntry( base ) == null ) )
+        {
+            throw new LdapNoSuchObjectException( base.getName() );
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+
+        for ( Entry entry : getEntries() )
+        {
+            Dn dn = entry.getDn();
+            boolean inScope;
+
+            switch ( scope )
+            {
+                case OBJECT:
+                    inScope = dn.equals( base );
+                    break;
+
+                case ONELEVEL:
+                    inScope = dn.getParent().equals( base );
+                    break;
+
+                default:
+                    inScope = dn.equals( base ) || dn.isDescendantOf( base );
+                    break;
+            }
+
+            if ( inScope && evaluator.evaluate( filter, dn, entry ) )
+            {
+                entries.add( new ClonedServerEntry( entry ) );
+            }
+        }
+
+        return new EntryFilteringCursorImpl( new ListCursor<Entry>( entries ), searchContext, schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        Entry entry = findEntry( lookupContext.getDn() );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        return new ClonedServerEntry( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return findEntry( hasEntryContext.getDn() ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Subordinates getSubordinates( Entry entry ) throws LdapException
+    {
+        Subordinates subordinates = new Subordinates();
+
+        if ( entry.getDn().equals( suffixDn ) && ( metrics != null ) )
+        {
+            long nbMetrics = metrics.getHistograms().size() + metrics.getCounters().size();
+            subordinates.setNbChildren( nbMetrics );
+            subordinates.setNbSubordinates( nbMetrics );
+        }
+
+        return subordinates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unbind( UnbindOperationContext unbindContext )
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void saveContextCsn()
+    {
+        // Nothing to save, the partition is read-only
+    }
+
+
+    private LdapUnwillingToPerformException readOnly()
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, "The " + id
+            + " partition is read-only" );
+    }
+
+
+    /**
+     * Builds the entry for a given Dn, or returns null if there is no such metric
+     */
+    private Entry findEntry( Dn dn ) throws LdapException
+    {
+        if ( dn.equals( suffixDn ) )
+        {
+            return createContextEntry();
+        }
+
+        if ( ( metrics == null ) || !dn.getParent().equals( suffixDn ) )
+        {
+            return null;
+        }
+
+        String name = dn.getRdn().getNormValue();
+
+        for ( Entry entry : getEntries() )
+        {
+            if ( entry.getDn().getRdn().getNormValue().equals( name ) )
+            {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Builds all the entries of the partition, the context entry first
+     */
+    private List<Entry> getEntries() throws LdapException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        entries.add( createContextEntry() );
+
+        if ( metrics == null )
+        {
+            return entries;
+        }
+
+        for ( Map.Entry<String, LatencyHistogram> histogram : metrics.getHistograms().entrySet() )
+        {
+            LatencyHistogram value = histogram.getValue();
+
+            entries.add( createMetricEntry( histogram.getKey(),
+                "count=" + value.getCount(),
+                "mean=" + value.getMean(),
+                "max=" + value.getMax(),
+                "p50=" + value.getPercentile50(),
+                "p90=" + value.getPercentile90(),
+                "p99=" + value.getPercentile99(),
+                "p999=" + value.getPercentile999() ) );
+        }
+
+        for ( Map.Entry<String, Counter> counter : metrics.getCounters().entrySet() )
+        {
+            entries.add( createMetricEntry( counter.getKey(), "value=" + counter.getValue().getValue() ) );
+        }
+
+        return entries;
+    }
+
+
+    private Entry createContextEntry() throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, suffixDn );
+        entry.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, SchemaConstants.ORGANIZATIONAL_UNIT_OC );
+        entry.add( suffixDn.getRdn().getType(), suffixDn.getRdn().getValue() );
+
+        return entry;
+    }
+
+
+    private Entry createMetricEntry( String name, String... descriptions ) throws LdapException
+    {
+        Dn dn = suffixDn.add( new Rdn( schemaManager, SchemaConstants.CN_AT, name ) );
+        Entry entry = new DefaultEntry( schemaManager, dn );
+        entry.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, SchemaConstants.EXTENSIBLE_OBJECT_OC );
+        entry.add( SchemaConstants.CN_AT, name );
+        entry.add( SchemaConstants.DESCRIPTION_AT, descriptions );
+
+        return entry;
+    }
+}
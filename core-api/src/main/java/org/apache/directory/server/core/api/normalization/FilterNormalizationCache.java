@@ -0,0 +1,484 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.normalization;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.entry.BinaryValue;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
+import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
+import org.apache.directory.api.ldap.model.schema.registries.Registries;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.metrics.Counter;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache of the schema resolution done when normalizing a search filter. Clients
+ * tend to send the same filter shapes again and again, with different values, like
+ * (&amp;(objectClass=person)(uid=xxx)). The filter template, ie the filter without its
+ * values, is used as a key, and the cache stores the AttributeType of each of the
+ * template's leaves, or null when the attribute is not defined in the schema.
+ * <br>
+ * When a filter template is found in the cache, its leaves get their AttributeType
+ * directly, and only the values are normalized, using the AttributeType's equality
+ * Normalizer. The result is the same as the one produced by a {@link FilterNormalizingVisitor}
+ * using a ConcreteNameComponentNormalizer.
+ * <br>
+ * The cache is cleared when the schema changes : the {@link SchemaPartition} version,
+ * which is incremented each time a schema element is added, modified, moved or removed,
+ * and the Registries instance, which is replaced when a schema is loaded, are checked
+ * on each call.
+ * <br>
+ * The templates are stored in a ConcurrentHashMap, so that the lookups don't serialize
+ * the searches. When the maximum number of templates is reached, the cache is cleared
+ * and refilled : the hot filter shapes are cached again on their next use, while the
+ * one-off shapes which filled the cache are dropped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FilterNormalizationCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( FilterNormalizationCache.class );
+
+    /** The default number of templates we keep */
+    public static final int DEFAULT_SIZE = 1000;
+
+    /** The schemaManager */
+    private final SchemaManager schemaManager;
+
+    /** The partition the schema modifications are applied through, or null */
+    private final SchemaPartition schemaPartition;
+
+    /** The visitor used when the template is not in the cache */
+    private final FilterNormalizingVisitor normVisitor;
+
+    /** The visitor used when the leaves' AttributeType have been set from the cache */
+    private final FilterNormalizingVisitor boundVisitor;
+
+    /** The maximum number of templates */
+    private final int size;
+
+    /** The cached AttributeTypes, per template */
+    private final ConcurrentMap<String, AttributeType[]> templates = new ConcurrentHashMap<String, AttributeType[]>();
+
+    /** The Registries the cached AttributeTypes come from */
+    private volatile Registries registries;
+
+    /** The SchemaPartition version when the cache was filled */
+    private volatile long schemaVersion;
+
+    /** The number of filters found in the cache */
+    private final Counter hits;
+
+    /** The number of filters not found in the cache */
+    private final Counter misses;
+
+
+    /**
+     * Creates a new instance of FilterNormalizationCache, which only detects the schema
+     * changes replacing the Registries.
+     *
+     * @param ncn The name component normalizer used for the templates not in the cache
+     * @param schemaManager The schemaManager
+     * @param size The maximum number of templates to keep
+     * @param metrics The registry the hits and misses counters are published in, or null
+     */
+    public FilterNormalizationCache( NameComponentNormalizer ncn, SchemaManager schemaManager, int size,
+        MetricsRegistry metrics )
+    {
+        this( ncn, schemaManager, null, size, metrics );
+    }
+
+
+    /**
+     * Creates a new instance of FilterNormalizationCache.
+     *
+     * @param ncn The name component normalizer used for the templates not in the cache
+     * @param schemaManager The schemaManager
+     * @param schemaPartition The partition the schema modifications are applied through, or null
+     * @param size The maximum number of templates to keep
+     * @param metrics The registry the hits and misses counters are published in, or null
+     */
+    public FilterNormalizationCache( NameComponentNormalizer ncn, SchemaManager schemaManager,
+        SchemaPartition schemaPartition, int size, MetricsRegistry metrics )
+    {
+        this.schemaManager = schemaManager;
+        this.schemaPartition = schemaPartition;
+        this.size = size;
+        normVisitor = new FilterNormalizingVisitor( ncn, schemaManager );
+        boundVisitor = new BoundFilterNormalizingVisitor( ncn, schemaManager );
+
+        if ( metrics == null )
+        {
+            hits = new Counter( "normalization.filterCache.hits" );
+            misses = new Counter( "normalization.filterCache.misses" );
+        }
+        else
+        {
+            hits = metrics.getCounter( "normalization.filterCache.hits" );
+            misses = metrics.getCounter( "normalization.filterCache.misses" );
+        }
+    }
+
+
+    /**
+     * Normalizes a filter. As with the {@link FilterNormalizingVisitor}, the filter
+     * may be modified, and the leaves which attribute is undefined are removed.
+     *
+     * @param filter The filter to normalize
+     * @return The normalized filter, or null if nothing is left
+     */
+    public ExprNode normalize( ExprNode filter )
+    {
+        if ( size <= 0 )
+        {
+            return ( ExprNode ) filter.accept( normVisitor );
+        }
+
+        List<LeafNode> leaves = new ArrayList<LeafNode>();
+        StringBuilder sb = new StringBuilder();
+        buildTemplate( filter, sb, leaves );
+        String template = sb.toString();
+
+        AttributeType[] attributeTypes = get( template );
+
+        if ( attributeTypes == null )
+        {
+            misses.increment();
+            ExprNode result = ( ExprNode ) filter.accept( normVisitor );
+
+            // All the leaves have been visited, and have their AttributeType now
+            attributeTypes = new AttributeType[leaves.size()];
+
+            for ( int i = 0; i < attributeTypes.length; i++ )
+            {
+                attributeTypes[i] = leaves.get( i ).getAttributeType();
+            }
+
+            put( template, attributeTypes );
+
+            return result;
+        }
+
+        hits.increment();
+
+        for ( int i = 0; i < attributeTypes.length; i++ )
+        {
+            LeafNode leaf = leaves.get( i );
+
+            if ( leaf.getAttributeType() == null )
+            {
+                leaf.setAttributeType( attributeTypes[i] );
+            }
+        }
+
+        return ( ExprNode ) filter.accept( boundVisitor );
+    }
+
+
+    /**
+     * Computes the filter template : the node types and attributes, without the values.
+     * The leaves are stored in the order the visitor will visit them.
+     */
+    private void buildTemplate( ExprNode node, StringBuilder sb, List<LeafNode> leaves )
+    {
+        if ( node == null )
+        {
+            // A filter element the parser couldn't build
+            sb.append( "()" );
+
+            return;
+        }
+
+        if ( node instanceof BranchNode )
+        {
+            if ( node instanceof NotNode )
+            {
+                sb.append( "(!" );
+            }
+            else if ( node instanceof OrNode )
+            {
+                sb.append( "(|" );
+            }
+            else
+            {
+                sb.append( "(&" );
+            }
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                buildTemplate( child, sb, leaves );
+            }
+
+            sb.append( ')' );
+
+            return;
+        }
+
+        sb.append( '(' );
+
+        if ( node instanceof LeafNode )
+        {
+            LeafNode leaf = ( LeafNode ) node;
+            leaves.add( leaf );
+
+            if ( leaf.getAttributeType() != null )
+            {
+                sb.append( leaf.getAttributeType().getOid() );
+            }
+            else if ( leaf.getAttribute() != null )
+            {
+                sb.append( Strings.toLowerCase( leaf.getAttribute() ) );
+            }
+        }
+
+        if ( node instanceof EqualityNode )
+        {
+            sb.append( "=?" );
+        }
+        else if ( node instanceof ApproximateNode )
+        {
+            sb.append( "~=?" );
+        }
+        else if ( node instanceof GreaterEqNode )
+        {
+            sb.append( ">=?" );
+        }
+        else if ( node instanceof LessEqNode )
+        {
+            sb.append( "<=?" );
+        }
+        else if ( node instanceof PresenceNode )
+        {
+            sb.append( "=*" );
+        }
+        else if ( node instanceof SubstringNode )
+        {
+            sb.append( "=?*?" );
+        }
+        else if ( node instanceof ExtensibleNode )
+        {
+            sb.append( ":=?" );
+        }
+        else
+        {
+            sb.append( node.getClass().getSimpleName() );
+        }
+
+        sb.append( ')' );
+    }
+
+
+    /**
+     * Gets the AttributeTypes of a template, checking first that the schema hasn't changed
+     */
+    private AttributeType[] get( String template )
+    {
+        if ( !isSchemaUnchanged() )
+        {
+            resetSchema();
+
+            return null;
+        }
+
+        return templates.get( template );
+    }
+
+
+    /**
+     * Stores the AttributeTypes of a template, unless the schema has changed meanwhile.
+     * The cache is cleared first if it's full.
+     */
+    private void put( String template, AttributeType[] attributeTypes )
+    {
+        if ( !isSchemaUnchanged() )
+        {
+            return;
+        }
+
+        if ( templates.size() >= size )
+        {
+            LOG.debug( "The filter cache is full, clearing it" );
+            templates.clear();
+        }
+
+        templates.put( template, attributeTypes );
+    }
+
+
+    /**
+     * @return The current schema version, 0 if the schema modifications aren't tracked
+     */
+    private long getSchemaVersion()
+    {
+        if ( schemaPartition == null )
+        {
+            return 0L;
+        }
+
+        return schemaPartition.getSchemaVersion();
+    }
+
+
+    /**
+     * Tells if the schema is still the one the cached AttributeTypes come from
+     */
+    private boolean isSchemaUnchanged()
+    {
+        return ( getSchemaVersion() == schemaVersion ) && ( schemaManager.getRegistries() == registries );
+    }
+
+
+    /**
+     * Clears the cache after a schema change, and records the new schema
+     */
+    private synchronized void resetSchema()
+    {
+        if ( !isSchemaUnchanged() )
+        {
+            LOG.debug( "The schema has changed, clearing the filter cache" );
+            templates.clear();
+            schemaVersion = getSchemaVersion();
+            registries = schemaManager.getRegistries();
+        }
+    }
+
+
+    /**
+     * Removes all the templates from the cache.
+     */
+    public void clear()
+    {
+        templates.clear();
+    }
+
+
+    /**
+     * @return The number of filters which template was found in the cache
+     */
+    public long getHits()
+    {
+        return hits.getValue();
+    }
+
+
+    /**
+     * @return The number of filters which template was not found in the cache
+     */
+    public long getMisses()
+    {
+        return misses.getValue();
+    }
+
+
+    /**
+     * @return The number of templates in the cache
+     */
+    public int getSize()
+    {
+        return templates.size();
+    }
+
+
+    /**
+     * A FilterNormalizingVisitor which uses the AttributeType already set in the leaves,
+     * and normalizes the values using the AttributeType's equality Normalizer.
+     */
+    private static class BoundFilterNormalizingVisitor extends FilterNormalizingVisitor
+    {
+        BoundFilterNormalizingVisitor( NameComponentNormalizer ncn, SchemaManager schemaManager )
+        {
+            super( ncn, schemaManager );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        protected AttributeType lookupAttributeType( LeafNode node )
+        {
+            return node.getAttributeType();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        protected Value<?> normalizeValue( AttributeType attributeType, Value<?> value )
+        {
+            try
+            {
+                MatchingRule equality = attributeType.getEquality();
+                Normalizer normalizer;
+
+                if ( equality == null )
+                {
+                    normalizer = new NoOpNormalizer( attributeType.getOid() );
+                }
+                else
+                {
+                    normalizer = equality.getNormalizer();
+                }
+
+                if ( attributeType.getSyntax().isHumanReadable() )
+                {
+                    return new StringValue( normalizer.normalize( value.getString() ) );
+                }
+                else
+                {
+                    return normalizer.normalize( new BinaryValue( value.getBytes() ) );
+                }
+            }
+            catch ( LdapException ne )
+            {
+                LOG.warn( "Failed to normalize filter value: {}", ne.getLocalizedMessage(), ne );
+                return null;
+            }
+        }
+    }
+}
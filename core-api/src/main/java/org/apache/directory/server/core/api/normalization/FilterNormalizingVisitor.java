@@ -227,7 +227,25 @@ public class FilterNormalizingVisitor implements FilterVisitor
 
 
     /**
-     * A private method used to normalize a value. At this point, the value
+     * Gets the AttributeType of a leaf node's attribute.
+     *
+     * @param node The leaf node
+     * @return The AttributeType, or null if the attribute is not defined in the schema
+     * @throws LdapException If the AttributeType can't be looked up
+     */
+    protected AttributeType lookupAttributeType( LeafNode node ) throws LdapException
+    {
+        if ( !ncn.isDefined( node.getAttribute() ) )
+        {
+            return null;
+        }
+
+        return schemaManager.lookupAttributeTypeRegistry( node.getAttribute() );
+    }
+
+
+    /**
+     * A method used to normalize a value. At this point, the value
      * is a Value<byte[]>, we have to translate it to a Value<String> if its
      * AttributeType is H-R. Then we have to normalize the value accordingly
      * to the AttributeType Normalizer.
@@ -236,7 +254,7 @@ public class FilterNormalizingVisitor implements FilterVisitor
      * @param value The value to normalize
      * @return the normalized value
      */
-    private Value<?> normalizeValue( AttributeType attributeType, Value<?> value )
+    protected Value<?> normalizeValue( AttributeType attributeType, Value<?> value )
     {
         try
         {
@@ -273,12 +291,14 @@ public class FilterNormalizingVisitor implements FilterVisitor
     {
         // still need this check here in case the top level is a leaf node
         // with an undefined attributeType for its attribute
-        if ( !ncn.isDefined( node.getAttribute() ) )
+        AttributeType attributeType = lookupAttributeType( node );
+
+        if ( attributeType == null )
         {
             return null;
         }
 
-        node.setAttributeType( schemaManager.lookupAttributeTypeRegistry( node.getAttribute() ) );
+        node.setAttributeType( attributeType );
 
         return node;
     }
@@ -301,12 +321,14 @@ public class FilterNormalizingVisitor implements FilterVisitor
         {
             // still need this check here in case the top level is a leaf node
             // with an undefined attributeType for its attribute
-            if ( !ncn.isDefined( node.getAttribute() ) )
+            AttributeType attributeType = lookupAttributeType( node );
+
+            if ( attributeType == null )
             {
                 return null;
             }
 
-            node.setAttributeType( schemaManager.lookupAttributeTypeRegistry( node.getAttribute() ) );
+            node.setAttributeType( attributeType );
         }
 
         Value<?> normalized = normalizeValue( node.getAttributeType(), node.getValue() );
@@ -335,12 +357,14 @@ public class FilterNormalizingVisitor implements FilterVisitor
     {
         // still need this check here in case the top level is a leaf node
         // with an undefined attributeType for its attribute
-        if ( !ncn.isDefined( node.getAttribute() ) )
+        AttributeType attributeType = lookupAttributeType( node );
+
+        if ( attributeType == null )
         {
             return null;
         }
 
-        node.setAttributeType( schemaManager.lookupAttributeTypeRegistry( node.getAttribute() ) );
+        node.setAttributeType( attributeType );
 
         Value<?> normInitial = null;
 
@@ -425,12 +449,14 @@ public class FilterNormalizingVisitor implements FilterVisitor
     {
         // still need this check here in case the top level is a leaf node
         // with an undefined attributeType for its attribute
-        if ( !ncn.isDefined( node.getAttribute() ) )
+        AttributeType attributeType = lookupAttributeType( node );
+
+        if ( attributeType == null )
         {
             return null;
         }
 
-        node.setAttributeType( schemaManager.lookupAttributeTypeRegistry( node.getAttribute() ) );
+        node.setAttributeType( attributeType );
 
         return node;
     }
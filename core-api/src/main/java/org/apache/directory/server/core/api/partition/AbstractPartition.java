@@ -34,6 +34,9 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.i18n.I18n;
 
 
@@ -67,6 +70,12 @@ public abstract class AbstractPartition implements Partition
     /** the cache service */
     protected CacheService cacheService;
 
+    /** the metrics registry, may be null */
+    protected MetricsRegistry metrics;
+
+    /** The operations latencies, indexed by OperationEnum ordinal, null if there is no registry */
+    private volatile LatencyHistogram[] operationLatencies;
+
     /** the value of last successful add/update operation's CSN */
     private String contextCsn;
     
@@ -276,6 +285,62 @@ public abstract class AbstractPartition implements Partition
         this.cacheService = cacheService;
     }
 
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetrics( MetricsRegistry metrics )
+    {
+        this.metrics = metrics;
+
+        if ( metrics == null )
+        {
+            operationLatencies = null;
+
+            return;
+        }
+
+        OperationEnum[] operations = OperationEnum.values();
+        LatencyHistogram[] latencies = new LatencyHistogram[operations.length];
+
+        for ( OperationEnum operation : operations )
+        {
+            latencies[operation.ordinal()] = metrics.getHistogram( "partition." + id + "."
+                + MetricsRegistry.getOperationMetricName( operation ) );
+        }
+
+        operationLatencies = latencies;
+    }
+
+
+    /**
+     * Records the latency of an operation executed on this partition. Nothing is
+     * recorded if the partition has no metrics registry. For a search, this is the
+     * time needed to create the cursor, see {@link MetricsRegistry#getOperationMetricName(OperationEnum)}.
+     *
+     * @param operation The operation
+     * @param start The time the operation started at, as returned by System.nanoTime()
+     */
+    public void recordLatency( OperationEnum operation, long start )
+    {
+        LatencyHistogram[] latencies = operationLatencies;
+
+        if ( latencies != null )
+        {
+            latencies[operation.ordinal()].recordSince( start );
+        }
+    }
+
+
+    /**
+     * @return The metrics registry, or null if the partition does not record any metric
+     */
+    public MetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
+
     
     /**
      * {@inheritDoc}
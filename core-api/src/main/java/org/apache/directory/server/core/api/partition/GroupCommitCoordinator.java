@@ -0,0 +1,420 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+
+
+/**
+ * Groups the syncs a partition does after each write. Instead of syncing its files,
+ * a writer registers its change and waits until a sync covering it has completed. The
+ * first waiting writer becomes the leader : it syncs the partition once, for all the
+ * changes registered so far, while the other writers wait for it.
+ * <br>
+ * As the writes are done holding the OperationManager write lock, a writer holding
+ * this lock can't wait (the other writers could not add their changes to the batch).
+ * The wait is then deferred until the lock is released : the OperationManager calls
+ * {@link #awaitPending()} once the operation is done, so the caller is only acknowledged
+ * when its changes are on disk.
+ * <br>
+ * The leader syncs the partition holding the OperationManager write lock, so that no
+ * add, delete, modify, move or rename runs while the files are committed : a half done
+ * change is never written to disk. It does not take the partition monitor then : the
+ * synchronized partition methods take the read lock while holding the monitor, so taking
+ * the monitor after the write lock would invert this order. The monitor is not needed
+ * anyway, as every change is done holding one of the OperationManager locks.
+ * <br>
+ * A writer holding the read lock (a bind updating the password policy state, for instance)
+ * or the partition monitor can't wait for a leader, as the leader would need the write lock,
+ * which can't be granted while a read lock is held, and nothing guarantees the read lock
+ * will be released. Such a writer syncs the partition itself, immediately, holding the
+ * partition monitor. No OperationManager writer can run meanwhile, as the read lock is held,
+ * and the synchronized partition methods are excluded by the monitor.
+ * <br>
+ * The leader can wait up to a configured delay for more writers to join the batch,
+ * or until a configured number of changes are waiting.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupCommitCoordinator
+{
+    /** The commits each thread has to wait for, once it has released the write lock */
+    private static final ThreadLocal<Map<GroupCommitCoordinator, Long>> PENDING_COMMITS =
+        new ThreadLocal<Map<GroupCommitCoordinator, Long>>()
+        {
+            @Override
+            protected Map<GroupCommitCoordinator, Long> initialValue()
+            {
+                return new IdentityHashMap<GroupCommitCoordinator, Long>();
+            }
+        };
+
+    /** The partition to sync */
+    private final Partition partition;
+
+    /** The maximum time the leader waits for other writers to join the batch, in milliseconds */
+    private long maxDelay;
+
+    /** The number of waiting changes after which the leader stops waiting, 0 for no limit */
+    private int maxBatch;
+
+    /** The lock protecting the partition against concurrent writes */
+    private ReadWriteLock lock;
+
+    /** The number of registered changes */
+    private long registered;
+
+    /** The number of registered changes already synced */
+    private long synced;
+
+    /** Tells if a leader is syncing the partition */
+    private boolean syncing;
+
+    /** The number of syncs done */
+    private long syncCount;
+
+
+    /**
+     * Creates a new instance of GroupCommitCoordinator.
+     *
+     * @param partition The partition to sync
+     * @param maxDelay The maximum time the leader waits for other writers, in milliseconds
+     * @param maxBatch The number of waiting changes after which the leader stops waiting, 0 for no limit
+     */
+    public GroupCommitCoordinator( Partition partition, long maxDelay, int maxBatch )
+    {
+        this.partition = partition;
+        this.maxDelay = maxDelay;
+        this.maxBatch = maxBatch;
+    }
+
+
+    /**
+     * Registers a change, and waits until it has been synced. If the current thread
+     * holds the write lock, the wait is deferred until {@link #awaitPending()} is called.
+     *
+     * @param lock The lock protecting the partition against concurrent writes
+     * @throws Exception If the partition can't be synced
+     */
+    public void commit( ReadWriteLock lock ) throws Exception
+    {
+        long ticket;
+
+        synchronized ( this )
+        {
+            ticket = ++registered;
+            this.lock = lock;
+
+            // Wake up a leader waiting for the batch to fill
+            notifyAll();
+        }
+
+        if ( isWriteLockedByCurrentThread() )
+        {
+            Map<GroupCommitCoordinator, Long> pending = PENDING_COMMITS.get();
+            Long previous = pending.get( this );
+
+            if ( ( previous == null ) || ( previous < ticket ) )
+            {
+                pending.put( this, ticket );
+            }
+        }
+        else if ( isReadLockedByCurrentThread() || Thread.holdsLock( partition ) )
+        {
+            // Waiting for a leader could deadlock
+            sync();
+        }
+        else
+        {
+            await( ticket );
+        }
+    }
+
+
+    /**
+     * Waits for the commits the current thread has deferred while it was holding the
+     * write lock. The commits of the partitions which lock is still held are kept.
+     *
+     * @throws LdapException If a partition can't be synced
+     */
+    public static void awaitPending() throws LdapException
+    {
+        Map<GroupCommitCoordinator, Long> pending = PENDING_COMMITS.get();
+
+        if ( pending.isEmpty() )
+        {
+            return;
+        }
+
+        Iterator<Map.Entry<GroupCommitCoordinator, Long>> iterator = pending.entrySet().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<GroupCommitCoordinator, Long> entry = iterator.next();
+            GroupCommitCoordinator coordinator = entry.getKey();
+            long ticket = entry.getValue();
+
+            if ( coordinator.isWriteLockedByCurrentThread() )
+            {
+                // A nested operation : the outer one will wait
+                continue;
+            }
+
+            iterator.remove();
+
+            try
+            {
+                coordinator.await( ticket );
+            }
+            catch ( Exception e )
+            {
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+        }
+    }
+
+
+    /**
+     * Tells if the current thread holds the write lock
+     */
+    private boolean isWriteLockedByCurrentThread()
+    {
+        ReadWriteLock currentLock;
+
+        synchronized ( this )
+        {
+            currentLock = lock;
+        }
+
+        return ( currentLock instanceof ReentrantReadWriteLock )
+            && ( ( ReentrantReadWriteLock ) currentLock ).isWriteLockedByCurrentThread();
+    }
+
+
+    /**
+     * Tells if the current thread holds the read lock
+     */
+    private boolean isReadLockedByCurrentThread()
+    {
+        ReadWriteLock currentLock;
+
+        synchronized ( this )
+        {
+            currentLock = lock;
+        }
+
+        return ( currentLock instanceof ReentrantReadWriteLock )
+            && ( ( ( ReentrantReadWriteLock ) currentLock ).getReadHoldCount() > 0 );
+    }
+
+
+    /**
+     * Waits until a change has been synced, syncing the partition if no other thread does
+     */
+    private void await( long ticket ) throws Exception
+    {
+        while ( true )
+        {
+            synchronized ( this )
+            {
+                while ( syncing && ( synced < ticket ) )
+                {
+                    wait();
+                }
+
+                if ( synced >= ticket )
+                {
+                    return;
+                }
+
+                // We are the leader
+                syncing = true;
+
+                // Let the other writers join the batch
+                if ( maxDelay > 0 )
+                {
+                    long deadline = System.currentTimeMillis() + maxDelay;
+
+                    while ( ( maxBatch <= 0 ) || ( registered - synced < maxBatch ) )
+                    {
+                        long remaining = deadline - System.currentTimeMillis();
+
+                        if ( remaining <= 0 )
+                        {
+                            break;
+                        }
+
+                        wait( remaining );
+                    }
+                }
+            }
+
+            try
+            {
+                syncExclusively();
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    syncing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Syncs the partition as the leader, holding the write lock, so that the sync does not
+     * run in the middle of a change. A thread which already holds the read lock can't take
+     * the write lock, but no writer can run then.
+     */
+    private void syncExclusively() throws Exception
+    {
+        ReadWriteLock currentLock;
+
+        synchronized ( this )
+        {
+            currentLock = lock;
+        }
+
+        if ( ( currentLock == null ) || isReadLockedByCurrentThread() )
+        {
+            sync();
+
+            return;
+        }
+
+        currentLock.writeLock().lock();
+
+        try
+        {
+            // No change can run while the write lock is held : don't take the partition
+            // monitor, a synchronized partition method may hold it, waiting for the read lock
+            syncPartition();
+        }
+        finally
+        {
+            currentLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Syncs the partition, holding its monitor so that the sync does not run in the
+     * middle of a change done by one of its synchronized methods. The caller must also
+     * exclude the other writers, either holding the write lock or a read lock. The
+     * changes registered so far are complete, as a change is registered once done.
+     */
+    private void sync() throws Exception
+    {
+        synchronized ( partition )
+        {
+            syncPartition();
+        }
+    }
+
+
+    /**
+     * Syncs the partition, and wakes up the writers whose changes are now on disk. The
+     * caller must make sure no change is running.
+     */
+    private void syncPartition() throws Exception
+    {
+        long target;
+
+        synchronized ( this )
+        {
+            target = registered;
+        }
+
+        partition.sync();
+
+        synchronized ( this )
+        {
+            synced = Math.max( synced, target );
+            syncCount++;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * @return The maximum time the leader waits for other writers, in milliseconds
+     */
+    public synchronized long getMaxDelay()
+    {
+        return maxDelay;
+    }
+
+
+    /**
+     * @param maxDelay The maximum time the leader waits for other writers, in milliseconds
+     */
+    public synchronized void setMaxDelay( long maxDelay )
+    {
+        this.maxDelay = maxDelay;
+    }
+
+
+    /**
+     * @return The number of waiting changes after which the leader stops waiting
+     */
+    public synchronized int getMaxBatch()
+    {
+        return maxBatch;
+    }
+
+
+    /**
+     * @param maxBatch The number of waiting changes after which the leader stops waiting, 0 for no limit
+     */
+    public synchronized void setMaxBatch( int maxBatch )
+    {
+        this.maxBatch = maxBatch;
+    }
+
+
+    /**
+     * @return The number of registered changes
+     */
+    public synchronized long getCommitCount()
+    {
+        return registered;
+    }
+
+
+    /**
+     * @return The number of syncs done
+     */
+    public synchronized long getSyncCount()
+    {
+        return syncCount;
+    }
+}
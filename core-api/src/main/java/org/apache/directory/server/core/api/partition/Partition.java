@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 
 
 /**
@@ -297,6 +298,15 @@ public interface Partition
      */
     void setCacheService( CacheService cacheService );
 
+
+    /**
+     * Sets the registry in which the partition records its metrics (cache hits,
+     * scanned entries...). The partition does not record anything if it's not set.
+     *
+     * @param metrics The metrics registry
+     */
+    void setMetrics( MetricsRegistry metrics );
+
     
     /**
      * @return the current highest committed CSN value
@@ -22,6 +22,7 @@ package org.apache.directory.server.core.api.schema;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
@@ -130,6 +131,9 @@ public final class SchemaPartition extends AbstractPartition
     /** The ObjectClass AttributeType */
     private AttributeType objectClassAT;
 
+    /** The schema version, incremented each time the registries are modified */
+    private final AtomicLong schemaVersion = new AtomicLong();
+
 
     public SchemaPartition( SchemaManager schemaManager )
     {
@@ -177,6 +181,19 @@ public final class SchemaPartition extends AbstractPartition
     }
 
 
+    /**
+     * Gets the schema version, which is incremented each time a schema element is
+     * added, modified, moved, renamed or deleted. It's used to invalidate the caches
+     * holding some SchemaObjects.
+     *
+     * @return the schema version
+     */
+    public long getSchemaVersion()
+    {
+        return schemaVersion.get();
+    }
+
+
     /**
      * Has no affect: the id is fixed at {@link SchemaPartition#SCHEMA_ID}: 'schema'.
      * A warning is logged.
@@ -276,6 +293,7 @@ public final class SchemaPartition extends AbstractPartition
         // We have to check if it's enabled and then inject it into the registries
         // but only if it does not break the server.
         synchronizer.add( addContext );
+        schemaVersion.incrementAndGet();
 
         // Now, write the newly added SchemaObject into the schemaPartition
         try
@@ -351,6 +369,7 @@ public final class SchemaPartition extends AbstractPartition
 
         // The SchemaObject always exist when we reach this method.
         synchronizer.delete( deleteContext, cascade );
+        schemaVersion.incrementAndGet();
         Entry deletedEntry = null;
 
         try
@@ -398,6 +417,7 @@ public final class SchemaPartition extends AbstractPartition
         boolean cascade = modifyContext.hasRequestControl( Cascade.OID );
 
         boolean hasModification = synchronizer.modify( modifyContext, targetEntry, cascade );
+        schemaVersion.incrementAndGet();
 
         if ( hasModification )
         {
@@ -423,6 +443,7 @@ public final class SchemaPartition extends AbstractPartition
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         Entry entry = session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
         synchronizer.move( moveContext, entry, cascade );
+        schemaVersion.incrementAndGet();
         wrapped.move( moveContext );
         updateSchemaModificationAttributes( moveContext );
     }
@@ -439,6 +460,7 @@ public final class SchemaPartition extends AbstractPartition
             SchemaConstants.ALL_ATTRIBUTES_ARRAY );
         Entry entry = session.getDirectoryService().getPartitionNexus().lookup( lookupContext );
         synchronizer.moveAndRename( moveAndRenameContext, entry, cascade );
+        schemaVersion.incrementAndGet();
         wrapped.moveAndRename( moveAndRenameContext );
         updateSchemaModificationAttributes( moveAndRenameContext );
     }
@@ -453,6 +475,7 @@ public final class SchemaPartition extends AbstractPartition
 
         // First update the registries
         synchronizer.rename( renameContext, cascade );
+        schemaVersion.incrementAndGet();
 
         // Update the schema partition
         wrapped.rename( renameContext );
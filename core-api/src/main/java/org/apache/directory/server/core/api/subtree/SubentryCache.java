@@ -24,6 +24,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
@@ -51,6 +52,9 @@ public class SubentryCache implements Iterable<Dn>
     /** The Subentry cache */
     private final Map<Dn, Subentry> cache;
 
+    /** A counter incremented each time a subentry is added, removed or modified */
+    private final AtomicLong version = new AtomicLong( 0L );
+
 
     /**
      * Creates a new instance of SubentryCache with a default maximum size.
@@ -99,6 +103,7 @@ public class SubentryCache implements Iterable<Dn>
         if ( oldSubentry != null )
         {
             cacheSize.decrementAndGet();
+            version.incrementAndGet();
         }
 
         return oldSubentry;
@@ -127,6 +132,8 @@ public class SubentryCache implements Iterable<Dn>
             cacheSize.getAndIncrement();
         }
 
+        version.incrementAndGet();
+
         return oldSubentry;
     }
 
@@ -151,6 +158,25 @@ public class SubentryCache implements Iterable<Dn>
     }
 
 
+    /**
+     * Signals that the content of a subentry has been modified, so that the
+     * data computed from the subentries can be discarded.
+     */
+    public void incrementVersion()
+    {
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * @return A number which changes each time a subentry is added, removed or modified
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+
     /**
      * @return The number of elements in the cache
      */
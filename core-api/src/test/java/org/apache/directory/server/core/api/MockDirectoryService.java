@@ -43,7 +43,9 @@ import org.apache.directory.server.core.api.administrative.TriggerExecutionAdmin
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -482,6 +484,12 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public MetricsRegistry getMetrics()
+    {
+        return null;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -586,6 +594,13 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    @Override
+    public InterceptorPipeline getInterceptorPipeline( OperationEnum operation )
+    {
+        return null;
+    }
+
+
     @Override
     public void addFirst( Interceptor interceptor ) throws LdapException
     {
@@ -33,6 +33,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ReferralHandlingMode;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -221,6 +222,19 @@ public class MockOperation implements OperationContext
     }
 
 
+    @Override
+    public void setInterceptorPipeline( InterceptorPipeline pipeline )
+    {
+    }
+
+
+    @Override
+    public InterceptorPipeline getInterceptorPipeline()
+    {
+        return null;
+    }
+
+
     @Override
     public String getNextInterceptor()
     {
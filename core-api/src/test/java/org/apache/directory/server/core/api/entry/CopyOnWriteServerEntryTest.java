@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.junit.Test;
+
+
+/**
+ * Unit tests class CopyOnWriteServerEntry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CopyOnWriteServerEntryTest
+{
+    private Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( "cn=test,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test",
+            "description: a" );
+    }
+
+
+    @Test
+    public void testModificationsDontAlterOriginal() throws Exception
+    {
+        Entry original = createEntry();
+        ClonedServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        entry.add( "description", "b" );
+        entry.get( "sn" ).clear();
+        entry.remove( "objectClass", "person" );
+        entry.removeAttributes( "cn" );
+
+        assertEquals( 1, original.get( "description" ).size() );
+        assertEquals( 1, original.get( "sn" ).size() );
+        assertTrue( original.contains( "objectClass", "person" ) );
+        assertTrue( original.containsAttribute( "cn" ) );
+
+        assertEquals( 2, entry.get( "description" ).size() );
+        assertEquals( 0, entry.get( "sn" ).size() );
+        assertFalse( entry.contains( "objectClass", "person" ) );
+        assertFalse( entry.containsAttribute( "cn" ) );
+        assertEquals( original, entry.getOriginalEntry() );
+    }
+
+
+    @Test
+    public void testIterationCopiesAttributes() throws Exception
+    {
+        Entry original = createEntry();
+        ClonedServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        for ( Attribute attribute : entry )
+        {
+            assertNotSame( original.get( attribute.getId() ), attribute );
+            attribute.clear();
+        }
+
+        assertEquals( 1, original.get( "cn" ).size() );
+        assertEquals( 2, original.get( "objectClass" ).size() );
+    }
+
+
+    @Test
+    public void testRemovedAttributesAreNotCopied() throws Exception
+    {
+        Entry original = createEntry();
+        ClonedServerEntry entry = new CopyOnWriteServerEntry( original );
+
+        entry.removeAttributes( "description", "sn" );
+
+        assertEquals( 2, entry.getClonedEntry().size() );
+        assertEquals( 4, original.size() );
+    }
+}
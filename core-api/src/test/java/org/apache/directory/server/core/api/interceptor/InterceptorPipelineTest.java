@@ -0,0 +1,121 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.interceptor;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.server.core.api.MockInterceptor;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.junit.Test;
+
+
+/**
+ * Tests the InterceptorPipeline class, and the way it's walked through by an OperationContext
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class InterceptorPipelineTest
+{
+    /**
+     * An interceptor exposing the getNextInterceptor() method
+     */
+    private static class WalkingInterceptor extends BaseInterceptor
+    {
+        Interceptor walk( OperationContext operationContext )
+        {
+            return getNextInterceptor( operationContext );
+        }
+    }
+
+
+    private InterceptorPipeline createPipeline()
+    {
+        List<Interceptor> interceptors = new ArrayList<Interceptor>();
+
+        interceptors.add( new MockInterceptor( "first", null ) );
+        interceptors.add( new MockInterceptor( "second", null ) );
+        interceptors.add( new MockInterceptor( "third", null ) );
+
+        return new InterceptorPipeline( OperationEnum.LOOKUP, interceptors );
+    }
+
+
+    @Test
+    public void testPipelineContent()
+    {
+        InterceptorPipeline pipeline = createPipeline();
+
+        assertEquals( OperationEnum.LOOKUP, pipeline.getOperation() );
+        assertEquals( 3, pipeline.size() );
+        assertEquals( Arrays.asList( "first", "second", "third" ), pipeline.getNames() );
+        assertEquals( "second", pipeline.get( 1 ).getName() );
+    }
+
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPipelineNamesAreImmutable()
+    {
+        createPipeline().getNames().add( "fourth" );
+    }
+
+
+    @Test
+    public void testContextWalksPipeline()
+    {
+        InterceptorPipeline pipeline = createPipeline();
+        LookupOperationContext lookupContext = new LookupOperationContext( null );
+        lookupContext.setInterceptorPipeline( pipeline );
+
+        assertSame( pipeline, lookupContext.getInterceptorPipeline() );
+
+        WalkingInterceptor walker = new WalkingInterceptor();
+
+        assertSame( pipeline.get( 0 ), walker.walk( lookupContext ) );
+        assertSame( pipeline.get( 1 ), walker.walk( lookupContext ) );
+        assertSame( pipeline.get( 2 ), walker.walk( lookupContext ) );
+        assertEquals( "FINAL", walker.walk( lookupContext ).getName() );
+    }
+
+
+    @Test
+    public void testSetInterceptorsResetsPipeline()
+    {
+        LookupOperationContext lookupContext = new LookupOperationContext( null );
+        lookupContext.setInterceptorPipeline( createPipeline() );
+
+        assertEquals( "first", lookupContext.getNextInterceptor() );
+
+        lookupContext.setInterceptors( Arrays.asList( "other" ) );
+        lookupContext.setCurrentInterceptor( 0 );
+
+        assertNull( lookupContext.getInterceptorPipeline() );
+        assertEquals( "other", lookupContext.getNextInterceptor() );
+        assertEquals( "FINAL", lookupContext.getNextInterceptor() );
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the LatencyHistogram and MetricsRegistry classes
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBuckets()
+    {
+        long previousBound = -1L;
+
+        for ( long value = 0; value < ( 1L << 30 ); value = value * 3 / 2 + 1 )
+        {
+            int index = LatencyHistogram.getBucketIndex( value );
+            long upperBound = LatencyHistogram.getBucketUpperBound( index );
+
+            // The value is in its bucket, and the bucket is not too large
+            assertTrue( upperBound >= value );
+            assertTrue( upperBound - value <= value / 16 + 1 );
+            assertTrue( upperBound >= previousBound );
+
+            if ( index > 0 )
+            {
+                assertTrue( LatencyHistogram.getBucketUpperBound( index - 1 ) < value );
+            }
+
+            previousBound = upperBound;
+        }
+    }
+
+
+    @Test
+    public void testOverflowBucket()
+    {
+        // The highest regular bucket and the overflow bucket are distinct
+        long highestValue = ( 1L << 41 ) - 1;
+        int highestIndex = LatencyHistogram.getBucketIndex( highestValue );
+        int overflowIndex = LatencyHistogram.getBucketIndex( 1L << 41 );
+
+        assertEquals( highestValue, LatencyHistogram.getBucketUpperBound( highestIndex ) );
+        assertEquals( highestIndex + 1, overflowIndex );
+        assertEquals( overflowIndex, LatencyHistogram.getBucketIndex( Long.MAX_VALUE ) );
+        assertEquals( Long.MAX_VALUE, LatencyHistogram.getBucketUpperBound( overflowIndex ) );
+
+        LatencyHistogram histogram = new LatencyHistogram( "test" );
+        histogram.record( highestValue );
+        histogram.record( Long.MAX_VALUE / 2 );
+
+        assertEquals( highestValue, histogram.getValueAtPercentile( 50d ) );
+        assertEquals( Long.MAX_VALUE / 2, histogram.getValueAtPercentile( 100d ) );
+    }
+
+
+    @Test
+    public void testEmptyHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram( "empty" );
+
+        assertEquals( 0L, histogram.getCount() );
+        assertEquals( 0L, histogram.getMean() );
+        assertEquals( 0L, histogram.getMax() );
+        assertEquals( 0L, histogram.getPercentile99() );
+    }
+
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram( "test" );
+
+        for ( long i = 1; i <= 1000; i++ )
+        {
+            histogram.record( i * 1000L );
+        }
+
+        assertEquals( 1000L, histogram.getCount() );
+        assertEquals( 500500L, histogram.getMean() );
+        assertEquals( 1000000L, histogram.getMax() );
+
+        assertEquals( 500000d, histogram.getPercentile50(), 500000d / 16 );
+        assertEquals( 900000d, histogram.getPercentile90(), 900000d / 16 );
+        assertEquals( 990000d, histogram.getPercentile99(), 990000d / 16 );
+        assertEquals( 1000000L, histogram.getValueAtPercentile( 100d ) );
+    }
+
+
+    @Test
+    public void testHugeAndNegativeValues()
+    {
+        LatencyHistogram histogram = new LatencyHistogram( "test" );
+
+        histogram.record( -5L );
+        histogram.record( Long.MAX_VALUE / 2 );
+
+        assertEquals( 2L, histogram.getCount() );
+        assertEquals( 0L, histogram.getValueAtPercentile( 50d ) );
+        assertEquals( Long.MAX_VALUE / 2, histogram.getPercentile999() );
+    }
+
+
+    @Test
+    public void testConcurrentRecords() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram( "concurrent" );
+        Thread[] threads = new Thread[4];
+
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    for ( int j = 0; j < 10000; j++ )
+                    {
+                        histogram.record( j );
+                    }
+                }
+            };
+
+            threads[i].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 40000L, histogram.getCount() );
+        assertEquals( 9999L, histogram.getMax() );
+    }
+
+
+    @Test
+    public void testRegistry() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        LatencyHistogram histogram = registry.getHistogram( "operation.add" );
+        assertSame( histogram, registry.getHistogram( "operation.add" ) );
+
+        Counter counter = registry.getCounter( "partition.example.cache.hits" );
+        counter.increment();
+        counter.add( 2 );
+        assertEquals( 3L, registry.getCounter( "partition.example.cache.hits" ).getValue() );
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName( MetricsRegistry.JMX_DOMAIN
+            + ":type=Metrics,instance=\"test\",name=\"operation.add\"" );
+        ObjectName lateName = new ObjectName( MetricsRegistry.JMX_DOMAIN
+            + ":type=Metrics,instance=\"test\",name=\"operation.delete\"" );
+
+        registry.registerMBeans( "test" );
+
+        try
+        {
+            histogram.record( 1000L );
+
+            assertTrue( server.isRegistered( name ) );
+            assertEquals( 1L, server.getAttribute( name, "Count" ) );
+
+            // Metrics created after the registration are published too
+            registry.getHistogram( "operation.delete" );
+            assertTrue( server.isRegistered( lateName ) );
+        }
+        finally
+        {
+            registry.unregisterMBeans();
+        }
+
+        assertTrue( !server.isRegistered( name ) );
+        assertTrue( !server.isRegistered( lateName ) );
+    }
+}
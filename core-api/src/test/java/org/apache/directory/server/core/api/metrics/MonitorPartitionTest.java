@@ -0,0 +1,169 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the MonitorPartition class
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartitionTest
+{
+    private static SchemaManager schemaManager;
+
+    private MetricsRegistry metrics;
+
+    private MonitorPartition partition;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void createPartition() throws Exception
+    {
+        metrics = new MetricsRegistry();
+        metrics.getHistogram( "operation.search" ).record( 2000L );
+        metrics.getCounter( "partition.example.cache.hits" ).add( 5L );
+
+        partition = new MonitorPartition( schemaManager );
+        partition.setMetrics( metrics );
+        partition.initialize();
+    }
+
+
+    private List<Entry> search( String base, SearchScope scope, String filter ) throws Exception
+    {
+        ExprNode filterNode = FilterParser.parse( schemaManager, filter );
+        filterNode = ( ExprNode ) filterNode.accept( new FilterNormalizingVisitor(
+            new ConcreteNameComponentNormalizer( schemaManager ), schemaManager ) );
+        SearchOperationContext searchContext = new SearchOperationContext( null, new Dn( schemaManager, base ),
+            scope, filterNode, "*" );
+        EntryFilteringCursor cursor = partition.search( searchContext );
+        List<Entry> entries = new ArrayList<Entry>();
+
+        while ( cursor.next() )
+        {
+            entries.add( cursor.get() );
+        }
+
+        cursor.close();
+
+        return entries;
+    }
+
+
+    @Test
+    public void testLookup() throws Exception
+    {
+        Entry entry = partition.lookup( new LookupOperationContext( null, new Dn( schemaManager,
+            "cn=operation.search,ou=monitor" ) ) );
+
+        assertNotNull( entry );
+        assertTrue( entry.contains( SchemaConstants.DESCRIPTION_AT, "count=1" ) );
+        assertTrue( entry.contains( SchemaConstants.DESCRIPTION_AT, "max=2000" ) );
+
+        assertNull( partition.lookup( new LookupOperationContext( null, new Dn( schemaManager,
+            "cn=unknown,ou=monitor" ) ) ) );
+        assertTrue( partition.hasEntry( new HasEntryOperationContext( null, new Dn( schemaManager, "ou=monitor" ) ) ) );
+    }
+
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        // The partition records its own latencies in the registry
+        int nbMetrics = metrics.getHistograms().size() + metrics.getCounters().size();
+        assertTrue( metrics.getHistograms().containsKey( "partition.monitor.search.cursor" ) );
+
+        assertEquals( nbMetrics + 1, search( "ou=monitor", SearchScope.SUBTREE, "(objectClass=*)" ).size() );
+        assertEquals( nbMetrics, search( "ou=monitor", SearchScope.ONELEVEL, "(objectClass=*)" ).size() );
+        assertEquals( 1, search( "ou=monitor", SearchScope.OBJECT, "(objectClass=*)" ).size() );
+
+        List<Entry> entries = search( "ou=monitor", SearchScope.SUBTREE, "(cn=partition.example.*)" );
+        assertEquals( 1, entries.size() );
+        assertTrue( entries.get( 0 ).contains( SchemaConstants.DESCRIPTION_AT, "value=5" ) );
+
+        // The entries reflect the registry content when they are read
+        metrics.getCounter( "partition.example.cache.hits" ).increment();
+        entries = search( "cn=partition.example.cache.hits,ou=monitor", SearchScope.OBJECT, "(objectClass=*)" );
+        assertTrue( entries.get( 0 ).contains( SchemaConstants.DESCRIPTION_AT, "value=6" ) );
+    }
+
+
+    @Test
+    public void testReadOnly() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "cn=test,ou=monitor",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test" );
+        AddOperationContext addContext = new AddOperationContext( null, new ClonedServerEntry( entry ) );
+
+        try
+        {
+            partition.add( addContext );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException lutpe )
+        {
+            assertFalse( partition.hasEntry( new HasEntryOperationContext( null, entry.getDn() ) ) );
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.normalization;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.entry.SchemaAwareEntryTest;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * A test class for FilterNormalizationCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class FilterNormalizationCacheTest
+{
+    private static SchemaManager schemaManager;
+    private static NameComponentNormalizer ncn;
+
+
+    /**
+     * Initialize the registries once for the whole test suite
+     */
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SchemaAwareEntryTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+        schemaManager.loadAllEnabled();
+
+        List<Throwable> errors = schemaManager.getErrors();
+
+        if ( errors.size() != 0 )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( errors ) );
+        }
+
+        ncn = new ConcreteNameComponentNormalizer( schemaManager );
+    }
+
+
+    /**
+     * Normalizes a filter using the cache, and checks that the result is the
+     * same as the one produced by the FilterNormalizingVisitor
+     */
+    private void assertNormalized( FilterNormalizationCache cache, String filter ) throws Exception
+    {
+        FilterNormalizingVisitor visitor = new FilterNormalizingVisitor( ncn, schemaManager );
+        ExprNode expected = ( ExprNode ) FilterParser.parse( filter ).accept( visitor );
+        ExprNode result = cache.normalize( FilterParser.parse( filter ) );
+
+        if ( expected == null )
+        {
+            assertNull( result );
+        }
+        else
+        {
+            assertEquals( expected.toString(), result.toString() );
+        }
+    }
+
+
+    @Test
+    public void testSameTemplateIsCached() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( ncn, schemaManager, 10, null );
+
+        assertNormalized( cache, "(&(objectClass=person)(cn=  Kate   BUSH ))" );
+        assertEquals( 0L, cache.getHits() );
+        assertEquals( 1L, cache.getMisses() );
+
+        assertNormalized( cache, "(&(ObjectClass=Person)(CN=Tori AMOS))" );
+        assertNormalized( cache, "(&(objectclass=PERSON)(cn=*ALANIS*MORISSETTE))" );
+        assertNormalized( cache, "(|(cn=Kate Bush)(jpegPhoto=\\5Cescaped))" );
+        assertNormalized( cache, "(|(cn=Tori Amos)(jpegPhoto=\\00\\01))" );
+
+        // objectClass/cn and ObjectClass/CN share a template, the substring filter doesn't
+        assertEquals( 3L, cache.getSize() );
+        assertEquals( 2L, cache.getHits() );
+        assertEquals( 3L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testUndefinedAttributes() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( ncn, schemaManager, 10, null );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertNormalized( cache, "(|(cn=test" + i + ")(unknown=test" + i + "))" );
+            assertNormalized( cache, "(&(cn=test" + i + ")(unknown=test" + i + "))" );
+            assertNormalized( cache, "(!(unknown=test" + i + "))" );
+            assertNormalized( cache, "(unknown=test" + i + ")" );
+        }
+
+        assertEquals( 4L, cache.getHits() );
+        assertEquals( 4L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testSchemaAwareFilterWithUndefinedAttribute() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( ncn, schemaManager, 10, null );
+        FilterNormalizingVisitor visitor = new FilterNormalizingVisitor( ncn, schemaManager );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            // The schema aware parser doesn't create nodes for undefined attributes
+            String filter = "(!(bogusAttribute=abc" + i + "))";
+            Object expected = FilterParser.parse( schemaManager, filter ).accept( visitor );
+
+            assertEquals( expected, cache.normalize( FilterParser.parse( schemaManager, filter ) ) );
+        }
+
+        assertEquals( 1L, cache.getHits() );
+    }
+
+
+    @Test
+    public void testClear() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( ncn, schemaManager, 10, null );
+
+        assertNormalized( cache, "(cn=test1)" );
+        assertEquals( 1L, cache.getSize() );
+
+        cache.clear();
+        assertEquals( 0L, cache.getSize() );
+
+        assertNormalized( cache, "(cn=test2)" );
+        assertEquals( 0L, cache.getHits() );
+        assertEquals( 2L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testFullCache() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( ncn, schemaManager, 2, null );
+
+        assertNormalized( cache, "(cn=test)" );
+        assertNormalized( cache, "(sn=test)" );
+        assertEquals( 2L, cache.getSize() );
+
+        // The cache is full : it's cleared before the new template is stored
+        assertNormalized( cache, "(ou=test)" );
+        assertEquals( 1L, cache.getSize() );
+
+        // The dropped templates are cached again on their next use
+        assertNormalized( cache, "(cn=test)" );
+        assertNormalized( cache, "(ou=test)" );
+        assertNormalized( cache, "(cn=test)" );
+        assertEquals( 2L, cache.getSize() );
+        assertEquals( 2L, cache.getHits() );
+        assertEquals( 4L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testDisabledCache() throws Exception
+    {
+        FilterNormalizationCache cache = new FilterNormalizationCache( ncn, schemaManager, 0, null );
+
+        assertNormalized( cache, "(&(objectClass=person)(cn=test1))" );
+        assertNormalized( cache, "(&(objectClass=person)(cn=test2))" );
+
+        assertEquals( 0L, cache.getSize() );
+        assertEquals( 0L, cache.getHits() );
+        assertEquals( 0L, cache.getMisses() );
+    }
+
+
+    /**
+     * Measures the time spent normalizing a filter, with and without the cache, by
+     * one and by several threads. The filters are parsed before the measure.
+     */
+    @Test
+    @Ignore("Performance test")
+    public void testPerfNormalize() throws Exception
+    {
+        for ( int round = 0; round < 5; round++ )
+        {
+            for ( int nbThreads : new int[]
+                { 1, 4 } )
+            {
+                long withoutCache = measure( new FilterNormalizationCache( ncn, schemaManager, 0, null ), nbThreads );
+                long withCache = measure( new FilterNormalizationCache( ncn, schemaManager, 1000, null ), nbThreads );
+
+                System.out.println( nbThreads + " thread(s) : " + withoutCache + " ns per filter without the cache, "
+                    + withCache + " ns with the cache" );
+            }
+        }
+    }
+
+
+    private long measure( final FilterNormalizationCache cache, int nbThreads ) throws Exception
+    {
+        final int nbFilters = 100000;
+        final ExprNode[][] filters = new ExprNode[nbThreads][nbFilters];
+
+        for ( int i = 0; i < nbThreads; i++ )
+        {
+            for ( int j = 0; j < nbFilters; j++ )
+            {
+                filters[i][j] = FilterParser.parse( "(&(objectClass=person)(|(uid=user" + j + ")(cn=User " + j
+                    + ")))" );
+            }
+        }
+
+        System.gc();
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( nbThreads );
+
+        for ( int i = 0; i < nbThreads; i++ )
+        {
+            final ExprNode[] threadFilters = filters[i];
+
+            new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        for ( ExprNode filter : threadFilters )
+                        {
+                            cache.normalize( filter );
+                        }
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+
+        return ( System.nanoTime() - t0 ) / ( nbThreads * nbFilters );
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.metrics.MonitorPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the GroupCommitCoordinator class
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupCommitCoordinatorTest
+{
+    /** The lock protecting the partition */
+    private ReentrantReadWriteLock lock;
+
+    /** The number of changes written in the partition */
+    private AtomicLong written;
+
+    /** The number of changes written when the last sync has been done */
+    private AtomicLong syncedWritten;
+
+    /** The number of syncs */
+    private AtomicInteger syncs;
+
+    /** The number of syncs done while a writer could run */
+    private AtomicInteger unprotectedSyncs;
+
+    private Partition partition;
+
+
+    /**
+     * A partition which counts its syncs
+     */
+    private class SyncCountingPartition extends MonitorPartition
+    {
+        private SyncCountingPartition() throws LdapException
+        {
+            super( null );
+        }
+
+
+        @Override
+        public void sync()
+        {
+            try
+            {
+                Thread.sleep( 2 );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if ( !lock.isWriteLockedByCurrentThread() && ( lock.getReadHoldCount() == 0 ) )
+            {
+                unprotectedSyncs.incrementAndGet();
+            }
+
+            syncedWritten.set( written.get() );
+            syncs.incrementAndGet();
+        }
+    }
+
+
+    @Before
+    public void init() throws Exception
+    {
+        lock = new ReentrantReadWriteLock( true );
+        written = new AtomicLong();
+        syncedWritten = new AtomicLong();
+        syncs = new AtomicInteger();
+        unprotectedSyncs = new AtomicInteger();
+        partition = new SyncCountingPartition();
+    }
+
+
+    private long write()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            return written.incrementAndGet();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Test
+    public void testCommitWithoutLock() throws Exception
+    {
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 0L, 0 );
+
+        write();
+        coordinator.commit( lock );
+
+        assertEquals( 1, syncs.get() );
+        assertEquals( 1L, syncedWritten.get() );
+        assertEquals( 1L, coordinator.getCommitCount() );
+        assertEquals( 1L, coordinator.getSyncCount() );
+
+        // The leader excludes the writers while syncing
+        assertEquals( 0, unprotectedSyncs.get() );
+    }
+
+
+    @Test
+    public void testConcurrentCommitsShareSyncs() throws Exception
+    {
+        final GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 1L, 0 );
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for ( int i = 0; i < 16; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int j = 0; j < 20; j++ )
+                        {
+                            long change = write();
+                            coordinator.commit( lock );
+
+                            // The change must have been synced when commit returns
+                            if ( syncedWritten.get() < change )
+                            {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+
+            threads.add( thread );
+            thread.start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0, errors.get() );
+        assertEquals( 320L, coordinator.getCommitCount() );
+        assertEquals( 320L, syncedWritten.get() );
+        assertTrue( coordinator.getSyncCount() < coordinator.getCommitCount() );
+        assertEquals( syncs.get(), coordinator.getSyncCount() );
+        assertEquals( 0, unprotectedSyncs.get() );
+    }
+
+
+    @Test
+    public void testCommitDeferredWhileHoldingTheLock() throws Exception
+    {
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 0L, 0 );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            written.incrementAndGet();
+            coordinator.commit( lock );
+            written.incrementAndGet();
+            coordinator.commit( lock );
+
+            assertEquals( 0, syncs.get() );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        GroupCommitCoordinator.awaitPending();
+
+        assertEquals( 1, syncs.get() );
+        assertEquals( 2L, syncedWritten.get() );
+
+        // Nothing left to wait for
+        GroupCommitCoordinator.awaitPending();
+
+        assertEquals( 1, syncs.get() );
+    }
+
+
+    @Test
+    public void testNestedOperations() throws Exception
+    {
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 0L, 0 );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            lock.writeLock().lock();
+
+            try
+            {
+                written.incrementAndGet();
+                coordinator.commit( lock );
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+
+            // The outer operation still holds the lock
+            GroupCommitCoordinator.awaitPending();
+
+            assertEquals( 0, syncs.get() );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        GroupCommitCoordinator.awaitPending();
+
+        assertEquals( 1, syncs.get() );
+    }
+
+
+    @Test
+    public void testMaxBatch() throws Exception
+    {
+        // The batch is full as soon as a change is registered, so we don't wait for the delay
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 60000L, 1 );
+
+        long start = System.currentTimeMillis();
+        write();
+        coordinator.commit( lock );
+
+        assertEquals( 1, syncs.get() );
+        assertTrue( System.currentTimeMillis() - start < 30000L );
+    }
+
+
+    @Test
+    public void testCommitHoldingTheReadLock() throws Exception
+    {
+        // A bind writing the password policy state holds the read lock
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 0L, 0 );
+
+        lock.readLock().lock();
+
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                write();
+            }
+        };
+
+        try
+        {
+            // Queue a writer : the read lock can't be upgraded to the write lock
+            writer.start();
+
+            while ( !lock.hasQueuedThreads() )
+            {
+                Thread.sleep( 1L );
+            }
+
+            written.incrementAndGet();
+            coordinator.commit( lock );
+
+            assertEquals( 1, syncs.get() );
+            assertEquals( 1L, syncedWritten.get() );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        writer.join();
+    }
+
+
+    @Test
+    public void testCommitHoldingThePartitionMonitor() throws Exception
+    {
+        final GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 0L, 0 );
+
+        synchronized ( partition )
+        {
+            written.incrementAndGet();
+            coordinator.commit( lock );
+        }
+
+        assertEquals( 1, syncs.get() );
+        assertEquals( 1L, syncedWritten.get() );
+    }
+
+
+    /**
+     * A synchronized partition method holds the partition monitor and takes the read lock.
+     * The leader, holding the write lock, must not wait for the monitor.
+     */
+    @Test
+    public void testLeaderDoesNotTakeThePartitionMonitor() throws Exception
+    {
+        final GroupCommitCoordinator coordinator = new GroupCommitCoordinator( partition, 0L, 0 );
+        final CountDownLatch monitorHeld = new CountDownLatch( 1 );
+        final AtomicInteger errors = new AtomicInteger();
+
+        Thread modifier = new Thread()
+        {
+            public void run()
+            {
+                synchronized ( partition )
+                {
+                    monitorHeld.countDown();
+
+                    // Wait for the leader to take the write lock
+                    while ( !lock.isWriteLocked() && ( syncs.get() == 0 ) )
+                    {
+                        Thread.yield();
+                    }
+
+                    lock.readLock().lock();
+                    lock.readLock().unlock();
+                }
+            }
+        };
+
+        Thread leader = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    written.incrementAndGet();
+                    coordinator.commit( lock );
+                }
+                catch ( Exception e )
+                {
+                    errors.incrementAndGet();
+                }
+            }
+        };
+
+        modifier.start();
+        monitorHeld.await();
+        leader.start();
+
+        leader.join( 10000L );
+        modifier.join( 10000L );
+
+        assertFalse( leader.isAlive() );
+        assertFalse( modifier.isAlive() );
+        assertEquals( 0, errors.get() );
+        assertEquals( 1, syncs.get() );
+        assertEquals( 1L, syncedWritten.get() );
+        assertEquals( 0, unprotectedSyncs.get() );
+    }
+}
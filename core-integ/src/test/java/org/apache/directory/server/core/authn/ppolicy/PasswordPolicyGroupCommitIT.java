@@ -0,0 +1,197 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.authn.AuthenticationInterceptor;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the binds updating the password policy state of an entry stored in a
+ * partition using group commit. These writes are done holding the OperationManager
+ * read lock, they must not wait for the write lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(enableChangeLog = false, name = "PasswordPolicyGroupCommitIT")
+public class PasswordPolicyGroupCommitIT extends AbstractLdapTestUnit
+{
+    private Partition partition;
+
+    private Dn userDn;
+
+    private ExecutorService executor;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        SchemaManager schemaManager = getService().getSchemaManager();
+        PartitionFactory partitionFactory = DefaultDirectoryServiceFactory.class.newInstance().getPartitionFactory();
+        partition = partitionFactory.createPartition( schemaManager, getService().getDnFactory(), "groupcommit",
+            "ou=groupcommit", 100, getService().getInstanceLayout().getPartitionsDirectory() );
+
+        AbstractBTreePartition btreePartition = ( AbstractBTreePartition ) partition;
+        btreePartition.setSyncOnWrite( true );
+        btreePartition.setGroupCommit( true );
+        btreePartition.setGroupCommitMaxDelay( 1L );
+
+        getService().addPartition( partition );
+
+        CoreSession session = getService().getAdminSession();
+        session.add( new DefaultEntry( schemaManager, "ou=groupcommit",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: groupcommit" ) );
+
+        userDn = new Dn( schemaManager, "cn=user,ou=groupcommit" );
+        session.add( new DefaultEntry( schemaManager, userDn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: user",
+            "sn: user_sn",
+            "userPassword: secret" ) );
+
+        PasswordPolicyConfiguration policyConfig = new PasswordPolicyConfiguration();
+        policyConfig.setPwdMaxFailure( 5 );
+        policyConfig.setPwdLockout( true );
+        policyConfig.setPwdFailureCountInterval( 30 );
+
+        PpolicyConfigContainer policyContainer = new PpolicyConfigContainer();
+        Dn defaultPolicyDn = new Dn( schemaManager, "cn=default" );
+        policyContainer.addPolicy( defaultPolicyDn, policyConfig );
+        policyContainer.setDefaultPolicyDn( defaultPolicyDn );
+
+        getAuthenticationInterceptor().setPwdPolicies( policyContainer );
+
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+
+    @After
+    public void destroy() throws Exception
+    {
+        executor.shutdownNow();
+        getAuthenticationInterceptor().setPwdPolicies( null );
+
+        CoreSession session = getService().getAdminSession();
+
+        if ( session.exists( userDn ) )
+        {
+            session.delete( userDn );
+            session.delete( userDn.getParent() );
+        }
+
+        getService().removePartition( partition );
+    }
+
+
+    private AuthenticationInterceptor getAuthenticationInterceptor()
+    {
+        return ( AuthenticationInterceptor ) getService().getInterceptor(
+            InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+    }
+
+
+    /**
+     * Binds in another thread, so that the test fails instead of hanging on a deadlock
+     */
+    private boolean bind( final String password ) throws Exception
+    {
+        return executor.submit( new Callable<Boolean>()
+        {
+            public Boolean call() throws Exception
+            {
+                try
+                {
+                    getService().getSession( userDn, Strings.getBytesUtf8( password ) );
+
+                    return true;
+                }
+                catch ( LdapAuthenticationException lae )
+                {
+                    return false;
+                }
+            }
+        } ).get( 30, TimeUnit.SECONDS );
+    }
+
+
+    private Entry lookupUser() throws Exception
+    {
+        return getService().getAdminSession().lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+    }
+
+
+    @Test
+    public void testBindsWithGroupCommit() throws Exception
+    {
+        // The failures are written synchronously, holding the read lock
+        if ( bind( "wrong" ) || bind( "wrong again" ) )
+        {
+            fail( "The bind should have failed" );
+        }
+
+        Entry entry = lookupUser();
+        assertNotNull( entry.get( PWD_FAILURE_TIME_AT ) );
+        assertEquals( 2, entry.get( PWD_FAILURE_TIME_AT ).size() );
+
+        // The success clears the failures, holding the read lock too
+        if ( !bind( "secret" ) )
+        {
+            fail( "The bind should have succeeded" );
+        }
+
+        assertFalse( lookupUser().containsAttribute( PWD_FAILURE_TIME_AT ) );
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT;
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT;
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_LAST_SUCCESS_AT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the coalescing of the password policy state updates.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "PasswordPolicyStateStoreIT")
+public class PasswordPolicyStateStoreIT extends AbstractLdapTestUnit
+{
+    private PasswordPolicyStateStore store;
+
+    private CoreSession session;
+
+    private Dn userDn;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        // A long delay, so that the batches are only written when asked for
+        store = new PasswordPolicyStateStore( getService(), 3600000L, true );
+        session = getService().getAdminSession();
+        userDn = new Dn( getService().getSchemaManager(), "cn=user,ou=system" );
+
+        Entry entry = new DefaultEntry( getService().getSchemaManager(), userDn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: user",
+            "sn: user_sn",
+            "userPassword: secret",
+            PWD_FAILURE_TIME_AT + ": " + DateUtils.getGeneralizedTime(),
+            PWD_ACCOUNT_LOCKED_TIME_AT + ": " + DateUtils.getGeneralizedTime() );
+
+        session.add( entry );
+    }
+
+
+    @After
+    public void destroy() throws Exception
+    {
+        store.stop();
+
+        if ( session.exists( userDn ) )
+        {
+            session.delete( userDn );
+        }
+    }
+
+
+    private Entry lookupUser() throws Exception
+    {
+        return session.lookup( userDn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+    }
+
+
+    @Test
+    public void testSuccessesAreCoalesced() throws Exception
+    {
+        String csn = lookupUser().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+
+        store.recordSuccess( userDn, "20140101000000.000Z", true, true );
+        store.recordSuccess( userDn, "20140101000001.000Z", false, false );
+        assertEquals( 1, store.size() );
+
+        // Nothing has been written yet
+        Entry entry = lookupUser();
+        assertNotNull( entry.get( PWD_FAILURE_TIME_AT ) );
+        assertFalse( entry.containsAttribute( PWD_LAST_SUCCESS_AT ) );
+
+        store.flushAll();
+        assertEquals( 0, store.size() );
+
+        entry = lookupUser();
+        assertEquals( "20140101000001.000Z", entry.get( PWD_LAST_SUCCESS_AT ).getString() );
+        assertFalse( entry.containsAttribute( PWD_FAILURE_TIME_AT ) );
+        assertFalse( entry.containsAttribute( PWD_ACCOUNT_LOCKED_TIME_AT ) );
+        assertFalse( csn.equals( entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() ) );
+    }
+
+
+    @Test
+    public void testLastSuccessNotReplicated() throws Exception
+    {
+        store.stop();
+        store = new PasswordPolicyStateStore( getService(), 3600000L, false );
+
+        // Clear the failures first, this update is replicated
+        store.recordSuccess( userDn, "20140101000000.000Z", true, true );
+        store.flush( userDn );
+        String csn = lookupUser().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+
+        // A pwdLastSuccess only update does not change the entryCSN
+        store.recordSuccess( userDn, "20140101000001.000Z", false, false );
+        store.flush( userDn );
+
+        Entry entry = lookupUser();
+        assertEquals( "20140101000001.000Z", entry.get( PWD_LAST_SUCCESS_AT ).getString() );
+        assertEquals( csn, entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+    }
+
+
+    @Test
+    public void testDiscardAndStop() throws Exception
+    {
+        store.recordSuccess( userDn, "20140101000000.000Z", true, true );
+        store.discard( userDn );
+        assertEquals( 0, store.size() );
+
+        store.recordSuccess( userDn, "20140101000001.000Z", false, false );
+        store.stop();
+
+        Entry entry = lookupUser();
+        assertEquals( "20140101000001.000Z", entry.get( PWD_LAST_SUCCESS_AT ).getString() );
+        assertTrue( entry.containsAttribute( PWD_FAILURE_TIME_AT ) );
+    }
+}
@@ -565,4 +565,38 @@ public class CollectiveAttributeServiceIT extends AbstractLdapTestUnit
 
         connection.close();
     }
+
+
+    @Test
+    public void testLookupAfterSubentryModification() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        addAdministrativeRole( connection, "collectiveAttributeSpecificArea" );
+        Entry subentry = getTestSubentry( "cn=testsubentry,ou=system" );
+        connection.add( subentry );
+
+        // Read the collective attribute twice, the second time from the cache
+        Entry entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertEquals( "configuration", entry.get( "c-ou" ).getString() );
+        entry = connection.lookup( "ou=interceptors,ou=configuration,ou=system" );
+        assertEquals( "configuration", entry.get( "c-ou" ).getString() );
+
+        // Modify the collective attribute in the subentry : the entries must see the new value
+        connection.modify( "cn=testsubentry,ou=system", new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute( "c-ou", "modified" ) ) );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        Attribute c_ou = entry.get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "modified", c_ou.getString() );
+
+        // Delete the subentry : the attribute must disappear
+        connection.delete( "cn=testsubentry,ou=system" );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertNull( entry.get( "c-ou" ) );
+
+        connection.close();
+    }
 }
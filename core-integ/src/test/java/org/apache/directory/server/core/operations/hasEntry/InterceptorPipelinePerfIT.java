@@ -0,0 +1,127 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.hasEntry;
+
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Compares the cost of walking the interceptors through the precompiled pipeline
+ * with the former walk, which looks up each interceptor by its name in a copy of
+ * the interceptor names list.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+public class InterceptorPipelinePerfIT extends AbstractLdapTestUnit
+{
+    private static final int NB_ITERATIONS = 200000;
+
+
+    /**
+     * Runs hasEntry or lookup operations, with a new context for each of them, as done
+     * by the sessions, and returns the average time of an operation in ns
+     */
+    private long measure( OperationEnum operation, boolean byName ) throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        OperationManager operationManager = getService().getOperationManager();
+        Dn adminDn = new Dn( getService().getSchemaManager(), "uid=admin,ou=system" );
+
+        long t0 = System.nanoTime();
+
+        for ( int i = 0; i < NB_ITERATIONS; i++ )
+        {
+            if ( operation == OperationEnum.HAS_ENTRY )
+            {
+                HasEntryOperationContext hasEntryContext = new HasEntryOperationContext( session, adminDn );
+
+                if ( byName )
+                {
+                    hasEntryContext.setInterceptors( getService().getInterceptors( operation ) );
+                }
+
+                assertTrue( operationManager.hasEntry( hasEntryContext ) );
+            }
+            else
+            {
+                LookupOperationContext lookupContext = new LookupOperationContext( session, adminDn );
+
+                if ( byName )
+                {
+                    lookupContext.setInterceptors( getService().getInterceptors( operation ) );
+                }
+
+                assertNotNull( operationManager.lookup( lookupContext ) );
+            }
+        }
+
+        return ( System.nanoTime() - t0 ) / NB_ITERATIONS;
+    }
+
+
+    private void measure( OperationEnum operation ) throws Exception
+    {
+        int nbInterceptors = getService().getInterceptorPipeline( operation ).size();
+
+        for ( int round = 0; round < 10; round++ )
+        {
+            long byName = measure( operation, true );
+            long byPipeline = measure( operation, false );
+
+            System.out.println( operation + " through " + nbInterceptors + " interceptors : " + byName
+                + " ns by name, " + byPipeline + " ns by pipeline, " + ( byName - byPipeline ) / nbInterceptors
+                + " ns saved per hop" );
+        }
+    }
+
+
+    /**
+     * A hasEntry performance test, walking the interceptors by name and through the pipeline
+     */
+    @Test
+    public void testPerfHasEntryPipeline() throws Exception
+    {
+        measure( OperationEnum.HAS_ENTRY );
+    }
+
+
+    /**
+     * A lookup performance test, walking the interceptors by name and through the pipeline
+     */
+    @Test
+    public void testPerfLookupPipeline() throws Exception
+    {
+        measure( OperationEnum.LOOKUP );
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests that an interceptor modifying the entries returned by a search only changes
+ * its own view of them : the partition serves the cached entries through copy-on-write
+ * views, the cached entries must not be changed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "SearchModifiedEntryIT", enableChangeLog = false)
+@ApplyLdifs(
+    {
+        "dn: cn=jdoe,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: jdoe",
+        "sn: doe",
+        "description: original" })
+public class SearchModifiedEntryIT extends AbstractLdapTestUnit
+{
+    /** An interceptor modifying the returned entries */
+    private static class ModifyingInterceptor extends BaseInterceptor
+    {
+        public ModifyingInterceptor()
+        {
+            super( "ModifyingInterceptor" );
+        }
+
+
+        public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+        {
+            EntryFilteringCursor cursor = next( searchContext );
+            cursor.addEntryFilter( new EntryFilter()
+            {
+                /**
+                 * {@inheritDoc}
+                 */
+                public boolean accept( SearchOperationContext operation, Entry result ) throws LdapException
+                {
+                    // Change an attribute in place, add one, and remove one
+                    result.get( "description" ).add( "modified" );
+                    result.add( "seeAlso", "cn=modified,ou=system" );
+                    result.removeAttributes( "sn" );
+
+                    return true;
+                }
+
+
+                /**
+                 * {@inheritDoc}
+                 */
+                public String toString( String tabs )
+                {
+                    return tabs + "ModifyingFilter";
+                }
+            } );
+
+            return cursor;
+        }
+    }
+
+    private ModifyingInterceptor interceptor;
+
+    private Dn dn;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        dn = new Dn( getService().getSchemaManager(), "cn=jdoe,ou=system" );
+
+        // Get the entry in the cache
+        assertEquals( 1, getService().getAdminSession().lookup( dn ).get( "description" ).size() );
+
+        interceptor = new ModifyingInterceptor();
+        getService().addFirst( interceptor );
+    }
+
+
+    @After
+    public void destroy() throws Exception
+    {
+        if ( getService().getInterceptor( interceptor.getName() ) != null )
+        {
+            getService().remove( interceptor.getName() );
+        }
+    }
+
+
+    private Entry search() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        Cursor<Entry> cursor = session.search( dn, SearchScope.OBJECT,
+            FilterParser.parse( getService().getSchemaManager(), "(objectClass=*)" ),
+            AliasDerefMode.NEVER_DEREF_ALIASES, "*" );
+
+        try
+        {
+            assertTrue( cursor.next() );
+            Entry entry = cursor.get();
+            assertFalse( cursor.next() );
+
+            return entry;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    private void checkModified( Entry entry )
+    {
+        assertTrue( entry.contains( "description", "original", "modified" ) );
+        assertTrue( entry.contains( "seeAlso", "cn=modified,ou=system" ) );
+        assertFalse( entry.containsAttribute( "sn" ) );
+    }
+
+
+    @Test
+    public void testSearchModifyingTheEntries() throws Exception
+    {
+        // Each search gets its own view of the cached entry
+        checkModified( search() );
+        checkModified( search() );
+
+        // The cached entry has not been changed
+        getService().remove( interceptor.getName() );
+
+        Entry cached = getService().getAdminSession().lookup( dn, "*" );
+        assertEquals( 1, cached.get( "description" ).size() );
+        assertTrue( cached.contains( "description", "original" ) );
+        assertFalse( cached.containsAttribute( "seeAlso" ) );
+        assertTrue( cached.contains( "sn", "doe" ) );
+
+        cached = search();
+        assertEquals( 1, cached.get( "description" ).size() );
+        assertFalse( cached.containsAttribute( "seeAlso" ) );
+        assertTrue( cached.contains( "sn", "doe" ) );
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.metrics.MonitorPartition;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test the metrics exposed by the monitor partition.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "MonitorPartitionIT")
+public class MonitorPartitionIT extends AbstractLdapTestUnit
+{
+    @Test
+    public void testMonitorPartition() throws Exception
+    {
+        MonitorPartition partition = new MonitorPartition( getService().getSchemaManager() );
+        getService().addPartition( partition );
+
+        try
+        {
+            CoreSession session = getService().getAdminSession();
+            session.lookup( new Dn( getService().getSchemaManager(), "ou=system" ) );
+
+            // The lookup we just did has been recorded
+            Entry entry = session.lookup( new Dn( getService().getSchemaManager(),
+                "cn=operation.lookup,ou=monitor" ) );
+            assertNotNull( entry );
+            assertTrue( entry.get( SchemaConstants.DESCRIPTION_AT ).getString().startsWith( "count=" ) );
+            assertTrue( getService().getMetrics().getHistogram( "operation.lookup" ).getCount() > 0 );
+            assertTrue( getService().getMetrics().getHistograms().containsKey( "partition.system.lookup" ) );
+
+            Cursor<Entry> cursor = session.search( partition.getSuffixDn(), SearchScope.ONELEVEL,
+                FilterParser.parse( getService().getSchemaManager(), "(cn=lock.*)" ), AliasDerefMode.DEREF_ALWAYS,
+                "cn" );
+            int nbEntries = 0;
+
+            while ( cursor.next() )
+            {
+                assertTrue( cursor.get().get( SchemaConstants.CN_AT ).getString().startsWith( "lock." ) );
+                nbEntries++;
+            }
+
+            cursor.close();
+
+            assertEquals( 2, nbEntries );
+
+            try
+            {
+                session.delete( entry.getDn() );
+                fail();
+            }
+            catch ( LdapUnwillingToPerformException lutpe )
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            getService().removePartition( partition );
+        }
+    }
+}
@@ -684,7 +684,7 @@ public abstract class ServerContext implements EventContext
         bindContext.setSaslMechanism( saslMechanism );
         bindContext.setSaslAuthId( saslAuthId );
         bindContext.addRequestControls( convertControls( true, requestControls ) );
-        bindContext.setInterceptors( getDirectoryService().getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorPipeline( getDirectoryService().getInterceptorPipeline( OperationEnum.BIND ) );
 
         // execute bind operation
         OperationManager operationManager = service.getOperationManager();
@@ -62,6 +62,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -358,7 +359,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = getPartition( addContext.getDn() );
+        long start = System.nanoTime();
         partition.add( addContext );
+        recordLatency( partition, OperationEnum.ADD, start );
     }
 
 
@@ -411,7 +414,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
+        long start = System.nanoTime();
         Entry deletedEntry = partition.delete( deleteContext );
+        recordLatency( partition, OperationEnum.DELETE, start );
 
         return deletedEntry;
     }
@@ -435,8 +440,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
+        boolean hasEntry = partition.hasEntry( hasEntryContext );
+        recordLatency( partition, OperationEnum.HAS_ENTRY, start );
 
-        return partition.hasEntry( hasEntryContext );
+        return hasEntry;
     }
 
 
@@ -461,7 +469,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
         Entry entry = partition.lookup( lookupContext );
+        recordLatency( partition, OperationEnum.LOOKUP, start );
 
         if ( entry == null )
         {
@@ -488,7 +498,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         Partition partition = getPartition( modifyContext.getDn() );
 
+        long start = System.nanoTime();
         partition.modify( modifyContext );
+        recordLatency( partition, OperationEnum.MODIFY, start );
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -505,7 +517,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
 
+        long start = System.nanoTime();
         partition.move( moveContext );
+        recordLatency( partition, OperationEnum.MOVE, start );
     }
 
 
@@ -515,7 +529,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
+        long start = System.nanoTime();
         partition.moveAndRename( moveAndRenameContext );
+        recordLatency( partition, OperationEnum.MOVE_AND_RENAME, start );
     }
 
 
@@ -525,7 +541,21 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
+        long start = System.nanoTime();
         partition.rename( renameContext );
+        recordLatency( partition, OperationEnum.RENAME, start );
+    }
+
+
+    /**
+     * Records the latency of an operation in the partition metrics
+     */
+    private void recordLatency( Partition partition, OperationEnum operation, long start )
+    {
+        if ( partition instanceof AbstractPartition )
+        {
+            ( ( AbstractPartition ) partition ).recordLatency( operation, start );
+        }
     }
 
 
@@ -629,8 +659,14 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
         // Normal case : do a search on the specific partition
         Partition backend = getPartition( base );
+        long start = System.nanoTime();
+        EntryFilteringCursor cursor = backend.search( searchContext );
 
-        return backend.search( searchContext );
+        // This is the time needed to build the cursor, not to fetch the entries : it's
+        // recorded in the search.cursor histogram
+        recordLatency( backend, OperationEnum.SEARCH, start );
+
+        return cursor;
     }
 
 
@@ -803,6 +839,8 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             throw new LdapOtherException( I18n.err( I18n.ERR_263, key ) );
         }
 
+        partition.setMetrics( directoryService.getMetrics() );
+
         if ( !partition.isInitialized() )
         {
             partition.setCacheService( directoryService.getCacheService() );
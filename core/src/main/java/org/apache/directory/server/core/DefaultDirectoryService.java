@@ -31,6 +31,7 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -94,12 +95,14 @@ import org.apache.directory.server.core.api.changelog.TaggableSearchableChangeLo
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -164,6 +167,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** the journal service */
     private Journal journal;
 
+    /** The operation, partition and interceptor metrics, created before the OperationManager */
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
     /**
      * the interface used to perform various operations on this
      * DirectoryService
@@ -249,6 +255,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** A map associating a list of interceptor to each operation */
     private Map<OperationEnum, List<String>> operationInterceptors;
 
+    /** The precompiled pipelines, one per operation. Replaced as a whole when the interceptors change */
+    private volatile Map<OperationEnum, InterceptorPipeline> operationPipelines;
+
     /** The System partition */
     private Partition systemPartition;
 
@@ -472,6 +481,41 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public InterceptorPipeline getInterceptorPipeline( OperationEnum operation )
+    {
+        return operationPipelines.get( operation );
+    }
+
+
+    /**
+     * Compile the pipelines associated with each operation, from the list of interceptor's
+     * names. The new pipelines are published all at once, so an operation always sees
+     * a consistent pipeline. This method must be called while holding the write lock.
+     */
+    private void compilePipelines()
+    {
+        Map<OperationEnum, InterceptorPipeline> pipelines = new EnumMap<OperationEnum, InterceptorPipeline>(
+            OperationEnum.class );
+
+        for ( OperationEnum operation : OperationEnum.getOperations() )
+        {
+            List<Interceptor> operationList = new ArrayList<Interceptor>();
+
+            for ( String interceptorName : operationInterceptors.get( operation ) )
+            {
+                operationList.add( interceptorNames.get( interceptorName ) );
+            }
+
+            pipelines.put( operation, new InterceptorPipeline( operation, operationList ) );
+        }
+
+        operationPipelines = pipelines;
+    }
+
+
     /**
      * Compute the list of  to call for each operation
      */
@@ -494,6 +538,8 @@ public class DefaultDirectoryService implements DirectoryService
 
                 operationInterceptors.put( operation, operationList );
             }
+
+            compilePipelines();
         }
         finally
         {
@@ -607,6 +653,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            compilePipelines();
         }
         finally
         {
@@ -645,6 +693,8 @@ public class DefaultDirectoryService implements DirectoryService
 
             interceptorNames.remove( interceptorName );
             interceptors.remove( interceptor );
+
+            compilePipelines();
         }
         finally
         {
@@ -996,7 +1046,7 @@ public class DefaultDirectoryService implements DirectoryService
         BindOperationContext bindContext = new BindOperationContext( null );
         bindContext.setCredentials( credentials );
         bindContext.setDn( principalDn.apply( schemaManager ) );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorPipeline( getInterceptorPipeline( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1023,7 +1073,7 @@ public class DefaultDirectoryService implements DirectoryService
         bindContext.setCredentials( credentials );
         bindContext.setDn( principalDn.apply( schemaManager ) );
         bindContext.setSaslMechanism( saslMechanism );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorPipeline( getInterceptorPipeline( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1281,6 +1331,19 @@ public class DefaultDirectoryService implements DirectoryService
             return;
         }
 
+        // --------------------------------------------------------------------
+        // Write the password policy states the authentication interceptor
+        // still holds, so that they are synced with the nexus
+        // --------------------------------------------------------------------
+        AuthenticationInterceptor authenticationInterceptor = ( AuthenticationInterceptor ) getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR
+            .getName() );
+
+        if ( authenticationInterceptor != null )
+        {
+            LOG.debug( "--- Writing the pending password policy states" );
+            authenticationInterceptor.stopPwdPolicyStateFlusher();
+        }
+
         // --------------------------------------------------------------------
         // Shutdown the sync thread
         // --------------------------------------------------------------------
@@ -1328,6 +1391,9 @@ public class DefaultDirectoryService implements DirectoryService
         LOG.debug( "--- Deleting the cache service" );
         cacheService.destroy();
 
+        LOG.debug( "--- Unregistering the metrics MBeans" );
+        metrics.unregisterMBeans();
+
         LOG.debug( "---Deleting the DnCache" );
         dnFactory = null;
 
@@ -1793,6 +1859,7 @@ public class DefaultDirectoryService implements DirectoryService
         }
 
         cacheService.initialize( instanceLayout, instanceId );
+        metrics.registerMBeans( instanceId );
 
         // Initialize the AP caches
         accessControlAPCache = new DnNode<AccessControlAdministrativePoint>();
@@ -1807,9 +1874,11 @@ public class DefaultDirectoryService implements DirectoryService
 
         // triggers partition to load schema fully from schema partition
         schemaPartition.setCacheService( cacheService );
+        schemaPartition.setMetrics( metrics );
         schemaPartition.initialize();
         partitions.add( schemaPartition );
         systemPartition.setCacheService( cacheService );
+        systemPartition.setMetrics( metrics );
         systemPartition.getSuffixDn().apply( schemaManager );
 
         adminDn = getDnFactory().create( ServerDNConstants.ADMIN_SYSTEM_DN );
@@ -2209,6 +2278,15 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public MetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
+
+
     /**
      * {@inheritDoc}
      */
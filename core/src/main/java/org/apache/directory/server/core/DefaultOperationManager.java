@@ -44,10 +44,12 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
@@ -62,6 +64,9 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.GroupCommitCoordinator;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,6 +79,9 @@ import org.slf4j.LoggerFactory;
  */
 public class DefaultOperationManager implements OperationManager
 {
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( DefaultOperationManager.class );
+
     /** A logger specifically for operations */
     private static final Logger OPERATION_LOG = LoggerFactory.getLogger( Loggers.OPERATION_LOG.getName() );
 
@@ -94,10 +102,39 @@ public class DefaultOperationManager implements OperationManager
     /** A lock used to protect against concurrent operations */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** The latency of the successful operations, indexed by OperationEnum ordinal */
+    private final LatencyHistogram[] operationLatencies;
+
+    /** The time spent waiting for the read lock */
+    private final LatencyHistogram readLockWait;
+
+    /** The time spent waiting for the write lock */
+    private final LatencyHistogram writeLockWait;
+
 
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
+
+        MetricsRegistry metrics = directoryService.getMetrics();
+
+        if ( metrics == null )
+        {
+            // Record the metrics anyway, they just won't be published
+            metrics = new MetricsRegistry();
+        }
+
+        OperationEnum[] operations = OperationEnum.values();
+        operationLatencies = new LatencyHistogram[operations.length];
+
+        for ( OperationEnum operation : operations )
+        {
+            operationLatencies[operation.ordinal()] = metrics.getHistogram( "operation."
+                + MetricsRegistry.getOperationMetricName( operation ) );
+        }
+
+        readLockWait = metrics.getHistogram( "lock.read.wait" );
+        writeLockWait = metrics.getHistogram( "lock.write.wait" );
     }
 
 
@@ -115,7 +152,9 @@ public class DefaultOperationManager implements OperationManager
      */
     public void lockRead()
     {
+        long start = System.nanoTime();
         rwLock.readLock().lock();
+        readLockWait.recordSince( start );
     }
 
 
@@ -124,7 +163,9 @@ public class DefaultOperationManager implements OperationManager
      */
     public void lockWrite()
     {
+        long start = System.nanoTime();
         rwLock.writeLock().lock();
+        writeLockWait.recordSince( start );
     }
 
 
@@ -146,6 +187,49 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Waits until the changes done by a write operation have been synced. This is
+     * also done when the operation has failed, so that the changes it may have done
+     * are not left unsynced : the sync error is then only logged, the operation
+     * error being the one reported.
+     *
+     * @param done true if the operation has succeeded
+     * @throws LdapException If the changes of a successful operation can't be synced
+     */
+    private void awaitPendingCommits( boolean done ) throws LdapException
+    {
+        try
+        {
+            GroupCommitCoordinator.awaitPending();
+        }
+        catch ( LdapException le )
+        {
+            if ( done )
+            {
+                throw le;
+            }
+
+            LOG.error( "Cannot sync the changes of a failed operation : {}", le.getMessage() );
+        }
+    }
+
+
+    /**
+     * Records the latency of a successful operation
+     *
+     * @param operation The operation
+     * @param start The time the operation started at
+     * @return The operation latency, in nanoseconds
+     */
+    private long recordOperation( OperationEnum operation, long start )
+    {
+        long elapsed = System.nanoTime() - start;
+        operationLatencies[operation.ordinal()].record( elapsed );
+
+        return elapsed;
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -185,6 +269,30 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Gets the first interceptor to call for an operation. We use the precompiled
+     * pipeline when the context has one, otherwise we lookup the interceptor by its name.
+     */
+    private Interceptor getHeadInterceptor( OperationContext opContext )
+    {
+        InterceptorPipeline pipeline = opContext.getInterceptorPipeline();
+
+        if ( pipeline != null )
+        {
+            int position = opContext.getCurrentInterceptor();
+
+            if ( position < pipeline.size() )
+            {
+                opContext.setCurrentInterceptor( position + 1 );
+
+                return pipeline.get( position );
+            }
+        }
+
+        return directoryService.getInterceptor( opContext.getNextInterceptor() );
+    }
+
+
     private Entry getOriginalEntry( OperationContext opContext ) throws LdapException
     {
         // We have to use the admin session here, otherwise we may have
@@ -344,12 +452,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> AddOperation : {}", addContext );
         }
 
-        long addStart = 0L;
-
-        if ( IS_TIME )
-        {
-            addStart = System.nanoTime();
-        }
+        long addStart = System.nanoTime();
 
         ensureStarted();
 
@@ -388,17 +491,22 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( addContext );
 
         lockWrite();
+        boolean done = false;
 
         try
         {
             head.add( addContext );
+            done = true;
         }
         finally
         {
             unlockWrite();
+
+            // Acknowledge the operation only once its changes have been synced
+            awaitPendingCommits( done );
         }
 
         if ( IS_DEBUG )
@@ -406,9 +514,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< AddOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.ADD, addStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Add operation took " + ( System.nanoTime() - addStart ) + " ns" );
+            OPERATION_TIME.debug( "Add operation took " + elapsed + " ns" );
         }
     }
 
@@ -423,17 +533,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> BindOperation : {}", bindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( bindContext );
 
         lockRead();
 
@@ -451,9 +556,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< BindOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.BIND, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Bind operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Bind operation took " + elapsed + " ns" );
         }
     }
 
@@ -468,12 +575,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> CompareOperation : {}", compareContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
         // Normalize the compareContext Dn
@@ -531,7 +633,7 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( compareContext );
 
         boolean result = false;
 
@@ -551,9 +653,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< CompareOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.COMPARE, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Compare operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Compare operation took " + elapsed + " ns" );
         }
 
         return result;
@@ -570,12 +674,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> DeleteOperation : {}", deleteContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -633,19 +732,24 @@ public class DefaultOperationManager implements OperationManager
 
         // populate the context with the old entry
         lockWrite();
+        boolean done = false;
 
         try
         {
             eagerlyPopulateFields( deleteContext );
 
             // Call the Delete method
-            Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+            Interceptor head = getHeadInterceptor( deleteContext );
 
             head.delete( deleteContext );
+            done = true;
         }
         finally
         {
             unlockWrite();
+
+            // Acknowledge the operation only once its changes have been synced
+            awaitPendingCommits( done );
         }
 
         if ( IS_DEBUG )
@@ -653,9 +757,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.DELETE, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Delete operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Delete operation took " + elapsed + " ns" );
         }
     }
 
@@ -670,16 +776,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> GetRootDseOperation : {}", getRootDseContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( getRootDseContext );
 
         Entry root = head.getRootDse( getRootDseContext );
 
@@ -688,9 +789,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< getRootDseOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.GET_ROOT_DSE, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "GetRootDSE operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "GetRootDSE operation took " + elapsed + " ns" );
         }
 
         return root;
@@ -707,16 +810,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> hasEntryOperation : {}", hasEntryContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( hasEntryContext );
 
         boolean result = false;
 
@@ -736,9 +834,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< HasEntryOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.HAS_ENTRY, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "HasEntry operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "HasEntry operation took " + elapsed + " ns" );
         }
 
         return result;
@@ -755,16 +855,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> LookupOperation : {}", lookupContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( lookupContext );
 
         Entry entry = null;
 
@@ -784,9 +879,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< LookupOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.LOOKUP, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Lookup operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Lookup operation took " + elapsed + " ns" );
         }
 
         return entry;
@@ -803,12 +900,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> ModifyOperation : {}", modifyContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -874,6 +966,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         lockWrite();
+        boolean done = false;
 
         try
         {
@@ -881,13 +974,17 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( modifyContext );
 
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = getHeadInterceptor( modifyContext );
 
             head.modify( modifyContext );
+            done = true;
         }
         finally
         {
             unlockWrite();
+
+            // Acknowledge the operation only once its changes have been synced
+            awaitPendingCommits( done );
         }
 
         if ( IS_DEBUG )
@@ -895,9 +992,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.MODIFY, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Modify operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Modify operation took " + elapsed + " ns" );
         }
     }
 
@@ -912,12 +1011,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveOperation : {}", moveContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -992,6 +1086,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         lockWrite();
+        boolean done = false;
 
         try
         {
@@ -1000,13 +1095,17 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = getHeadInterceptor( moveContext );
 
             head.move( moveContext );
+            done = true;
         }
         finally
         {
             unlockWrite();
+
+            // Acknowledge the operation only once its changes have been synced
+            awaitPendingCommits( done );
         }
 
         if ( IS_DEBUG )
@@ -1014,9 +1113,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.MOVE, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Move operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Move operation took " + elapsed + " ns" );
         }
     }
 
@@ -1031,12 +1132,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveAndRenameOperation : {}", moveAndRenameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1112,6 +1208,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         lockWrite();
+        boolean done = false;
 
         try
         {
@@ -1119,13 +1216,17 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setModifiedEntry( moveAndRenameContext.getOriginalEntry().clone() );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = getHeadInterceptor( moveAndRenameContext );
 
             head.moveAndRename( moveAndRenameContext );
+            done = true;
         }
         finally
         {
             unlockWrite();
+
+            // Acknowledge the operation only once its changes have been synced
+            awaitPendingCommits( done );
         }
 
         if ( IS_DEBUG )
@@ -1133,9 +1234,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.MOVE_AND_RENAME, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "MoveAndRename operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "MoveAndRename operation took " + elapsed + " ns" );
         }
     }
 
@@ -1150,12 +1253,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> RenameOperation : {}", renameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1225,6 +1323,7 @@ public class DefaultOperationManager implements OperationManager
         // populate the context with the old entry
 
         lockWrite();
+        boolean done = false;
 
         try
         {
@@ -1234,13 +1333,17 @@ public class DefaultOperationManager implements OperationManager
             renameContext.setModifiedEntry( originalEntry.clone() );
 
             // Call the Rename method
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = getHeadInterceptor( renameContext );
 
             head.rename( renameContext );
+            done = true;
         }
         finally
         {
             unlockWrite();
+
+            // Acknowledge the operation only once its changes have been synced
+            awaitPendingCommits( done );
         }
 
         if ( IS_DEBUG )
@@ -1248,9 +1351,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< RenameOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.RENAME, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Rename operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Rename operation took " + elapsed + " ns" );
         }
     }
 
@@ -1265,12 +1370,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> SearchOperation : {}", searchContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1331,7 +1431,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( searchContext );
 
         EntryFilteringCursor cursor = null;
 
@@ -1351,9 +1451,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< SearchOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.SEARCH, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Search operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Search operation took " + elapsed + " ns" );
         }
 
         return cursor;
@@ -1370,17 +1472,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> UnbindOperation : {}", unbindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = getHeadInterceptor( unbindContext );
 
         head.unbind( unbindContext );
 
@@ -1389,9 +1486,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< UnbindOperation successful" );
         }
 
+        long elapsed = recordOperation( OperationEnum.UNBIND, opStart );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Unbind operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Unbind operation took " + elapsed + " ns" );
         }
     }
 
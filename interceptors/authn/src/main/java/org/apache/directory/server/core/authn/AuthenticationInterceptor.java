@@ -98,6 +98,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.authn.ppolicy.PasswordPolicyStateStore;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
@@ -151,6 +152,15 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** a container to hold all the ppolicies */
     private PpolicyConfigContainer pwdPolicyContainer;
 
+    /** The delay, in ms, during which the ppolicy state updates of successful binds are coalesced. 0 to disable */
+    private long pwdPolicyStateFlushDelay;
+
+    /** Tells if the pwdLastSuccess updates are replicated when they are coalesced */
+    private boolean replicatePwdLastSuccess = true;
+
+    /** The store coalescing the ppolicy state updates, null if disabled */
+    private PasswordPolicyStateStore pwdPolicyStateStore;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -182,6 +192,13 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         loadPwdPolicyStateAttributeTypes();
+
+        if ( pwdPolicyStateFlushDelay > 0 )
+        {
+            pwdPolicyStateStore = new PasswordPolicyStateStore( directoryService, pwdPolicyStateFlushDelay,
+                replicatePwdLastSuccess );
+            pwdPolicyStateStore.start();
+        }
     }
 
 
@@ -202,6 +219,51 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * @return The delay, in milliseconds, during which the password policy state
+     * updates caused by successful binds are coalesced. 0 if they are written synchronously
+     */
+    public long getPwdPolicyStateFlushDelay()
+    {
+        return pwdPolicyStateFlushDelay;
+    }
+
+
+    /**
+     * Sets the delay, in milliseconds, during which the password policy state updates
+     * caused by successful binds (pwdLastSuccess, pwdFailureTime and pwdAccountLockedTime)
+     * are kept in memory before being written in a batch. Bind failures are always written
+     * synchronously. This must be set before the interceptor is initialized.
+     *
+     * @param pwdPolicyStateFlushDelay The delay, or 0 to write the updates synchronously
+     */
+    public void setPwdPolicyStateFlushDelay( long pwdPolicyStateFlushDelay )
+    {
+        this.pwdPolicyStateFlushDelay = pwdPolicyStateFlushDelay;
+    }
+
+
+    /**
+     * @return true if the coalesced pwdLastSuccess updates are replicated
+     */
+    public boolean isReplicatePwdLastSuccess()
+    {
+        return replicatePwdLastSuccess;
+    }
+
+
+    /**
+     * Tells if the coalesced updates only modifying the pwdLastSuccess attribute are
+     * replicated. If not, they don't update the entryCSN and don't produce any event.
+     *
+     * @param replicatePwdLastSuccess false to keep the pwdLastSuccess updates local
+     */
+    public void setReplicatePwdLastSuccess( boolean replicatePwdLastSuccess )
+    {
+        this.replicatePwdLastSuccess = replicatePwdLastSuccess;
+    }
+
+
     public Set<Authenticator> getAuthenticators()
     {
         return authenticators;
@@ -256,6 +318,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
      */
     public void destroy()
     {
+        if ( pwdPolicyStateStore != null )
+        {
+            pwdPolicyStateStore.stop();
+            pwdPolicyStateStore = null;
+        }
+
         authenticatorsMapByType.clear();
         Set<Authenticator> copy = new HashSet<Authenticator>( authenticators );
         authenticators = new HashSet<Authenticator>();
@@ -561,6 +629,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
         // load the user entry again if ppolicy is enabled, cause the authenticator might have modified the entry
         if ( policyConfig != null )
         {
+            if ( !authenticated && ( pwdPolicyStateStore != null ) )
+            {
+                // The failure must be counted against the up to date state
+                pwdPolicyStateStore.flush( bindDn );
+            }
+
             LookupOperationContext lookupContext = new LookupOperationContext( adminSession, bindDn,
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
@@ -672,11 +746,13 @@ public class AuthenticationInterceptor extends BaseInterceptor
         else if ( policyConfig != null )
         {
             List<Modification> mods = new ArrayList<Modification>();
+            String lastSuccessTime = null;
 
             if ( policyConfig.getPwdMaxIdle() > 0 )
             {
+                lastSuccessTime = DateUtils.getGeneralizedTime();
                 Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
-                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime() );
+                pwdLastSuccesTimeAt.add( lastSuccessTime );
                 Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
                 mods.add( pwdLastSuccesTimeMod );
             }
@@ -697,6 +773,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
                 mods.add( pwdAccLockedTimeMod );
             }
 
+            Modification graceUseMod = null;
+
             // checking the expiration time *after* performing authentication, do we need to care about millisecond precision?
             if ( ( policyConfig.getPwdMaxAge() > 0 ) && ( policyConfig.getPwdGraceAuthNLimit() > 0 ) )
             {
@@ -725,14 +803,26 @@ public class AuthenticationInterceptor extends BaseInterceptor
                         pwdRespCtrl.getResponse().setGraceAuthNRemaining( numGraceAuth );
 
                         pwdGraceUseAttr.add( DateUtils.getGeneralizedTime() );
-                        Modification pwdGraceUseMod = new DefaultModification( ADD_ATTRIBUTE, pwdGraceUseAttr );
-                        mods.add( pwdGraceUseMod );
+                        graceUseMod = new DefaultModification( ADD_ATTRIBUTE, pwdGraceUseAttr );
+                        mods.add( graceUseMod );
                     }
                 }
             }
 
-            if ( !mods.isEmpty() )
+            if ( ( pwdPolicyStateStore != null ) && ( graceUseMod == null ) )
             {
+                // Nothing that can't wait : coalesce the update with the next ones
+                pwdPolicyStateStore.recordSuccess( bindDn, lastSuccessTime, pwdFailTimeAt != null,
+                    pwdAccLockedTimeAt != null );
+            }
+            else if ( !mods.isEmpty() )
+            {
+                if ( pwdPolicyStateStore != null )
+                {
+                    // This update supersedes the pending one, which is computed from the same entry
+                    pwdPolicyStateStore.discard( bindDn );
+                }
+
                 String csnVal = directoryService.getCSN().toString();
                 Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
                     .getEntryCSN(), csnVal );
@@ -798,7 +888,16 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( deleteContext );
         checkPwdReset( deleteContext );
+
         next( deleteContext );
+
+        // The entry is gone : its pending state can't be written anymore. It's kept
+        // if the delete failed. The write lock prevents a flush in between
+        if ( pwdPolicyStateStore != null )
+        {
+            pwdPolicyStateStore.discard( deleteContext.getDn() );
+        }
+
         invalidateAuthenticatorCaches( deleteContext.getDn() );
     }
 
@@ -881,6 +980,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( modifyContext );
 
+        if ( pwdPolicyStateStore != null )
+        {
+            // Write the pending state first, so that it does not overwrite this modification later
+            pwdPolicyStateStore.flush( modifyContext.getDn() );
+        }
+
         if ( !directoryService.isPwdPolicyEnabled() || modifyContext.isReplEvent() )
         {
             processStandardModify( modifyContext );
@@ -1274,6 +1379,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveContext );
         checkPwdReset( moveContext );
+        flushPwdPolicyStates();
         next( moveContext );
         invalidateAuthenticatorCaches( moveContext.getDn() );
     }
@@ -1291,6 +1397,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveAndRenameContext );
         checkPwdReset( moveAndRenameContext );
+        flushPwdPolicyStates();
         next( moveAndRenameContext );
         invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
     }
@@ -1308,6 +1415,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( renameContext );
         checkPwdReset( renameContext );
+        flushPwdPolicyStates();
         next( renameContext );
         invalidateAuthenticatorCaches( renameContext.getDn() );
     }
@@ -1339,6 +1447,33 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Stops the thread writing the password policy states in batches, and writes the
+     * pending ones. The DirectoryService calls it when shutting down, before syncing
+     * the partitions : the interceptors are only destroyed once the partitions are.
+     */
+    public void stopPwdPolicyStateFlusher()
+    {
+        if ( pwdPolicyStateStore != null )
+        {
+            pwdPolicyStateStore.stop();
+        }
+    }
+
+
+    /**
+     * Writes all the pending password policy states before a subtree is moved or renamed,
+     * as they are stored by Dn.
+     */
+    private void flushPwdPolicyStates()
+    {
+        if ( pwdPolicyStateStore != null )
+        {
+            pwdPolicyStateStore.flushAll();
+        }
+    }
+
+
     /**
      * Check if the current operation has a valid PrincipalDN or not.
      *
@@ -0,0 +1,405 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT;
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT;
+import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_LAST_SUCCESS_AT;
+import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REMOVE_ATTRIBUTE;
+import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REPLACE_ATTRIBUTE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.partition.GroupCommitCoordinator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps the password policy state changes caused by successful binds in memory, and
+ * writes them in batches. A successful bind updates pwdLastSuccess and removes the
+ * pwdFailureTime and pwdAccountLockedTime attributes : when a user binds many times
+ * in a row, only the last update has to be written.
+ * <br>
+ * The pending state of an entry must be written before anything else modifies the
+ * entry, otherwise the failures recorded in between would be lost when the pending
+ * state is written. The AuthenticationInterceptor flushes it before recording a bind
+ * failure and before a modification of the entry, which keeps the lockout exact.
+ * <br>
+ * When the only pending change is the last success time, the update can be kept out
+ * of replication : the entryCSN is not updated and no event is produced.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordPolicyStateStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PasswordPolicyStateStore.class );
+
+    /** The DirectoryService instance */
+    private final DirectoryService directoryService;
+
+    /** The session used to read and write the entries */
+    private final CoreSession adminSession;
+
+    /** The delay between two batches, in milliseconds */
+    private final long flushDelay;
+
+    /** Tells if the pwdLastSuccess only updates are replicated */
+    private final boolean replicateLastSuccess;
+
+    /** The pending states, per user Dn */
+    private final ConcurrentMap<Dn, PendingState> pendingStates = new ConcurrentHashMap<Dn, PendingState>();
+
+    /** The password policy state attribute types */
+    private final AttributeType pwdLastSuccessAT;
+    private final AttributeType pwdFailureTimeAT;
+    private final AttributeType pwdAccountLockedTimeAT;
+
+    /** The thread writing the batches */
+    private ScheduledExecutorService flusher;
+
+
+    /**
+     * The state changes to apply to an entry. Once removed from the map, a state
+     * is marked as flushed, and can't be updated anymore.
+     */
+    private static final class PendingState
+    {
+        private String lastSuccess;
+        private boolean clearFailures;
+        private boolean clearLockout;
+        private boolean flushed;
+    }
+
+
+    /**
+     * Creates a new instance of PasswordPolicyStateStore.
+     *
+     * @param directoryService The DirectoryService instance
+     * @param flushDelay The delay between two batches, in milliseconds
+     * @param replicateLastSuccess Tells if the updates only changing pwdLastSuccess are replicated
+     * @throws LdapException If the password policy attribute types can't be found
+     */
+    public PasswordPolicyStateStore( DirectoryService directoryService, long flushDelay, boolean replicateLastSuccess )
+        throws LdapException
+    {
+        this.directoryService = directoryService;
+        this.adminSession = directoryService.getAdminSession();
+        this.flushDelay = flushDelay;
+        this.replicateLastSuccess = replicateLastSuccess;
+
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        pwdLastSuccessAT = schemaManager.lookupAttributeTypeRegistry( PWD_LAST_SUCCESS_AT );
+        pwdFailureTimeAT = schemaManager.lookupAttributeTypeRegistry( PWD_FAILURE_TIME_AT );
+        pwdAccountLockedTimeAT = schemaManager.lookupAttributeTypeRegistry( PWD_ACCOUNT_LOCKED_TIME_AT );
+    }
+
+
+    /**
+     * Starts the thread writing the batches
+     */
+    public void start()
+    {
+        flusher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "ApacheDS ppolicy state flusher" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        flusher.scheduleWithFixedDelay( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    flushAll();
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "Failed to write the password policy states", e );
+                }
+            }
+        }, flushDelay, flushDelay, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the thread writing the batches, and writes the pending states
+     */
+    public void stop()
+    {
+        if ( flusher != null )
+        {
+            flusher.shutdown();
+
+            try
+            {
+                flusher.awaitTermination( flushDelay + 1000L, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            flusher = null;
+        }
+
+        flushAll();
+    }
+
+
+    /**
+     * Records the state changes caused by a successful bind
+     *
+     * @param dn The user Dn
+     * @param lastSuccess The bind time, or null if pwdLastSuccess must not be updated
+     * @param clearFailures Tells if the pwdFailureTime attribute must be removed
+     * @param clearLockout Tells if the pwdAccountLockedTime attribute must be removed
+     */
+    public void recordSuccess( Dn dn, String lastSuccess, boolean clearFailures, boolean clearLockout )
+    {
+        if ( ( lastSuccess == null ) && !clearFailures && !clearLockout )
+        {
+            return;
+        }
+
+        while ( true )
+        {
+            PendingState state = pendingStates.get( dn );
+
+            if ( state == null )
+            {
+                state = new PendingState();
+                PendingState existing = pendingStates.putIfAbsent( dn, state );
+
+                if ( existing != null )
+                {
+                    state = existing;
+                }
+            }
+
+            synchronized ( state )
+            {
+                if ( state.flushed )
+                {
+                    // Being written, we need a new state
+                    continue;
+                }
+
+                if ( lastSuccess != null )
+                {
+                    state.lastSuccess = lastSuccess;
+                }
+
+                state.clearFailures |= clearFailures;
+                state.clearLockout |= clearLockout;
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Forgets the pending state of an entry, if any
+     *
+     * @param dn The user Dn
+     */
+    public void discard( Dn dn )
+    {
+        PendingState state = pendingStates.remove( dn );
+
+        if ( state != null )
+        {
+            synchronized ( state )
+            {
+                state.flushed = true;
+            }
+        }
+    }
+
+
+    /**
+     * Writes the pending state of an entry, if any
+     *
+     * @param dn The user Dn
+     * @throws LdapException If the entry can't be updated
+     */
+    public void flush( Dn dn ) throws LdapException
+    {
+        PendingState state = pendingStates.remove( dn );
+
+        if ( state != null )
+        {
+            synchronized ( state )
+            {
+                state.flushed = true;
+            }
+
+            write( dn, state );
+        }
+    }
+
+
+    /**
+     * Writes all the pending states, holding the OperationManager write lock
+     * for the whole batch. With group commit, the batch is synced once the lock
+     * is released.
+     */
+    public void flushAll()
+    {
+        if ( pendingStates.isEmpty() )
+        {
+            return;
+        }
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.lockWrite();
+
+        try
+        {
+            List<Dn> dns = new ArrayList<Dn>( pendingStates.keySet() );
+
+            for ( Dn dn : dns )
+            {
+                try
+                {
+                    flush( dn );
+                }
+                catch ( LdapException le )
+                {
+                    LOG.warn( "Cannot write the password policy state of {} : {}", dn, le.getMessage() );
+                }
+            }
+        }
+        finally
+        {
+            operationManager.unlockWrite();
+
+            // The writes done in the batch share the same sync
+            try
+            {
+                GroupCommitCoordinator.awaitPending();
+            }
+            catch ( LdapException le )
+            {
+                LOG.warn( "Cannot sync the password policy states : {}", le.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of entries having a pending state
+     */
+    public int size()
+    {
+        return pendingStates.size();
+    }
+
+
+    /**
+     * Applies a state to an entry. The changes are computed against the current
+     * content of the entry.
+     */
+    private void write( Dn dn, PendingState state ) throws LdapException
+    {
+        LookupOperationContext lookupContext = new LookupOperationContext( adminSession, dn,
+            SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        Entry entry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+        if ( entry == null )
+        {
+            return;
+        }
+
+        List<Modification> mods = new ArrayList<Modification>();
+        boolean replicated = replicateLastSuccess;
+
+        if ( state.lastSuccess != null )
+        {
+            mods.add( new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccessAT, state.lastSuccess ) );
+        }
+
+        Attribute pwdFailureTimeAt = entry.get( pwdFailureTimeAT );
+
+        if ( state.clearFailures && ( pwdFailureTimeAt != null ) )
+        {
+            mods.add( new DefaultModification( REMOVE_ATTRIBUTE, pwdFailureTimeAt ) );
+            replicated = true;
+        }
+
+        Attribute pwdAccountLockedTimeAt = entry.get( pwdAccountLockedTimeAT );
+
+        if ( state.clearLockout && ( pwdAccountLockedTimeAt != null ) )
+        {
+            mods.add( new DefaultModification( REMOVE_ATTRIBUTE, pwdAccountLockedTimeAt ) );
+            replicated = true;
+        }
+
+        if ( mods.isEmpty() )
+        {
+            return;
+        }
+
+        if ( replicated )
+        {
+            String csnVal = directoryService.getCSN().toString();
+            mods.add( new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider().getEntryCSN(),
+                csnVal ) );
+        }
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( adminSession );
+        modifyContext.setDn( dn );
+        modifyContext.setEntry( entry );
+        modifyContext.setModItems( mods );
+        modifyContext.setPushToEvtInterceptor( replicated );
+
+        directoryService.getPartitionNexus().modify( modifyContext );
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.collective;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.subtree.SubentryCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache for the collective attributes an entry inherits from its subentries. The
+ * attributes are computed once for each distinct set of subentries and exclusions,
+ * instead of looking up the subentries for each returned entry.
+ * <br>
+ * The whole cache is discarded when the {@link SubentryCache} version changes, ie when
+ * a subentry is added, removed, renamed or modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CollectiveAttributeCache
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CollectiveAttributeCache.class );
+
+    /** The default maximum number of cached bundles */
+    private static final int DEFAULT_MAX_SIZE = 1000;
+
+    /** The DirectoryService instance */
+    private final DirectoryService directoryService;
+
+    /** The maximum number of cached bundles */
+    private final int maxSize;
+
+    /** The bundles, per key */
+    private final ConcurrentMap<String, Bundle> bundles = new ConcurrentHashMap<String, Bundle>();
+
+
+    /**
+     * The collective attributes computed for a set of subentries and exclusions,
+     * and the SubentryCache version they have been computed with.
+     */
+    private static final class Bundle
+    {
+        private final long version;
+        private final List<Attribute> attributes;
+
+
+        private Bundle( long version, List<Attribute> attributes )
+        {
+            this.version = version;
+            this.attributes = attributes;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CollectiveAttributeCache with a default maximum size.
+     *
+     * @param directoryService The DirectoryService instance
+     */
+    public CollectiveAttributeCache( DirectoryService directoryService )
+    {
+        this( directoryService, DEFAULT_MAX_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of CollectiveAttributeCache.
+     *
+     * @param directoryService The DirectoryService instance
+     * @param maxSize The maximum number of cached bundles
+     */
+    public CollectiveAttributeCache( DirectoryService directoryService, int maxSize )
+    {
+        this.directoryService = directoryService;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Gets the collective attributes inherited from a set of subentries, minus the
+     * excluded ones. The returned attributes must not be modified.
+     *
+     * @param session The session used to read the subentries
+     * @param subentryDns The collectiveAttributeSubentries attribute of the entry
+     * @param exclusions The collectiveExclusions attribute of the entry, or null
+     * @return The collective attributes to inject, one per AttributeType
+     * @throws LdapException If a subentry can't be read
+     */
+    public List<Attribute> getCollectiveAttributes( CoreSession session, Attribute subentryDns, Attribute exclusions )
+        throws LdapException
+    {
+        String key = getKey( subentryDns, exclusions );
+        long version = directoryService.getSubentryCache().getVersion();
+        Bundle bundle = bundles.get( key );
+
+        if ( ( bundle != null ) && ( bundle.version == version ) )
+        {
+            return bundle.attributes;
+        }
+
+        List<Attribute> attributes = compute( session, subentryDns, exclusions );
+
+        if ( ( bundle == null ) && ( bundles.size() >= maxSize ) )
+        {
+            // Too many distinct combinations : start again from an empty cache
+            bundles.clear();
+        }
+
+        bundles.put( key, new Bundle( version, attributes ) );
+
+        return attributes;
+    }
+
+
+    /**
+     * Discards all the cached bundles
+     */
+    public void clear()
+    {
+        bundles.clear();
+    }
+
+
+    /**
+     * @return The number of cached bundles
+     */
+    public int size()
+    {
+        return bundles.size();
+    }
+
+
+    /**
+     * Builds the key of a bundle : the sorted subentry Dns, followed by the sorted exclusions.
+     */
+    private String getKey( Attribute subentryDns, Attribute exclusions )
+    {
+        StringBuilder sb = new StringBuilder();
+        appendSorted( sb, subentryDns );
+        sb.append( '|' );
+
+        if ( exclusions != null )
+        {
+            appendSorted( sb, exclusions );
+        }
+
+        return sb.toString();
+    }
+
+
+    private void appendSorted( StringBuilder sb, Attribute attribute )
+    {
+        if ( attribute.size() == 1 )
+        {
+            sb.append( attribute.get().getNormValue() );
+
+            return;
+        }
+
+        String[] values = new String[attribute.size()];
+        int i = 0;
+
+        for ( Value<?> value : attribute )
+        {
+            values[i++] = String.valueOf( value.getNormValue() );
+        }
+
+        Arrays.sort( values );
+
+        for ( String value : values )
+        {
+            sb.append( value ).append( ';' );
+        }
+    }
+
+
+    /**
+     * Reads the subentries and gathers their collective attributes
+     */
+    private List<Attribute> compute( CoreSession session, Attribute subentryDns, Attribute exclusions )
+        throws LdapException
+    {
+        Set<AttributeType> excluded = new HashSet<AttributeType>();
+
+        if ( exclusions != null )
+        {
+            for ( Value<?> value : exclusions )
+            {
+                excluded.add( directoryService.getSchemaManager().lookupAttributeTypeRegistry( value.getString() ) );
+            }
+        }
+
+        Map<AttributeType, Attribute> collectiveAttributes = new LinkedHashMap<AttributeType, Attribute>();
+
+        for ( Value<?> value : subentryDns )
+        {
+            Dn subentryDn = directoryService.getDnFactory().create( value.getString() );
+
+            LOG.debug( "Reading the collective attributes of the subentry {}", subentryDn );
+
+            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
+                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+            for ( Attribute attribute : subentry.getAttributes() )
+            {
+                AttributeType attributeType = attribute.getAttributeType();
+
+                // Skip the attributes which are not collective, or are excluded
+                if ( !attributeType.isCollective() || excluded.contains( attributeType ) )
+                {
+                    continue;
+                }
+
+                Attribute collectiveAttribute = collectiveAttributes.get( attributeType );
+
+                if ( collectiveAttribute == null )
+                {
+                    collectiveAttribute = new DefaultAttribute( attributeType );
+                    collectiveAttributes.put( attributeType, collectiveAttribute );
+                }
+
+                for ( Value<?> collectiveValue : attribute )
+                {
+                    collectiveAttribute.add( collectiveValue.getString() );
+                }
+            }
+        }
+
+        return Collections.unmodifiableList( new ArrayList<Attribute>( collectiveAttributes.values() ) );
+    }
+}
@@ -20,13 +20,10 @@
 package org.apache.directory.server.core.collective;
 
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
@@ -106,6 +103,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The CollectiveAttribute search filter */
     private final EntryFilter searchFilter = new CollectiveAttributeFilter();
 
+    /** The collective attributes computed for each set of subentries */
+    private CollectiveAttributeCache collectiveAttributeCache;
+
 
     //-------------------------------------------------------------------------------------
     // Initialization
@@ -117,6 +117,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         super.init( directoryService );
 
+        collectiveAttributeCache = new CollectiveAttributeCache( directoryService );
+
         LOG.debug( "CollectiveAttribute interceptor initialized" );
     }
 
@@ -345,15 +347,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
 
         LOG.debug( "Filtering entry " + entry.getDn() );
 
-        /*
-         * Before we proceed we need to lookup the exclusions within the entry
-         * and build a set of exclusions for rapid lookup.  We use OID values
-         * in the exclusions set instead of regular names that may have case
-         * variance.
-         */
         Attribute collectiveExclusions = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
             directoryService.getAtProvider().getCollectiveExclusions() );
-        Set<AttributeType> exclusions = new HashSet<AttributeType>();
 
         if ( collectiveExclusions != null )
         {
@@ -370,93 +365,46 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
 
                 return;
             }
-
-            for ( Value<?> value : collectiveExclusions )
-            {
-                AttributeType attrType = schemaManager.lookupAttributeTypeRegistry( value.getString() );
-                exclusions.add( attrType );
-                LOG.debug( "Adding {} in the list of excluded collectiveAttributes", attrType.getName() );
-            }
         }
 
         /*
-         * For each collective subentry referenced by the entry we lookup the
-         * attributes of the subentry and copy collective attributes from the
-         * subentry into the entry.
+         * The collective attributes of the referenced subentries, minus the
+         * excluded ones, are shared by all the entries having the same subentries
+         * and exclusions : they are computed once and cached.
          */
-        for ( Value<?> value : collectiveAttributeSubentries )
-        {
-            String subentryDnStr = value.getString();
-            Dn subentryDn = dnFactory.create( subentryDnStr );
+        List<Attribute> collectiveAttributes = collectiveAttributeCache.getCollectiveAttributes( session,
+            collectiveAttributeSubentries, collectiveExclusions );
 
-            LOG.debug( "Applying subentries {}", subentryDn.getName() );
+        for ( Attribute collectiveAttribute : collectiveAttributes )
+        {
+            AttributeType attributeType = collectiveAttribute.getAttributeType();
 
             /*
-             * TODO - Instead of hitting disk here can't we leverage the
-             * SubentryService to get us cached sub-entries so we're not
-             * wasting time with a lookup here? It is ridiculous to waste
-             * time looking up this sub-entry.
+             * If not all attributes or this collective attribute requested specifically
+             * then bypass the inclusion process.
              */
-
-            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
-                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
-
-            //LOG.debug( "Fetched the subentry : {}", subentry.getDn().getName() );
-
-            for ( Attribute attribute : subentry.getAttributes() )
+            if ( !opContext.isAllUserAttributes() && !opContext.contains( schemaManager, attributeType ) )
             {
-                AttributeType attributeType = attribute.getAttributeType();
-
-                // Skip the attributes which are not collective
-                if ( !attributeType.isCollective() )
-                {
-                    //LOG.debug( "The {} subentry attribute is not collective", attributeType.getName() );
-                    continue;
-                }
-
-                /*
-                 * Skip the addition of this collective attribute if it is excluded
-                 * in the 'collectiveAttributes' attribute.
-                 */
-                if ( exclusions.contains( attributeType ) )
-                {
-                    LOG.debug( "The {} subentry attribute has been removed, it's in the exclusion list",
-                        attributeType.getName() );
-                    continue;
-                }
-
-                /*
-                 * If not all attributes or this collective attribute requested specifically
-                 * then bypass the inclusion process.
-                 */
-                if ( !opContext.isAllUserAttributes() && !opContext.contains( schemaManager, attributeType ) )
-                {
-                    LOG.debug( "The {} subentry attribute is not in the list of attributes to return",
-                        attributeType.getName() );
-                    continue;
-                }
+                LOG.debug( "The {} subentry attribute is not in the list of attributes to return",
+                    attributeType.getName() );
+                continue;
+            }
 
-                Attribute subentryColAttr = subentry.get( attributeType );
-                Attribute entryColAttr = entry.get( attributeType );
+            Attribute entryColAttr = entry.get( attributeType );
 
-                /*
-                 * If entry does not have attribute for collective attribute then create it.
-                 */
-                if ( entryColAttr == null )
-                {
-                    entryColAttr = new DefaultAttribute( attributeType );
-                    entry.put( entryColAttr );
-                }
-
-                /*
-                 *  Add all the collective attribute values in the subentry
-                 *  to the currently processed collective attribute in the entry.
-                 */
-                for ( Value<?> subentryColVal : subentryColAttr )
+            /*
+             * If entry does not have attribute for collective attribute then create it,
+             * otherwise add all the collective attribute values to it.
+             */
+            if ( entryColAttr == null )
+            {
+                entry.put( collectiveAttribute.clone() );
+            }
+            else
+            {
+                for ( Value<?> collectiveValue : collectiveAttribute )
                 {
-                    LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
-                    entryColAttr.add( subentryColVal.getString() );
+                    entryColAttr.add( collectiveValue.getString() );
                 }
             }
         }
@@ -20,13 +20,11 @@
 package org.apache.directory.server.core.logger;
 
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -42,16 +40,21 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * An interceptor used to log times to process each operation.
+ * An interceptor used to measure the time needed to process each operation,
+ * from this interceptor down to the partitions.
  * 
- * The way it works is that it gathers the time to process an operation
- * into a global counter, which is logged every 1000 operations (when
- * using the OPERATION_STATS logger). It's also possible to get the time for
+ * The times are recorded in the DirectoryService metrics registry, in one latency
+ * histogram per operation named <em>interceptor.&lt;name&gt;.&lt;operation&gt;</em>.
+ * Putting a TimerInterceptor before and after some interceptors gives the time spent in
+ * each of them. The average time is also logged every 1000 operations when
+ * using the OPERATION_STATS logger. It's also possible to get the time for
  * each single operation if activating the OPERATION_TIME logger.
  * 
  * Thos two loggers must be set to DEBUG.
@@ -70,57 +73,8 @@ public class TimerInterceptor extends BaseInterceptor
     private static final boolean IS_DEBUG_STATS = OPERATION_STATS.isDebugEnabled();
     private static final boolean IS_DEBUG_TIME = OPERATION_TIME.isDebugEnabled();
 
-    /** Stats for the add operation */
-    private static AtomicLong totalAdd = new AtomicLong( 0 );
-    private static AtomicInteger nbAddCalls = new AtomicInteger( 0 );
-
-    /** Stats for the bind operation */
-    private static AtomicLong totalBind = new AtomicLong( 0 );
-    private static AtomicInteger nbBindCalls = new AtomicInteger( 0 );
-
-    /** Stats for the compare operation */
-    private static AtomicLong totalCompare = new AtomicLong( 0 );
-    private static AtomicInteger nbCompareCalls = new AtomicInteger( 0 );
-
-    /** Stats for the delete operation */
-    private static AtomicLong totalDelete = new AtomicLong( 0 );
-    private static AtomicInteger nbDeleteCalls = new AtomicInteger( 0 );
-
-    /** Stats for the GetRootDse operation */
-    private static AtomicLong totalGetRootDse = new AtomicLong( 0 );
-    private static AtomicInteger nbGetRootDseCalls = new AtomicInteger( 0 );
-
-    /** Stats for the HasEntry operation */
-    private static AtomicLong totalHasEntry = new AtomicLong( 0 );
-    private static AtomicInteger nbHasEntryCalls = new AtomicInteger( 0 );
-
-    /** Stats for the lookup operation */
-    private static AtomicLong totalLookup = new AtomicLong( 0 );
-    private static AtomicInteger nbLookupCalls = new AtomicInteger( 0 );
-
-    /** Stats for the modify operation */
-    private static AtomicLong totalModify = new AtomicLong( 0 );
-    private static AtomicInteger nbModifyCalls = new AtomicInteger( 0 );
-
-    /** Stats for the move operation */
-    private static AtomicLong totalMove = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveCalls = new AtomicInteger( 0 );
-
-    /** Stats for the moveAndRename operation */
-    private static AtomicLong totalMoveAndRename = new AtomicLong( 0 );
-    private static AtomicInteger nbMoveAndRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the rename operation */
-    private static AtomicLong totalRename = new AtomicLong( 0 );
-    private static AtomicInteger nbRenameCalls = new AtomicInteger( 0 );
-
-    /** Stats for the search operation */
-    private static AtomicLong totalSearch = new AtomicLong( 0 );
-    private static AtomicInteger nbSearchCalls = new AtomicInteger( 0 );
-
-    /** Stats for the unbind operation */
-    private static AtomicLong totalUnbind = new AtomicLong( 0 );
-    private static AtomicInteger nbUnbindCalls = new AtomicInteger( 0 );
+    /** The latencies, indexed by OperationEnum ordinal */
+    private LatencyHistogram[] latencies;
 
 
     /**
@@ -140,6 +94,21 @@ public class TimerInterceptor extends BaseInterceptor
      */
     public void init( DirectoryService directoryService ) throws LdapException
     {
+        MetricsRegistry metrics = directoryService.getMetrics();
+
+        if ( metrics == null )
+        {
+            metrics = new MetricsRegistry();
+        }
+
+        OperationEnum[] operations = OperationEnum.values();
+        latencies = new LatencyHistogram[operations.length];
+
+        for ( OperationEnum operation : operations )
+        {
+            latencies[operation.ordinal()] = metrics.getHistogram( "interceptor." + getName() + "."
+                + operation.getMethodName() );
+        }
     }
 
 
@@ -152,30 +121,31 @@ public class TimerInterceptor extends BaseInterceptor
 
 
     /**
-     * {@inheritDoc}
+     * Records the time spent processing an operation, and logs it if needed
      */
-    public void add( AddOperationContext addContext ) throws LdapException
+    private void record( OperationEnum operation, long t0 )
     {
-        long t0 = System.nanoTime();
-        next( addContext );
         long delta = System.nanoTime() - t0;
+        LatencyHistogram histogram = latencies[operation.ordinal()];
+        histogram.record( delta );
 
         if ( IS_DEBUG_STATS )
         {
-            nbAddCalls.incrementAndGet();
-            totalAdd.getAndAdd( delta );
+            long nbCalls = histogram.getCount();
 
-            if ( nbAddCalls.get() % 1000 == 0 )
+            if ( nbCalls % 1000 == 0 )
             {
-                long average = totalAdd.get() / ( nbAddCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average add = {} microseconds, nb adds = {}", average,
-                    nbAddCalls.get() );
+                OPERATION_STATS.debug( getName() + " : Average {} = {} us, p99 = {} us, nb calls = {}",
+                    new Object[]
+                        { operation.getMethodName(), histogram.getMean() / 1000, histogram.getPercentile99() / 1000,
+                            nbCalls } );
             }
         }
 
         if ( IS_DEBUG_TIME )
         {
-            OPERATION_TIME.debug( "{} : Delta add = {}", getName(), delta );
+            OPERATION_TIME.debug( "{} : Delta {} = {}", new Object[]
+                { getName(), operation.getMethodName(), delta } );
         }
     }
 
@@ -183,29 +153,22 @@ public class TimerInterceptor extends BaseInterceptor
     /**
      * {@inheritDoc}
      */
-    public void bind( BindOperationContext bindContext ) throws LdapException
+    public void add( AddOperationContext addContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        next( bindContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbBindCalls.incrementAndGet();
-            totalBind.getAndAdd( delta );
+        next( addContext );
+        record( OperationEnum.ADD, t0 );
+    }
 
-            if ( nbBindCalls.get() % 1000 == 0 )
-            {
-                long average = totalBind.get() / ( nbBindCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average bind = {} microseconds, nb binds = {}", average,
-                    nbBindCalls.get() );
-            }
-        }
 
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta bind = {}", getName(), delta );
-        }
+    /**
+     * {@inheritDoc}
+     */
+    public void bind( BindOperationContext bindContext ) throws LdapException
+    {
+        long t0 = System.nanoTime();
+        next( bindContext );
+        record( OperationEnum.BIND, t0 );
     }
 
 
@@ -215,28 +178,10 @@ public class TimerInterceptor extends BaseInterceptor
     public boolean compare( CompareOperationContext compareContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        boolean compare = next( compareContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbCompareCalls.incrementAndGet();
-            totalCompare.getAndAdd( delta );
-
-            if ( nbCompareCalls.get() % 1000 == 0 )
-            {
-                long average = totalCompare.get() / ( nbCompareCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average compare = {} microseconds, nb compares = {}", average,
-                    nbCompareCalls.get() );
-            }
-        }
+        boolean result = next( compareContext );
+        record( OperationEnum.COMPARE, t0 );
 
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta compare = {}", getName(), delta );
-        }
-
-        return compare;
+        return result;
     }
 
 
@@ -247,25 +192,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         next( deleteContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbDeleteCalls.incrementAndGet();
-            totalDelete.getAndAdd( delta );
-
-            if ( nbDeleteCalls.get() % 1000 == 0 )
-            {
-                long average = totalDelete.get() / ( nbDeleteCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average delete = {} microseconds, nb deletes = {}", average,
-                    nbDeleteCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta delete = {}", getName(), delta );
-        }
+        record( OperationEnum.DELETE, t0 );
     }
 
 
@@ -275,28 +202,10 @@ public class TimerInterceptor extends BaseInterceptor
     public Entry getRootDse( GetRootDseOperationContext getRootDseContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        Entry rootDse = next( getRootDseContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbGetRootDseCalls.incrementAndGet();
-            totalGetRootDse.getAndAdd( delta );
-
-            if ( nbGetRootDseCalls.get() % 1000 == 0 )
-            {
-                long average = totalGetRootDse.get() / ( nbGetRootDseCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average getRootDSE = {} microseconds, nb getRootDSEs = {}",
-                    average, nbGetRootDseCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta getRootDSE = {}", getName(), delta );
-        }
+        Entry entry = next( getRootDseContext );
+        record( OperationEnum.GET_ROOT_DSE, t0 );
 
-        return rootDse;
+        return entry;
     }
 
 
@@ -306,28 +215,10 @@ public class TimerInterceptor extends BaseInterceptor
     public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
     {
         long t0 = System.nanoTime();
-        boolean hasEntry = next( hasEntryContext );
-        long delta = System.nanoTime() - t0;
+        boolean result = next( hasEntryContext );
+        record( OperationEnum.HAS_ENTRY, t0 );
 
-        if ( IS_DEBUG_STATS )
-        {
-            nbHasEntryCalls.incrementAndGet();
-            totalHasEntry.getAndAdd( delta );
-
-            if ( nbHasEntryCalls.get() % 1000 == 0 )
-            {
-                long average = totalHasEntry.get() / ( nbHasEntryCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average hasEntry = {} microseconds, nb hasEntrys = {}", average,
-                    nbHasEntryCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta hasEntry = {}", getName(), delta );
-        }
-
-        return hasEntry;
+        return result;
     }
 
 
@@ -338,25 +229,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         Entry entry = next( lookupContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbLookupCalls.incrementAndGet();
-            totalLookup.getAndAdd( delta );
-
-            if ( nbLookupCalls.get() % 1000 == 0 )
-            {
-                long average = totalLookup.get() / ( nbLookupCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average lookup = {} microseconds, nb lookups = {}", average,
-                    nbLookupCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta lookup = {}", getName(), delta );
-        }
+        record( OperationEnum.LOOKUP, t0 );
 
         return entry;
     }
@@ -369,25 +242,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         next( modifyContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbModifyCalls.incrementAndGet();
-            totalModify.getAndAdd( delta );
-
-            if ( nbModifyCalls.get() % 1000 == 0 )
-            {
-                long average = totalModify.get() / ( nbModifyCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average modify = {} microseconds, nb modifys = {}", average,
-                    nbModifyCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta modify = {}", getName(), delta );
-        }
+        record( OperationEnum.MODIFY, t0 );
     }
 
 
@@ -398,25 +253,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         next( moveContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbMoveCalls.incrementAndGet();
-            totalMove.getAndAdd( delta );
-
-            if ( nbMoveCalls.get() % 1000 == 0 )
-            {
-                long average = totalMove.get() / ( nbMoveCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average move = {} microseconds, nb moves = {}", average,
-                    nbMoveCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta move = {}", getName(), delta );
-        }
+        record( OperationEnum.MOVE, t0 );
     }
 
 
@@ -427,26 +264,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         next( moveAndRenameContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbMoveAndRenameCalls.incrementAndGet();
-            totalMoveAndRename.getAndAdd( delta );
-
-            if ( nbMoveAndRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalMoveAndRename.get() / ( nbMoveAndRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug(
-                    getName() + " : Average moveAndRename = {} microseconds, nb moveAndRenames = {}", average,
-                    nbMoveAndRenameCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta moveAndRename = {}", getName(), delta );
-        }
+        record( OperationEnum.MOVE_AND_RENAME, t0 );
     }
 
 
@@ -457,25 +275,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         next( renameContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbRenameCalls.incrementAndGet();
-            totalRename.getAndAdd( delta );
-
-            if ( nbRenameCalls.get() % 1000 == 0 )
-            {
-                long average = totalRename.get() / ( nbRenameCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average rename = {} microseconds, nb renames = {}", average,
-                    nbRenameCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta rename = {}", getName(), delta );
-        }
+        record( OperationEnum.RENAME, t0 );
     }
 
 
@@ -486,25 +286,7 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         EntryFilteringCursor cursor = next( searchContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbSearchCalls.incrementAndGet();
-            totalSearch.getAndAdd( delta );
-
-            if ( nbSearchCalls.get() % 1000 == 0 )
-            {
-                long average = totalSearch.get() / ( nbSearchCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average search = {} microseconds, nb searches = {}", average,
-                    nbSearchCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta search = {}", getName(), delta );
-        }
+        record( OperationEnum.SEARCH, t0 );
 
         return cursor;
     }
@@ -517,24 +299,6 @@ public class TimerInterceptor extends BaseInterceptor
     {
         long t0 = System.nanoTime();
         next( unbindContext );
-        long delta = System.nanoTime() - t0;
-
-        if ( IS_DEBUG_STATS )
-        {
-            nbUnbindCalls.incrementAndGet();
-            totalUnbind.getAndAdd( delta );
-
-            if ( nbUnbindCalls.get() % 1000 == 0 )
-            {
-                long average = totalUnbind.get() / ( nbUnbindCalls.get() * 1000 );
-                OPERATION_STATS.debug( getName() + " : Average unbind = {} microseconds, nb unbinds = {}", average,
-                    nbUnbindCalls.get() );
-            }
-        }
-
-        if ( IS_DEBUG_TIME )
-        {
-            OPERATION_TIME.debug( "{} : Delta unbind = {}", getName(), delta );
-        }
+        record( OperationEnum.UNBIND, t0 );
     }
 }
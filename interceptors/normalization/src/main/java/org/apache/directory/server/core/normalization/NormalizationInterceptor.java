@@ -59,7 +59,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
-import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
+import org.apache.directory.server.core.api.normalization.FilterNormalizationCache;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,8 +82,11 @@ public class NormalizationInterceptor extends BaseInterceptor
     /** logger used by this class */
     private static final Logger LOG = LoggerFactory.getLogger( NormalizationInterceptor.class );
 
-    /** a filter node value normalizer and undefined node remover */
-    private FilterNormalizingVisitor normVisitor;
+    /** a filter node value normalizer and undefined node remover, caching the filter templates */
+    private FilterNormalizationCache filterCache;
+
+    /** The maximum number of filter templates kept in the cache, 0 to disable the cache */
+    private int filterCacheSize = FilterNormalizationCache.DEFAULT_SIZE;
 
 
     /**
@@ -105,7 +108,8 @@ public class NormalizationInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
-        normVisitor = new FilterNormalizingVisitor( ncn, schemaManager );
+        filterCache = new FilterNormalizationCache( ncn, schemaManager, directoryService.getSchemaPartition(),
+            filterCacheSize, directoryService.getMetrics() );
     }
 
 
@@ -117,6 +121,36 @@ public class NormalizationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * @return The maximum number of filter templates kept in the cache
+     */
+    public int getFilterCacheSize()
+    {
+        return filterCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of filter templates kept in the cache. 0 disables the cache.
+     * This must be called before the interceptor is initialized.
+     *
+     * @param filterCacheSize The maximum number of filter templates
+     */
+    public void setFilterCacheSize( int filterCacheSize )
+    {
+        this.filterCacheSize = filterCacheSize;
+    }
+
+
+    /**
+     * @return The filter normalization cache, holding the hits and misses statistics
+     */
+    public FilterNormalizationCache getFilterCache()
+    {
+        return filterCache;
+    }
+
+
     // ------------------------------------------------------------------------
     // Normalize all Name based arguments for ContextPartition interface operations
     // ------------------------------------------------------------------------
@@ -287,7 +321,7 @@ public class NormalizationInterceptor extends BaseInterceptor
         }
 
         // Normalize the filter
-        filter = ( ExprNode ) filter.accept( normVisitor );
+        filter = filterCache.normalize( filter );
 
         if ( filter == null )
         {
@@ -1122,6 +1122,7 @@ public class SubentryInterceptor extends BaseInterceptor
             directoryService.getSubentryCache().addSubentry( dn, subentry );
 
             next( modifyContext );
+            directoryService.getSubentryCache().incrementVersion();
 
             // search for all entries selected by the old SS and remove references to subentry
             Dn apName = dn.getParent();
@@ -1219,7 +1220,12 @@ public class SubentryInterceptor extends BaseInterceptor
         {
             next( modifyContext );
 
-            if ( !containsSubentryOC )
+            if ( containsSubentryOC )
+            {
+                // The subentry's attributes may have changed
+                directoryService.getSubentryCache().incrementVersion();
+            }
+            else
             {
                 Entry newEntry = modifyContext.getAlteredEntry();
 
@@ -21,11 +21,8 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 
 import jdbm.helper.Serializer;
 
@@ -40,6 +37,7 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,6 +66,9 @@ public class EntrySerializer implements Serializer
     /** The schemaManager reference */
     private transient SchemaManager schemaManager;
 
+    /** The codec used to encode and decode the entries */
+    private transient EntryCodec codec;
+
 
     /**
      * Creates a new instance of ServerEntrySerializer.
@@ -77,91 +78,31 @@ public class EntrySerializer implements Serializer
     public EntrySerializer( SchemaManager schemaManager )
     {
         this.schemaManager = schemaManager;
+        this.codec = new EntryCodec( schemaManager );
     }
 
 
     /**
-     * <p>
-     * 
-     * This is the place where we serialize entries, and all theirs
-     * elements. the reason why we don't call the underlying methods
-     * (<code>ServerAttribute.write(), Value.write()</code>) is that we need
-     * access to the registries to read back the values.
-     * <p>
-     * The structure used to store the entry is the following :
-     * <ul>
-     *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
-     *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
-     *   <li><b>[numberAttr]</b> : the bumber of attributes. Can be 0</li>
-     *   <li>For each Attribute :
-     *     <ul>
-     *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
-     *       the attributeType on deserialization</li>
-     *       <li><b>[Attribute]</b> The attribute</li>
-     *     </ul>
-     *   </li>
-     * </ul>
+     * Serialize an entry, using the {@link EntryCodec} format.
      */
     public byte[] serialize( Object object ) throws IOException
     {
         Entry entry = ( Entry ) object;
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutput out = new ObjectOutputStream( baos );
-
-        // First, the Dn
-        Dn dn = entry.getDn();
-
-        // Write the Rdn of the Dn
-        if ( dn.isEmpty() )
-        {
-            out.writeByte( 0 );
-        }
-        else
-        {
-            out.writeByte( 1 );
-            Rdn rdn = dn.getRdn();
-            rdn.writeExternal( out );
-        }
-
-        // Then the attributes.
-        out.writeInt( entry.getAttributes().size() );
-
-        // Iterate through the keys. We store the Attribute
-        // here, to be able to restore it in the readExternal :
-        // we need access to the registries, which are not available
-        // in the ServerAttribute class.
-        for ( Attribute attribute : entry.getAttributes() )
-        {
-            AttributeType attributeType = attribute.getAttributeType();
-
-            // Write the oid to be able to restore the AttributeType when deserializing
-            // the attribute
-            String oid = attributeType.getOid();
-
-            out.writeUTF( oid );
-
-            // Write the attribute
-            attribute.writeExternal( out );
-        }
-
-        out.flush();
-
-        // Note : we don't store the ObjectClassAttribute. It has already
-        // been stored as an attribute.
-
         if ( IS_DEBUG )
         {
             LOG.debug( ">------------------------------------------------" );
             LOG.debug( "Serialize " + entry );
         }
 
-        return baos.toByteArray();
+        return codec.encode( entry );
     }
 
 
     /**
-     *  Deserialize a Entry.
+     *  Deserialize a Entry. Entries stored before the {@link EntryCodec} format was
+     *  introduced are still read using the former ObjectOutputStream based format, they
+     *  will be converted the next time they are written.
      *  
      *  @param bytes the byte array containing the serialized entry
      *  @return An instance of a Entry object 
@@ -169,6 +110,11 @@ public class EntrySerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
+        if ( EntryCodec.isEncoded( bytes, 0 ) )
+        {
+            return codec.decode( bytes, 0, bytes.length );
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
 
         try
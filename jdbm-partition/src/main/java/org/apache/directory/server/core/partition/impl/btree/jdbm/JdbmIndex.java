@@ -156,7 +156,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             throw e;
         }
 
-        String path = new File( this.wkDirPath, attributeType.getOid() ).getAbsolutePath();
+        String path = new File( this.wkDirPath, getStorageName() ).getAbsolutePath();
 
         BaseRecordManager base = new BaseRecordManager( path );
         TransactionManager transactionManager = base.getTransactionManager();
@@ -224,13 +224,13 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
 
         if ( mr.getSyntax().isHumanReadable() )
         {
-            forward = new JdbmTable<K, String>( schemaManager, attributeType.getOid() + FORWARD_BTREE, numDupLimit,
+            forward = new JdbmTable<K, String>( schemaManager, getStorageName() + FORWARD_BTREE, numDupLimit,
                 recMan,
                 comp, UuidComparator.INSTANCE, StringSerializer.INSTANCE, UuidSerializer.INSTANCE );
         }
         else
         {
-            forward = new JdbmTable<K, String>( schemaManager, attributeType.getOid() + FORWARD_BTREE, numDupLimit,
+            forward = new JdbmTable<K, String>( schemaManager, getStorageName() + FORWARD_BTREE, numDupLimit,
                 recMan,
                 comp, UuidComparator.INSTANCE, new ByteArraySerializer(), UuidSerializer.INSTANCE );
         }
@@ -245,12 +245,12 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         {
             if ( attributeType.isSingleValued() )
             {
-                reverse = new JdbmTable<String, K>( schemaManager, attributeType.getOid() + REVERSE_BTREE, recMan,
+                reverse = new JdbmTable<String, K>( schemaManager, getStorageName() + REVERSE_BTREE, recMan,
                     UuidComparator.INSTANCE, UuidSerializer.INSTANCE, null );
             }
             else
             {
-                reverse = new JdbmTable<String, K>( schemaManager, attributeType.getOid() + REVERSE_BTREE, numDupLimit,
+                reverse = new JdbmTable<String, K>( schemaManager, getStorageName() + REVERSE_BTREE, numDupLimit,
                     recMan,
                     UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, null );
             }
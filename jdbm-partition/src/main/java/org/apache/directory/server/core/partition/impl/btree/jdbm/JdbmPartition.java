@@ -66,8 +66,12 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NgramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.PhoneticIndex;
+import org.apache.directory.server.xdbm.ReverseKeyIndex;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -413,6 +417,25 @@ public class JdbmPartition extends AbstractBTreePartition
                 // Index won't be initialized at this time, so lookup AT registry to get the OID
                 String oid = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ).getOid();
                 allIndices.add( oid );
+
+                // Don't delete the derived index files
+                if ( index instanceof AbstractIndex )
+                {
+                    if ( ( ( AbstractIndex<?, ?> ) index ).isNgramIndexed() )
+                    {
+                        allIndices.add( oid + NgramIndex.STORAGE_SUFFIX );
+                    }
+
+                    if ( ( ( AbstractIndex<?, ?> ) index ).isReverseKeyIndexed() )
+                    {
+                        allIndices.add( oid + ReverseKeyIndex.STORAGE_SUFFIX );
+                    }
+
+                    if ( ( ( AbstractIndex<?, ?> ) index ).isPhoneticIndexed() )
+                    {
+                        allIndices.add( oid + PhoneticIndex.STORAGE_SUFFIX );
+                    }
+                }
                 
                 // take the part after removing .db from the
                 String name = oid + JDBM_DB_FILE_EXTN;
@@ -595,17 +618,25 @@ public class JdbmPartition extends AbstractBTreePartition
 
         while ( cursor.next() )
         {
-            for ( Index index : indices )
+            for ( Index<?, String> configuredIndex : indices )
             {
-                AttributeType atType = index.getAttribute();
+                AttributeType atType = configuredIndex.getAttribute();
 
-                String attributeOid = index.getAttribute().getOid();
+                String attributeOid = atType.getOid();
 
                 if ( systemIndices.get( attributeOid ) != null )
                 {
                     // skipping building of the system index
                     continue;
                 }
+
+                // Use the index the partition works with, which may complete the configured one
+                Index index = userIndices.get( attributeOid );
+
+                if ( index == null )
+                {
+                    index = configuredIndex;
+                }
                 
                 LOG.info( "building the index for attribute type {}", atType );
 
@@ -807,6 +838,23 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<String, String> createDerivedIndex( AttributeType attributeType, String storageSuffix )
+        throws Exception
+    {
+        JdbmIndex<String> derivedIndex = new JdbmIndex<String>( attributeType.getOid(), false );
+        derivedIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+        derivedIndex.setWkDirPath( partitionPath );
+        derivedIndex.setStorageSuffix( storageSuffix );
+        derivedIndex.init( schemaManager, attributeType );
+
+        return derivedIndex;
+    }
+
+
     @Override
     public void updateCache( OperationContext opCtx )
     {
@@ -887,4 +935,23 @@ public class JdbmPartition extends AbstractBTreePartition
         entryCache.put( new Element( id, entry ) );
     }
 
+
+    @Override
+    public List<String> getCachedIds()
+    {
+        if ( entryCache == null )
+        {
+            return super.getCachedIds();
+        }
+
+        List<String> ids = new ArrayList<String>();
+
+        for ( Object key : entryCache.getKeys() )
+        {
+            ids.add( ( String ) key );
+        }
+
+        return ids;
+    }
+
 }
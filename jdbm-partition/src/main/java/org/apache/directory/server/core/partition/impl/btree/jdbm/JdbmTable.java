@@ -264,26 +264,6 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     // ------------------------------------------------------------------------
     // Count Overloads
     // ------------------------------------------------------------------------
-    /**
-     * @see Table#greaterThanCount(Object)
-     */
-    public long greaterThanCount( K key ) throws IOException
-    {
-        // take a best guess
-        return Math.min( count, 10L );
-    }
-
-
-    /**
-     * @see Table#lessThanCount(Object)
-     */
-    public long lessThanCount( K key ) throws IOException
-    {
-        // take a best guess
-        return Math.min( count, 10L );
-    }
-
-
     /**
      * @see org.apache.directory.server.xdbm.Table#count(java.lang.Object)
      */
@@ -598,6 +578,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 if ( null == replaced )
                 {
                     count++;
+                    updateRanks( key, 1L );
                 }
 
                 if ( LOG.isDebugEnabled() )
@@ -644,6 +625,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 }
 
                 count++;
+                updateRanks( key, 1L );
                 commit( recMan );
 
                 return;
@@ -655,6 +637,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             if ( replaced == null )
             {
                 count++;
+                updateRanks( key, 1L );
             }
 
             if ( LOG.isDebugEnabled() )
@@ -705,6 +688,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 {
                     bt.remove( key );
                     count--;
+                    updateRanks( key, -1L );
 
                     if ( LOG.isDebugEnabled() )
                     {
@@ -738,6 +722,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                     }
 
                     count--;
+                    updateRanks( key, -1L );
 
                     if ( LOG.isDebugEnabled() )
                     {
@@ -769,6 +754,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 }
 
                 count--;
+                updateRanks( key, -1L );
 
                 if ( LOG.isDebugEnabled() )
                 {
@@ -819,6 +805,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             if ( !allowsDuplicates )
             {
                 this.count--;
+                updateRanks( key, -1L );
 
                 if ( LOG.isDebugEnabled() )
                 {
@@ -836,6 +823,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             {
                 BTree tree = getBTree( BTreeRedirectMarshaller.INSTANCE.deserialize( serialized ) );
                 this.count -= tree.size();
+                updateRanks( key, -tree.size() );
 
                 if ( LOG.isDebugEnabled() )
                 {
@@ -853,6 +841,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             {
                 ArrayTree<V> set = marshaller.deserialize( serialized );
                 this.count -= set.size();
+                updateRanks( key, -set.size() );
 
                 if ( LOG.isDebugEnabled() )
                 {
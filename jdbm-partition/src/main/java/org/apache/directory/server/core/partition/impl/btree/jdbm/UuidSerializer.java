@@ -24,9 +24,15 @@ import java.io.IOException;
 
 import jdbm.helper.Serializer;
 
+import org.apache.directory.server.xdbm.UuidCodec;
+
 
 /**
- * A {@link Serializer} for UUIDs
+ * A {@link Serializer} for UUIDs. The canonical UUIDs are stored as a marker byte
+ * followed by their 16 bytes, other Strings are stored using the {@link StringSerializer}.
+ * As the StringSerializer always produces an even number of bytes, the 17 bytes
+ * of an encoded UUID can't be mistaken with a String : the records written before
+ * this format was introduced are still readable.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -35,6 +41,12 @@ public class UuidSerializer implements Serializer
     private static final long serialVersionUID = 237756689544852128L;
     public static final UuidSerializer INSTANCE = new UuidSerializer();
 
+    /** The first byte of an encoded UUID */
+    private static final byte MARKER = ( byte ) 0xE2;
+
+    /** The length of an encoded UUID */
+    private static final int ENCODED_LENGTH = UuidCodec.LENGTH + 1;
+
 
     /**
      * {@inheritDoc}
@@ -43,7 +55,16 @@ public class UuidSerializer implements Serializer
     {
         String uuid = ( String ) o;
 
-        return StringSerializer.INSTANCE.serialize( uuid );
+        if ( !UuidCodec.isCanonical( uuid ) )
+        {
+            return StringSerializer.INSTANCE.serialize( uuid );
+        }
+
+        byte[] bytes = new byte[ENCODED_LENGTH];
+        bytes[0] = MARKER;
+        UuidCodec.encode( uuid, bytes, 1 );
+
+        return bytes;
     }
 
 
@@ -52,6 +73,11 @@ public class UuidSerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
+        if ( ( bytes != null ) && ( bytes.length == ENCODED_LENGTH ) && ( bytes[0] == MARKER ) )
+        {
+            return UuidCodec.decode( bytes, 1 );
+        }
+
         return StringSerializer.INSTANCE.deserialize( bytes );
     }
 }
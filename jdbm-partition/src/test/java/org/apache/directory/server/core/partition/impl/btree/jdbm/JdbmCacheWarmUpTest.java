@@ -0,0 +1,207 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the warm-up of the JdbmPartition entry cache on restart.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmCacheWarmUpTest
+{
+    File wkdir;
+    JdbmPartition store;
+
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmCacheWarmUpTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+
+        store = openStore( true );
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            store.destroy();
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private JdbmPartition openStore( boolean warmUp ) throws Exception
+    {
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setCacheSize( 100 );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setCacheWarmUp( warmUp );
+        partition.setCacheWarmUpSaveInterval( 0L );
+        partition.setCacheWarmUpBatchSize( 2 );
+
+        JdbmIndex ouIndex = new JdbmIndex( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setWkDirPath( wkdir.toURI() );
+        partition.addIndex( ouIndex );
+
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        return partition;
+    }
+
+
+    private void waitForWarmUp( JdbmPartition partition ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( !partition.isCacheWarmedUp() )
+        {
+            assertTrue( "The warm-up did not end", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10L );
+        }
+    }
+
+
+    @Test
+    public void testCachedEntriesLoadedOnRestart() throws Exception
+    {
+        waitForWarmUp( store );
+
+        store.fetch( Strings.getUUID( 5 ) );
+        store.fetch( Strings.getUUID( 6 ) );
+        store.fetch( Strings.getUUID( 9 ) );
+
+        store.destroy();
+        assertTrue( new File( wkdir, "cache.hotset" ).exists() );
+
+        store = openStore( true );
+        waitForWarmUp( store );
+
+        for ( int i : new int[]
+            { 5, 6, 9 } )
+        {
+            Entry entry = store.lookupCache( Strings.getUUID( i ) );
+
+            assertNotNull( entry );
+            assertEquals( store.fetch( Strings.getUUID( i ) ).getDn(), entry.getDn() );
+        }
+
+        assertNull( store.lookupCache( Strings.getUUID( 7 ) ) );
+    }
+
+
+    @Test
+    public void testWarmUpDisabled() throws Exception
+    {
+        waitForWarmUp( store );
+
+        store.fetch( Strings.getUUID( 5 ) );
+        store.destroy();
+
+        store = openStore( false );
+
+        assertTrue( store.isCacheWarmedUp() );
+        assertNull( store.lookupCache( Strings.getUUID( 5 ) ) );
+    }
+}
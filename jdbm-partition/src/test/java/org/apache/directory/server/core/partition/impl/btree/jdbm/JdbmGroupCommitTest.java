@@ -0,0 +1,384 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.GroupCommitCoordinator;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests that the group commits of a JdbmPartition never write a half done change : the
+ * partition files are copied each time the partition is synced while entries are added
+ * concurrently, as if the server had crashed right after the sync, and each copy is
+ * reopened to check its indexes against its master table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitTest
+{
+    /** The number of concurrent writers */
+    private static final int NB_WRITERS = 8;
+
+    /** The number of entries each writer adds */
+    private static final int NB_ADDS = 20;
+
+    /** The maximum number of copies we check */
+    private static final int MAX_SNAPSHOTS = 20;
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    /** The OU AttributeType instance */
+    private static AttributeType OU_AT;
+
+    /** The entryCSN AttributeType instance */
+    private static AttributeType ENTRY_CSN_AT;
+
+    private File wkdir;
+    private File snapshotDir;
+    private SnapshotPartition partition;
+
+
+    /**
+     * A partition copying its files each time it is synced
+     */
+    private static final class SnapshotPartition extends JdbmPartition
+    {
+        private final AtomicInteger snapshots = new AtomicInteger();
+        private final AtomicInteger adding = new AtomicInteger();
+        private final AtomicInteger overlaps = new AtomicInteger();
+        private final File dir;
+        private final File snapshotDir;
+
+
+        private SnapshotPartition( File dir, File snapshotDir )
+        {
+            super( JdbmGroupCommitTest.schemaManager, JdbmGroupCommitTest.dnFactory );
+            this.dir = dir;
+            this.snapshotDir = snapshotDir;
+        }
+
+
+        @Override
+        public void add( AddOperationContext addContext ) throws LdapException
+        {
+            adding.incrementAndGet();
+
+            try
+            {
+                super.add( addContext );
+            }
+            finally
+            {
+                adding.decrementAndGet();
+            }
+        }
+
+
+        @Override
+        public synchronized void sync() throws Exception
+        {
+            // Give the writers a chance to run while the files are committed
+            Thread.sleep( 1L );
+
+            if ( adding.get() > 0 )
+            {
+                overlaps.incrementAndGet();
+            }
+
+            super.sync();
+
+            int snapshot = snapshots.getAndIncrement();
+
+            if ( isInitialized() && ( snapshot < MAX_SNAPSHOTS ) )
+            {
+                File copy = new File( snapshotDir, "snapshot" + snapshot );
+                copy.mkdirs();
+
+                for ( File file : dir.listFiles() )
+                {
+                    if ( file.isFile() )
+                    {
+                        Files.copy( file.toPath(), new File( copy, file.getName() ).toPath() );
+                    }
+                }
+            }
+        }
+    }
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmGroupCommitTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        OU_AT = schemaManager.getAttributeType( SchemaConstants.OU_AT );
+        ENTRY_CSN_AT = schemaManager.getAttributeType( SchemaConstants.ENTRY_CSN_AT );
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        File tmp = File.createTempFile( getClass().getSimpleName(), "db" );
+        tmp.delete();
+        wkdir = new File( tmp.getParentFile(), getClass().getSimpleName() );
+        snapshotDir = new File( tmp.getParentFile(), getClass().getSimpleName() + "-snapshots" );
+        FileUtils.deleteDirectory( wkdir );
+        FileUtils.deleteDirectory( snapshotDir );
+
+        partition = new SnapshotPartition( wkdir, snapshotDir );
+        configure( partition, wkdir );
+        partition.setSyncOnWrite( true );
+        partition.setGroupCommit( true );
+        partition.initialize();
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy();
+        }
+
+        FileUtils.deleteDirectory( wkdir );
+        FileUtils.deleteDirectory( snapshotDir );
+    }
+
+
+    private void configure( JdbmPartition store, File dir ) throws Exception
+    {
+        store.setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( dir.toURI() );
+
+        JdbmIndex<String> ouIndex = new JdbmIndex<String>( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setWkDirPath( dir.toURI() );
+        store.addIndex( ouIndex );
+
+        store.setSuffixDn( new Dn( schemaManager, "ou=example" ) );
+        store.setCacheService( cacheService );
+    }
+
+
+    /**
+     * Adds an entry the way the OperationManager does : holding the write lock, and
+     * waiting for the sync once the lock is released
+     */
+    private void add( ReadWriteLock lock, String ou, long index ) throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "ou=" + ou + ",ou=example" );
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: " + ou );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            StoreUtils.injectEntryInStore( partition, entry, index );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        GroupCommitCoordinator.awaitPending();
+    }
+
+
+    @Test
+    public void testSyncsDuringConcurrentAdds() throws Exception
+    {
+        // The context entry : the partition lock is created by the first operation
+        StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager, "ou=example",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: example" ), 1L );
+
+        // The context entry has been synced from within its own add
+        partition.overlaps.set( 0 );
+
+        final ReadWriteLock lock = partition.getReadWriteLock();
+        final AtomicInteger errors = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for ( int i = 0; i < NB_WRITERS; i++ )
+        {
+            final int writer = i;
+
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int j = 0; j < NB_ADDS; j++ )
+                        {
+                            add( lock, "writer" + writer + "-" + j, 100L + writer * NB_ADDS + j );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+
+            threads.add( thread );
+            thread.start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0, errors.get() );
+
+        // No add has been done while the partition was synced
+        assertEquals( 0, partition.overlaps.get() );
+
+        assertEquals( 1L + NB_WRITERS * NB_ADDS, partition.count() );
+
+        File[] snapshots = snapshotDir.listFiles();
+        assertTrue( ( snapshots != null ) && ( snapshots.length > 0 ) );
+
+        for ( File snapshot : snapshots )
+        {
+            checkSnapshot( snapshot );
+        }
+    }
+
+
+    /**
+     * Reopens a copy of the partition, and checks that each entry of the master
+     * table is in the indexes, and that the indexes contain no other entry
+     */
+    private void checkSnapshot( File snapshot ) throws Exception
+    {
+        JdbmPartition copy = new JdbmPartition( schemaManager, dnFactory );
+        configure( copy, snapshot );
+        copy.setSyncOnWrite( false );
+        copy.initialize();
+
+        try
+        {
+            Index<String, String> ouIndex = ( Index<String, String> ) copy.getUserIndex( OU_AT );
+            long nbEntries = 0L;
+            Cursor<Tuple<String, Entry>> cursor = copy.getMasterTable().cursor();
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    Tuple<String, Entry> tuple = cursor.get();
+                    String id = tuple.getKey();
+                    Entry entry = tuple.getValue();
+                    nbEntries++;
+
+                    assertTrue( copy.getRdnIndex().reverse( id ) );
+                    assertTrue( copy.getEntryCsnIndex().forward( entry.get( ENTRY_CSN_AT ).getString(), id ) );
+                    assertTrue( copy.getObjectClassIndex().forward( SchemaConstants.ORGANIZATIONAL_UNIT_OC_OID,
+                        id ) );
+                    assertTrue( ouIndex.forward( entry.get( OU_AT ).getString().toLowerCase(), id ) );
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            assertEquals( nbEntries, copy.getRdnIndex().count() );
+            assertEquals( nbEntries, copy.getEntryCsnIndex().count() );
+            assertEquals( nbEntries, copy.getObjectClassIndex().count( SchemaConstants.ORGANIZATIONAL_UNIT_OC_OID ) );
+            assertEquals( nbEntries, ouIndex.count() );
+        }
+        finally
+        {
+            copy.destroy();
+        }
+    }
+}
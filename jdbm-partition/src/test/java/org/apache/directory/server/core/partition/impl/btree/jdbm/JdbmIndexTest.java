@@ -335,8 +335,18 @@ public class JdbmIndexTest
             idx.add( String.valueOf( ch ), Strings.getUUID( ch ) );
         }
 
-        // We should not go above the magic limit of 10
-        assertEquals( 10, idx.greaterThanCount( "a" ) );
+        // The counts are exact, and include the key : a to z, p to z, and nothing
+        // after zz. They used to be estimated as 10 at most
+        assertEquals( 26, idx.greaterThanCount( "a" ) );
+        assertEquals( 11, idx.greaterThanCount( "p" ) );
+        assertEquals( 0, idx.greaterThanCount( "zz" ) );
+
+        // The counts are maintained when the index is updated : q is removed
+        // after p, and a second b value is added
+        idx.drop( "q", Strings.getUUID( 'q' ) );
+        idx.add( "b", Strings.getUUID( 'z' ) );
+        assertEquals( 10, idx.greaterThanCount( "p" ) );
+        assertEquals( 26, idx.greaterThanCount( "a" ) );
     }
 
 
@@ -351,8 +361,44 @@ public class JdbmIndexTest
             idx.add( String.valueOf( ch ), Strings.getUUID( ch ) );
         }
 
-        // We should not go above the magic limit of 10
-        assertEquals( 10, idx.lessThanCount( "z" ) );
+        // The counts are exact, and include the key : a to z, a to p, and nothing
+        // before 0. They used to be estimated as 10 at most
+        assertEquals( 26, idx.lessThanCount( "z" ) );
+        assertEquals( 16, idx.lessThanCount( "p" ) );
+        assertEquals( 0, idx.lessThanCount( "0" ) );
+
+        // The counts are maintained when the index is updated : b now holds
+        // two values instead of one
+        idx.drop( "b", Strings.getUUID( 'b' ) );
+        idx.add( "b", Strings.getUUID( 'y' ) );
+        idx.add( "b", Strings.getUUID( 'z' ) );
+        assertEquals( 17, idx.lessThanCount( "p" ) );
+    }
+
+
+    @Test
+    public void testRangeCountsAfterReopen() throws Exception
+    {
+        initIndex();
+
+        for ( char ch = 'a'; ch <= 'z'; ch++ )
+        {
+            idx.add( String.valueOf( ch ), Strings.getUUID( ch ) );
+        }
+
+        idx.sync();
+        idx.close();
+
+        // The values per key are counted again the first time a range is counted
+        JdbmIndex<String> index = new JdbmIndex<String>( SchemaConstants.OU_AT, false );
+        index.setWkDirPath( dbFileDir.toURI() );
+        initIndex( index );
+
+        // j to z
+        assertEquals( 17, idx.greaterThanCount( "j" ) );
+
+        // a to j
+        assertEquals( 10, idx.lessThanCount( "j" ) );
     }
 
 
@@ -25,11 +25,21 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
 
 import jdbm.RecordManager;
 import jdbm.recman.BaseRecordManager;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
@@ -53,6 +63,31 @@ public class JdbmMasterTableTest
     private static final Logger LOG = LoggerFactory.getLogger( JdbmMasterTableTest.class );
     private static final String TEST_OUTPUT_PATH = "test.output.path";
 
+    /**
+     * The UuidSerializer as it was before the UUIDs were stored as 16 bytes : as the JDBM
+     * B-trees persist their key serializer, a store written by the former version reads and
+     * writes its keys with the UuidSerializer class of the running server.
+     */
+    public static final class FormerUuidSerializer extends UuidSerializer
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** Tells if the keys are written using the former format */
+        static volatile boolean former = true;
+
+
+        @Override
+        public byte[] serialize( Object o ) throws IOException
+        {
+            if ( former )
+            {
+                return StringSerializer.INSTANCE.serialize( o );
+            }
+
+            return super.serialize( o );
+        }
+    }
+
     JdbmMasterTable table;
     File dbFile;
     RecordManager recman;
@@ -143,4 +178,107 @@ public class JdbmMasterTableTest
         assertNull( table.get( Strings.getUUID( 0L ) ) );
         assertEquals( 0, table.count() );
     }
+
+
+    private JdbmTable<String, Entry> openTable() throws Exception
+    {
+        return new JdbmTable<String, Entry>( schemaManager, "former", recman, UuidComparator.INSTANCE,
+            new FormerUuidSerializer(), new EntrySerializer( schemaManager ) );
+    }
+
+
+    private void reopen() throws Exception
+    {
+        table = null;
+        recman.close();
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+    }
+
+
+    /**
+     * Checks that a table contains the given entries, in the UUIDs order
+     */
+    private void assertEntries( JdbmTable<String, Entry> former, List<String> ids ) throws Exception
+    {
+        assertEquals( ids.size(), former.count() );
+
+        for ( String id : ids )
+        {
+            assertEquals( id, former.get( id ).get( "ou" ).getString() );
+        }
+
+        Cursor<Tuple<String, Entry>> cursor = former.cursor();
+        List<String> browsed = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            browsed.add( cursor.get().getKey() );
+        }
+
+        cursor.close();
+
+        assertEquals( new ArrayList<String>( new TreeSet<String>( ids ) ), browsed );
+    }
+
+
+    private Entry createEntry( String id ) throws Exception
+    {
+        return new DefaultEntry( schemaManager,
+            "ou=" + id + ",ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou", id );
+    }
+
+
+    /**
+     * A store written before the UUIDs were stored as 16 bytes must be readable, and the
+     * UUIDs in both formats must coexist in its tables, until every record has been rewritten.
+     */
+    @Test
+    public void testFormerUuidFormat() throws Exception
+    {
+        List<String> ids = new ArrayList<String>();
+        FormerUuidSerializer.former = true;
+
+        try
+        {
+            JdbmTable<String, Entry> former = openTable();
+
+            for ( int i = 0; i < 200; i++ )
+            {
+                String id = UUID.randomUUID().toString();
+                ids.add( id );
+                former.put( id, createEntry( id ) );
+            }
+
+            former.close();
+            reopen();
+
+            // Now, the new format is used
+            FormerUuidSerializer.former = false;
+            former = openTable();
+            assertEntries( former, ids );
+
+            for ( int i = 0; i < 200; i++ )
+            {
+                String id = UUID.randomUUID().toString();
+                ids.add( id );
+                former.put( id, createEntry( id ) );
+            }
+
+            former.remove( ids.remove( 0 ) );
+            former.remove( ids.remove( 250 ) );
+            assertEntries( former, ids );
+
+            former.close();
+            reopen();
+
+            assertEntries( openTable(), ids );
+        }
+        finally
+        {
+            FormerUuidSerializer.former = true;
+        }
+    }
 }
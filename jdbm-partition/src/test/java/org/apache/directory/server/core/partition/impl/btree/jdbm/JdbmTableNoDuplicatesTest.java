@@ -39,6 +39,7 @@ import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtr
 import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.AbstractTable;
 import org.apache.directory.server.xdbm.Table;
 import org.junit.After;
 import org.junit.Before;
@@ -205,6 +206,53 @@ public class JdbmTableNoDuplicatesTest
     }
 
 
+    @Test
+    public void testRanksBuiltStepByStep() throws Exception
+    {
+        AbstractTable<String, String> abstractTable = ( AbstractTable<String, String> ) table;
+        abstractTable.setRankBuildStep( 50000L );
+
+        // More values than the 100000 the ranks used to be limited to
+        for ( int i = 0; i < 150000; i++ )
+        {
+            String istr = Integer.toString( i );
+            table.put( istr, istr );
+        }
+
+        // The ranks are counted the first time a range is counted
+        assertFalse( abstractTable.hasRanks() );
+
+        // Each count browses a step. The first one counts 0 to 49999 : the counts
+        // below are exact
+        assertEquals( 1000, table.lessThanCount( "999" ) );
+        assertFalse( abstractTable.hasRanks() );
+
+        // The second step counts 50000 to 99999. Above, the counts are estimated
+        // as the 100000 counted values and half of the 50000 others
+        assertEquals( 125000, table.lessThanCount( "120000" ) );
+        assertFalse( abstractTable.hasRanks() );
+
+        // The updates of the counted keys are applied to the ranks, the others
+        // are counted by the next step
+        table.remove( "10" );
+        table.remove( "120000" );
+        table.put( "150000", "150000" );
+
+        // The third step counts 100000 to 150000 : 120001 to 150000 are greater
+        // or equal to 120000, 0 to 119999 but 10 are lower or equal
+        assertEquals( 30000, table.greaterThanCount( "120000" ) );
+        assertTrue( abstractTable.hasRanks() );
+        assertEquals( 119999, table.lessThanCount( "120000" ) );
+        assertEquals( 999, table.lessThanCount( "999" ) );
+
+        // Once all the keys are counted, the ranks follow every update
+        table.put( "200000", "200000" );
+        table.remove( "149999" );
+        assertEquals( 30000, table.greaterThanCount( "120000" ) );
+        assertEquals( 2, table.greaterThanCount( "150000" ) );
+    }
+
+
     @Test
     public void testLoadData() throws Exception
     {
@@ -218,14 +266,17 @@ public class JdbmTableNoDuplicatesTest
         assertEquals( 10, table.count() );
         assertEquals( 1, table.count( "0" ) );
 
-        /*
-         * If counts are exact then we can test for exact values.  Again this 
-         * is not a critical function but one used for optimization so worst 
-         * case guesses are allowed.
-         */
-
-        assertEquals( 10, table.lessThanCount( "5" ) );
-        assertEquals( 10, table.greaterThanCount( "5" ) );
+        // The counts of the keys in a range are exact, and include the key :
+        // 0 to 5 are lower or equal to 5, 5 to 9 are greater or equal to 5
+        assertEquals( 6, table.lessThanCount( "5" ) );
+        assertEquals( 5, table.greaterThanCount( "5" ) );
+
+        // The counts are maintained when values are added or removed : 0 is
+        // removed from the lower keys, and 55 is added to the greater keys
+        table.remove( "0" );
+        table.put( "55", "55" );
+        assertEquals( 5, table.lessThanCount( "5" ) );
+        assertEquals( 6, table.greaterThanCount( "5" ) );
     }
 
 
@@ -447,14 +447,21 @@ public class JdbmTableWithDuplicatesTest
         assertEquals( 15, table.count() );
         assertEquals( 1, table.count( "0" ) );
 
-        /*
-         * If counts are exact then we can test for exact values.  Again this 
-         * is not a critical function but one used for optimization so worst 
-         * case guesses are allowed.
-         */
-
-        assertEquals( 10, table.lessThanCount( "5" ) );
+        // The counts of the values in a range of keys are exact, and include the
+        // key : 0 to 5 are lower or equal to 5, 5 to 14 are greater or equal to 5
+        assertEquals( 6, table.lessThanCount( "5" ) );
         assertEquals( 10, table.greaterThanCount( "5" ) );
+
+        // The counts are maintained when values are added or removed : 5 and 6
+        // now hold two values each, and 9 has been removed. Below 5, 0 to 4
+        // and the two values of 5. Above 5, the two values of 5 and 6, 7, 8
+        // and 10 to 14. Above 10, 10 to 14
+        table.put( "5", "15" );
+        table.put( "6", "16" );
+        table.remove( "9" );
+        assertEquals( 7, table.lessThanCount( "5" ) );
+        assertEquals( 11, table.greaterThanCount( "5" ) );
+        assertEquals( 5, table.greaterThanCount( "10" ) );
     }
 
 
@@ -21,12 +21,18 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -42,6 +48,7 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.EntryCodec;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +294,77 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testSerializePartialDecoding() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=text,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: text",
+            "SN: Test",
+            "description: a description",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        byte[] data = new EntrySerializer( schemaManager ).serialize( entry );
+
+        Set<String> oids = new HashSet<String>();
+        oids.add( SchemaConstants.CN_AT_OID );
+        oids.add( SchemaConstants.USER_PASSWORD_AT_OID );
+
+        Entry result = new EntryCodec( schemaManager ).decode( data, 0, data.length, oids );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+        assertEquals( 2, result.size() );
+        assertEquals( entry.get( "cn" ), result.get( "cn" ) );
+        assertEquals( entry.get( "userPassword" ), result.get( "userPassword" ) );
+        assertFalse( result.containsAttribute( "sn", "description", "objectClass" ) );
+    }
+
+
+    /**
+     * Entries stored using the former ObjectOutputStream based format must still be readable
+     */
+    @Test
+    public void testDeserializeFormerFormat() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=text,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: text",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+
+        out.writeByte( 1 );
+        entry.getDn().getRdn().writeExternal( out );
+        out.writeInt( entry.getAttributes().size() );
+
+        for ( Attribute attribute : entry.getAttributes() )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        byte[] data = baos.toByteArray();
+        assertFalse( EntryCodec.isEncoded( data, 0 ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+
+        result.setDn( entry.getDn() );
+        assertEquals( entry, result );
+
+        // Once written back, the entry uses the new format
+        assertTrue( EntryCodec.isEncoded( ses.serialize( result ), 0 ) );
+    }
 }
@@ -0,0 +1,403 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.kerberos.client;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.annotations.CreateKdcServer;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
+import org.apache.directory.server.kerberos.kdc.KerberosTestUtils;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.directory.server.protocol.shared.transport.UdpTransport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * A load test of the KDC : many threads send AS-REQs, and AS-REQs followed by TGS-REQs,
+ * to an in-process KdcServer, over TCP and UDP, and the throughput, the latency percentiles
+ * and the number of bytes allocated per request are reported for each request type.
+ * <br>
+ * This test is not run by the default build, it has to be selected explicitly. The load
+ * can be set using the following system properties :
+ * <ul>
+ *   <li><b>kdc.load.threads</b> : the number of client threads (default 4)</li>
+ *   <li><b>kdc.load.requests</b> : the number of requests sent by each thread (default 50)</li>
+ * </ul>
+ * For instance : mvn test -Dtest=KdcLoadIT -Dkdc.load.threads=32 -Dkdc.load.requests=2000
+ * <br>
+ * The client sets the authenticators' time to the second, and the KDC rejects two TGS-REQs
+ * sent by the same client in the same second as a replay. Each TGS-REQ is thus sent by its
+ * own client principal, the principals being created before the measure.
+ * <br>
+ * As the clients run in the same JVM, the allocated bytes include the client side
+ * allocations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "KdcLoadIT-class", enableChangeLog = false,
+    partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com",
+                contextEntry = @ContextEntry(entryLdif =
+                    "dn: dc=example,dc=com\n" +
+                        "objectClass: domain\n" +
+                        "dc: example"))
+    },
+    additionalInterceptors =
+        {
+            KeyDerivationInterceptor.class
+    })
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+@CreateKdcServer(
+    searchBaseDn = "dc=example,dc=com",
+    transports =
+        {
+            @CreateTransport(protocol = "TCP"),
+            @CreateTransport(protocol = "UDP")
+    })
+@ApplyLdifs(
+    {
+        // krbtgt
+        "dn: uid=krbtgt,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: inetOrgPerson",
+        "objectClass: krb5principal",
+        "objectClass: krb5kdcentry",
+        "cn: KDC Service",
+        "sn: Service",
+        "uid: krbtgt",
+        "userPassword: secret",
+        "krb5PrincipalName: krbtgt/EXAMPLE.COM@EXAMPLE.COM",
+        "krb5KeyVersionNumber: 0",
+
+        // app service
+        "dn: uid=ldap,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: inetOrgPerson",
+        "objectClass: krb5principal",
+        "objectClass: krb5kdcentry",
+        "cn: LDAP",
+        "sn: Service",
+        "uid: ldap",
+        "userPassword: randall",
+        "krb5PrincipalName: ldap/localhost@EXAMPLE.COM",
+        "krb5KeyVersionNumber: 0"
+})
+public class KdcLoadIT extends AbstractLdapTestUnit
+{
+    private static final String USERS_DN = "dc=example,dc=com";
+
+    private static final String USER_PASSWORD = "secret";
+
+    private static final String PRINCIPAL_NAME = "loaduser@EXAMPLE.COM";
+
+    private static final int NB_THREADS = Integer.getInteger( "kdc.load.threads", 4 );
+
+    private static final int NB_REQUESTS = Integer.getInteger( "kdc.load.requests", 50 );
+
+    private static boolean principalCreated;
+
+    /** The number of principals used by the TGS-REQs which have been created */
+    private static int nbTgsPrincipals;
+
+    private String serverPrincipal;
+
+    /** The type of request to send */
+    private enum RequestType
+    {
+        AS_REQ, AS_AND_TGS_REQ
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        kdcServer.setSearchBaseDn( USERS_DN );
+
+        if ( !principalCreated )
+        {
+            createPrincipal( "loaduser", PRINCIPAL_NAME );
+            principalCreated = true;
+        }
+
+        serverPrincipal = KerberosTestUtils.fixServicePrincipalName( "ldap/localhost@EXAMPLE.COM", new Dn(
+            "uid=ldap,dc=example,dc=com" ), getLdapServer() );
+    }
+
+
+    @Test
+    public void testAsReqTcp() throws Exception
+    {
+        runLoad( RequestType.AS_REQ, false );
+    }
+
+
+    @Test
+    public void testAsReqUdp() throws Exception
+    {
+        runLoad( RequestType.AS_REQ, true );
+    }
+
+
+    @Test
+    public void testAsAndTgsReqTcp() throws Exception
+    {
+        runLoad( RequestType.AS_AND_TGS_REQ, false );
+    }
+
+
+    @Test
+    public void testAsAndTgsReqUdp() throws Exception
+    {
+        runLoad( RequestType.AS_AND_TGS_REQ, true );
+    }
+
+
+    private void createPrincipal( String uid, String principalName ) throws Exception
+    {
+        CoreSession session = kdcServer.getDirectoryService().getAdminSession();
+        Entry entry = new DefaultEntry( session.getDirectoryService().getSchemaManager() );
+        entry.setDn( "uid=" + uid + "," + USERS_DN );
+        entry.add( "objectClass", "top", "person", "inetOrgPerson", "krb5principal", "krb5kdcentry" );
+        entry.add( "cn", uid );
+        entry.add( "sn", uid );
+        entry.add( "uid", uid );
+        entry.add( "userPassword", USER_PASSWORD );
+        entry.add( "krb5PrincipalName", principalName );
+        entry.add( "krb5KeyVersionNumber", "0" );
+        session.add( entry );
+    }
+
+
+    /**
+     * @return The name of the principal sending a given TGS-REQ
+     */
+    private static String getTgsPrincipalName( int requestNumber )
+    {
+        return "tgsuser" + requestNumber + "@EXAMPLE.COM";
+    }
+
+
+    /**
+     * Creates a principal for each of the TGS-REQs, if they don't exist yet
+     */
+    private void createTgsPrincipals() throws Exception
+    {
+        int nbPrincipals = NB_THREADS * NB_REQUESTS;
+
+        for ( int i = nbTgsPrincipals; i < nbPrincipals; i++ )
+        {
+            createPrincipal( "tgsuser" + i, getTgsPrincipalName( i ) );
+        }
+
+        nbTgsPrincipals = Math.max( nbTgsPrincipals, nbPrincipals );
+    }
+
+
+    /**
+     * Sends NB_REQUESTS requests from each of the NB_THREADS threads, and reports
+     * the results. Each thread uses its own connection, as a KdcConnection can't
+     * be shared.
+     */
+    private void runLoad( final RequestType requestType, final boolean useUdp ) throws Exception
+    {
+        final String name = requestType + ( useUdp ? "/UDP" : "/TCP" );
+        final LatencyHistogram histogram = new LatencyHistogram( name );
+        final AtomicLong failures = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final CountDownLatch done = new CountDownLatch( NB_THREADS );
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        if ( requestType == RequestType.AS_AND_TGS_REQ )
+        {
+            createTgsPrincipals();
+        }
+
+        for ( int i = 0; i < NB_THREADS; i++ )
+        {
+            final KdcConnection connection = createConnection( useUdp );
+            final int firstRequest = i * NB_REQUESTS;
+
+            Thread thread = new Thread( name + "-" + i )
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        for ( int j = 0; j < NB_REQUESTS; j++ )
+                        {
+                            long t0 = System.nanoTime();
+
+                            try
+                            {
+                                if ( requestType == RequestType.AS_REQ )
+                                {
+                                    connection.getTgt( PRINCIPAL_NAME, USER_PASSWORD );
+                                }
+                                else
+                                {
+                                    connection.getServiceTicket( getTgsPrincipalName( firstRequest + j ),
+                                        USER_PASSWORD, serverPrincipal );
+                                }
+
+                                histogram.recordSince( t0 );
+                            }
+                            catch ( Exception e )
+                            {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+
+            threads.add( thread );
+            thread.start();
+        }
+
+        long allocatedBefore = getAllocatedBytes();
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - t0;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        long nbRequests = histogram.getCount();
+
+        System.out.println( name + " : " + NB_THREADS + " threads, " + nbRequests + " requests, "
+            + ( nbRequests * 1000000000L / Math.max( 1L, elapsed ) ) + " req/s, p50="
+            + ( histogram.getPercentile50() / 1000L ) + "us, p90=" + ( histogram.getPercentile90() / 1000L )
+            + "us, p99=" + ( histogram.getPercentile99() / 1000L ) + "us, max=" + ( histogram.getMax() / 1000L )
+            + "us, " + ( ( allocated < 0 ) ? "n/a" : String.valueOf( allocated / Math.max( 1L, nbRequests ) ) )
+            + " bytes allocated/req" );
+
+        assertEquals( 0, failures.get() );
+        assertEquals( ( long ) NB_THREADS * NB_REQUESTS, nbRequests );
+    }
+
+
+    private KdcConnection createConnection( boolean useUdp )
+    {
+        KdcConfig config = new KdcConfig();
+        config.setUseUdp( useUdp );
+        config.setKdcPort( useUdp ? getUdpPort() : kdcServer.getTcpPort() );
+        config.setEncryptionTypes( kdcServer.getConfig().getEncryptionTypes() );
+        config.setTimeout( 30000 );
+
+        return new KdcConnection( config );
+    }
+
+
+    /**
+     * Computes the number of bytes allocated by all the threads of the JVM, if the
+     * JVM supports it. The bytes allocated by the threads which have died in between
+     * two calls are not counted.
+     *
+     * @return The number of bytes, or Long.MIN_VALUE if it can't be computed
+     */
+    private static long getAllocatedBytes()
+    {
+        java.lang.management.ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+
+        if ( !( threadMxBean instanceof com.sun.management.ThreadMXBean ) )
+        {
+            return Long.MIN_VALUE;
+        }
+
+        com.sun.management.ThreadMXBean sunThreadMxBean = ( com.sun.management.ThreadMXBean ) threadMxBean;
+
+        if ( !sunThreadMxBean.isThreadAllocatedMemorySupported() || !sunThreadMxBean.isThreadAllocatedMemoryEnabled() )
+        {
+            return Long.MIN_VALUE;
+        }
+
+        long total = 0L;
+
+        for ( long allocated : sunThreadMxBean.getThreadAllocatedBytes( threadMxBean.getAllThreadIds() ) )
+        {
+            if ( allocated > 0 )
+            {
+                total += allocated;
+            }
+        }
+
+        return total;
+    }
+
+
+    private int getUdpPort()
+    {
+        for ( Transport t : kdcServer.getTransports() )
+        {
+            if ( t instanceof UdpTransport )
+            {
+                return t.getPort();
+            }
+        }
+
+        return -1;
+    }
+}
@@ -145,7 +145,16 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
     {
-        return deriveRandom( baseKey, usage, n, k );
+        DerivedKeyCache cache = DerivedKeyCache.getInstance();
+        byte[] result = cache.get( getEncryptionType(), baseKey, usage );
+
+        if ( result == null )
+        {
+            result = deriveRandom( baseKey, usage, n, k );
+            cache.put( getEncryptionType(), baseKey, usage, result );
+        }
+
+        return result;
     }
 
 
@@ -155,7 +164,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
         {
             SecretKey sk = new SecretKeySpec( key, "AES" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = CryptoInstances.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -172,7 +181,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "AES/CTS/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "AES/CTS/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "AES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
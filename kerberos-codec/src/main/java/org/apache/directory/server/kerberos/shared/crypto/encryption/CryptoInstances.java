@@ -0,0 +1,135 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+
+/**
+ * Per-thread instances of the Cipher, Mac and MessageDigest used by the encryption
+ * and checksum engines. Looking up a provider for each operation is costly, so each
+ * thread keeps one instance per algorithm and reuses it.
+ * <br>
+ * The returned instances are only valid for the current thread, and must be
+ * (re)initialized with their key before each use, as they may still hold the
+ * state of a previous operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class CryptoInstances
+{
+    /** The instances of the current thread, per algorithm */
+    private static final ThreadLocal<Map<String, Object>> INSTANCES = new ThreadLocal<Map<String, Object>>()
+    {
+        @Override
+        protected Map<String, Object> initialValue()
+        {
+            return new HashMap<String, Object>();
+        }
+    };
+
+
+    private CryptoInstances()
+    {
+    }
+
+
+    /**
+     * Gets the Cipher of the current thread for a transformation.
+     *
+     * @param transformation The transformation, like "AES/CTS/NoPadding"
+     * @return The Cipher, which must be initialized before use
+     * @throws NoSuchAlgorithmException If the transformation is not supported
+     * @throws NoSuchPaddingException If the padding is not supported
+     */
+    public static Cipher getCipher( String transformation ) throws NoSuchAlgorithmException, NoSuchPaddingException
+    {
+        Map<String, Object> instances = INSTANCES.get();
+        String key = "Cipher/" + transformation;
+        Cipher cipher = ( Cipher ) instances.get( key );
+
+        if ( cipher == null )
+        {
+            cipher = Cipher.getInstance( transformation );
+            instances.put( key, cipher );
+        }
+
+        return cipher;
+    }
+
+
+    /**
+     * Gets the Mac of the current thread for an algorithm.
+     *
+     * @param algorithm The algorithm, like "HmacSHA1"
+     * @return The Mac, which must be initialized before use
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static Mac getMac( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, Object> instances = INSTANCES.get();
+        String key = "Mac/" + algorithm;
+        Mac mac = ( Mac ) instances.get( key );
+
+        if ( mac == null )
+        {
+            mac = Mac.getInstance( algorithm );
+            instances.put( key, mac );
+        }
+
+        return mac;
+    }
+
+
+    /**
+     * Gets the MessageDigest of the current thread for an algorithm. The digest
+     * is reset before being returned.
+     *
+     * @param algorithm The algorithm, like "MD5"
+     * @return The MessageDigest
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public static MessageDigest getMessageDigest( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, Object> instances = INSTANCES.get();
+        String key = "MessageDigest/" + algorithm;
+        MessageDigest digest = ( MessageDigest ) instances.get( key );
+
+        if ( digest == null )
+        {
+            digest = MessageDigest.getInstance( algorithm );
+            instances.put( key, digest );
+        }
+        else
+        {
+            digest.reset();
+        }
+
+        return digest;
+    }
+}
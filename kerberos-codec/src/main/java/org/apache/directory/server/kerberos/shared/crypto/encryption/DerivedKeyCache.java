@@ -0,0 +1,305 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+
+
+/**
+ * A bounded cache of the keys derived from a long-term key and a usage constant
+ * (Kc, Ke and Ki), so that we don't have to run the derivation function each
+ * time the same key is used for the same usage. Only the keys derived for the
+ * usages 1 to 3 are cached : they use the principals' long-term keys (the client
+ * key for the pre-authentication and the AS-REP, the server key for the tickets),
+ * which are used again and again. The other usages use session keys or sub-keys,
+ * which are only used for a few messages and would just push the long-term keys
+ * out of the cache.
+ * <br>
+ * The keys are spread over several stripes, each one being an LRU map with its own
+ * lock, so that the threads using different keys don't wait for each other. The
+ * evicted keys are zeroed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class DerivedKeyCache
+{
+    /** The default maximum number of derived keys */
+    static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /** The maximum number of stripes */
+    private static final int MAX_STRIPES = 16;
+
+    /** The minimum number of keys in a stripe */
+    private static final int MIN_STRIPE_ENTRIES = 64;
+
+    /** The highest usage number using a long-term key */
+    private static final int LAST_LONG_TERM_KEY_USAGE = 3;
+
+    /** The cache shared by all the engines */
+    private static final DerivedKeyCache INSTANCE = new DerivedKeyCache( DEFAULT_MAX_ENTRIES );
+
+    /** The derived keys, spread over the stripes by the hash of their key */
+    private final Stripe[] stripes;
+
+
+    /**
+     * Creates a new instance of DerivedKeyCache. A small cache uses a single stripe,
+     * so that its least recently used keys are evicted first.
+     *
+     * @param maxEntries The maximum number of derived keys to keep
+     */
+    DerivedKeyCache( int maxEntries )
+    {
+        int nbStripes = Math.max( 1, Math.min( MAX_STRIPES, maxEntries / MIN_STRIPE_ENTRIES ) );
+        stripes = new Stripe[nbStripes];
+
+        for ( int i = 0; i < nbStripes; i++ )
+        {
+            stripes[i] = new Stripe( Math.max( 1, maxEntries / nbStripes ) );
+        }
+    }
+
+
+    /**
+     * @return The cache shared by all the engines
+     */
+    static DerivedKeyCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Tells if the keys derived for a usage are cached.
+     *
+     * @param usage The usage constant : the usage number on four bytes, followed by the key type
+     * @return true if the usage uses a long-term key
+     */
+    static boolean isCached( byte[] usage )
+    {
+        if ( usage.length < 4 )
+        {
+            return false;
+        }
+
+        int usageNumber = ( ( usage[0] & 0xFF ) << 24 ) | ( ( usage[1] & 0xFF ) << 16 )
+            | ( ( usage[2] & 0xFF ) << 8 ) | ( usage[3] & 0xFF );
+
+        return ( usageNumber >= 1 ) && ( usageNumber <= LAST_LONG_TERM_KEY_USAGE );
+    }
+
+
+    private Stripe getStripe( DerivationKey key )
+    {
+        int hash = key.hash ^ ( key.hash >>> 16 );
+
+        return stripes[( hash & 0x7FFFFFFF ) % stripes.length];
+    }
+
+
+    /**
+     * Gets a derived key.
+     *
+     * @param encryptionType The encryption type the key is derived for
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @return A copy of the derived key, or null if it's not in the cache
+     */
+    byte[] get( EncryptionType encryptionType, byte[] baseKey, byte[] usage )
+    {
+        if ( !isCached( usage ) )
+        {
+            return null;
+        }
+
+        DerivationKey key = new DerivationKey( encryptionType, baseKey, usage );
+        Stripe stripe = getStripe( key );
+
+        synchronized ( stripe )
+        {
+            byte[] derivedKey = stripe.get( key );
+
+            // Copy the key while holding the lock, as it's zeroed when evicted
+            return ( derivedKey == null ) ? null : derivedKey.clone();
+        }
+    }
+
+
+    /**
+     * Stores a derived key, if its usage uses a long-term key.
+     *
+     * @param encryptionType The encryption type the key is derived for
+     * @param baseKey The base key
+     * @param usage The usage constant
+     * @param derivedKey The derived key
+     */
+    void put( EncryptionType encryptionType, byte[] baseKey, byte[] usage, byte[] derivedKey )
+    {
+        if ( !isCached( usage ) )
+        {
+            return;
+        }
+
+        DerivationKey key = new DerivationKey( encryptionType, baseKey.clone(), usage.clone() );
+        Stripe stripe = getStripe( key );
+
+        synchronized ( stripe )
+        {
+            byte[] previous = stripe.put( key, derivedKey.clone() );
+
+            if ( previous != null )
+            {
+                Arrays.fill( previous, ( byte ) 0 );
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of derived keys in the cache
+     */
+    int size()
+    {
+        int size = 0;
+
+        for ( Stripe stripe : stripes )
+        {
+            synchronized ( stripe )
+            {
+                size += stripe.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Removes and zeroes all the derived keys
+     */
+    void clear()
+    {
+        for ( Stripe stripe : stripes )
+        {
+            synchronized ( stripe )
+            {
+                for ( Map.Entry<DerivationKey, byte[]> entry : stripe.entrySet() )
+                {
+                    entry.getKey().zero();
+                    Arrays.fill( entry.getValue(), ( byte ) 0 );
+                }
+
+                stripe.clear();
+            }
+        }
+    }
+
+
+    /**
+     * A part of the cache, an LRU map zeroing the keys it evicts. It must be
+     * accessed while holding its lock.
+     */
+    private static final class Stripe extends LinkedHashMap<DerivationKey, byte[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The maximum number of keys in this stripe */
+        private final int maxEntries;
+
+
+        Stripe( int maxEntries )
+        {
+            super( 16, 0.75f, true );
+            this.maxEntries = maxEntries;
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<DerivationKey, byte[]> eldest )
+        {
+            if ( size() > maxEntries )
+            {
+                eldest.getKey().zero();
+                Arrays.fill( eldest.getValue(), ( byte ) 0 );
+
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * The key of a derived key : the encryption type, the base key and the usage
+     */
+    private static final class DerivationKey
+    {
+        private final EncryptionType encryptionType;
+        private final byte[] baseKey;
+        private final byte[] usage;
+        private final int hash;
+
+
+        DerivationKey( EncryptionType encryptionType, byte[] baseKey, byte[] usage )
+        {
+            this.encryptionType = encryptionType;
+            this.baseKey = baseKey;
+            this.usage = usage;
+            hash = ( encryptionType.hashCode() * 31 + Arrays.hashCode( baseKey ) ) * 31 + Arrays.hashCode( usage );
+        }
+
+
+        /**
+         * Zeroes the copy of the base key held by this key, once it's been removed from the cache
+         */
+        void zero()
+        {
+            Arrays.fill( baseKey, ( byte ) 0 );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof DerivationKey ) )
+            {
+                return false;
+            }
+
+            DerivationKey that = ( DerivationKey ) obj;
+
+            return ( encryptionType == that.encryptionType ) && Arrays.equals( baseKey, that.baseKey )
+                && Arrays.equals( usage, that.usage );
+        }
+    }
+}
@@ -161,8 +161,15 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
      */
     protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
     {
-        byte[] result = deriveRandom( baseKey, usage, n, k );
-        result = randomToKey( result );
+        DerivedKeyCache cache = DerivedKeyCache.getInstance();
+        byte[] result = cache.get( getEncryptionType(), baseKey, usage );
+
+        if ( result == null )
+        {
+            result = deriveRandom( baseKey, usage, n, k );
+            result = randomToKey( result );
+            cache.put( getEncryptionType(), baseKey, usage, result );
+        }
 
         return result;
     }
@@ -264,7 +271,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DESede/CBC/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "DESede/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DESede" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
@@ -294,7 +301,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
         {
             SecretKey sk = new SecretKeySpec( key, "DESede" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = CryptoInstances.getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -155,7 +155,7 @@ public class DesCbcCrcEncryption extends EncryptionEngine
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DES/CBC/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "DES/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
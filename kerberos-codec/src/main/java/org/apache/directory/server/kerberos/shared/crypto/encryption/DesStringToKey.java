@@ -264,7 +264,7 @@ public class DesStringToKey
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DES/CBC/NoPadding" );
+            Cipher cipher = CryptoInstances.getCipher( "DES/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( keyBytes );
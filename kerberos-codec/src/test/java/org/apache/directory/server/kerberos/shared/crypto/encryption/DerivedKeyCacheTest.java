@@ -0,0 +1,238 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptedData;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.Test;
+
+
+/**
+ * Tests the DerivedKeyCache, and the engines using it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DerivedKeyCacheTest
+{
+    private static final byte[] KEY_BYTES = Strings.getBytesUtf8( "0123456789abcdefghijklmn" );
+
+    private static final byte[] USAGE_1 = new byte[]
+        { 0, 0, 0, 1, ( byte ) 0xAA };
+
+    private static final byte[] USAGE_2 = new byte[]
+        { 0, 0, 0, 2, ( byte ) 0xAA };
+
+    /** The Ke usage constant of the TGS-REP encrypted part, using the TGS session key */
+    private static final byte[] SESSION_KEY_USAGE = new byte[]
+        { 0, 0, 0, 8, ( byte ) 0xAA };
+
+
+    @Test
+    public void testCachedKeyIsTheDerivedKey()
+    {
+        Des3CbcSha1KdEncryption engine = new Des3CbcSha1KdEncryption();
+
+        byte[] expected = engine.randomToKey( engine.deriveRandom( KEY_BYTES, USAGE_1, 64, 168 ) );
+
+        // The first call derives the key, the second one gets it from the cache
+        assertArrayEquals( expected, engine.deriveKey( KEY_BYTES, USAGE_1, 64, 168 ) );
+        assertArrayEquals( expected, engine.deriveKey( KEY_BYTES, USAGE_1, 64, 168 ) );
+        assertNotNull( DerivedKeyCache.getInstance().get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1 ) );
+
+        // Another usage gives another key
+        assertFalse( Arrays.equals( expected, engine.deriveKey( KEY_BYTES, USAGE_2, 64, 168 ) ) );
+    }
+
+
+    @Test
+    public void testCacheReturnsCopies()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( 10 );
+        byte[] baseKey = KEY_BYTES.clone();
+        byte[] derivedKey = new byte[]
+            { 1, 2, 3 };
+
+        cache.put( EncryptionType.DES3_CBC_SHA1_KD, baseKey, USAGE_1, derivedKey );
+
+        // Modifying the arrays does not modify the cache content
+        baseKey[0] = 0;
+        derivedKey[0] = 0;
+        cache.get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1 )[1] = 0;
+
+        assertArrayEquals( new byte[]
+            { 1, 2, 3 }, cache.get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1 ) );
+        assertNull( cache.get( EncryptionType.DES3_CBC_SHA1_KD, baseKey, USAGE_1 ) );
+        assertNull( cache.get( EncryptionType.AES128_CTS_HMAC_SHA1_96, KEY_BYTES, USAGE_1 ) );
+    }
+
+
+    @Test
+    public void testEviction()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( 2 );
+
+        cache.put( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1, USAGE_1 );
+        cache.put( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_2, USAGE_2 );
+        cache.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, KEY_BYTES, USAGE_1, USAGE_1 );
+
+        assertEquals( 2, cache.size() );
+        assertNull( cache.get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1 ) );
+
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testRepeatedEncryption() throws Exception
+    {
+        Des3CbcSha1KdEncryption engine = new Des3CbcSha1KdEncryption();
+        EncryptionKey key = new EncryptionKey( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES );
+        byte[] plainText = Strings.getBytesUtf8( "Some text to encrypt" );
+
+        // The keys and the Cipher instances are reused
+        for ( int i = 0; i < 10; i++ )
+        {
+            EncryptedData data = engine.getEncryptedData( key, plainText, KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+            byte[] decrypted = engine.getDecryptedData( key, data, KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+
+            // The plain text is padded
+            assertArrayEquals( plainText, Arrays.copyOf( decrypted, plainText.length ) );
+        }
+    }
+
+
+    @Test
+    public void testSessionKeysAreNotCached()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( 10 );
+
+        cache.put( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, SESSION_KEY_USAGE, USAGE_1 );
+
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, SESSION_KEY_USAGE ) );
+        assertTrue( DerivedKeyCache.isCached( USAGE_1 ) );
+        assertTrue( DerivedKeyCache.isCached( USAGE_2 ) );
+        assertFalse( DerivedKeyCache.isCached( SESSION_KEY_USAGE ) );
+
+        // The engines still derive the right key
+        Des3CbcSha1KdEncryption engine = new Des3CbcSha1KdEncryption();
+        byte[] expected = engine.randomToKey( engine.deriveRandom( KEY_BYTES, SESSION_KEY_USAGE, 64, 168 ) );
+
+        assertArrayEquals( expected, engine.deriveKey( KEY_BYTES, SESSION_KEY_USAGE, 64, 168 ) );
+        assertNull( DerivedKeyCache.getInstance().get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES,
+            SESSION_KEY_USAGE ) );
+    }
+
+
+    @Test
+    public void testEvictionDoesNotZeroTheCopies()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( 1 );
+        byte[] derivedKey = new byte[]
+            { 1, 2, 3 };
+
+        cache.put( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1, derivedKey );
+        byte[] copy = cache.get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1 );
+
+        cache.put( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_2, derivedKey );
+
+        // The evicted key is zeroed, the copy returned before is not affected
+        assertArrayEquals( derivedKey, copy );
+        assertNull( cache.get( EncryptionType.DES3_CBC_SHA1_KD, KEY_BYTES, USAGE_1 ) );
+        assertEquals( 1, cache.size() );
+    }
+
+
+    @Test
+    public void testStripedCacheIsBounded()
+    {
+        DerivedKeyCache cache = new DerivedKeyCache( DerivedKeyCache.DEFAULT_MAX_ENTRIES );
+
+        for ( int i = 0; i < 4 * DerivedKeyCache.DEFAULT_MAX_ENTRIES; i++ )
+        {
+            byte[] baseKey = Strings.getBytesUtf8( "key" + i );
+            cache.put( EncryptionType.AES128_CTS_HMAC_SHA1_96, baseKey, USAGE_1, baseKey );
+
+            // The key which has just been added is in the cache
+            assertArrayEquals( baseKey, cache.get( EncryptionType.AES128_CTS_HMAC_SHA1_96, baseKey, USAGE_1 ) );
+        }
+
+        assertTrue( cache.size() <= DerivedKeyCache.DEFAULT_MAX_ENTRIES );
+        assertTrue( cache.size() > DerivedKeyCache.DEFAULT_MAX_ENTRIES / 2 );
+    }
+
+
+    @Test
+    public void testConcurrentDerivations() throws Exception
+    {
+        final Des3CbcSha1KdEncryption engine = new Des3CbcSha1KdEncryption();
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+        for ( int t = 0; t < 8; t++ )
+        {
+            results.add( executor.submit( new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    for ( int i = 0; i < 200; i++ )
+                    {
+                        byte[] baseKey = Strings.getBytesUtf8( String.format( "0123456789abcdefghijkl%02d", i % 20 ) );
+                        byte[] usage = ( i % 2 == 0 ) ? USAGE_1 : USAGE_2;
+                        byte[] expected = engine.randomToKey( engine.deriveRandom( baseKey, usage, 64, 168 ) );
+
+                        if ( !Arrays.equals( expected, engine.deriveKey( baseKey, usage, 64, 168 ) ) )
+                        {
+                            return false;
+                        }
+                    }
+
+                    return true;
+                }
+            } ) );
+        }
+
+        for ( Future<Boolean> result : results )
+        {
+            assertTrue( result.get() );
+        }
+
+        executor.shutdown();
+    }
+}
@@ -21,11 +21,8 @@ package org.apache.directory.server.core.partition.impl.btree.mavibot;
 
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
 import java.util.Comparator;
 
@@ -42,6 +39,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.serializer.AbstractElementSerializer;
 import org.apache.directory.mavibot.btree.serializer.BufferHandler;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,6 +68,9 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
     /** The schemaManager reference */
     private static SchemaManager schemaManager;
 
+    /** The codec used to encode and decode the entries */
+    private static EntryCodec codec;
+
     private static class EntryComparator implements Comparator<Entry>
     {
 
@@ -102,85 +103,19 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
 
     /**
-     * <p>
-     * 
-     * This is the place where we serialize entries, and all theirs
-     * elements. the reason why we don't call the underlying methods
-     * (<code>ServerAttribute.write(), Value.write()</code>) is that we need
-     * access to the registries to read back the values.
-     * <p>
-     * The structure used to store the entry is the following :
-     * <ul>
-     *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
-     *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
-     *   <li><b>[numberAttr]</b> : the bumber of attributes. Can be 0</li>
-     *   <li>For each Attribute :
-     *     <ul>
-     *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
-     *       the attributeType on deserialization</li>
-     *       <li><b>[Attribute]</b> The attribute</li>
-     *     </ul>
-     *   </li>
-     * </ul>
+     * Serialize an entry, using the {@link EntryCodec} format.
      */
     public byte[] serialize( Entry entry )
     {
         try
         {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-            ObjectOutput out = new ObjectOutputStream( baos );
-
-            // First, the Dn
-            Dn dn = entry.getDn();
-
-            // Write the Rdn of the Dn
-            if ( dn.isEmpty() )
-            {
-                out.writeByte( 0 );
-            }
-            else
-            {
-                out.writeByte( 1 );
-                Rdn rdn = dn.getRdn();
-                rdn.writeExternal( out );
-            }
-
-            // Then the attributes.
-            out.writeInt( entry.getAttributes().size() );
-
-            // Iterate through the keys. We store the Attribute
-            // here, to be able to restore it in the readExternal :
-            // we need access to the registries, which are not available
-            // in the ServerAttribute class.
-            for ( Attribute attribute : entry.getAttributes() )
-            {
-                AttributeType attributeType = attribute.getAttributeType();
-
-                // Write the oid to be able to restore the AttributeType when deserializing
-                // the attribute
-                String oid = attributeType.getOid();
-
-                out.writeUTF( oid );
-
-                // Write the attribute
-                attribute.writeExternal( out );
-            }
-
-            out.flush();
-
-            // Note : we don't store the ObjectClassAttribute. It has already
-            // been stored as an attribute.
-
             if ( IS_DEBUG )
             {
                 LOG.debug( ">------------------------------------------------" );
                 LOG.debug( "Serialize " + entry );
             }
 
-            byte[] bytes = baos.toByteArray();
-
-            return bytes;
+            return codec.encode( entry );
         }
         catch ( Exception e )
         {
@@ -190,7 +125,9 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
 
     /**
-     *  Deserialize a Entry.
+     *  Deserialize a Entry. Entries stored before the {@link EntryCodec} format was
+     *  introduced are still read using the former ObjectOutputStream based format, they
+     *  will be converted the next time they are written.
      *  
      *  @param bytes the byte array containing the serialized entry
      *  @return An instance of a Entry object 
@@ -201,6 +138,14 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
         // read the length
         int len = buffer.limit();
 
+        if ( EntryCodec.isEncoded( buffer.array(), buffer.position() ) )
+        {
+            Entry entry = codec.decode( buffer.array(), buffer.position(), len );
+            buffer.position( buffer.position() + len ); // previous position + length
+
+            return entry;
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer.array(), buffer.position(), len ) );
 
         try
@@ -281,6 +226,7 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
     public static void setSchemaManager( SchemaManager schemaManager )
     {
         MavibotEntrySerializer.schemaManager = schemaManager;
+        MavibotEntrySerializer.codec = new EntryCodec( schemaManager );
     }
 
 
@@ -303,6 +249,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
         // read the length
         int len = buffer.length - pos;
 
+        if ( EntryCodec.isEncoded( buffer, pos ) )
+        {
+            return codec.decode( buffer, pos, len );
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer, pos, len ) );
 
         try
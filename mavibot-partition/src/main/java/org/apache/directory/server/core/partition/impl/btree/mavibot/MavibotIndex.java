@@ -189,9 +189,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             forwardDups = false;
         }
 
-        String forwardTableName = attributeType.getOid() + FORWARD_BTREE;
+        String forwardTableName = getStorageName() + FORWARD_BTREE;
         forward = new MavibotTable<K, String>( recordMan, schemaManager, forwardTableName, forwardKeySerializer,
-            StringSerializer.INSTANCE, forwardDups, AbstractBTreePartition.DEFAULT_CACHE_SIZE );
+            MavibotUuidSerializer.INSTANCE, forwardDups, AbstractBTreePartition.DEFAULT_CACHE_SIZE );
 
         /*
          * Now the reverse map stores the primary key into the master table as
@@ -201,12 +201,12 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
          */
         if ( withReverse )
         {
-            String reverseTableName = attributeType.getOid() + REVERSE_BTREE;
-            reverse = new MavibotTable<String, K>( recordMan, schemaManager, reverseTableName, StringSerializer.INSTANCE,
-                forwardKeySerializer, !attributeType.isSingleValued() );
+            String reverseTableName = getStorageName() + REVERSE_BTREE;
+            reverse = new MavibotTable<String, K>( recordMan, schemaManager, reverseTableName,
+                MavibotUuidSerializer.INSTANCE, forwardKeySerializer, !attributeType.isSingleValued() );
         }
 
-        String path = new File( this.wkDirPath, attributeType.getOid() ).getAbsolutePath();
+        String path = new File( this.wkDirPath, getStorageName() ).getAbsolutePath();
         // finally write a text file in the format <OID>-<attribute-name>.txt
         FileWriter fw = new FileWriter( new File( path + "-" + attributeType.getName() + ".txt" ) );
         // write the AttributeType description
@@ -226,6 +226,24 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     }
 
 
+    /**
+     * Copies the forward and reverse tables of this index from a file written before the
+     * entry UUIDs were stored on 16 bytes. The index must have been initialized, and be empty.
+     *
+     * @param formerRecordMan The RecordManager of the former file
+     * @throws Exception If the tables can't be copied
+     */
+    public void migrate( RecordManager formerRecordMan ) throws Exception
+    {
+        forward.migrate( formerRecordMan );
+
+        if ( reverse != null )
+        {
+            reverse.migrate( formerRecordMan );
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // C O N F I G U R A T I O N   M E T H O D S
     // ------------------------------------------------------------------------
@@ -26,7 +26,6 @@ import java.util.UUID;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.RecordManager;
-import org.apache.directory.mavibot.btree.serializer.StringSerializer;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -40,13 +39,14 @@ public class MavibotMasterTable extends MavibotTable<String, Entry> implements M
     public MavibotMasterTable( RecordManager recordMan, SchemaManager schemaManager, String name, int cacheSize )
         throws IOException
     {
-        super( recordMan, schemaManager, name, StringSerializer.INSTANCE, new MavibotEntrySerializer(), false, cacheSize );
+        super( recordMan, schemaManager, name, MavibotUuidSerializer.INSTANCE, new MavibotEntrySerializer(), false,
+            cacheSize );
     }
 
     public MavibotMasterTable( RecordManager recordMan, SchemaManager schemaManager, String name )
         throws IOException
     {
-        super( recordMan, schemaManager, name, StringSerializer.INSTANCE, new MavibotEntrySerializer(), false );
+        super( recordMan, schemaManager, name, MavibotUuidSerializer.INSTANCE, new MavibotEntrySerializer(), false );
     }
 
 
@@ -89,8 +89,23 @@ public class MavibotPartition extends AbstractBTreePartition
         }
     };
 
+    /** The name of the master table B-tree */
+    private static final String MASTER_TABLE = "master";
+
+    /** The name of the file the RecordManager creates in the partition directory */
+    private static final String DATA_FILE = "mavibot.db";
+
+    /** The file written before the entry UUIDs were stored on 16 bytes, while it's being migrated */
+    private static final String FORMER_UUIDS_FILE = DATA_FILE + ".former-uuids";
+
+    /** The former file once all its B-trees have been copied and synced, until it's deleted */
+    private static final String MIGRATED_FILE = DATA_FILE + ".migrated";
+
     private RecordManager recordMan;
 
+    /** The RecordManager of the file being migrated, null if no migration is needed */
+    private RecordManager formerRecordMan;
+
     /** the entry cache */
     private Cache entryCache;
 
@@ -165,7 +180,7 @@ public class MavibotPartition extends AbstractBTreePartition
                 LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
             }
 
-            recordMan = new RecordManager( partitionDir.getPath() );
+            openRecordManager( partitionDir );
 
             // Initialize the indexes
             super.doInit();
@@ -174,7 +189,14 @@ public class MavibotPartition extends AbstractBTreePartition
 
             // Create the master table (the table containing all the entries)
             Cache masterTableCache = cacheService.getCache( suffixDn.getName() );
-            master = new MavibotMasterTable( recordMan, schemaManager, "master", masterTableCache.getCacheConfiguration().getMaxElementsInMemory() );
+            master = new MavibotMasterTable( recordMan, schemaManager, MASTER_TABLE, masterTableCache.getCacheConfiguration().getMaxElementsInMemory() );
+
+            if ( formerRecordMan != null )
+            {
+                // The indexes have been copied when they were initialized
+                ( ( MavibotMasterTable ) master ).migrate( formerRecordMan );
+                closeFormerRecordManager( partitionDir );
+            }
 
             // get all index db files first
             File[] allIndexDbFiles = partitionDir.listFiles( DB_FILTER );
@@ -274,10 +296,104 @@ public class MavibotPartition extends AbstractBTreePartition
 
         mavibotIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
 
+        if ( formerRecordMan != null )
+        {
+            mavibotIndex.migrate( formerRecordMan );
+        }
+
         return mavibotIndex;
     }
 
 
+    /**
+     * Opens the RecordManager. The B-trees written before the entry UUIDs were stored on 16
+     * bytes record the StringSerializer for the UUIDs, and their pages are always read with it.
+     * The file is then renamed to {@link #FORMER_UUIDS_FILE}, and a new file is created : each
+     * B-tree is copied into it, with the current serializers, once its table has been
+     * initialized. If the server stops before all the B-trees have been copied, the new file
+     * is deleted and the copy is restarted from the former file on the next start.
+     * <br>
+     * Only the files named after the RecordManager file are renamed or deleted, the other
+     * files of the partition directory are left untouched.
+     */
+    private void openRecordManager( File partitionDir ) throws IOException
+    {
+        File dataFile = new File( partitionDir, DATA_FILE );
+        File formerFile = new File( partitionDir, FORMER_UUIDS_FILE );
+        File migratedFile = new File( partitionDir, MIGRATED_FILE );
+
+        if ( migratedFile.exists() )
+        {
+            // The migration is done and the new file has been synced, but the former
+            // file has not been deleted
+            deleteFile( migratedFile );
+        }
+
+        if ( formerFile.exists() )
+        {
+            LOG.warn( "The UUIDs migration of the {} partition has been interrupted, restarting it", id );
+
+            if ( dataFile.exists() )
+            {
+                // The partially copied file
+                deleteFile( dataFile );
+            }
+        }
+        else
+        {
+            recordMan = new RecordManager( partitionDir.getPath() );
+
+            if ( !MavibotTable.hasFormerUuids( recordMan, MASTER_TABLE ) )
+            {
+                return;
+            }
+
+            recordMan.close();
+            rename( dataFile, formerFile );
+        }
+
+        LOG.info( "Migrating the {} partition to the 16 bytes UUIDs", id );
+        formerRecordMan = new RecordManager( formerFile.getPath() );
+        recordMan = new RecordManager( partitionDir.getPath() );
+    }
+
+
+    /**
+     * Closes the RecordManager of the migrated file, once all the B-trees have been copied.
+     * The new B-trees are synced first, and the former file is only renamed : it will be
+     * deleted once the new file has been closed.
+     */
+    private void closeFormerRecordManager( File partitionDir ) throws Exception
+    {
+        syncTables();
+
+        formerRecordMan.close();
+        formerRecordMan = null;
+
+        rename( new File( partitionDir, FORMER_UUIDS_FILE ), new File( partitionDir, MIGRATED_FILE ) );
+
+        LOG.info( "The {} partition has been migrated to the 16 bytes UUIDs", id );
+    }
+
+
+    private void rename( File from, File to ) throws IOException
+    {
+        if ( !from.renameTo( to ) )
+        {
+            throw new IOException( "Cannot rename " + from + " to " + to );
+        }
+    }
+
+
+    private void deleteFile( File file ) throws IOException
+    {
+        if ( !file.delete() )
+        {
+            throw new IOException( "Cannot delete the file " + file );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -302,8 +418,23 @@ public class MavibotPartition extends AbstractBTreePartition
         // This is specific to the MAVIBOT store : close the record manager
         try
         {
+            if ( formerRecordMan != null )
+            {
+                // The migration has failed, it will be restarted on the next start
+                formerRecordMan.close();
+                formerRecordMan = null;
+            }
+
             recordMan.close();
             LOG.debug( "Closed record manager for {} partition.", suffixDn );
+
+            File migratedFile = new File( new File( getPartitionPath() ), MIGRATED_FILE );
+
+            if ( migratedFile.exists() )
+            {
+                // The migrated file is closed, the former one is not needed anymore
+                deleteFile( migratedFile );
+            }
         }
         catch ( Throwable t )
         {
@@ -353,6 +484,28 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<String, String> createDerivedIndex( AttributeType attributeType, String storageSuffix )
+        throws Exception
+    {
+        MavibotIndex<String> derivedIndex = new MavibotIndex<String>( attributeType.getOid(), false );
+        derivedIndex.setWkDirPath( partitionPath );
+        derivedIndex.setStorageSuffix( storageSuffix );
+        derivedIndex.setRecordManager( recordMan );
+        derivedIndex.init( schemaManager, attributeType );
+
+        if ( formerRecordMan != null )
+        {
+            derivedIndex.migrate( formerRecordMan );
+        }
+
+        return derivedIndex;
+    }
+
+
     @Override
     public void sync() throws Exception
     {
@@ -361,6 +514,15 @@ public class MavibotPartition extends AbstractBTreePartition
             return;
         }
 
+        syncTables();
+    }
+
+
+    /**
+     * Syncs the indexes and the master table
+     */
+    private void syncTables() throws Exception
+    {
         // Sync all system indices
         for ( Index<?, String> idx : systemIndices.values() )
         {
@@ -491,6 +653,25 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    @Override
+    public List<String> getCachedIds()
+    {
+        if ( entryCache == null )
+        {
+            return super.getCachedIds();
+        }
+
+        List<String> ids = new ArrayList<String>();
+
+        for ( Object key : entryCache.getKeys() )
+        {
+            ids.add( ( String ) key );
+        }
+
+        return ids;
+    }
+
+
     @Override
     public void updateCache( OperationContext opCtx )
     {
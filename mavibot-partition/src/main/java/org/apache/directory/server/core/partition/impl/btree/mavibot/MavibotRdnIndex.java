@@ -27,7 +27,6 @@ import java.io.IOException;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.mavibot.btree.serializer.StringSerializer;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
@@ -117,10 +116,10 @@ public class MavibotRdnIndex extends MavibotIndex<ParentIdAndRdn>
 
         String forwardTableName = attributeType.getOid() + FORWARD_BTREE;
         forward = new MavibotTable<ParentIdAndRdn, String>( recordMan, schemaManager, forwardTableName,
-            parentIdAndSerializer, StringSerializer.INSTANCE, false );
+            parentIdAndSerializer, MavibotUuidSerializer.INSTANCE, false );
 
         String reverseTableName = attributeType.getOid() + REVERSE_BTREE;
         reverse = new MavibotTable<String, ParentIdAndRdn>( recordMan, schemaManager, reverseTableName,
-            StringSerializer.INSTANCE, parentIdAndSerializer, false );
+            MavibotUuidSerializer.INSTANCE, parentIdAndSerializer, false );
     }
 }
@@ -36,6 +36,7 @@ import org.apache.directory.mavibot.btree.ValueCursor;
 import org.apache.directory.mavibot.btree.exception.BTreeAlreadyManagedException;
 import org.apache.directory.mavibot.btree.exception.KeyNotFoundException;
 import org.apache.directory.mavibot.btree.serializer.ElementSerializer;
+import org.apache.directory.mavibot.btree.serializer.StringSerializer;
 import org.apache.directory.server.core.avltree.ArrayMarshaller;
 import org.apache.directory.server.core.avltree.ArrayTree;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
@@ -124,8 +125,8 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
         {
             // it is important to set the serializers cause serializers will contain default
             // comparators when loaded from disk and we need schema aware comparators in certain indices
-            bt.setKeySerializer( keySerializer );
-            bt.setValueSerializer( valueSerializer );
+            bt.setKeySerializer( storableSerializer( bt.getKeySerializer(), keySerializer ) );
+            bt.setValueSerializer( storableSerializer( bt.getValueSerializer(), valueSerializer ) );
         }
 
         this.allowsDuplicates = allowDuplicates;
@@ -330,6 +331,91 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
     }
 
 
+    /**
+     * Tells if a B-tree has been created before the entry UUIDs were stored on 16 bytes,
+     * ie if it has recorded a StringSerializer for its keys.
+     *
+     * @param recordMan The RecordManager
+     * @param name The B-tree name
+     * @return true if the B-tree exists and stores its keys with the StringSerializer
+     */
+    public static boolean hasFormerUuids( RecordManager recordMan, String name )
+    {
+        BTree<?, ?> bt = recordMan.getManagedTree( name );
+
+        return ( bt != null ) && ( bt.getKeySerializer() instanceof StringSerializer );
+    }
+
+
+    /**
+     * Copies into this table the tuples of the B-tree with the same name in a file written
+     * before the entry UUIDs were stored on 16 bytes. The tuples are read in the former
+     * format, and written with this table's serializers. This table is expected to be empty.
+     *
+     * @param formerRecordMan The RecordManager of the former file
+     * @return The number of copied tuples
+     * @throws Exception If the tuples can't be read or written
+     */
+    public long migrate( RecordManager formerRecordMan ) throws Exception
+    {
+        BTree<K, V> former = formerRecordMan.getManagedTree( name );
+
+        if ( former == null )
+        {
+            // This table didn't exist in the former file
+            return 0L;
+        }
+
+        former.setKeySerializer( storableSerializer( former.getKeySerializer(), bt.getKeySerializer() ) );
+        former.setValueSerializer( storableSerializer( former.getValueSerializer(), bt.getValueSerializer() ) );
+
+        TupleCursor<K, V> cursor = former.browse();
+        long nbTuples = 0L;
+
+        try
+        {
+            while ( cursor.hasNext() )
+            {
+                org.apache.directory.mavibot.btree.Tuple<K, V> tuple = cursor.next();
+                put( tuple.getKey(), tuple.getValue() );
+                nbTuples++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        LOG.debug( "Migrated {} tuples of the {} table", nbTuples, name );
+
+        return nbTuples;
+    }
+
+
+    /**
+     * Selects the serializer to use for an existing B-tree. When the file is opened, the
+     * RecordManager reads the B-tree pages with the serializers which class is recorded in
+     * the B-tree header. The entry UUIDs of a B-tree created before they were stored on 16
+     * bytes must thus keep being written with the StringSerializer, otherwise the file can't
+     * be opened anymore. Such a B-tree keeps its format until it's copied by {@link #migrate(RecordManager)},
+     * which the MavibotPartition does when it's initialized.
+     *
+     * @param stored The serializer recorded in the B-tree header
+     * @param serializer The serializer this table uses
+     * @return The serializer to use
+     */
+    private static <T> ElementSerializer<T> storableSerializer( ElementSerializer<T> stored,
+        ElementSerializer<T> serializer )
+    {
+        if ( ( serializer instanceof MavibotUuidSerializer ) && ( stored instanceof StringSerializer ) )
+        {
+            return stored;
+        }
+
+        return serializer;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -374,6 +460,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
             if ( existingVal == null )
             {
                 count++;
+                updateRanks( key, 1L );
             }
         }
         catch ( Exception e )
@@ -411,6 +498,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
                 }
 
                 count -= size;
+                updateRanks( key, -size );
             }
             else
             {
@@ -422,6 +510,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
                 }
 
                 count--;
+                updateRanks( key, -1L );
             }
         }
         catch ( Exception e )
@@ -455,6 +544,7 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
             if ( tuple != null )
             {
                 count--;
+                updateRanks( key, -1L );
             }
         }
         catch ( Exception e )
@@ -590,28 +680,6 @@ public class MavibotTable<K, V> extends AbstractTable<K, V>
     }
 
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public long greaterThanCount( K key ) throws Exception
-    {
-        // take a best guess
-        return Math.min( count, 10L );
-    }
-
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public long lessThanCount( K key ) throws Exception
-    {
-        // take a best guess
-        return Math.min( count, 10L );
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.mavibot;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.mavibot.btree.comparator.StringComparator;
+import org.apache.directory.mavibot.btree.serializer.AbstractElementSerializer;
+import org.apache.directory.mavibot.btree.serializer.BufferHandler;
+import org.apache.directory.mavibot.btree.serializer.StringSerializer;
+import org.apache.directory.mavibot.btree.util.Strings;
+import org.apache.directory.server.xdbm.UuidCodec;
+
+
+/**
+ * Serialize and deserialize the entry UUIDs. The canonical UUIDs are stored as
+ * a {@link #MARKER} int followed by their 16 bytes. Other Strings are stored like
+ * the {@link StringSerializer} does, with their length followed by their UTF-8 bytes.
+ * As a length is never negative, the UUIDs stored with the StringSerializer
+ * are still readable.
+ * <br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MavibotUuidSerializer extends AbstractElementSerializer<String>
+{
+    /** The serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /** A static instance of a MavibotUuidSerializer */
+    public static final MavibotUuidSerializer INSTANCE = new MavibotUuidSerializer();
+
+    /** The int written in place of the length for an encoded UUID */
+    private static final int MARKER = -2;
+
+    /** The length of a null String */
+    private static final int NULL_LENGTH = -1;
+
+
+    /**
+     * Creates a new instance of MavibotUuidSerializer.
+     */
+    public MavibotUuidSerializer()
+    {
+        super( StringComparator.INSTANCE );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] serialize( String uuid )
+    {
+        if ( !UuidCodec.isCanonical( uuid ) )
+        {
+            return StringSerializer.INSTANCE.serialize( uuid );
+        }
+
+        byte[] bytes = new byte[4 + UuidCodec.LENGTH];
+        writeInt( bytes, MARKER );
+        UuidCodec.encode( uuid, bytes, 4 );
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String deserialize( BufferHandler bufferHandler ) throws IOException
+    {
+        int length = ByteBuffer.wrap( bufferHandler.read( 4 ) ).getInt();
+
+        switch ( length )
+        {
+            case MARKER:
+                return UuidCodec.decode( bufferHandler.read( UuidCodec.LENGTH ), 0 );
+
+            case NULL_LENGTH:
+                return null;
+
+            case 0:
+                return "";
+
+            default:
+                return Strings.utf8ToString( bufferHandler.read( length ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String deserialize( ByteBuffer buffer ) throws IOException
+    {
+        int length = buffer.getInt();
+
+        switch ( length )
+        {
+            case MARKER:
+                byte[] uuidBytes = new byte[UuidCodec.LENGTH];
+                buffer.get( uuidBytes );
+
+                return UuidCodec.decode( uuidBytes, 0 );
+
+            case NULL_LENGTH:
+                return null;
+
+            case 0:
+                return "";
+
+            default:
+                byte[] bytes = new byte[length];
+                buffer.get( bytes );
+
+                return Strings.utf8ToString( bytes );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String fromBytes( byte[] buffer ) throws IOException
+    {
+        return fromBytes( buffer, 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String fromBytes( byte[] buffer, int pos ) throws IOException
+    {
+        int length = ByteBuffer.wrap( buffer, pos, 4 ).getInt();
+
+        if ( length == MARKER )
+        {
+            return UuidCodec.decode( buffer, pos + 4 );
+        }
+
+        return StringSerializer.INSTANCE.fromBytes( buffer, pos );
+    }
+
+
+    private static void writeInt( byte[] bytes, int value )
+    {
+        bytes[0] = ( byte ) ( value >>> 24 );
+        bytes[1] = ( byte ) ( value >>> 16 );
+        bytes[2] = ( byte ) ( value >>> 8 );
+        bytes[3] = ( byte ) value;
+    }
+}
@@ -21,11 +21,21 @@ package org.apache.directory.server.core.partition.impl.btree.mavibot;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
@@ -34,6 +44,7 @@ import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.mavibot.btree.RecordManager;
+import org.apache.directory.mavibot.btree.serializer.StringSerializer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -123,4 +134,152 @@ public class MavibotMasterTableTest
         assertNull( table.get( Strings.getUUID( 0L ) ) );
         assertEquals( 0, table.count() );
     }
+
+
+    /**
+     * Checks that a table contains the given entries, in the UUIDs order
+     */
+    private void assertEntries( MavibotTable<String, Entry> former, List<String> ids ) throws Exception
+    {
+        assertEquals( ids.size(), former.count() );
+
+        for ( String id : ids )
+        {
+            assertEquals( id, former.get( id ).get( "ou" ).getString() );
+        }
+
+        Cursor<Tuple<String, Entry>> cursor = former.cursor();
+        List<String> browsed = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            browsed.add( cursor.get().getKey() );
+        }
+
+        cursor.close();
+
+        assertEquals( new ArrayList<String>( new TreeSet<String>( ids ) ), browsed );
+    }
+
+
+    private Entry createEntry( String id ) throws Exception
+    {
+        return new DefaultEntry( schemaManager,
+            "ou=" + id + ",ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou", id );
+    }
+
+
+    /**
+     * A master table written before the MavibotUuidSerializer was introduced, using the
+     * StringSerializer for its keys, must be readable, and the UUIDs in both formats must
+     * coexist in the table, until every record has been rewritten.
+     */
+    @Test
+    public void testFormerUuidFormat() throws Exception
+    {
+        List<String> ids = new ArrayList<String>();
+        MavibotTable<String, Entry> former = new MavibotTable<String, Entry>( recordMan, schemaManager, "former",
+            StringSerializer.INSTANCE, new MavibotEntrySerializer(), false );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            String id = UUID.randomUUID().toString();
+            ids.add( id );
+            former.put( id, createEntry( id ) );
+        }
+
+        recordMan.close();
+
+        // Reopen the table the way the partition does, with the MavibotUuidSerializer
+        recordMan = new RecordManager( tmpDir.getRoot().getAbsolutePath() );
+        former = new MavibotMasterTable( recordMan, schemaManager, "former" );
+        assertEntries( former, ids );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            String id = UUID.randomUUID().toString();
+            ids.add( id );
+            former.put( id, createEntry( id ) );
+        }
+
+        former.remove( ids.remove( 0 ) );
+        former.remove( ids.remove( 250 ) );
+        assertEntries( former, ids );
+
+        recordMan.close();
+
+        recordMan = new RecordManager( tmpDir.getRoot().getAbsolutePath() );
+        assertEntries( new MavibotMasterTable( recordMan, schemaManager, "former" ), ids );
+        recordMan.close();
+    }
+
+
+    /**
+     * A master table written before the MavibotUuidSerializer was introduced is copied into
+     * a new file, where it uses the MavibotUuidSerializer.
+     */
+    @Test
+    public void testMigrateFormerUuids() throws Exception
+    {
+        List<String> ids = new ArrayList<String>();
+        MavibotTable<String, Entry> former = new MavibotTable<String, Entry>( recordMan, schemaManager, "former",
+            StringSerializer.INSTANCE, new MavibotEntrySerializer(), false );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            String id = UUID.randomUUID().toString();
+            ids.add( id );
+            former.put( id, createEntry( id ) );
+        }
+
+        recordMan.close();
+
+        RecordManager formerRecordMan = new RecordManager( tmpDir.getRoot().getAbsolutePath() );
+        assertTrue( MavibotTable.hasFormerUuids( formerRecordMan, "former" ) );
+
+        File migrated = tmpDir.newFolder( "migrated" );
+        recordMan = new RecordManager( migrated.getAbsolutePath() );
+        MavibotMasterTable compact = new MavibotMasterTable( recordMan, schemaManager, "former" );
+
+        assertEquals( 200L, compact.migrate( formerRecordMan ) );
+        formerRecordMan.close();
+
+        assertTrue( compact.getBTree().getKeySerializer() instanceof MavibotUuidSerializer );
+        assertEntries( compact, ids );
+
+        recordMan.close();
+
+        recordMan = new RecordManager( migrated.getAbsolutePath() );
+        assertFalse( MavibotTable.hasFormerUuids( recordMan, "former" ) );
+        assertEntries( new MavibotMasterTable( recordMan, schemaManager, "former" ), ids );
+        recordMan.close();
+    }
+
+
+    /**
+     * The RecordManager reads the pages of a table created with the MavibotUuidSerializer
+     * with this serializer when the file is opened again.
+     */
+    @Test
+    public void testReopenCompactUuids() throws Exception
+    {
+        List<String> ids = new ArrayList<String>();
+        MavibotMasterTable compact = new MavibotMasterTable( recordMan, schemaManager, "compact" );
+
+        for ( int i = 0; i < 400; i++ )
+        {
+            String id = UUID.randomUUID().toString();
+            ids.add( id );
+            compact.put( id, createEntry( id ) );
+        }
+
+        recordMan.close();
+
+        recordMan = new RecordManager( tmpDir.getRoot().getAbsolutePath() );
+        assertEntries( new MavibotMasterTable( recordMan, schemaManager, "compact" ), ids );
+        recordMan.close();
+    }
 }
@@ -30,6 +30,14 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -792,6 +800,169 @@ public class MavibotStoreTest
     }
 
 
+    @Test
+    public void testFetchCachedEntryWhileWriting() throws Exception
+    {
+        final String cachedId = Strings.getUUID( 5L );
+        final String otherId = Strings.getUUID( 6L );
+
+        // Load the entry in the cache
+        Entry entry = store.fetch( cachedId );
+        assertNotNull( entry );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Lock writeLock = store.getReadWriteLock().writeLock();
+        writeLock.lock();
+
+        try
+        {
+            // The cached entry does not need the read lock
+            Future<Entry> cached = executor.submit( new Callable<Entry>()
+            {
+                public Entry call() throws Exception
+                {
+                    return store.fetch( cachedId );
+                }
+            } );
+
+            Entry fetched = cached.get( 10, TimeUnit.SECONDS );
+            assertEquals( entry.getDn(), fetched.getDn() );
+            assertEquals( entry.get( "cn" ), fetched.get( "cn" ) );
+
+            // The other entry has to be read from the master table, so we wait for the writer
+            Future<Entry> other = executor.submit( new Callable<Entry>()
+            {
+                public Entry call() throws Exception
+                {
+                    return store.fetch( otherId );
+                }
+            } );
+
+            try
+            {
+                other.get( 200, TimeUnit.MILLISECONDS );
+                fail();
+            }
+            catch ( TimeoutException te )
+            {
+                // Expected
+            }
+
+            writeLock.unlock();
+            writeLock = null;
+
+            assertNotNull( other.get( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            if ( writeLock != null )
+            {
+                writeLock.unlock();
+            }
+
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testFetchCachedEntryWithAnotherDn() throws Exception
+    {
+        String id = Strings.getUUID( 5L );
+
+        // Load the entry in the cache
+        Entry entry = store.fetch( id );
+        assertNotNull( entry );
+        Dn dn = entry.getDn();
+
+        // The Dn given to fetch() is set on the returned copy only
+        Dn otherDn = new Dn( schemaManager, "cn=other,o=Good Times Co." );
+        Entry fetched = store.fetch( id, otherDn );
+        assertEquals( otherDn, fetched.getDn() );
+        assertEquals( dn, store.lookupCache( id ).getDn() );
+        assertEquals( dn, store.fetch( id ).getDn() );
+    }
+
+
+    @Test
+    public void testFetchCachedEntryWhileDeleting() throws Exception
+    {
+        final String id = Strings.getUUID( 5L );
+
+        // Load the entry in the cache
+        assertNotNull( store.fetch( id ) );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        ReentrantReadWriteLock rwLock = ( ReentrantReadWriteLock ) store.getReadWriteLock();
+        Lock writeLock = rwLock.writeLock();
+        writeLock.lock();
+
+        try
+        {
+            // The direct delete opens its write bracket, then waits for the lock
+            Future<Entry> deleted = executor.submit( new Callable<Entry>()
+            {
+                public Entry call() throws Exception
+                {
+                    return store.delete( id );
+                }
+            } );
+
+            long deadline = System.currentTimeMillis() + 10000L;
+
+            while ( !rwLock.hasQueuedThreads() )
+            {
+                assertTrue( "The delete did not start", System.currentTimeMillis() < deadline );
+                Thread.sleep( 10L );
+            }
+
+            // The lock free fetch must not trust the cache while the entry is being
+            // deleted, so it waits for the lock too
+            Future<Entry> fetched = executor.submit( new Callable<Entry>()
+            {
+                public Entry call() throws Exception
+                {
+                    return store.fetch( id );
+                }
+            } );
+
+            try
+            {
+                fetched.get( 200, TimeUnit.MILLISECONDS );
+                fail();
+            }
+            catch ( TimeoutException te )
+            {
+                // Expected
+            }
+
+            writeLock.unlock();
+            writeLock = null;
+
+            assertNotNull( deleted.get( 10, TimeUnit.SECONDS ) );
+
+            // The fetch either ran before or after the delete, never during it
+            Entry entry = fetched.get( 10, TimeUnit.SECONDS );
+
+            if ( entry != null )
+            {
+                assertEquals( id, entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+
+            assertNull( store.fetch( id ) );
+        }
+        finally
+        {
+            if ( writeLock != null )
+            {
+                writeLock.unlock();
+            }
+
+            executor.shutdownNow();
+        }
+    }
+
+
     @Test
     @Ignore("Ignore till mavibot file nam extensions are frozen")
     public void testDeleteUnusedIndexFiles() throws Exception
@@ -0,0 +1,142 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.mavibot;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.mavibot.btree.serializer.BufferHandler;
+import org.apache.directory.mavibot.btree.serializer.StringSerializer;
+import org.junit.Test;
+
+
+/**
+ * Tests the MavibotUuidSerializer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MavibotUuidSerializerTest
+{
+    private static final MavibotUuidSerializer SERIALIZER = MavibotUuidSerializer.INSTANCE;
+
+
+    /**
+     * Checks that a serialized String is read back the same way by all the deserialization methods
+     */
+    private void assertRoundTrip( String value, byte[] serialized ) throws IOException
+    {
+        assertEquals( value, SERIALIZER.fromBytes( serialized ) );
+        assertEquals( value, SERIALIZER.deserialize( ByteBuffer.wrap( serialized ) ) );
+        assertEquals( value, SERIALIZER.deserialize( new BufferHandler( serialized ) ) );
+    }
+
+
+    @Test
+    public void testCanonicalUuids() throws IOException
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            String uuid = UUID.randomUUID().toString();
+            byte[] serialized = SERIALIZER.serialize( uuid );
+
+            assertEquals( 20, serialized.length );
+            assertRoundTrip( uuid, serialized );
+        }
+
+        String uuid = Strings.getUUID( 1L );
+
+        assertRoundTrip( uuid, SERIALIZER.serialize( uuid ) );
+    }
+
+
+    @Test
+    public void testOtherStrings() throws IOException
+    {
+        String[] values = new String[]
+            { "", "foo", "00000000-0000-0000-0000-00000000000A", "00000000-0000-0000-0000-00000000000g",
+                "0000000000000-0000-0000-000000000001" };
+
+        for ( String value : values )
+        {
+            byte[] serialized = SERIALIZER.serialize( value );
+
+            assertEquals( 4 + value.length(), serialized.length );
+            assertRoundTrip( value, serialized );
+        }
+    }
+
+
+    @Test
+    public void testNull() throws IOException
+    {
+        byte[] serialized = new byte[]
+            { ( byte ) 0xFF, ( byte ) 0xFF, ( byte ) 0xFF, ( byte ) 0xFF };
+
+        assertNull( SERIALIZER.deserialize( ByteBuffer.wrap( serialized ) ) );
+        assertNull( SERIALIZER.deserialize( new BufferHandler( serialized ) ) );
+    }
+
+
+    @Test
+    public void testFormerFormat() throws IOException
+    {
+        // The UUIDs written with the StringSerializer must still be readable
+        String uuid = UUID.randomUUID().toString();
+
+        assertRoundTrip( uuid, StringSerializer.INSTANCE.serialize( uuid ) );
+    }
+
+
+    @Test
+    public void testMixedFormats() throws IOException
+    {
+        // A page may hold UUIDs written in both formats, and other Strings
+        String compact = UUID.randomUUID().toString();
+        String former = UUID.randomUUID().toString();
+        String other = "foo";
+
+        byte[] compactBytes = SERIALIZER.serialize( compact );
+        byte[] formerBytes = StringSerializer.INSTANCE.serialize( former );
+        byte[] otherBytes = SERIALIZER.serialize( other );
+
+        ByteBuffer buffer = ByteBuffer.allocate( compactBytes.length + formerBytes.length + otherBytes.length );
+        buffer.put( formerBytes ).put( compactBytes ).put( otherBytes );
+        byte[] page = buffer.array();
+
+        ByteBuffer readBuffer = ByteBuffer.wrap( page );
+        assertEquals( former, SERIALIZER.deserialize( readBuffer ) );
+        assertEquals( compact, SERIALIZER.deserialize( readBuffer ) );
+        assertEquals( other, SERIALIZER.deserialize( readBuffer ) );
+
+        BufferHandler bufferHandler = new BufferHandler( page );
+        assertEquals( former, SERIALIZER.deserialize( bufferHandler ) );
+        assertEquals( compact, SERIALIZER.deserialize( bufferHandler ) );
+        assertEquals( other, SERIALIZER.deserialize( bufferHandler ) );
+
+        assertEquals( compact, SERIALIZER.fromBytes( page, formerBytes.length ) );
+        assertEquals( other, SERIALIZER.fromBytes( page, formerBytes.length + compactBytes.length ) );
+    }
+}
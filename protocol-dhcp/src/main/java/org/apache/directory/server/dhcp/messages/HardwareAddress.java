@@ -92,7 +92,7 @@ public final class HardwareAddress
 
         for ( int i = 0; i < length; i++ )
         {
-            hashCode ^= address[i];
+            hashCode = hashCode * 31 + address[i];
         }
 
         return hashCode;
@@ -114,10 +114,28 @@ public abstract class AbstractDhcpStore implements DhcpStore
             }
         }
 
-        //if ( null == lease )
-        //{
-        // FIXME: use selection base to find a lease in a pool.
-        //}
+        if ( null == lease )
+        {
+            // get an address from the subnet's pool
+            InetAddress address = allocateAddress( subnet, hardwareAddress, requestedAddress );
+
+            if ( null != address )
+            {
+                Map properties = getProperties( subnet );
+
+                lease = new Lease();
+                lease.setAcquired( System.currentTimeMillis() );
+                lease.setExpires( System.currentTimeMillis() + determineLeaseTime( requestedLeaseTime, properties ) );
+                lease.setHardwareAddress( hardwareAddress );
+                lease.setState( Lease.STATE_NEW );
+                lease.setClientAddress( address );
+
+                // add subnet settings
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( subnet.getOptions() );
+            }
+        }
 
         // update the lease state
         if ( null != lease && lease.getState() != Lease.STATE_ACTIVE )
@@ -324,6 +342,22 @@ public abstract class AbstractDhcpStore implements DhcpStore
     protected abstract Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException;
 
 
+    /**
+     * Allocate an address from the pool of the given subnet. The default
+     * implementation has no pool, and never allocates anything.
+     * 
+     * @param subnet the subnet the address must belong to
+     * @param hardwareAddress the client's hardware address
+     * @param requestedAddress the address requested by the client, or <code>null</code>
+     * @return the allocated address, or <code>null</code> if none is available
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress )
+    {
+        return null;
+    }
+
+
     /**
      * Find the subnet definition matching the given address.
      * 
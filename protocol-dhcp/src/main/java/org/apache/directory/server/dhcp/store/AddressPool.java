@@ -0,0 +1,236 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.BitSet;
+
+
+/**
+ * The pool of the addresses a {@link Subnet} can allocate, from its range minimum to
+ * its range maximum. If the subnet has no range, all the addresses of the subnet but
+ * the network and broadcast addresses are in the pool. The allocated addresses are
+ * stored in a bitmap, so finding a free address does not require to scan the leases.
+ * <br>
+ * Only IPv4 subnets are supported.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AddressPool
+{
+    /** The first address of the pool */
+    private final int first;
+
+    /** The number of addresses in the pool */
+    private final int size;
+
+    /** The allocated addresses, one bit per address */
+    private final BitSet allocated;
+
+    /** The position the next search for a free address starts from */
+    private int next;
+
+
+    /**
+     * Creates a new instance of AddressPool.
+     *
+     * @param subnet The subnet the addresses are allocated from
+     */
+    public AddressPool( Subnet subnet )
+    {
+        int network = toInt( subnet.getAddress() );
+        int mask = toInt( subnet.getNetmask() );
+        int low = subnet.getRangeMin() != null ? toInt( subnet.getRangeMin() ) : ( network & mask ) + 1;
+        int high = subnet.getRangeMax() != null ? toInt( subnet.getRangeMax() ) : ( network | ~mask ) - 1;
+
+        first = low;
+        size = Math.max( 0, high - low + 1 );
+        allocated = new BitSet( size );
+    }
+
+
+    /**
+     * Converts an IPv4 address to an int
+     */
+    private static int toInt( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            throw new IllegalArgumentException( "Only IPv4 addresses are supported : " + address );
+        }
+
+        byte[] bytes = address.getAddress();
+
+        return ( ( bytes[0] & 0xFF ) << 24 ) | ( ( bytes[1] & 0xFF ) << 16 ) | ( ( bytes[2] & 0xFF ) << 8 )
+            | ( bytes[3] & 0xFF );
+    }
+
+
+    /**
+     * Converts an int to an IPv4 address
+     */
+    private static InetAddress toAddress( int value )
+    {
+        try
+        {
+            return InetAddress.getByAddress( new byte[]
+                { ( byte ) ( value >>> 24 ), ( byte ) ( value >>> 16 ), ( byte ) ( value >>> 8 ), ( byte ) value } );
+        }
+        catch ( UnknownHostException uhe )
+        {
+            // Can't happen with a 4 bytes address
+            throw new IllegalStateException( uhe );
+        }
+    }
+
+
+    /**
+     * Computes the position of an address in the bitmap
+     *
+     * @return The position, or -1 if the address is not in the pool
+     */
+    private int indexOf( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        long index = ( toInt( address ) & 0xFFFFFFFFL ) - ( first & 0xFFFFFFFFL );
+
+        if ( ( index < 0 ) || ( index >= size ) )
+        {
+            return -1;
+        }
+
+        return ( int ) index;
+    }
+
+
+    /**
+     * Tells if an address belongs to this pool
+     *
+     * @param address The address
+     * @return true if the address is in the pool, allocated or not
+     */
+    public boolean contains( InetAddress address )
+    {
+        return indexOf( address ) >= 0;
+    }
+
+
+    /**
+     * Allocates an address. The preferred address is allocated if it is in the pool
+     * and free, otherwise the next free address is allocated.
+     *
+     * @param preferred The address the client would like to get, or null
+     * @return The allocated address, or null if the pool is exhausted
+     */
+    public synchronized InetAddress allocate( InetAddress preferred )
+    {
+        if ( preferred != null )
+        {
+            int index = indexOf( preferred );
+
+            if ( ( index >= 0 ) && !allocated.get( index ) )
+            {
+                allocated.set( index );
+
+                return preferred;
+            }
+        }
+
+        int index = allocated.nextClearBit( next );
+
+        if ( index >= size )
+        {
+            // Wrap around
+            index = allocated.nextClearBit( 0 );
+
+            if ( index >= size )
+            {
+                return null;
+            }
+        }
+
+        allocated.set( index );
+        next = index + 1;
+
+        return toAddress( first + index );
+    }
+
+
+    /**
+     * Marks a specific address as allocated
+     *
+     * @param address The address to reserve
+     * @return true if the address was free, false if it was already allocated or is not in the pool
+     */
+    public synchronized boolean reserve( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( ( index < 0 ) || allocated.get( index ) )
+        {
+            return false;
+        }
+
+        allocated.set( index );
+
+        return true;
+    }
+
+
+    /**
+     * Returns an address to the pool
+     *
+     * @param address The address to release
+     */
+    public synchronized void release( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( index >= 0 )
+        {
+            allocated.clear( index );
+        }
+    }
+
+
+    /**
+     * @return The number of addresses in the pool
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of free addresses in the pool
+     */
+    public synchronized int getFreeCount()
+    {
+        return size - allocated.cardinality();
+    }
+}
@@ -0,0 +1,671 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.dhcp.DhcpException;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.options.vendor.HostName;
+import org.apache.directory.server.dhcp.options.vendor.SubnetMask;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A {@link DhcpStore} keeping its leases in memory, indexed by hardware address and by
+ * client address, and allocating the addresses from a bitmap per {@link Subnet}.
+ * <br>
+ * The requests are serialized per client : the hardware addresses are spread over a
+ * fixed set of locks, so that concurrent requests from different clients don't
+ * block each other, while two DISCOVERs from the same client can't get two leases.
+ * <br>
+ * Leases which are not renewed are expired by a timer, and their address goes back
+ * to the pool. The leases which have been offered but never requested are expired
+ * after {@link #setOfferHoldTime(long)} milliseconds.
+ * <br>
+ * If a journal file is given, all the lease changes are appended to it, and the
+ * leases are restored from it when the store is opened.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexedDhcpStore extends AbstractDhcpStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger( IndexedDhcpStore.class );
+
+    /** The default delay between two expiration checks, in milliseconds */
+    public static final long DEFAULT_EXPIRY_CHECK_INTERVAL = 10000L;
+
+    /** The default time an offered address is kept for the client, in milliseconds */
+    public static final long DEFAULT_OFFER_HOLD_TIME = 60000L;
+
+    /** The number of locks the clients are spread over */
+    private static final int LOCK_STRIPES = 64;
+
+    /** The subnets */
+    private final List<Subnet> subnets = new CopyOnWriteArrayList<Subnet>();
+
+    /** The address pool of each subnet */
+    private final Map<Subnet, AddressPool> pools = new ConcurrentHashMap<Subnet, AddressPool>();
+
+    /** The designated hosts, by hardware address */
+    private final Map<HardwareAddress, Host> hosts = new ConcurrentHashMap<HardwareAddress, Host>();
+
+    /** The leases, by hardware address */
+    private final ConcurrentMap<HardwareAddress, Lease> leasesByHardwareAddress = new ConcurrentHashMap<HardwareAddress, Lease>();
+
+    /** The leases, by client address */
+    private final ConcurrentMap<InetAddress, Lease> leasesByAddress = new ConcurrentHashMap<InetAddress, Lease>();
+
+    /** The time each lease must be expired at */
+    private final ConcurrentMap<HardwareAddress, Long> deadlines = new ConcurrentHashMap<HardwareAddress, Long>();
+
+    /** The locks the clients are spread over */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /** The journal file, or null if the leases are not persisted */
+    private final File journalFile;
+
+    /** The journal */
+    private LeaseJournal journal;
+
+    /** The timer expiring the leases */
+    private ScheduledExecutorService expiryTimer;
+
+    /** The delay between two expiration checks */
+    private long expiryCheckInterval = DEFAULT_EXPIRY_CHECK_INTERVAL;
+
+    /** The time an offered address is kept for the client */
+    private long offerHoldTime = DEFAULT_OFFER_HOLD_TIME;
+
+
+    /**
+     * Creates a new instance of IndexedDhcpStore.
+     *
+     * @param journalFile The file the leases are persisted in, or null to keep them in memory only
+     */
+    public IndexedDhcpStore( File journalFile )
+    {
+        this.journalFile = journalFile;
+
+        for ( int i = 0; i < LOCK_STRIPES; i++ )
+        {
+            locks[i] = new Object();
+        }
+    }
+
+
+    /**
+     * Adds a subnet. The subnets must be added before the store is opened.
+     *
+     * @param subnet The subnet to add
+     */
+    public void addSubnet( Subnet subnet )
+    {
+        AddressPool pool = new AddressPool( subnet );
+
+        // The fixed addresses of the known hosts can't be allocated
+        for ( Host host : hosts.values() )
+        {
+            if ( host.getAddress() != null )
+            {
+                pool.reserve( host.getAddress() );
+            }
+        }
+
+        pools.put( subnet, pool );
+        subnets.add( subnet );
+    }
+
+
+    /**
+     * Adds a host with a fixed address. The hosts must be added before the store is opened.
+     *
+     * @param host The host to add
+     */
+    public void addHost( Host host )
+    {
+        hosts.put( host.getHardwareAddress(), host );
+
+        if ( host.getAddress() != null )
+        {
+            for ( AddressPool pool : pools.values() )
+            {
+                pool.reserve( host.getAddress() );
+            }
+        }
+    }
+
+
+    /**
+     * Restores the leases from the journal, and starts the expiration timer.
+     *
+     * @throws IOException If the journal can't be read
+     */
+    public void open() throws IOException
+    {
+        if ( journalFile != null )
+        {
+            journal = new LeaseJournal( journalFile );
+            long now = System.currentTimeMillis();
+            int restored = 0;
+
+            for ( Lease lease : journal.open() )
+            {
+                if ( restore( lease, now ) )
+                {
+                    restored++;
+                }
+            }
+
+            LOG.info( "Restored {} leases from {}", restored, journalFile );
+        }
+
+        expiryTimer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "DhcpLeaseExpiry" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        expiryTimer.scheduleWithFixedDelay( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    expireLeases( System.currentTimeMillis() );
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "Failed to expire the leases", e );
+                }
+            }
+        }, expiryCheckInterval, expiryCheckInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the expiration timer and closes the journal.
+     *
+     * @throws IOException If the journal can't be closed
+     */
+    public void close() throws IOException
+    {
+        if ( expiryTimer != null )
+        {
+            expiryTimer.shutdownNow();
+            expiryTimer = null;
+        }
+
+        if ( journal != null )
+        {
+            journal.close();
+            journal = null;
+        }
+    }
+
+
+    /**
+     * Puts back a lease read from the journal in the indexes
+     */
+    private boolean restore( Lease lease, long now )
+    {
+        if ( lease.getExpires() <= now )
+        {
+            return false;
+        }
+
+        Subnet subnet = findSubnet( lease.getClientAddress() );
+
+        if ( subnet == null )
+        {
+            LOG.warn( "No subnet found for the journaled lease {}, ignoring it", lease );
+            return false;
+        }
+
+        Host host = hosts.get( lease.getHardwareAddress() );
+        boolean fixed = ( host != null ) && lease.getClientAddress().equals( host.getAddress() );
+
+        if ( !fixed && !pools.get( subnet ).reserve( lease.getClientAddress() ) )
+        {
+            LOG.warn( "The address of the journaled lease {} is not available, ignoring it", lease );
+            return false;
+        }
+
+        // The options are not journaled, rebuild them
+        OptionsField o = lease.getOptions();
+        o.add( new SubnetMask( subnet.getNetmask() ) );
+        o.merge( subnet.getOptions() );
+
+        if ( host != null )
+        {
+            o.add( new HostName( host.getName() ) );
+            o.merge( host.getOptions() );
+        }
+
+        leasesByHardwareAddress.put( lease.getHardwareAddress(), lease );
+        leasesByAddress.put( lease.getClientAddress(), lease );
+        deadlines.put( lease.getHardwareAddress(), computeDeadline( lease, now ) );
+
+        return true;
+    }
+
+
+    /**
+     * Gets the lock protecting the leases of a client
+     */
+    private Object getLock( HardwareAddress hardwareAddress )
+    {
+        return locks[( hardwareAddress.hashCode() & 0x7FFFFFFF ) % LOCK_STRIPES];
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Lease getLeaseOffer( HardwareAddress hardwareAddress, InetAddress requestedAddress,
+        InetAddress selectionBase, long requestedLeaseTime, OptionsField options ) throws DhcpException
+    {
+        synchronized ( getLock( hardwareAddress ) )
+        {
+            return super.getLeaseOffer( hardwareAddress, requestedAddress, selectionBase, requestedLeaseTime,
+                options );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Lease getExistingLease( HardwareAddress hardwareAddress, InetAddress requestedAddress,
+        InetAddress selectionBase, long requestedLeaseTime, OptionsField options ) throws DhcpException
+    {
+        synchronized ( getLock( hardwareAddress ) )
+        {
+            return super.getExistingLease( hardwareAddress, requestedAddress, selectionBase, requestedLeaseTime,
+                options );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void releaseLease( Lease lease )
+    {
+        synchronized ( getLock( lease.getHardwareAddress() ) )
+        {
+            super.releaseLease( lease );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+    {
+        Lease lease = leasesByHardwareAddress.get( hardwareAddress );
+
+        return lease != null ? lease : existingLease;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress )
+    {
+        return hosts.get( hardwareAddress );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Subnet findSubnet( InetAddress clientAddress )
+    {
+        for ( Subnet subnet : subnets )
+        {
+            if ( subnet.contains( clientAddress ) )
+            {
+                return subnet;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected InetAddress allocateAddress( Subnet subnet, HardwareAddress hardwareAddress,
+        InetAddress requestedAddress )
+    {
+        AddressPool pool = pools.get( subnet );
+
+        if ( pool == null )
+        {
+            return null;
+        }
+
+        InetAddress address = pool.allocate( requestedAddress );
+
+        if ( address == null )
+        {
+            LOG.warn( "No more free address in the subnet {}", subnet.getAddress() );
+        }
+
+        return address;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void updateLease( Lease lease )
+    {
+        if ( ( lease.getState() == Lease.STATE_RELEASED ) || ( lease.getState() == Lease.STATE_EXPIRED ) )
+        {
+            removeLease( lease );
+
+            return;
+        }
+
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+        Lease previous = leasesByHardwareAddress.put( hardwareAddress, lease );
+
+        if ( ( previous != null ) && !previous.getClientAddress().equals( lease.getClientAddress() ) )
+        {
+            // The client got a new address, the former one is free
+            leasesByAddress.remove( previous.getClientAddress(), previous );
+            releaseAddress( previous );
+        }
+
+        leasesByAddress.put( lease.getClientAddress(), lease );
+        deadlines.put( hardwareAddress, computeDeadline( lease, System.currentTimeMillis() ) );
+
+        if ( journal != null )
+        {
+            try
+            {
+                journal.put( lease );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Cannot journal the lease {}", lease, ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Computes the time a lease must be expired at
+     */
+    private long computeDeadline( Lease lease, long now )
+    {
+        if ( lease.getState() == Lease.STATE_OFFERED )
+        {
+            return Math.min( lease.getExpires(), now + offerHoldTime );
+        }
+
+        return lease.getExpires();
+    }
+
+
+    /**
+     * Removes a lease from the indexes, and gives its address back to the pool
+     */
+    private void removeLease( Lease lease )
+    {
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+
+        if ( !leasesByHardwareAddress.remove( hardwareAddress, lease ) )
+        {
+            return;
+        }
+
+        leasesByAddress.remove( lease.getClientAddress(), lease );
+        deadlines.remove( hardwareAddress );
+        releaseAddress( lease );
+
+        if ( journal != null )
+        {
+            try
+            {
+                journal.remove( hardwareAddress );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Cannot journal the removal of the lease {}", lease, ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Gives the address of a lease back to its pool, unless it's the fixed address of a host
+     */
+    private void releaseAddress( Lease lease )
+    {
+        InetAddress address = lease.getClientAddress();
+        Host host = hosts.get( lease.getHardwareAddress() );
+
+        if ( ( host != null ) && address.equals( host.getAddress() ) )
+        {
+            return;
+        }
+
+        Subnet subnet = findSubnet( address );
+
+        if ( subnet != null )
+        {
+            pools.get( subnet ).release( address );
+        }
+    }
+
+
+    /**
+     * Expires the leases which deadline has passed. This is called periodically by
+     * the expiration timer. The journal is compacted if needed.
+     *
+     * @param now The current time
+     * @return The number of expired leases
+     */
+    public int expireLeases( long now )
+    {
+        int expired = 0;
+
+        for ( Map.Entry<HardwareAddress, Long> entry : deadlines.entrySet() )
+        {
+            if ( entry.getValue() > now )
+            {
+                continue;
+            }
+
+            HardwareAddress hardwareAddress = entry.getKey();
+
+            synchronized ( getLock( hardwareAddress ) )
+            {
+                // The lease may have been renewed meanwhile
+                Long deadline = deadlines.get( hardwareAddress );
+                Lease lease = leasesByHardwareAddress.get( hardwareAddress );
+
+                if ( ( deadline != null ) && ( deadline <= now ) && ( lease != null ) )
+                {
+                    lease.setState( Lease.STATE_EXPIRED );
+                    removeLease( lease );
+                    expired++;
+                }
+            }
+        }
+
+        if ( ( journal != null ) && journal.needsCompaction( leasesByHardwareAddress.size() ) )
+        {
+            compactJournal();
+        }
+
+        return expired;
+    }
+
+
+    /**
+     * Rewrites the journal with the current leases. The leases are read while the journal
+     * is locked, so an update done meanwhile is either part of the new journal, or
+     * appended to it once it has been rewritten.
+     */
+    private void compactJournal()
+    {
+        try
+        {
+            journal.compact( leasesByHardwareAddress.values() );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot compact the lease journal {}", journalFile, ioe );
+        }
+    }
+
+
+    /**
+     * Gets the lease of a client
+     *
+     * @param hardwareAddress The client's hardware address
+     * @return The lease, or null if the client has no lease
+     */
+    public Lease getLease( HardwareAddress hardwareAddress )
+    {
+        return leasesByHardwareAddress.get( hardwareAddress );
+    }
+
+
+    /**
+     * Gets the lease an address is allocated to
+     *
+     * @param clientAddress The address
+     * @return The lease, or null if the address is not leased
+     */
+    public Lease getLease( InetAddress clientAddress )
+    {
+        return leasesByAddress.get( clientAddress );
+    }
+
+
+    /**
+     * @return The current leases
+     */
+    public Collection<Lease> getLeases()
+    {
+        return leasesByHardwareAddress.values();
+    }
+
+
+    /**
+     * Gets the address pool of a subnet
+     *
+     * @param subnet The subnet
+     * @return The subnet's pool, or null if the subnet is unknown
+     */
+    public AddressPool getPool( Subnet subnet )
+    {
+        return pools.get( subnet );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected OptionsField getOptions( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getOptions();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Map getProperties( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getProperties();
+    }
+
+
+    /**
+     * @return The delay between two expiration checks, in milliseconds
+     */
+    public long getExpiryCheckInterval()
+    {
+        return expiryCheckInterval;
+    }
+
+
+    /**
+     * Sets the delay between two expiration checks. Must be called before the store is opened.
+     *
+     * @param expiryCheckInterval The delay, in milliseconds
+     */
+    public void setExpiryCheckInterval( long expiryCheckInterval )
+    {
+        this.expiryCheckInterval = expiryCheckInterval;
+    }
+
+
+    /**
+     * @return The time an offered address is kept for the client, in milliseconds
+     */
+    public long getOfferHoldTime()
+    {
+        return offerHoldTime;
+    }
+
+
+    /**
+     * Sets the time an offered address is kept for a client which doesn't request it.
+     *
+     * @param offerHoldTime The time, in milliseconds
+     */
+    public void setOfferHoldTime( long offerHoldTime )
+    {
+        this.offerHoldTime = offerHoldTime;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append-only file storing the leases changes. Each change is a record appended
+ * at the end of the file, so storing a lease is a single sequential write. When the
+ * store is restarted, the file is replayed, the last record of each hardware address
+ * winning. The file is compacted when it contains too many obsolete records.
+ * <br>
+ * A record has the following structure :
+ * <ul>
+ *   <li><b>[op]</b> : a byte, {@link #PUT} or {@link #REMOVE}</li>
+ *   <li><b>[hardware address]</b> : the type (short), the length (short) and the address bytes</li>
+ *   <li>For a PUT record :
+ *     <ul>
+ *       <li><b>[client address]</b> : the length (byte) and the address bytes</li>
+ *       <li><b>[state]</b> : an int</li>
+ *       <li><b>[acquired]</b> : a long</li>
+ *       <li><b>[expires]</b> : a long</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * A truncated record at the end of the file, left by a crash, is ignored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LeaseJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger( LeaseJournal.class );
+
+    /** A record storing a lease */
+    private static final byte PUT = 1;
+
+    /** A record removing a lease */
+    private static final byte REMOVE = 2;
+
+    /** The minimal number of records before we consider compacting the file */
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    /** The journal file */
+    private final File file;
+
+    /** The stream the records are appended to */
+    private DataOutputStream out;
+
+    /** The number of records in the file */
+    private int recordCount;
+
+
+    /**
+     * Creates a new instance of LeaseJournal.
+     *
+     * @param file The journal file
+     */
+    public LeaseJournal( File file )
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Reads the journal, and opens it for appending.
+     *
+     * @return The leases stored in the journal, in the order they were last updated
+     * @throws IOException If the journal can't be read
+     */
+    public synchronized Collection<Lease> open() throws IOException
+    {
+        Map<HardwareAddress, Lease> leases = new LinkedHashMap<HardwareAddress, Lease>();
+        long validLength = 0L;
+        recordCount = 0;
+
+        if ( file.exists() )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            try
+            {
+                while ( true )
+                {
+                    int op = in.read();
+
+                    if ( op < 0 )
+                    {
+                        break;
+                    }
+
+                    HardwareAddress hardwareAddress = readHardwareAddress( in );
+
+                    if ( op == PUT )
+                    {
+                        Lease lease = readLease( in );
+                        lease.setHardwareAddress( hardwareAddress );
+                        leases.remove( hardwareAddress );
+                        leases.put( hardwareAddress, lease );
+                        validLength += 1 + 4 + hardwareAddress.getAddress().length + 1
+                            + lease.getClientAddress().getAddress().length + 4 + 8 + 8;
+                    }
+                    else if ( op == REMOVE )
+                    {
+                        leases.remove( hardwareAddress );
+                        validLength += 1 + 4 + hardwareAddress.getAddress().length;
+                    }
+                    else
+                    {
+                        LOG.warn( "Unknown record type {} in the lease journal {}, ignoring the rest of the file", op,
+                            file );
+                        break;
+                    }
+
+                    recordCount++;
+                }
+            }
+            catch ( EOFException eofe )
+            {
+                LOG.warn( "The lease journal {} ends with a truncated record, ignoring it", file );
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if ( validLength < file.length() )
+            {
+                // Get rid of the garbage, so that the next records are readable
+                RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+
+                try
+                {
+                    raf.setLength( validLength );
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+        }
+
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ) ) );
+
+        return leases.values();
+    }
+
+
+    private static HardwareAddress readHardwareAddress( DataInputStream in ) throws IOException
+    {
+        short type = in.readShort();
+        short length = in.readShort();
+
+        if ( ( length < 0 ) || ( length > 255 ) )
+        {
+            // Not a valid hardware address : the record is corrupted
+            throw new EOFException();
+        }
+
+        byte[] address = new byte[length];
+        in.readFully( address );
+
+        return new HardwareAddress( type, length, address );
+    }
+
+
+    private static Lease readLease( DataInputStream in ) throws IOException
+    {
+        byte[] clientAddress = new byte[in.readUnsignedByte()];
+        in.readFully( clientAddress );
+
+        Lease lease = new Lease();
+        lease.setClientAddress( InetAddress.getByAddress( clientAddress ) );
+        lease.setState( in.readInt() );
+        lease.setAcquired( in.readLong() );
+        lease.setExpires( in.readLong() );
+
+        return lease;
+    }
+
+
+    private static void writeHardwareAddress( DataOutputStream out, HardwareAddress hardwareAddress )
+        throws IOException
+    {
+        byte[] address = hardwareAddress.getAddress();
+        out.writeShort( hardwareAddress.getType() );
+        out.writeShort( address.length );
+        out.write( address );
+    }
+
+
+    private static void writePut( DataOutputStream out, Lease lease ) throws IOException
+    {
+        byte[] clientAddress = lease.getClientAddress().getAddress();
+
+        out.writeByte( PUT );
+        writeHardwareAddress( out, lease.getHardwareAddress() );
+        out.writeByte( clientAddress.length );
+        out.write( clientAddress );
+        out.writeInt( lease.getState() );
+        out.writeLong( lease.getAcquired() );
+        out.writeLong( lease.getExpires() );
+    }
+
+
+    /**
+     * Appends a record storing a lease
+     *
+     * @param lease The lease to store
+     * @throws IOException If the record can't be written
+     */
+    public synchronized void put( Lease lease ) throws IOException
+    {
+        writePut( out, lease );
+        out.flush();
+        recordCount++;
+    }
+
+
+    /**
+     * Appends a record removing the lease of a hardware address
+     *
+     * @param hardwareAddress The lease's hardware address
+     * @throws IOException If the record can't be written
+     */
+    public synchronized void remove( HardwareAddress hardwareAddress ) throws IOException
+    {
+        out.writeByte( REMOVE );
+        writeHardwareAddress( out, hardwareAddress );
+        out.flush();
+        recordCount++;
+    }
+
+
+    /**
+     * Tells if the journal should be compacted, ie if most of its records are obsolete
+     *
+     * @param liveLeases The number of leases in the store
+     * @return true if the journal should be compacted
+     */
+    public synchronized boolean needsCompaction( int liveLeases )
+    {
+        return ( recordCount > COMPACTION_THRESHOLD ) && ( recordCount > 2 * liveLeases );
+    }
+
+
+    /**
+     * Rewrites the journal, keeping only one record per lease. The new journal is
+     * written in a temporary file which then replaces the current one.
+     *
+     * @param leases The leases in the store
+     * @throws IOException If the journal can't be rewritten
+     */
+    public synchronized void compact( Collection<Lease> leases ) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream( buffer );
+
+        for ( Lease lease : leases )
+        {
+            writePut( data, lease );
+        }
+
+        data.flush();
+
+        File tmpFile = new File( file.getPath() + ".tmp" );
+        FileOutputStream tmp = new FileOutputStream( tmpFile );
+
+        try
+        {
+            buffer.writeTo( tmp );
+            tmp.getFD().sync();
+        }
+        finally
+        {
+            tmp.close();
+        }
+
+        out.close();
+
+        if ( !tmpFile.renameTo( file ) )
+        {
+            // Some platforms can't rename over an existing file
+            if ( !file.delete() || !tmpFile.renameTo( file ) )
+            {
+                out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ) ) );
+                throw new IOException( "Cannot replace the lease journal " + file );
+            }
+        }
+
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ) ) );
+        recordCount = leases.size();
+    }
+
+
+    /**
+     * Closes the journal
+     *
+     * @throws IOException If the journal can't be closed
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( out != null )
+        {
+            out.close();
+            out = null;
+        }
+    }
+}
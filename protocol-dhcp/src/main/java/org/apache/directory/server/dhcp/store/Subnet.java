@@ -51,7 +51,7 @@ public class Subnet extends DhcpConfigElement
     {
         // mask address to match subnet
         byte[] masked = netmask.getAddress();
-        byte[] addrBytes = netmask.getAddress();
+        byte[] addrBytes = address.getAddress();
 
         for ( int i = 0; i < addrBytes.length; i++ )
         {
@@ -149,19 +149,13 @@ public class Subnet extends DhcpConfigElement
     public boolean isInRange( InetAddress clientAddress )
     {
         byte[] client = clientAddress.getAddress();
-        byte[] masked = netmask.getAddress();
-
-        for ( int i = 0; i < masked.length; i++ )
-        {
-            masked[i] &= client[i];
-        }
 
-        if ( null != rangeMin && arrayComp( masked, rangeMin.getAddress() ) < 0 )
+        if ( null != rangeMin && arrayComp( client, rangeMin.getAddress() ) < 0 )
         {
             return false;
         }
 
-        if ( null != rangeMin && arrayComp( masked, rangeMax.getAddress() ) > 0 )
+        if ( null != rangeMax && arrayComp( client, rangeMax.getAddress() ) > 0 )
         {
             return false;
         }
@@ -0,0 +1,271 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests for the IndexedDhcpStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexedDhcpStoreTest
+{
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private InetAddress selectionBase;
+    private Subnet subnet;
+    private File journalFile;
+    private IndexedDhcpStore store;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        selectionBase = InetAddress.getByName( "10.0.0.1" );
+        journalFile = new File( tmpFolder.getRoot(), "leases.journal" );
+        store = createStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        store.close();
+    }
+
+
+    private IndexedDhcpStore createStore() throws Exception
+    {
+        // A /16 subnet, with a 1000 addresses range
+        subnet = new Subnet( InetAddress.getByName( "10.0.0.0" ), InetAddress.getByName( "255.255.0.0" ),
+            InetAddress.getByName( "10.0.1.0" ), InetAddress.getByName( "10.0.4.231" ) );
+
+        IndexedDhcpStore indexedStore = new IndexedDhcpStore( journalFile );
+        indexedStore.addSubnet( subnet );
+        indexedStore.addHost( new Host( "fixed", InetAddress.getByName( "10.0.1.0" ), mac( 0xFFFFFF ) ) );
+        indexedStore.open();
+
+        return indexedStore;
+    }
+
+
+    private static HardwareAddress mac( int n )
+    {
+        return new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+            { 0x00, 0x16, 0x3E, ( byte ) ( n >>> 16 ), ( byte ) ( n >>> 8 ), ( byte ) n } );
+    }
+
+
+    private Lease discover( HardwareAddress hardwareAddress, InetAddress requestedAddress ) throws Exception
+    {
+        return store.getLeaseOffer( hardwareAddress, requestedAddress, selectionBase, -1L, new OptionsField() );
+    }
+
+
+    private Lease request( HardwareAddress hardwareAddress, InetAddress requestedAddress ) throws Exception
+    {
+        return store.getExistingLease( hardwareAddress, requestedAddress, selectionBase, -1L, new OptionsField() );
+    }
+
+
+    @Test
+    public void testAllocation() throws Exception
+    {
+        Lease lease = discover( mac( 1 ), null );
+        assertNotNull( lease );
+        assertEquals( Lease.STATE_OFFERED, lease.getState() );
+
+        // The fixed address of the host is not in the pool
+        assertEquals( InetAddress.getByName( "10.0.1.1" ), lease.getClientAddress() );
+
+        // A second DISCOVER gets the same lease
+        assertSame( lease, discover( mac( 1 ), null ) );
+
+        // The requested address is honored when free
+        InetAddress requested = InetAddress.getByName( "10.0.2.2" );
+        assertEquals( requested, discover( mac( 2 ), requested ).getClientAddress() );
+        assertFalse( requested.equals( discover( mac( 3 ), requested ).getClientAddress() ) );
+
+        // The REQUEST activates the lease
+        Lease active = request( mac( 1 ), lease.getClientAddress() );
+        assertSame( lease, active );
+        assertEquals( Lease.STATE_ACTIVE, active.getState() );
+        assertSame( lease, store.getLease( lease.getClientAddress() ) );
+
+        // The designated host gets its fixed address
+        assertEquals( InetAddress.getByName( "10.0.1.0" ), discover( mac( 0xFFFFFF ), null ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testExhaustion() throws Exception
+    {
+        AddressPool pool = store.getPool( subnet );
+        assertEquals( 1000, pool.getSize() );
+        assertEquals( 999, pool.getFreeCount() );
+
+        Set<InetAddress> addresses = new HashSet<InetAddress>();
+
+        for ( int i = 0; i < 999; i++ )
+        {
+            addresses.add( discover( mac( i ), null ).getClientAddress() );
+        }
+
+        assertEquals( 999, addresses.size() );
+        assertEquals( 0, pool.getFreeCount() );
+        assertNull( discover( mac( 5000 ), null ) );
+
+        // Releasing a lease frees its address
+        store.releaseLease( store.getLease( mac( 10 ) ) );
+        assertNull( store.getLease( mac( 10 ) ) );
+        assertNotNull( discover( mac( 5000 ), null ) );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        Lease offered = discover( mac( 1 ), null );
+        Lease active = discover( mac( 2 ), null );
+        request( mac( 2 ), active.getClientAddress() );
+
+        long now = System.currentTimeMillis();
+
+        // Nothing has expired yet
+        assertEquals( 0, store.expireLeases( now ) );
+
+        // The offer is not kept for ever, the active lease is kept until its end
+        assertEquals( 1, store.expireLeases( now + store.getOfferHoldTime() + 1000L ) );
+        assertEquals( Lease.STATE_EXPIRED, offered.getState() );
+        assertNull( store.getLease( offered.getClientAddress() ) );
+        assertNotNull( store.getLease( mac( 2 ) ) );
+
+        assertEquals( 1, store.expireLeases( active.getExpires() ) );
+        assertNull( store.getLease( mac( 2 ) ) );
+        assertEquals( 999, store.getPool( subnet ).getFreeCount() );
+    }
+
+
+    @Test
+    public void testRestart() throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            Lease lease = discover( mac( i ), null );
+            request( mac( i ), lease.getClientAddress() );
+        }
+
+        InetAddress released = store.getLease( mac( 50 ) ).getClientAddress();
+        store.releaseLease( store.getLease( mac( 50 ) ) );
+        InetAddress kept = store.getLease( mac( 42 ) ).getClientAddress();
+
+        store.close();
+        store = createStore();
+
+        assertEquals( 99, store.getLeases().size() );
+        assertEquals( kept, store.getLease( mac( 42 ) ).getClientAddress() );
+        assertEquals( Lease.STATE_ACTIVE, store.getLease( mac( 42 ) ).getState() );
+        assertNull( store.getLease( mac( 50 ) ) );
+        assertEquals( 999 - 99, store.getPool( subnet ).getFreeCount() );
+
+        // The restored lease can be renewed
+        assertNotNull( request( mac( 42 ), kept ) );
+
+        // The released address can be allocated again
+        assertEquals( released, discover( mac( 1000 ), released ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testConcurrentAllocation() throws Exception
+    {
+        final int nbThreads = 8;
+        final int nbClients = 100;
+        final Set<InetAddress> addresses = Collections.synchronizedSet( new HashSet<InetAddress>() );
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch( 1 );
+        Thread[] threads = new Thread[nbThreads];
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        // All the threads send DISCOVERs for the same clients
+                        for ( int i = 0; i < nbClients; i++ )
+                        {
+                            addresses.add( discover( mac( i ), null ).getClientAddress() );
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        start.countDown();
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( 0, errors.get() );
+        assertEquals( nbClients, addresses.size() );
+        assertEquals( nbClients, store.getLeases().size() );
+        assertEquals( 999 - nbClients, store.getPool( subnet ).getFreeCount() );
+        assertTrue( journalFile.length() > 0 );
+    }
+}
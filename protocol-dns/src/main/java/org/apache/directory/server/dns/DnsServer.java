@@ -22,7 +22,19 @@ package org.apache.directory.server.dns;
 
 import java.io.IOException;
 
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
+import org.apache.directory.server.dns.store.CachingRecordStore;
 import org.apache.directory.server.dns.store.RecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
@@ -57,6 +69,22 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** The default maximum number of cached answers */
+    private static final int DEFAULT_ANSWER_CACHE_SIZE = 1000;
+
+    /** The filter selecting the entries containing DNS records */
+    private static final String RECORDS_FILTER = "(|(objectClass=apacheDnsAbstractRecord)"
+        + "(objectClass=apacheDnsReferralNameServer)(objectClass=apacheDnsReferralAddress))";
+
+    /** The maximum number of cached answers, 0 to disable the cache */
+    private int answerCacheSize = DEFAULT_ANSWER_CACHE_SIZE;
+
+    /** The answer cache, if enabled */
+    private CachingRecordStore answerCache;
+
+    /** The listener clearing the answer cache when the records are modified */
+    private DirectoryListener answerCacheListener;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -75,6 +103,13 @@ public class DnsServer extends DirectoryBackedService
     {
         RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
 
+        if ( answerCacheSize > 0 )
+        {
+            answerCache = new CachingRecordStore( store, answerCacheSize );
+            store = answerCache;
+            registerAnswerCacheListener();
+        }
+
         if ( ( transports == null ) || ( transports.size() == 0 ) )
         {
             // Default to UDP with port 53
@@ -131,6 +166,14 @@ public class DnsServer extends DirectoryBackedService
 
     public void stop()
     {
+        if ( answerCacheListener != null )
+        {
+            getDirectoryService().getEventService().removeListener( answerCacheListener );
+            answerCacheListener = null;
+        }
+
+        answerCache = null;
+
         for ( Transport transport : getTransports() )
         {
             IoAcceptor acceptor = transport.getAcceptor();
@@ -145,6 +188,114 @@ public class DnsServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Registers a listener clearing the answer cache each time an entry containing
+     * DNS records is added, modified, removed or moved. The zones may be stored
+     * anywhere, so the whole DIT is listened to.
+     */
+    private void registerAnswerCacheListener() throws IOException
+    {
+        answerCacheListener = new DirectoryListenerAdapter()
+        {
+            @Override
+            public void entryAdded( AddOperationContext addContext )
+            {
+                answerCache.clear();
+            }
+
+
+            @Override
+            public void entryDeleted( DeleteOperationContext deleteContext )
+            {
+                answerCache.clear();
+            }
+
+
+            @Override
+            public void entryModified( ModifyOperationContext modifyContext )
+            {
+                answerCache.clear();
+            }
+
+
+            @Override
+            public void entryRenamed( RenameOperationContext renameContext )
+            {
+                answerCache.clear();
+            }
+
+
+            @Override
+            public void entryMoved( MoveOperationContext moveContext )
+            {
+                answerCache.clear();
+            }
+
+
+            @Override
+            public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+            {
+                answerCache.clear();
+            }
+
+
+            /**
+             * The cache must be cleared before the modification is acknowledged
+             */
+            @Override
+            public boolean isSynchronous()
+            {
+                return true;
+            }
+        };
+
+        try
+        {
+            NotificationCriteria criteria = new NotificationCriteria();
+            criteria.setBase( new Dn() );
+            criteria.setScope( SearchScope.SUBTREE );
+            criteria.setFilter( RECORDS_FILTER );
+
+            getDirectoryService().getEventService().addListener( answerCacheListener, criteria );
+        }
+        catch ( Exception e )
+        {
+            answerCacheListener = null;
+            throw new IOException( e );
+        }
+    }
+
+
+    /**
+     * @return The maximum number of cached answers, 0 if the cache is disabled
+     */
+    public int getAnswerCacheSize()
+    {
+        return answerCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum number of answers kept in memory. The change is taken into
+     * account when the server is started.
+     *
+     * @param answerCacheSize The maximum number of cached answers, 0 to disable the cache
+     */
+    public void setAnswerCacheSize( int answerCacheSize )
+    {
+        this.answerCacheSize = answerCacheSize;
+    }
+
+
+    /**
+     * @return The answer cache, or null if it is disabled or the server is not started
+     */
+    public CachingRecordStore getAnswerCache()
+    {
+        return answerCache;
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -158,8 +158,36 @@ public class DnsMessageEncoder
     }
 
 
+    /**
+     * Encodes a single resource record, as it would be written in a message.
+     * 
+     * @param record the record to encode
+     * @return the record bytes
+     * @throws IOException if the record type is not supported
+     */
+    public byte[] encode( ResourceRecord record ) throws IOException
+    {
+        IoBuffer byteBuffer = IoBuffer.allocate( 256 );
+        byteBuffer.setAutoExpand( true );
+        put( byteBuffer, record );
+        byteBuffer.flip();
+
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get( bytes );
+
+        return bytes;
+    }
+
+
     private void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
     {
+        if ( record instanceof PreEncodedResourceRecord )
+        {
+            byteBuffer.put( ( ( PreEncodedResourceRecord ) record ).getEncoded() );
+
+            return;
+        }
+
         RecordType type = record.getRecordType();
 
         RecordEncoder encoder = DEFAULT_ENCODERS.get( type );
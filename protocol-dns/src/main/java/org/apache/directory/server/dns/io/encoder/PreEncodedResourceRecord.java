@@ -0,0 +1,121 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+
+
+/**
+ * A ResourceRecord which has already been encoded. The {@link DnsMessageEncoder}
+ * writes its bytes as is, without encoding the record again.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PreEncodedResourceRecord implements ResourceRecord
+{
+    /** The encoded record */
+    private final ResourceRecord record;
+
+    /** The record bytes */
+    private final byte[] encoded;
+
+
+    /**
+     * Creates a new instance of PreEncodedResourceRecord.
+     *
+     * @param record The encoded record
+     * @param encoded The record bytes, as written by the {@link DnsMessageEncoder}
+     */
+    public PreEncodedResourceRecord( ResourceRecord record, byte[] encoded )
+    {
+        this.record = record;
+        this.encoded = encoded;
+    }
+
+
+    /**
+     * @return The record bytes
+     */
+    public byte[] getEncoded()
+    {
+        return encoded;
+    }
+
+
+    public String getDomainName()
+    {
+        return record.getDomainName();
+    }
+
+
+    public RecordType getRecordType()
+    {
+        return record.getRecordType();
+    }
+
+
+    public RecordClass getRecordClass()
+    {
+        return record.getRecordClass();
+    }
+
+
+    public int getTimeToLive()
+    {
+        return record.getTimeToLive();
+    }
+
+
+    public String get( String id )
+    {
+        return record.get( id );
+    }
+
+
+    public boolean equals( Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+
+        if ( !( o instanceof PreEncodedResourceRecord ) )
+        {
+            return false;
+        }
+
+        return record.equals( ( ( PreEncodedResourceRecord ) o ).record );
+    }
+
+
+    public int hashCode()
+    {
+        return record.hashCode();
+    }
+
+
+    public String toString()
+    {
+        return record.toString();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.store;
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.io.encoder.DnsMessageEncoder;
+import org.apache.directory.server.dns.io.encoder.PreEncodedResourceRecord;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A RecordStore keeping the answers of another RecordStore in memory. The answers
+ * are keyed by the question name, type and class, and are kept until the lowest TTL
+ * of their records expires, or until the cache is cleared because the records
+ * have been modified. The records are stored already encoded, so that they are
+ * written as is in the responses.
+ * <br>
+ * Only the found records are cached : a question without answer always goes to
+ * the wrapped store.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStore implements RecordStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CachingRecordStore.class );
+
+    /** The store the answers are read from */
+    private final RecordStore store;
+
+    /** The cached answers */
+    private final Map<String, CachedAnswer> answers;
+
+    /** The encoder used to encode the records */
+    private final DnsMessageEncoder encoder = new DnsMessageEncoder();
+
+    /** Incremented each time the cache is cleared */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The number of questions answered from the cache */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of questions answered by the wrapped store */
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of CachingRecordStore.
+     *
+     * @param store The store the answers are read from
+     * @param maxAnswers The maximum number of answers to keep
+     */
+    public CachingRecordStore( RecordStore store, final int maxAnswers )
+    {
+        this.store = store;
+
+        answers = new LinkedHashMap<String, CachedAnswer>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, CachedAnswer> eldest )
+            {
+                return size() > maxAnswers;
+            }
+        };
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        String key = getKey( question );
+        long now = System.currentTimeMillis();
+
+        synchronized ( answers )
+        {
+            CachedAnswer answer = answers.get( key );
+
+            if ( answer != null )
+            {
+                if ( answer.expiresAt > now )
+                {
+                    hits.incrementAndGet();
+
+                    return answer.records;
+                }
+
+                answers.remove( key );
+            }
+        }
+
+        misses.incrementAndGet();
+
+        // Don't store the records if the cache is cleared while they are read,
+        // they may be outdated
+        long currentGeneration = generation.get();
+        Set<ResourceRecord> records = store.getRecords( question );
+
+        if ( ( records == null ) || records.isEmpty() )
+        {
+            return records;
+        }
+
+        CachedAnswer answer = createAnswer( records, now );
+
+        if ( answer == null )
+        {
+            return records;
+        }
+
+        synchronized ( answers )
+        {
+            if ( generation.get() == currentGeneration )
+            {
+                answers.put( key, answer );
+            }
+        }
+
+        return answer.records;
+    }
+
+
+    /**
+     * Removes all the cached answers. This has to be called when some records
+     * are added, modified or removed.
+     */
+    public void clear()
+    {
+        synchronized ( answers )
+        {
+            generation.incrementAndGet();
+            answers.clear();
+        }
+    }
+
+
+    /**
+     * @return The number of cached answers
+     */
+    public int size()
+    {
+        synchronized ( answers )
+        {
+            return answers.size();
+        }
+    }
+
+
+    /**
+     * @return The number of questions answered from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return The number of questions answered by the wrapped store
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * The DNS names are case insensitive
+     */
+    private String getKey( QuestionRecord question )
+    {
+        return Strings.toLowerCaseAscii( question.getDomainName() ) + '/' + question.getRecordType() + '/'
+            + question.getRecordClass();
+    }
+
+
+    /**
+     * Encodes the records, and computes the answer expiration date from their
+     * lowest TTL. Returns null if the answer can't be cached.
+     */
+    private CachedAnswer createAnswer( Set<ResourceRecord> records, long now )
+    {
+        Set<ResourceRecord> encodedRecords = new LinkedHashSet<ResourceRecord>();
+        long ttl = Long.MAX_VALUE;
+
+        try
+        {
+            for ( ResourceRecord record : records )
+            {
+                ttl = Math.min( ttl, record.getTimeToLive() );
+                encodedRecords.add( new PreEncodedResourceRecord( record, encoder.encode( record ) ) );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            // A record type we can't encode : let the response encoder deal with it
+            LOG.debug( "Cannot encode the records, they won't be cached", ioe );
+
+            return null;
+        }
+
+        if ( ttl <= 0 )
+        {
+            return null;
+        }
+
+        return new CachedAnswer( Collections.unmodifiableSet( encodedRecords ), now + ttl * 1000L );
+    }
+
+
+    /**
+     * An answer and its expiration date
+     */
+    private static final class CachedAnswer
+    {
+        private final Set<ResourceRecord> records;
+        private final long expiresAt;
+
+
+        CachedAnswer( Set<ResourceRecord> records, long expiresAt )
+        {
+            this.records = records;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.store;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.io.encoder.DnsMessageEncoder;
+import org.apache.directory.server.dns.io.encoder.PreEncodedResourceRecord;
+import org.apache.directory.server.dns.messages.DnsMessage;
+import org.apache.directory.server.dns.messages.DnsMessageModifier;
+import org.apache.directory.server.dns.messages.MessageType;
+import org.apache.directory.server.dns.messages.OpCode;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests for the CachingRecordStore.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStoreTest
+{
+    /**
+     * A store counting the questions it answers
+     */
+    private static class CountingRecordStore implements RecordStore
+    {
+        private int nbQuestions;
+        private int ttl = 100;
+
+
+        public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+        {
+            nbQuestions++;
+            Set<ResourceRecord> set = new HashSet<ResourceRecord>();
+
+            ResourceRecordModifier modifier = new ResourceRecordModifier();
+            modifier.setDnsClass( RecordClass.IN );
+            modifier.setDnsName( question.getDomainName() );
+            modifier.setDnsTtl( ttl );
+            modifier.setDnsType( RecordType.A );
+            modifier.put( DnsAttribute.IP_ADDRESS, "10.0.0." + nbQuestions );
+            set.add( modifier.getEntry() );
+
+            return set;
+        }
+    }
+
+
+    @Test
+    public void testCachedAnswer() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        CachingRecordStore cache = new CachingRecordStore( store, 10 );
+        QuestionRecord question = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+
+        Set<ResourceRecord> records = cache.getRecords( question );
+        assertEquals( 1, records.size() );
+        assertTrue( records.iterator().next() instanceof PreEncodedResourceRecord );
+
+        // The names are case insensitive
+        assertSame( records, cache.getRecords( question ) );
+        assertSame( records,
+            cache.getRecords( new QuestionRecord( "WWW.Example.com", RecordType.A, RecordClass.IN ) ) );
+        assertEquals( 1, store.nbQuestions );
+        assertEquals( 2, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+
+        // Another type is another question
+        cache.getRecords( new QuestionRecord( "www.example.com", RecordType.MX, RecordClass.IN ) );
+        assertEquals( 2, store.nbQuestions );
+
+        // Once cleared, the store is asked again
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        Set<ResourceRecord> newRecords = cache.getRecords( question );
+        assertEquals( 3, store.nbQuestions );
+        assertEquals( "10.0.0.3", newRecords.iterator().next().get( DnsAttribute.IP_ADDRESS ) );
+    }
+
+
+    @Test
+    public void testZeroTtlIsNotCached() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        store.ttl = 0;
+        CachingRecordStore cache = new CachingRecordStore( store, 10 );
+        QuestionRecord question = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+
+        cache.getRecords( question );
+        cache.getRecords( question );
+
+        assertEquals( 2, store.nbQuestions );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        CachingRecordStore cache = new CachingRecordStore( store, 2 );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            cache.getRecords( new QuestionRecord( "host" + i + ".example.com", RecordType.A, RecordClass.IN ) );
+        }
+
+        assertEquals( 2, cache.size() );
+    }
+
+
+    @Test
+    public void testPreEncodedRecordsAreEncodedAsIs() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        CachingRecordStore cache = new CachingRecordStore( store, 10 );
+        QuestionRecord question = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+
+        // The store returns the same address for the first question
+        List<ResourceRecord> cached = new ArrayList<ResourceRecord>( cache.getRecords( question ) );
+        store.nbQuestions = 0;
+        List<ResourceRecord> fresh = new ArrayList<ResourceRecord>( store.getRecords( question ) );
+
+        assertArrayEquals( encode( question, fresh ), encode( question, cached ) );
+    }
+
+
+    private byte[] encode( QuestionRecord question, List<ResourceRecord> records )
+    {
+        DnsMessageModifier modifier = new DnsMessageModifier();
+        modifier.setTransactionId( 42 );
+        modifier.setMessageType( MessageType.RESPONSE );
+        modifier.setOpCode( OpCode.QUERY );
+        modifier.setResponseCode( ResponseCode.NO_ERROR );
+        List<QuestionRecord> questions = new ArrayList<QuestionRecord>();
+        questions.add( question );
+        modifier.setQuestionRecords( questions );
+        modifier.setAnswerRecords( records );
+        modifier.setAuthorityRecords( new ArrayList<ResourceRecord>() );
+        modifier.setAdditionalRecords( new ArrayList<ResourceRecord>() );
+        DnsMessage message = modifier.getDnsMessage();
+
+        IoBuffer buffer = IoBuffer.allocate( 1024 );
+        new DnsMessageEncoder().encode( buffer, message );
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+}
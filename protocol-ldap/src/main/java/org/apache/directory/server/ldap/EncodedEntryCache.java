@@ -0,0 +1,231 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.directory.api.asn1.EncoderException;
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.asn1.ber.tlv.TLV;
+import org.apache.directory.api.asn1.ber.tlv.UniversalTag;
+import org.apache.mina.core.buffer.IoBuffer;
+
+
+/**
+ * A cache of encoded SearchResultEntry protocol operations. The BER encoding of an
+ * entry only depends on its content and on the attributes selected by the request,
+ * so the bytes computed for a hot entry can be reused as is for the next requests,
+ * only the message envelope (the message ID) being rebuilt.
+ * <br>
+ * The keys contain the entryCSN and the DN, so a modified, renamed or moved entry is not
+ * found anymore : the stale encoding is evicted as the least recently used one. The cache
+ * is not used when access control is enabled, as the returned content then depends on
+ * the ACIs and on the user, which change without touching the entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedEntryCache
+{
+    /** The cached protocolOp bytes, in access order */
+    private final Map<String, byte[]> cache;
+
+    /** The number of hits and misses */
+    private long hits;
+    private long misses;
+
+
+    /**
+     * Creates a new instance of EncodedEntryCache.
+     *
+     * @param maxEntries The maximum number of cached entries
+     */
+    public EncodedEntryCache( final int maxEntries )
+    {
+        cache = new LinkedHashMap<String, byte[]>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            protected boolean removeEldestEntry( Map.Entry<String, byte[]> eldest )
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+
+    /**
+     * Gets the encoded protocolOp associated with a key
+     *
+     * @param key The key
+     * @return The protocolOp bytes, or null if not cached
+     */
+    public synchronized byte[] get( String key )
+    {
+        byte[] protocolOp = cache.get( key );
+
+        if ( protocolOp == null )
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+
+        return protocolOp;
+    }
+
+
+    /**
+     * Stores an encoded protocolOp
+     *
+     * @param key The key
+     * @param protocolOp The protocolOp bytes
+     */
+    public synchronized void put( String key, byte[] protocolOp )
+    {
+        cache.put( key, protocolOp );
+    }
+
+
+    /**
+     * Discards all the cached encodings
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+    }
+
+
+    /**
+     * @return The number of cached encodings
+     */
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+
+
+    /**
+     * @return The number of successful lookups
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+
+    /**
+     * @return The number of failed lookups
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+
+    /**
+     * Extracts the protocolOp from an encoded LDAPMessage, ie skips the SEQUENCE
+     * header and the message ID, and drops the controls if any.
+     *
+     * @param message The encoded message
+     * @return The protocolOp TLV
+     */
+    public static byte[] getProtocolOp( ByteBuffer message )
+    {
+        ByteBuffer buffer = message.duplicate();
+
+        // The LDAPMessage SEQUENCE header
+        buffer.get();
+        skipLength( buffer );
+
+        // The messageID INTEGER
+        buffer.get();
+        int idLength = readLength( buffer );
+        buffer.position( buffer.position() + idLength );
+
+        // The protocolOp TLV
+        int start = buffer.position();
+        buffer.get();
+        int length = readLength( buffer );
+        int end = buffer.position() + length;
+
+        byte[] protocolOp = new byte[end - start];
+        buffer.position( start );
+        buffer.get( protocolOp );
+
+        return protocolOp;
+    }
+
+
+    /**
+     * Builds an LDAPMessage from a message ID and an encoded protocolOp, without controls
+     *
+     * @param messageId The message ID
+     * @param protocolOp The protocolOp TLV
+     * @return The encoded message, ready to be written
+     * @throws EncoderException If the message ID can't be encoded
+     */
+    public static IoBuffer encode( int messageId, byte[] protocolOp ) throws EncoderException
+    {
+        int contentLength = 1 + 1 + BerValue.getNbBytes( messageId ) + protocolOp.length;
+        IoBuffer buffer = IoBuffer.allocate( 1 + TLV.getNbBytes( contentLength ) + contentLength );
+        ByteBuffer bb = buffer.buf();
+
+        bb.put( UniversalTag.SEQUENCE.getValue() );
+        bb.put( TLV.getBytes( contentLength ) );
+        BerValue.encode( bb, messageId );
+        bb.put( protocolOp );
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+
+    private static int readLength( ByteBuffer buffer )
+    {
+        int first = buffer.get() & 0xFF;
+
+        if ( ( first & 0x80 ) == 0 )
+        {
+            return first;
+        }
+
+        int length = 0;
+
+        for ( int i = 0; i < ( first & 0x7F ); i++ )
+        {
+            length = ( length << 8 ) | ( buffer.get() & 0xFF );
+        }
+
+        return length;
+    }
+
+
+    private static void skipLength( ByteBuffer buffer )
+    {
+        readLength( buffer );
+    }
+}
@@ -151,6 +151,9 @@ class LdapProtocolHandler extends DemuxingIoHandler
      */
     public void messageSent( IoSession session, Object message ) throws Exception
     {
+        // Some bytes have been sent, the suspended searches may resume
+        ldapServer.getOutboundFlowControl().messageSent( session );
+
         // Do nothing : we have to ignore this message, otherwise we get an exception,
         // thanks to the way MINA 2 works ...
         if ( message instanceof IoBuffer )
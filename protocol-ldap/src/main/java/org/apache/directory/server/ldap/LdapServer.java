@@ -35,6 +35,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -177,6 +178,27 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The limits on the bytes waiting to be sent to the clients */
+    private final OutboundFlowControl outboundFlowControl = new OutboundFlowControl( this );
+
+    /** The maximum number of encoded search entries to keep, 0 if disabled */
+    private int encodedEntryCacheSize;
+
+    /** The cache of encoded search entries, if enabled */
+    private EncodedEntryCache encodedEntryCache;
+
+    /** Tells if each request runs on its own thread instead of on the transport pool */
+    private boolean threadPerRequest;
+
+    /** The maximum number of requests running at the same time with a thread per request, 0 if unlimited */
+    private int maxConcurrentRequests;
+
+    /** The maximum number of requests running at the same time per session with a thread per request */
+    private int maxSessionConcurrentRequests;
+
+    /** The executor running the requests in the thread per request mode */
+    private RequestExecutor requestExecutor;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -498,6 +520,11 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        if ( threadPerRequest )
+        {
+            requestExecutor = new RequestExecutor( maxConcurrentRequests, maxSessionConcurrentRequests );
+        }
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -518,14 +545,21 @@ public class LdapServer extends DirectoryBackedService
             }
 
             // Inject the codec into the chain
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "codec", new ProtocolCodecFilter( this
-                .getProtocolCodecFactory() ) );
+            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "codec", new ProtocolCodecFilter(
+                new PreEncodedProtocolCodecFactory( this.getProtocolCodecFactory() ) ) );
 
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
-            // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            // (NOTE : this has to be double checked), unless each request has its own thread
+            Executor executor = requestExecutor;
+
+            if ( executor == null )
+            {
+                executor = new UnorderedThreadPoolExecutor( transport.getNbThreads() );
+            }
+
+            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter( executor,
+                IoEventType.MESSAGE_RECEIVED ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -645,6 +679,12 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        if ( requestExecutor != null )
+        {
+            requestExecutor.shutdown();
+            requestExecutor = null;
+        }
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
@@ -1715,6 +1755,173 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The maximum number of encoded search entries kept in memory. 0 if the cache is disabled
+     */
+    public int getEncodedEntryCacheSize()
+    {
+        return encodedEntryCacheSize;
+    }
+
+
+    /**
+     * Set the maximum number of encoded search entries kept in memory, so that the
+     * entries returned frequently are not encoded again and again. The cache is
+     * disabled by default.
+     *
+     * @param encodedEntryCacheSize The number of entries. A negative or null value
+     * disables the cache
+     */
+    public void setEncodedEntryCacheSize( int encodedEntryCacheSize )
+    {
+        this.encodedEntryCacheSize = Math.max( 0, encodedEntryCacheSize );
+
+        if ( this.encodedEntryCacheSize > 0 )
+        {
+            encodedEntryCache = new EncodedEntryCache( this.encodedEntryCacheSize );
+        }
+        else
+        {
+            encodedEntryCache = null;
+        }
+    }
+
+
+    /**
+     * @return The cache of encoded search entries, or null if it's disabled
+     */
+    public EncodedEntryCache getEncodedEntryCache()
+    {
+        return encodedEntryCache;
+    }
+
+
+    /**
+     * @return The component limiting the bytes waiting to be sent to the clients
+     */
+    public OutboundFlowControl getOutboundFlowControl()
+    {
+        return outboundFlowControl;
+    }
+
+
+    /**
+     * @return The maximum number of bytes waiting to be sent to a client before
+     * the search results production is suspended. 0 if unlimited
+     */
+    public long getMaxSessionOutboundBytes()
+    {
+        return outboundFlowControl.getMaxSessionOutboundBytes();
+    }
+
+
+    /**
+     * Set the maximum number of bytes waiting to be sent to a client before the
+     * search results production is suspended.
+     *
+     * @param maxSessionOutboundBytes A positive number of bytes. A negative or
+     * null value disables the limit
+     */
+    public void setMaxSessionOutboundBytes( long maxSessionOutboundBytes )
+    {
+        outboundFlowControl.setMaxSessionOutboundBytes( maxSessionOutboundBytes );
+    }
+
+
+    /**
+     * @return The maximum number of bytes waiting to be sent to all the clients
+     * before the search results production is suspended. 0 if unlimited
+     */
+    public long getMaxOutboundBytes()
+    {
+        return outboundFlowControl.getMaxOutboundBytes();
+    }
+
+
+    /**
+     * Set the maximum number of bytes waiting to be sent to all the clients before
+     * the search results production is suspended.
+     *
+     * @param maxOutboundBytes A positive number of bytes. A negative or null value
+     * disables the limit
+     */
+    public void setMaxOutboundBytes( long maxOutboundBytes )
+    {
+        outboundFlowControl.setMaxOutboundBytes( maxOutboundBytes );
+    }
+
+
+    /**
+     * @return true if each request runs on its own thread
+     */
+    public boolean isThreadPerRequest()
+    {
+        return threadPerRequest;
+    }
+
+
+    /**
+     * Run each request on its own thread, a virtual thread if the JVM supports them,
+     * instead of running them on a pool of the transport number of threads. The
+     * requests of a session are still serialized around the Bind, Unbind and StartTLS
+     * requests. This must be set before the server is started.
+     *
+     * @param threadPerRequest true to run each request on its own thread
+     */
+    public void setThreadPerRequest( boolean threadPerRequest )
+    {
+        this.threadPerRequest = threadPerRequest;
+    }
+
+
+    /**
+     * @return The maximum number of requests running at the same time when each request
+     * has its own thread. 0 if unlimited
+     */
+    public int getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+
+    /**
+     * Set the maximum number of requests running at the same time on the whole server
+     * when each request has its own thread. The other requests wait for a running one
+     * to be completed.
+     *
+     * @param maxConcurrentRequests A positive number of requests. A negative or null
+     * value disables the limit
+     */
+    public void setMaxConcurrentRequests( int maxConcurrentRequests )
+    {
+        this.maxConcurrentRequests = Math.max( 0, maxConcurrentRequests );
+    }
+
+
+    /**
+     * @return The maximum number of requests of a session running at the same time
+     * when each request has its own thread. 0 if unlimited
+     */
+    public int getMaxSessionConcurrentRequests()
+    {
+        return maxSessionConcurrentRequests;
+    }
+
+
+    /**
+     * Set the maximum number of requests of a session running at the same time when
+     * each request has its own thread. The other requests of the session wait, in
+     * the order they have been received.
+     *
+     * @param maxSessionConcurrentRequests A positive number of requests. A negative or
+     * null value disables the limit
+     */
+    public void setMaxSessionConcurrentRequests( int maxSessionConcurrentRequests )
+    {
+        this.maxSessionConcurrentRequests = Math.max( 0, maxSessionConcurrentRequests );
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
@@ -0,0 +1,277 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.session.IoSession;
+
+
+/**
+ * Limits the number of bytes waiting to be sent to the clients. When a session, or all
+ * the sessions together, have more bytes scheduled for write than allowed, the thread
+ * producing the responses is suspended until the clients have read half of them. A slow
+ * client reading a large search result thus can't make the server buffer the whole
+ * result in memory.
+ * <br>
+ * The waiting threads are woken up each time a message has been sent. A thread never
+ * waits longer than {@link #getMaxWaitTime()} : the search it produces the results of
+ * is then ended with an adminLimitExceeded error, so that clients which stop reading
+ * can't hold the request processing threads forever.
+ * <br>
+ * The flow control is disabled by default. When the requests are processed by a small
+ * pool of threads, the maximum wait time must stay short, as the waiting threads can't
+ * process the other requests.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutboundFlowControl
+{
+    /** The default maximum number of bytes scheduled for write per session : unlimited */
+    public static final long MAX_SESSION_OUTBOUND_BYTES_DEFAULT = 0L;
+
+    /** The default maximum number of bytes scheduled for write for the whole server : unlimited */
+    public static final long MAX_OUTBOUND_BYTES_DEFAULT = 0L;
+
+    /** The default maximum time a thread waits for the clients to read, in ms */
+    public static final long MAX_WAIT_TIME_DEFAULT = 10000L;
+
+    /** The delay after which a waiting thread checks if the session has been closed, in ms */
+    private static final long CHECK_PERIOD = 100L;
+
+    /** The LdapServer instance */
+    private final LdapServer ldapServer;
+
+    /** The maximum number of bytes scheduled for write per session, 0 if unlimited */
+    private volatile long maxSessionOutboundBytes = MAX_SESSION_OUTBOUND_BYTES_DEFAULT;
+
+    /** The maximum number of bytes scheduled for write for all the sessions, 0 if unlimited */
+    private volatile long maxOutboundBytes = MAX_OUTBOUND_BYTES_DEFAULT;
+
+    /** The maximum time a thread waits for the clients to read, in ms */
+    private volatile long maxWaitTime = MAX_WAIT_TIME_DEFAULT;
+
+    /** The monitor the suspended threads are waiting on */
+    private final Object monitor = new Object();
+
+    /** The number of suspended threads */
+    private final AtomicInteger waiters = new AtomicInteger( 0 );
+
+
+    /**
+     * Creates a new instance of OutboundFlowControl.
+     *
+     * @param ldapServer The LdapServer instance
+     */
+    public OutboundFlowControl( LdapServer ldapServer )
+    {
+        this.ldapServer = ldapServer;
+    }
+
+
+    /**
+     * @return The maximum number of bytes scheduled for write per session, 0 if unlimited
+     */
+    public long getMaxSessionOutboundBytes()
+    {
+        return maxSessionOutboundBytes;
+    }
+
+
+    /**
+     * @param maxSessionOutboundBytes The maximum number of bytes scheduled for write per
+     * session. A negative or null value disables the limit
+     */
+    public void setMaxSessionOutboundBytes( long maxSessionOutboundBytes )
+    {
+        this.maxSessionOutboundBytes = Math.max( 0L, maxSessionOutboundBytes );
+    }
+
+
+    /**
+     * @return The maximum number of bytes scheduled for write for all the sessions, 0 if unlimited
+     */
+    public long getMaxOutboundBytes()
+    {
+        return maxOutboundBytes;
+    }
+
+
+    /**
+     * @param maxOutboundBytes The maximum number of bytes scheduled for write for all
+     * the sessions. A negative or null value disables the limit
+     */
+    public void setMaxOutboundBytes( long maxOutboundBytes )
+    {
+        this.maxOutboundBytes = Math.max( 0L, maxOutboundBytes );
+    }
+
+
+    /**
+     * @return The maximum time a thread waits for the clients to read, in milliseconds
+     */
+    public long getMaxWaitTime()
+    {
+        return maxWaitTime;
+    }
+
+
+    /**
+     * @param maxWaitTime The maximum time a thread waits for the clients to read, in
+     * milliseconds. The wait is always bounded : a negative or null value restores the default
+     */
+    public void setMaxWaitTime( long maxWaitTime )
+    {
+        this.maxWaitTime = ( maxWaitTime > 0L ? maxWaitTime : MAX_WAIT_TIME_DEFAULT );
+    }
+
+
+    /**
+     * @return The number of bytes scheduled for write on all the transports
+     */
+    public long getOutboundBytes()
+    {
+        long total = 0L;
+        Transport[] transports = ldapServer.getTransports();
+
+        if ( transports != null )
+        {
+            for ( Transport transport : transports )
+            {
+                IoAcceptor acceptor = transport.getAcceptor();
+
+                if ( acceptor != null )
+                {
+                    total += acceptor.getScheduledWriteBytes();
+                }
+            }
+        }
+
+        return total;
+    }
+
+
+    /**
+     * Tells if more bytes than allowed are waiting to be sent. The limits are divided
+     * by a given factor.
+     */
+    private boolean isOverLimit( IoSession session, int divisor )
+    {
+        long sessionLimit = maxSessionOutboundBytes;
+
+        if ( ( sessionLimit > 0 ) && ( session.getScheduledWriteBytes() > sessionLimit / divisor ) )
+        {
+            return true;
+        }
+
+        long globalLimit = maxOutboundBytes;
+
+        return ( globalLimit > 0 ) && ( getOutboundBytes() > globalLimit / divisor );
+    }
+
+
+    /**
+     * Suspends the current thread if too many bytes are waiting to be sent, until
+     * the limits are back under their half. This method must not be called by the
+     * thread writing the data to the socket.
+     *
+     * @param session The session we are writing into
+     * @param request The request being processed, or null
+     * @return false if we stopped waiting because the session has been closed or
+     * the request abandoned
+     * @throws InterruptedException If the thread has been interrupted
+     * @throws LdapAdminLimitExceededException If the clients haven't read enough data in time
+     */
+    public boolean awaitWritable( IoSession session, AbandonableRequest request ) throws InterruptedException,
+        LdapAdminLimitExceededException
+    {
+        if ( !isOverLimit( session, 1 ) )
+        {
+            return true;
+        }
+
+        long start = System.nanoTime();
+        long deadline = System.currentTimeMillis() + maxWaitTime;
+        waiters.incrementAndGet();
+
+        try
+        {
+            synchronized ( monitor )
+            {
+                while ( isOverLimit( session, 2 ) )
+                {
+                    if ( session.isClosing() || ( ( request != null ) && request.isAbandoned() ) )
+                    {
+                        return false;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+
+                    if ( remaining <= 0L )
+                    {
+                        throw new LdapAdminLimitExceededException( "The client has not read the results sent in "
+                            + maxWaitTime + " ms" );
+                    }
+
+                    monitor.wait( Math.min( CHECK_PERIOD, remaining ) );
+                }
+            }
+
+            return true;
+        }
+        finally
+        {
+            waiters.decrementAndGet();
+
+            DirectoryService directoryService = ldapServer.getDirectoryService();
+            MetricsRegistry metrics = ( directoryService == null ? null : directoryService.getMetrics() );
+
+            if ( metrics != null )
+            {
+                metrics.getCounter( "ldap.outbound.suspended" ).increment();
+                metrics.getHistogram( "ldap.outbound.suspended.wait" ).recordSince( start );
+            }
+        }
+    }
+
+
+    /**
+     * Wakes the suspended threads up, if any, when some data has been sent
+     *
+     * @param session The session some data has been sent to
+     */
+    public void messageSent( IoSession session )
+    {
+        if ( waiters.get() > 0 )
+        {
+            synchronized ( monitor )
+            {
+                monitor.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+
+/**
+ * A ProtocolCodecFactory, and its encoder, writing the {@link PreEncodedSearchResultEntry} messages
+ * without encoding them again. All the other messages are handled by the wrapped
+ * factory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PreEncodedProtocolCodecFactory implements ProtocolCodecFactory, ProtocolEncoder
+{
+    /** The wrapped factory */
+    private final ProtocolCodecFactory wrapped;
+
+
+    /**
+     * Creates a new instance of PreEncodedProtocolCodecFactory.
+     *
+     * @param wrapped The factory used for the messages which are not pre-encoded
+     */
+    public PreEncodedProtocolCodecFactory( ProtocolCodecFactory wrapped )
+    {
+        this.wrapped = wrapped;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ProtocolEncoder getEncoder( IoSession session ) throws Exception
+    {
+        return this;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void encode( IoSession session, Object message, ProtocolEncoderOutput out ) throws Exception
+    {
+        if ( ( message instanceof PreEncodedSearchResultEntry )
+            && ( ( PreEncodedSearchResultEntry ) message ).getControls().isEmpty() )
+        {
+            PreEncodedSearchResultEntry entry = ( PreEncodedSearchResultEntry ) message;
+            out.write( EncodedEntryCache.encode( entry.getMessageId(), entry.getProtocolOp() ) );
+        }
+        else
+        {
+            wrapped.getEncoder( session ).encode( session, message, out );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void dispose( IoSession session ) throws Exception
+    {
+        wrapped.getEncoder( session ).dispose( session );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ProtocolDecoder getDecoder( IoSession session ) throws Exception
+    {
+        return wrapped.getDecoder( session );
+    }
+}
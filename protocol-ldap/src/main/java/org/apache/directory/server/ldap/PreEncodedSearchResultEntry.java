@@ -0,0 +1,59 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+
+
+/**
+ * A SearchResultEntry which protocolOp has already been encoded. The encoder only
+ * has to add the message envelope around the cached bytes, unless some controls
+ * have been added to the response.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PreEncodedSearchResultEntry extends SearchResultEntryImpl
+{
+    /** The encoded protocolOp */
+    private final byte[] protocolOp;
+
+
+    /**
+     * Creates a new instance of PreEncodedSearchResultEntry.
+     *
+     * @param messageId The response message ID
+     * @param protocolOp The encoded protocolOp
+     */
+    public PreEncodedSearchResultEntry( int messageId, byte[] protocolOp )
+    {
+        super( messageId );
+        this.protocolOp = protocolOp;
+    }
+
+
+    /**
+     * @return The encoded protocolOp
+     */
+    public byte[] getProtocolOp()
+    {
+        return protocolOp;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.extras.extended.startTls.StartTlsRequest;
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.UnbindRequest;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An Executor running each LDAP request on its own thread, instead of on a fixed
+ * size pool. A long search, or a request waiting for the disk, thus never delays
+ * the other requests. The threads are virtual threads when the JVM supports them,
+ * otherwise platform threads are created on demand and kept idle for a minute.
+ * <br>
+ * The requests of a session are run concurrently, except when LDAP requires them to
+ * be processed alone : a Bind, an Unbind or a StartTLS request waits for the
+ * previous requests of its session to be completed, and the next requests wait for
+ * it. An Abandon request is run immediately. The number of requests running at the
+ * same time can be limited per session and for the whole server. A request over the
+ * server limit waits without a thread, so the number of threads is bounded too.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestExecutor implements Executor
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( RequestExecutor.class );
+
+    /** The session attribute storing the session queue */
+    private static final String SESSION_QUEUE_KEY = RequestExecutor.class.getName() + ".queue";
+
+    /** The delay after which an idle platform thread is stopped, in seconds */
+    private static final long KEEP_ALIVE = 60L;
+
+    /** The executor starting the threads */
+    private final Executor executor;
+
+    /** Tells if the requests run on virtual threads */
+    private final boolean virtual;
+
+    /** The permits for the requests running on the whole server, null if unlimited */
+    private final Semaphore permits;
+
+    /** The requests waiting for a permit, in arrival order */
+    private final Deque<WaitingRequest> waiting = new ArrayDeque<WaitingRequest>();
+
+    /** The maximum number of requests running at the same time per session, 0 if unlimited */
+    private final int maxSessionRequests;
+
+
+    /**
+     * Creates a new instance of RequestExecutor.
+     *
+     * @param maxRequests The maximum number of requests running at the same time on
+     * the whole server, 0 if unlimited
+     * @param maxSessionRequests The maximum number of requests running at the same time
+     * per session, 0 if unlimited
+     */
+    public RequestExecutor( int maxRequests, int maxSessionRequests )
+    {
+        this.permits = maxRequests > 0 ? new Semaphore( maxRequests, true ) : null;
+        this.maxSessionRequests = Math.max( 0, maxSessionRequests );
+
+        final ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+
+        if ( virtualThreadFactory != null )
+        {
+            virtual = true;
+            executor = new Executor()
+            {
+                public void execute( Runnable command )
+                {
+                    virtualThreadFactory.newThread( command ).start();
+                }
+            };
+        }
+        else
+        {
+            virtual = false;
+            executor = new ThreadPoolExecutor( 0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new PlatformThreadFactory() );
+        }
+
+        LOG.info( "LDAP requests run on their own {} thread", virtual ? "virtual" : "platform" );
+    }
+
+
+    /**
+     * @return true if the requests run on virtual threads
+     */
+    public boolean isVirtual()
+    {
+        return virtual;
+    }
+
+
+    /**
+     * Stops the idle platform threads. The running requests are completed.
+     */
+    public void shutdown()
+    {
+        if ( executor instanceof ExecutorService )
+        {
+            ( ( ExecutorService ) executor ).shutdown();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute( Runnable command )
+    {
+        if ( !( command instanceof IoEvent ) )
+        {
+            dispatch( null, command );
+
+            return;
+        }
+
+        IoEvent event = ( IoEvent ) command;
+        Object message = event.getParameter();
+
+        if ( message instanceof AbandonRequest )
+        {
+            // Don't make the abandon wait for the request it abandons
+            executor.execute( command );
+
+            return;
+        }
+
+        SessionQueue queue = getSessionQueue( event.getSession() );
+
+        synchronized ( queue )
+        {
+            queue.pending.add( command );
+            drain( queue );
+        }
+    }
+
+
+    /**
+     * Tells if a request must be processed alone on its session
+     */
+    private static boolean isExclusive( Runnable command )
+    {
+        Object message = ( ( IoEvent ) command ).getParameter();
+
+        if ( ( message instanceof BindRequest ) || ( message instanceof UnbindRequest ) )
+        {
+            return true;
+        }
+
+        return ( message instanceof ExtendedRequest )
+            && StartTlsRequest.EXTENSION_OID.equals( ( ( ExtendedRequest ) message ).getRequestName() );
+    }
+
+
+    /**
+     * Gets the queue of a session, creating it if needed
+     */
+    private static SessionQueue getSessionQueue( IoSession session )
+    {
+        SessionQueue queue = ( SessionQueue ) session.getAttribute( SESSION_QUEUE_KEY );
+
+        if ( queue == null )
+        {
+            queue = new SessionQueue();
+            SessionQueue existing = ( SessionQueue ) session.setAttributeIfAbsent( SESSION_QUEUE_KEY, queue );
+
+            if ( existing != null )
+            {
+                queue = existing;
+            }
+        }
+
+        return queue;
+    }
+
+
+    /**
+     * Starts the pending requests of a session, as long as the session limits allow it.
+     * Must be called while holding the queue lock.
+     */
+    private void drain( SessionQueue queue )
+    {
+        while ( !queue.pending.isEmpty() && !queue.exclusive )
+        {
+            Runnable command = queue.pending.peek();
+            boolean exclusive = isExclusive( command );
+
+            if ( exclusive ? queue.running > 0
+                : ( ( maxSessionRequests > 0 ) && ( queue.running >= maxSessionRequests ) ) )
+            {
+                return;
+            }
+
+            queue.pending.poll();
+            queue.running++;
+            queue.exclusive = exclusive;
+
+            dispatch( queue, command );
+        }
+    }
+
+
+    /**
+     * Starts a request on its own thread, once it has got a permit. The permit is taken
+     * before the thread is started : a request which can't get one waits in the queue
+     * of the server, without a thread, until a running request hands its permit over.
+     * Must be called while holding the queue lock, if any.
+     */
+    private void dispatch( SessionQueue queue, Runnable command )
+    {
+        if ( permits != null )
+        {
+            synchronized ( waiting )
+            {
+                if ( !permits.tryAcquire() )
+                {
+                    waiting.add( new WaitingRequest( queue, command ) );
+
+                    return;
+                }
+            }
+        }
+
+        if ( !start( queue, command ) )
+        {
+            releasePermit();
+        }
+    }
+
+
+    /**
+     * Runs a request holding a permit on a new thread. The permit is released
+     * when the request is completed.
+     *
+     * @return false if the executor has been shutdown, the permit is then still held
+     */
+    private boolean start( final SessionQueue queue, final Runnable command )
+    {
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        command.run();
+                    }
+                    finally
+                    {
+                        releasePermit();
+                        completed( queue );
+                    }
+                }
+            } );
+
+            return true;
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The executor has been shutdown
+            LOG.warn( "Dropping the request {}, the server is stopped", command );
+            completed( queue );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Hands the permit of a completed request over to the oldest waiting request,
+     * or releases it if no request is waiting
+     */
+    private void releasePermit()
+    {
+        if ( permits == null )
+        {
+            return;
+        }
+
+        while ( true )
+        {
+            WaitingRequest next;
+
+            synchronized ( waiting )
+            {
+                next = waiting.poll();
+
+                if ( next == null )
+                {
+                    permits.release();
+
+                    return;
+                }
+            }
+
+            if ( start( next.queue, next.command ) )
+            {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of requests waiting for a permit
+     */
+    int getWaitingRequests()
+    {
+        synchronized ( waiting )
+        {
+            return waiting.size();
+        }
+    }
+
+
+    /**
+     * Starts the next requests of a session once a request is completed
+     */
+    private void completed( SessionQueue queue )
+    {
+        if ( queue == null )
+        {
+            return;
+        }
+
+        synchronized ( queue )
+        {
+            queue.running--;
+            queue.exclusive = false;
+            drain( queue );
+        }
+    }
+
+
+    /**
+     * Creates a factory of virtual threads, if the JVM supports them. We use reflection,
+     * as the server is compiled for JVMs not having them.
+     *
+     * @return The factory, or null if the virtual threads are not available
+     */
+    static ThreadFactory createVirtualThreadFactory()
+    {
+        try
+        {
+            Method ofVirtual = Thread.class.getMethod( "ofVirtual" );
+            Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+            Object builder = ofVirtual.invoke( null );
+            builder = builderClass.getMethod( "name", String.class, long.class ).invoke( builder, "ldap-request-", 0L );
+
+            return ( ThreadFactory ) builderClass.getMethod( "factory" ).invoke( builder );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * The requests of a session waiting to be run
+     */
+    private static final class SessionQueue
+    {
+        /** The requests waiting to be run */
+        private final Deque<Runnable> pending = new ArrayDeque<Runnable>();
+
+        /** The number of running requests */
+        private int running;
+
+        /** Tells if the running request must be processed alone */
+        private boolean exclusive;
+    }
+
+
+    /**
+     * A request waiting for a permit
+     */
+    private static final class WaitingRequest
+    {
+        /** The queue of the request session, null if the request is not bound to a session */
+        private final SessionQueue queue;
+
+        /** The request */
+        private final Runnable command;
+
+
+        private WaitingRequest( SessionQueue queue, Runnable command )
+        {
+            this.queue = queue;
+            this.command = command;
+        }
+    }
+
+
+    /**
+     * Creates the daemon platform threads running the requests
+     */
+    private static final class PlatformThreadFactory implements ThreadFactory
+    {
+        /** The number of created threads */
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        /**
+         * {@inheritDoc}
+         */
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "ldap-request-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
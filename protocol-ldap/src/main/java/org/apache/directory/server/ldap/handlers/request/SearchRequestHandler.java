@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
 import org.apache.directory.api.ldap.codec.controls.search.pagedSearch.PagedResultsDecorator;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncInfoValue.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -73,7 +74,9 @@ import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.ldap.EncodedEntryCache;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.PreEncodedSearchResultEntry;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
@@ -274,7 +277,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             req.getAttributes().toArray( new String[]
                 {} ) );
 
-        session.getIoSession().write( generateResponse( session, req, entry ) );
+        session.getIoSession().write( generateResponse( session, req, entry, null ) );
 
         // write the SearchResultDone message
         session.getIoSession().write( req.getResultResponse() );
@@ -376,6 +379,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         Cursor<Entry> cursor, long sizeLimit ) throws Exception
     {
         long count = 0;
+        String encodedSelection = getEncodedSelection( session, req );
 
         while ( ( count < sizeLimit ) && cursor.next() )
         {
@@ -406,7 +410,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            session.getIoSession().write( generateResponse( session, req, entry, encodedSelection ) );
 
             if ( IS_DEBUG )
             {
@@ -414,6 +418,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             count++;
+
+            // Don't produce more entries than the client can read
+            ldapServer.getOutboundFlowControl().awaitWritable( session.getIoSession(), req );
         }
 
         // check if the result code is not already set
@@ -449,6 +456,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         }
 
         int cookieValue = 0;
+        String encodedSelection = getEncodedSelection( session, req );
 
         int count = pagedContext.getCurrentPosition();
         int pageCount = 0;
@@ -461,9 +469,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            session.getIoSession().write( generateResponse( session, req, entry, encodedSelection ) );
             count++;
             pageCount++;
+
+            // Don't produce more entries than the client can read
+            ldapServer.getOutboundFlowControl().awaitWritable( session.getIoSession(), req );
         }
 
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
@@ -871,10 +882,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      *
      * @param req the search request
      * @param entry the entry to be handled
+     * @param encodedSelection the key of the request in the encoded entries cache, or null
      * @return the response for the entry
      * @throws Exception if there are problems in generating the response
      */
-    private Response generateResponse( LdapSession session, SearchRequest req, Entry entry ) throws Exception
+    private Response generateResponse( LdapSession session, SearchRequest req, Entry entry, String encodedSelection )
+        throws Exception
     {
         Attribute ref = entry.get( SchemaConstants.REF_AT );
         boolean hasManageDsaItControl = req.getControls().containsKey( ManageDsaIT.OID );
@@ -942,11 +955,117 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 respEntry.getEntry().removeAttributes( SchemaConstants.USER_PASSWORD_AT );
             }
 
+            if ( encodedSelection != null )
+            {
+                return preEncode( session, respEntry, encodedSelection );
+            }
+
             return respEntry;
         }
     }
 
 
+    /**
+     * Computes the part of the encoded entries cache key which depends on the request :
+     * the selected attributes, and what else may change the returned content of an
+     * entry without changing its entryCSN. Returns null if the cache is disabled, or if
+     * the entries returned by this request can't be cached, ie when some operational
+     * attributes, which may be computed on the fly, are requested, or when access control
+     * is enabled : the returned attributes then depend on the ACIs, on the groups of the
+     * user and on its authentication level, which all change without a new entryCSN.
+     */
+    private String getEncodedSelection( LdapSession session, SearchRequest req ) throws Exception
+    {
+        if ( ldapServer.getEncodedEntryCache() == null )
+        {
+            return null;
+        }
+
+        DirectoryService directoryService = session.getCoreSession().getDirectoryService();
+
+        if ( directoryService.isAccessControlEnabled() )
+        {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        // The collective attributes change with the subentries
+        sb.append( req.getTypesOnly() ).append( '|' ).append( directoryService.getSubentryCache().getVersion() );
+        sb.append( '|' ).append( directoryService.isPasswordHidden() );
+
+        for ( String attribute : req.getAttributes() )
+        {
+            if ( SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES.equals( attribute ) )
+            {
+                return null;
+            }
+
+            if ( !SchemaConstants.ALL_USER_ATTRIBUTES.equals( attribute )
+                && !SchemaConstants.NO_ATTRIBUTE.equals( attribute ) )
+            {
+                AttributeType attributeType = directoryService.getSchemaManager().getAttributeType( attribute );
+
+                if ( ( attributeType == null ) || !attributeType.isUser() )
+                {
+                    return null;
+                }
+            }
+
+            sb.append( '|' ).append( attribute );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Replaces a SearchResultEntry by a pre-encoded one, encoding the entry only
+     * if it's not already in the cache. An entry without entryUUID or entryCSN is
+     * returned as is.
+     * <br>
+     * The encoding contains the objectName, which changes without a new entryCSN when
+     * an ancestor is renamed or moved, so the DN is part of the key too.
+     */
+    private SearchResultEntry preEncode( LdapSession session, SearchResultEntry respEntry, String encodedSelection )
+        throws Exception
+    {
+        if ( !( respEntry.getEntry() instanceof ClonedServerEntry ) )
+        {
+            return respEntry;
+        }
+
+        Entry originalEntry = ( ( ClonedServerEntry ) respEntry.getEntry() ).getOriginalEntry();
+        Attribute entryUuid = originalEntry.get( SchemaConstants.ENTRY_UUID_AT );
+        Attribute entryCsn = originalEntry.get( SchemaConstants.ENTRY_CSN_AT );
+
+        if ( ( entryUuid == null ) || ( entryCsn == null ) )
+        {
+            return respEntry;
+        }
+
+        EncodedEntryCache cache = ldapServer.getEncodedEntryCache();
+        String key = encodedSelection + '|' + respEntry.getObjectName().getNormName() + '|' + entryUuid.getString()
+            + '|' + entryCsn.getString();
+        byte[] protocolOp = cache.get( key );
+
+        if ( protocolOp == null )
+        {
+            LdapEncoder encoder = new LdapEncoder( session.getCoreSession().getDirectoryService()
+                .getLdapCodecService() );
+            protocolOp = EncodedEntryCache.getProtocolOp( encoder.encodeMessage( respEntry ) );
+            cache.put( key, protocolOp );
+        }
+
+        PreEncodedSearchResultEntry preEncoded = new PreEncodedSearchResultEntry( respEntry.getMessageId(),
+            protocolOp );
+        preEncoded.setEntry( respEntry.getEntry() );
+        preEncoded.setObjectName( respEntry.getObjectName() );
+
+        return preEncoded;
+    }
+
+
     /**
      * Alters the filter expression based on the presence of the
      * ManageDsaIT decorator.  If the decorator is not present, the search
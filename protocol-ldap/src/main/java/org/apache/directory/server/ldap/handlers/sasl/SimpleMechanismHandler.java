@@ -61,8 +61,8 @@ public class SimpleMechanismHandler implements MechanismHandler
         // Stores the Dn of the user to check, and its password
         bindContext.setDn( bindRequest.getDn() );
         bindContext.setCredentials( bindRequest.getCredentials() );
-        bindContext.setInterceptors( ldapSession.getLdapServer().getDirectoryService()
-            .getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorPipeline( ldapSession.getLdapServer().getDirectoryService()
+            .getInterceptorPipeline( OperationEnum.BIND ) );
 
         // Stores the request controls into the operation context
         LdapProtocolUtils.setRequestControls( bindContext, bindRequest );
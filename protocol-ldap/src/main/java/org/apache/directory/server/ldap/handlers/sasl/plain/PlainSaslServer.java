@@ -284,7 +284,7 @@ public class PlainSaslServer extends AbstractSaslServer
                 bindContext.setDn( entry.getDn() );
                 bindContext.setCredentials( Strings.getBytesUtf8( password ) );
                 bindContext.setIoSession( ldapSession.getIoSession() );
-                bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+                bindContext.setInterceptorPipeline( directoryService.getInterceptorPipeline( OperationEnum.BIND ) );
 
                 operationManager.bind( bindContext );
 
@@ -0,0 +1,139 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests for the EncodedEntryCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedEntryCacheTest
+{
+    private static byte[] encode( SearchResultEntry entry ) throws Exception
+    {
+        ByteBuffer buffer = new LdapEncoder( LdapApiServiceFactory.getSingleton() ).encodeMessage( entry );
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+
+
+    private static SearchResultEntry createEntry( int messageId, String description ) throws Exception
+    {
+        SearchResultEntry respEntry = new SearchResultEntryImpl( messageId );
+        respEntry.setEntry( new DefaultEntry( "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test",
+            "description", description ) );
+
+        return respEntry;
+    }
+
+
+    @Test
+    public void testReencodeWithAnotherMessageId() throws Exception
+    {
+        SearchResultEntry respEntry = createEntry( 1, "a short description" );
+        byte[] protocolOp = EncodedEntryCache.getProtocolOp( ByteBuffer.wrap( encode( respEntry ) ) );
+
+        // Small and large message IDs use a different number of bytes
+        for ( int messageId : new int[]
+            { 1, 127, 128, 70000, Integer.MAX_VALUE } )
+        {
+            IoBuffer reencoded = EncodedEntryCache.encode( messageId, protocolOp );
+            byte[] bytes = new byte[reencoded.remaining()];
+            reencoded.get( bytes );
+
+            respEntry.setMessageId( messageId );
+            assertArrayEquals( encode( respEntry ), bytes );
+        }
+    }
+
+
+    @Test
+    public void testReencodeLongEntry() throws Exception
+    {
+        // An entry longer than 64KB, to use a multi-bytes length
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < 70000; i++ )
+        {
+            sb.append( 'x' );
+        }
+
+        SearchResultEntry respEntry = createEntry( 200, sb.toString() );
+        byte[] protocolOp = EncodedEntryCache.getProtocolOp( ByteBuffer.wrap( encode( respEntry ) ) );
+
+        IoBuffer reencoded = EncodedEntryCache.encode( 3, protocolOp );
+        byte[] bytes = new byte[reencoded.remaining()];
+        reencoded.get( bytes );
+
+        respEntry.setMessageId( 3 );
+        assertArrayEquals( encode( respEntry ), bytes );
+    }
+
+
+    @Test
+    public void testEviction()
+    {
+        EncodedEntryCache cache = new EncodedEntryCache( 2 );
+
+        cache.put( "a", new byte[]
+            { 1 } );
+        cache.put( "b", new byte[]
+            { 2 } );
+
+        // Make "a" the most recently used entry
+        assertNotNull( cache.get( "a" ) );
+
+        cache.put( "c", new byte[]
+            { 3 } );
+
+        assertEquals( 2, cache.size() );
+        assertNull( cache.get( "b" ) );
+        assertNotNull( cache.get( "a" ) );
+        assertNotNull( cache.get( "c" ) );
+        assertEquals( 3, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+
+
+/**
+ * Tests the OutboundFlowControl class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutboundFlowControlTest
+{
+    @Test
+    public void testNoWaitUnderLimit() throws Exception
+    {
+        OutboundFlowControl flowControl = new OutboundFlowControl( new LdapServer() );
+        flowControl.setMaxSessionOutboundBytes( 1000L );
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 1000 );
+
+        assertTrue( flowControl.awaitWritable( session, null ) );
+    }
+
+
+    @Test
+    public void testResumeWhenDataSent() throws Exception
+    {
+        final OutboundFlowControl flowControl = new OutboundFlowControl( new LdapServer() );
+        flowControl.setMaxSessionOutboundBytes( 1000L );
+        final DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 2000 );
+
+        Thread sender = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep( 200L );
+                }
+                catch ( InterruptedException ie )
+                {
+                    return;
+                }
+
+                // Sending 1600 bytes is enough to go under the half of the limit
+                session.increaseScheduledWriteBytes( -1600 );
+                flowControl.messageSent( session );
+            }
+        };
+
+        sender.start();
+        long start = System.currentTimeMillis();
+
+        assertTrue( flowControl.awaitWritable( session, null ) );
+        assertTrue( System.currentTimeMillis() - start >= 150L );
+        sender.join();
+    }
+
+
+    @Test
+    public void testStopWaitingWhenAbandoned() throws Exception
+    {
+        OutboundFlowControl flowControl = new OutboundFlowControl( new LdapServer() );
+        flowControl.setMaxSessionOutboundBytes( 1000L );
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 2000 );
+        SearchRequestImpl request = new SearchRequestImpl();
+        request.abandon();
+
+        assertFalse( flowControl.awaitWritable( session, request ) );
+    }
+
+
+    @Test
+    public void testUnlimited() throws Exception
+    {
+        OutboundFlowControl flowControl = new OutboundFlowControl( new LdapServer() );
+        flowControl.setMaxSessionOutboundBytes( 0L );
+        flowControl.setMaxOutboundBytes( 0L );
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 100000000 );
+
+        assertTrue( flowControl.awaitWritable( session, null ) );
+    }
+
+
+    @Test
+    public void testDisabledByDefault() throws Exception
+    {
+        OutboundFlowControl flowControl = new OutboundFlowControl( new LdapServer() );
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 100000000 );
+
+        assertEquals( 0L, flowControl.getMaxSessionOutboundBytes() );
+        assertEquals( 0L, flowControl.getMaxOutboundBytes() );
+        assertTrue( flowControl.awaitWritable( session, null ) );
+    }
+
+
+    @Test
+    public void testWaitIsBounded() throws Exception
+    {
+        OutboundFlowControl flowControl = new OutboundFlowControl( new LdapServer() );
+        flowControl.setMaxSessionOutboundBytes( 1000L );
+        flowControl.setMaxWaitTime( 200L );
+        DummySession session = new DummySession();
+        session.increaseScheduledWriteBytes( 2000 );
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            flowControl.awaitWritable( session, null );
+            fail();
+        }
+        catch ( LdapAdminLimitExceededException aleee )
+        {
+            assertEquals( ResultCodeEnum.ADMIN_LIMIT_EXCEEDED, aleee.getResultCode() );
+            assertTrue( System.currentTimeMillis() - start >= 150L );
+        }
+
+        // The wait can't be unbounded
+        flowControl.setMaxWaitTime( 0L );
+        assertEquals( OutboundFlowControl.MAX_WAIT_TIME_DEFAULT, flowControl.getMaxWaitTime() );
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Tests the RequestExecutor class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestExecutorTest
+{
+    /** The names of the started requests, in order */
+    private final List<String> started = new CopyOnWriteArrayList<String>();
+
+    /** The executor being tested */
+    private RequestExecutor executor;
+
+
+    @After
+    public void shutdown()
+    {
+        if ( executor != null )
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * A request recording its start, then waiting for a latch
+     */
+    private class BlockingRequest extends IoEvent
+    {
+        private final String name;
+        private final CountDownLatch release;
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+
+        BlockingRequest( IoSession session, Object message, String name, CountDownLatch release )
+        {
+            super( IoEventType.MESSAGE_RECEIVED, session, message );
+            this.name = name;
+            this.release = release;
+        }
+
+
+        public void run()
+        {
+            started.add( name );
+
+            try
+            {
+                release.await( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+
+
+        boolean awaitDone() throws InterruptedException
+        {
+            return done.await( 10, TimeUnit.SECONDS );
+        }
+    }
+
+
+    private void awaitStarted( int count ) throws InterruptedException
+    {
+        long limit = System.currentTimeMillis() + 10000L;
+
+        while ( ( started.size() < count ) && ( System.currentTimeMillis() < limit ) )
+        {
+            Thread.sleep( 10L );
+        }
+    }
+
+
+    @Test
+    public void testConcurrentRequests() throws Exception
+    {
+        executor = new RequestExecutor( 0, 0 );
+        DummySession session = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        executor.execute( new BlockingRequest( session, new SearchRequestImpl(), "search1", release ) );
+        executor.execute( new BlockingRequest( session, new SearchRequestImpl(), "search2", release ) );
+
+        // Both searches run at the same time
+        awaitStarted( 2 );
+        assertEquals( 2, started.size() );
+        release.countDown();
+    }
+
+
+    @Test
+    public void testBindIsExclusive() throws Exception
+    {
+        executor = new RequestExecutor( 0, 0 );
+        DummySession session = new DummySession();
+        CountDownLatch releaseSearch = new CountDownLatch( 1 );
+        CountDownLatch releaseBind = new CountDownLatch( 1 );
+        CountDownLatch releaseLast = new CountDownLatch( 0 );
+
+        BlockingRequest search = new BlockingRequest( session, new SearchRequestImpl(), "search", releaseSearch );
+        BlockingRequest bind = new BlockingRequest( session, new BindRequestImpl(), "bind", releaseBind );
+        BlockingRequest last = new BlockingRequest( session, new SearchRequestImpl(), "last", releaseLast );
+
+        executor.execute( search );
+        executor.execute( bind );
+        executor.execute( last );
+
+        // The bind waits for the search
+        awaitStarted( 1 );
+        Thread.sleep( 100L );
+        assertEquals( 1, started.size() );
+
+        // The last search waits for the bind
+        releaseSearch.countDown();
+        awaitStarted( 2 );
+        Thread.sleep( 100L );
+        assertEquals( 2, started.size() );
+        assertEquals( "bind", started.get( 1 ) );
+
+        releaseBind.countDown();
+        assertTrue( last.awaitDone() );
+        assertEquals( "last", started.get( 2 ) );
+    }
+
+
+    @Test
+    public void testSessionLimit() throws Exception
+    {
+        executor = new RequestExecutor( 0, 1 );
+        DummySession session = new DummySession();
+        DummySession otherSession = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        BlockingRequest first = new BlockingRequest( session, new SearchRequestImpl(), "first", release );
+        BlockingRequest second = new BlockingRequest( session, new SearchRequestImpl(), "second",
+            new CountDownLatch( 0 ) );
+        BlockingRequest other = new BlockingRequest( otherSession, new SearchRequestImpl(), "other",
+            new CountDownLatch( 0 ) );
+
+        executor.execute( first );
+        executor.execute( second );
+        executor.execute( other );
+
+        // The other session is not limited
+        assertTrue( other.awaitDone() );
+        Thread.sleep( 100L );
+        assertFalse( started.contains( "second" ) );
+
+        release.countDown();
+        assertTrue( second.awaitDone() );
+    }
+
+
+    @Test
+    public void testGlobalLimit() throws Exception
+    {
+        executor = new RequestExecutor( 1, 0 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        BlockingRequest first = new BlockingRequest( new DummySession(), new SearchRequestImpl(), "first", release );
+        BlockingRequest second = new BlockingRequest( new DummySession(), new SearchRequestImpl(), "second",
+            new CountDownLatch( 0 ) );
+
+        executor.execute( first );
+        awaitStarted( 1 );
+        executor.execute( second );
+
+        Thread.sleep( 100L );
+        assertEquals( 1, started.size() );
+
+        release.countDown();
+        assertTrue( second.awaitDone() );
+        assertEquals( 2, started.size() );
+    }
+
+
+    @Test
+    public void testGlobalLimitBoundsTheThreads() throws Exception
+    {
+        executor = new RequestExecutor( 2, 0 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        List<BlockingRequest> requests = new CopyOnWriteArrayList<BlockingRequest>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            BlockingRequest request = new BlockingRequest( new DummySession(), new SearchRequestImpl(), "search" + i,
+                release );
+            requests.add( request );
+            executor.execute( request );
+        }
+
+        // Only two requests are running, the others wait without a thread
+        awaitStarted( 2 );
+        Thread.sleep( 100L );
+        assertEquals( 2, started.size() );
+        assertEquals( 8, executor.getWaitingRequests() );
+
+        release.countDown();
+
+        for ( BlockingRequest request : requests )
+        {
+            assertTrue( request.awaitDone() );
+        }
+
+        assertEquals( 10, started.size() );
+        assertEquals( 0, executor.getWaitingRequests() );
+    }
+
+
+    @Test
+    public void testAbandonIsNotQueued() throws Exception
+    {
+        executor = new RequestExecutor( 0, 1 );
+        DummySession session = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        BlockingRequest search = new BlockingRequest( session, new SearchRequestImpl(), "search", release );
+        BlockingRequest abandon = new BlockingRequest( session, new AbandonRequestImpl( 1 ), "abandon",
+            new CountDownLatch( 0 ) );
+
+        executor.execute( search );
+        executor.execute( abandon );
+
+        assertTrue( abandon.awaitDone() );
+        release.countDown();
+        assertTrue( search.awaitDone() );
+    }
+}
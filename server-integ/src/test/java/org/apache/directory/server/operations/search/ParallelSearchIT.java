@@ -0,0 +1,220 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.controls.search.pagedSearch.PagedResultsDecorator;
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.EntryCursorImpl;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the searches whose candidates are evaluated in parallel, when the search
+ * handler has to step back on the cursor : once the size limit is reached, and at
+ * the end of each page of a paged search.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateLdapServer(
+    transports =
+        {
+            @CreateTransport(protocol = "LDAP")
+    })
+public class ParallelSearchIT extends AbstractLdapTestUnit
+{
+    /** More entries than a chunk of candidates evaluated in parallel */
+    private static final int NB_ENTRIES = 600;
+
+    private LdapApiService codec = LdapApiServiceFactory.getSingleton();
+
+    private Partition partition;
+
+    private LdapNetworkConnection connection;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        SchemaManager schemaManager = getService().getSchemaManager();
+        PartitionFactory partitionFactory = DefaultDirectoryServiceFactory.class.newInstance().getPartitionFactory();
+        partition = partitionFactory.createPartition( schemaManager, getService().getDnFactory(), "parallel",
+            "ou=parallel", 100, getService().getInstanceLayout().getPartitionsDirectory() );
+
+        // Evaluate every search in parallel
+        AbstractBTreePartition btreePartition = ( AbstractBTreePartition ) partition;
+        btreePartition.setParallelSearchThreads( 2 );
+        btreePartition.setParallelSearchThreshold( 1 );
+        btreePartition.setParallelSearchMaxChunks( 2 );
+
+        getService().addPartition( partition );
+
+        CoreSession session = getService().getAdminSession();
+        session.add( new DefaultEntry( schemaManager, "ou=parallel",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: parallel" ) );
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            session.add( new DefaultEntry( schemaManager, "cn=user" + i + ",ou=parallel",
+                "objectClass: top",
+                "objectClass: person",
+                "cn: user" + i,
+                "sn: user " + i ) );
+        }
+
+        connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, getLdapServer().getPort() );
+        connection.bind( "uid=admin,ou=system", "secret" );
+    }
+
+
+    @After
+    public void destroy() throws Exception
+    {
+        connection.unBind();
+        connection.close();
+
+        getService().removePartition( partition );
+    }
+
+
+    private SearchRequest createSearchRequest( long sizeLimit ) throws Exception
+    {
+        SearchRequest searchRequest = new SearchRequestImpl();
+        searchRequest.setBase( new Dn( "ou=parallel" ) );
+        searchRequest.setFilter( "(cn=user*)" );
+        searchRequest.setScope( SearchScope.SUBTREE );
+        searchRequest.setSizeLimit( sizeLimit );
+        searchRequest.addAttributes( "cn" );
+
+        return searchRequest;
+    }
+
+
+    @Test
+    public void testSizeLimit() throws Exception
+    {
+        Set<String> names = new HashSet<String>();
+        EntryCursor cursor = new EntryCursorImpl( connection.search( createSearchRequest( 300 ) ) );
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                assertTrue( names.add( cursor.get().get( "cn" ).getString() ) );
+            }
+
+            SearchResultDone done = cursor.getSearchResultDone();
+            assertEquals( ResultCodeEnum.SIZE_LIMIT_EXCEEDED, done.getLdapResult().getResultCode() );
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        assertEquals( 300, names.size() );
+    }
+
+
+    @Test
+    public void testPagedSearch() throws Exception
+    {
+        Set<String> names = new HashSet<String>();
+        byte[] cookie = null;
+        int pages = 0;
+
+        do
+        {
+            PagedResults pagedSearchControl = new PagedResultsDecorator( codec );
+            pagedSearchControl.setSize( 100 );
+
+            if ( cookie != null )
+            {
+                pagedSearchControl.setCookie( cookie );
+            }
+
+            SearchRequest searchRequest = createSearchRequest( 0 );
+            searchRequest.addControl( pagedSearchControl );
+
+            EntryCursor cursor = new EntryCursorImpl( connection.search( searchRequest ) );
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    // No entry is returned twice, nor skipped, at the page boundaries
+                    assertTrue( names.add( cursor.get().get( "cn" ).getString() ) );
+                }
+
+                SearchResultDone done = cursor.getSearchResultDone();
+                assertEquals( ResultCodeEnum.SUCCESS, done.getLdapResult().getResultCode() );
+
+                PagedResults responseControl = ( PagedResults ) done.getControl( PagedResults.OID );
+                assertNotNull( responseControl );
+                cookie = responseControl.getCookie();
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            pages++;
+        }
+        while ( !Strings.isEmpty( cookie ) );
+
+        assertEquals( NB_ENTRIES, names.size() );
+        assertEquals( NB_ENTRIES / 100, pages );
+    }
+}
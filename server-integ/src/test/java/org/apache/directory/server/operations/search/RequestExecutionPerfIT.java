@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.operations.search;
+
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.util.Network;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.mina.util.AvailablePortFinder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Compares the throughput and the latencies of the lookups when they run on the
+ * transport pool and when each request has its own thread, while some clients
+ * run long subtree searches.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "RequestExecutionPerfDS")
+public class RequestExecutionPerfIT extends AbstractLdapTestUnit
+{
+    /** The number of threads of the transport pool */
+    private static final int NB_THREADS = 4;
+
+    /** The number of clients doing lookups */
+    private static final int NB_LOOKUP_CLIENTS = 16;
+
+    /** The number of clients doing subtree searches */
+    private static final int NB_SEARCH_CLIENTS = 4;
+
+    /** The duration of a run */
+    private static final long DURATION = 10000L;
+
+
+    @Test
+    public void testPooledVersusThreadPerRequest() throws Exception
+    {
+        LatencyHistogram pooled = run( false );
+        LatencyHistogram threadPerRequest = run( true );
+
+        System.out.println( "Pooled             : " + pooled + ", " + pooled.getCount() * 1000L / DURATION
+            + " lookups/s" );
+        System.out.println( "Thread per request : " + threadPerRequest + ", " + threadPerRequest.getCount() * 1000L
+            / DURATION + " lookups/s" );
+
+        assertTrue( pooled.getCount() > 0 );
+        assertTrue( threadPerRequest.getCount() > 0 );
+    }
+
+
+    /**
+     * Starts a server, runs the clients against it, and returns the lookups latencies
+     */
+    private LatencyHistogram run( boolean threadPerRequest ) throws Exception
+    {
+        int port = AvailablePortFinder.getNextAvailable( 1024 );
+        LdapServer server = new LdapServer();
+        server.setDirectoryService( getService() );
+        server.setTransports( new TcpTransport( port, NB_THREADS ) );
+        server.setThreadPerRequest( threadPerRequest );
+        server.start();
+
+        final LatencyHistogram latencies = new LatencyHistogram( threadPerRequest ? "threadPerRequest" : "pooled" );
+        final AtomicBoolean stop = new AtomicBoolean( false );
+        final AtomicLong searches = new AtomicLong();
+        List<Thread> clients = new ArrayList<Thread>();
+
+        try
+        {
+            for ( int i = 0; i < NB_SEARCH_CLIENTS; i++ )
+            {
+                final LdapConnection connection = connect( port );
+
+                clients.add( new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            while ( !stop.get() )
+                            {
+                                EntryCursor cursor = connection.search( "ou=system", "(objectClass=*)",
+                                    SearchScope.SUBTREE, "*" );
+
+                                while ( cursor.next() )
+                                {
+                                    cursor.get();
+                                }
+
+                                cursor.close();
+                                searches.incrementAndGet();
+                            }
+
+                            connection.close();
+                        }
+                        catch ( Exception e )
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                } );
+            }
+
+            for ( int i = 0; i < NB_LOOKUP_CLIENTS; i++ )
+            {
+                final LdapConnection connection = connect( port );
+
+                clients.add( new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            while ( !stop.get() )
+                            {
+                                long start = System.nanoTime();
+                                connection.lookup( "uid=admin,ou=system" );
+                                latencies.recordSince( start );
+                            }
+
+                            connection.close();
+                        }
+                        catch ( Exception e )
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                } );
+            }
+
+            for ( Thread client : clients )
+            {
+                client.start();
+            }
+
+            Thread.sleep( DURATION );
+            stop.set( true );
+
+            for ( Thread client : clients )
+            {
+                client.join();
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+
+        System.out.println( latencies.getName() + " : " + searches.get() + " subtree searches" );
+
+        return latencies;
+    }
+
+
+    private LdapConnection connect( int port ) throws Exception
+    {
+        LdapConnection connection = new LdapNetworkConnection( Network.LOOPBACK_HOSTNAME, port );
+        connection.bind( ServerDNConstants.ADMIN_SYSTEM_DN, "secret" );
+
+        return connection;
+    }
+}
@@ -51,7 +51,9 @@ import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.EntryCursor;
 import org.apache.directory.api.ldap.model.cursor.SearchCursor;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.Response;
@@ -2100,4 +2102,136 @@ public class SearchIT extends AbstractLdapTestUnit
 
         connection.close();
     }
+
+
+    /**
+     * Check that the entries returned from the encoded entries cache are
+     * the same as the ones encoded for each request, and that a modified
+     * entry is not served from the cache.
+     */
+    @Test
+    public void testSearchWithEncodedEntryCache() throws Exception
+    {
+        getLdapServer().setEncodedEntryCacheSize( 100 );
+
+        try
+        {
+            LdapConnection connection = getAdminConnection( getLdapServer() );
+
+            for ( int i = 0; i < 2; i++ )
+            {
+                EntryCursor cursor = connection.search( "ou=system", "(cn=Kate Bush)", SearchScope.ONELEVEL, "cn",
+                    "sn", "description" );
+                assertTrue( cursor.next() );
+                Entry entry = cursor.get();
+                assertEquals( "cn=Kate Bush,ou=system", entry.getDn().getName() );
+                assertTrue( entry.contains( "sn", "Bush" ) );
+                assertTrue( entry.contains( "description", "this is a person" ) );
+                assertFalse( cursor.next() );
+                cursor.close();
+            }
+
+            assertEquals( 1, getLdapServer().getEncodedEntryCache().getHits() );
+
+            connection.modify( "cn=Kate Bush,ou=system",
+                new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "A singer" ) );
+
+            EntryCursor cursor = connection.search( "ou=system", "(cn=Kate Bush)", SearchScope.ONELEVEL, "cn", "sn",
+                "description" );
+            assertTrue( cursor.next() );
+            Entry entry = cursor.get();
+            assertTrue( entry.contains( "description", "A singer" ) );
+            assertFalse( entry.contains( "description", "this is a person" ) );
+            cursor.close();
+
+            connection.modify( "cn=Kate Bush,ou=system",
+                new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", "this is a person" ) );
+            connection.close();
+        }
+        finally
+        {
+            getLdapServer().setEncodedEntryCacheSize( 0 );
+        }
+    }
+
+
+    /**
+     * Check that an entry is not served from the encoded entries cache with its
+     * old DN once one of its ancestors has been renamed.
+     */
+    @Test
+    public void testSearchWithEncodedEntryCacheAfterAncestorRename() throws Exception
+    {
+        getLdapServer().setEncodedEntryCacheSize( 100 );
+
+        try
+        {
+            LdapConnection connection = getAdminConnection( getLdapServer() );
+            connection.add( new DefaultEntry( "ou=cached,ou=system",
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: cached" ) );
+            connection.add( new DefaultEntry( "cn=child,ou=cached,ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "cn: child",
+                "sn: child" ) );
+
+            EntryCursor cursor = connection.search( "ou=system", "(cn=child)", SearchScope.SUBTREE, "cn", "sn" );
+            assertTrue( cursor.next() );
+            assertEquals( "cn=child,ou=cached,ou=system", cursor.get().getDn().getName() );
+            cursor.close();
+
+            connection.rename( "ou=cached,ou=system", "ou=renamed" );
+
+            cursor = connection.search( "ou=system", "(cn=child)", SearchScope.SUBTREE, "cn", "sn" );
+            assertTrue( cursor.next() );
+            assertEquals( "cn=child,ou=renamed,ou=system", cursor.get().getDn().getName() );
+            assertFalse( cursor.next() );
+            cursor.close();
+
+            connection.delete( "cn=child,ou=renamed,ou=system" );
+            connection.delete( "ou=renamed,ou=system" );
+            connection.close();
+        }
+        finally
+        {
+            getLdapServer().setEncodedEntryCacheSize( 0 );
+        }
+    }
+
+
+    /**
+     * Check that the encoded entries cache is not used when access control is
+     * enabled, as the returned content then depends on the ACIs and on the user.
+     */
+    @Test
+    public void testSearchWithEncodedEntryCacheAndAccessControl() throws Exception
+    {
+        getLdapServer().setEncodedEntryCacheSize( 100 );
+        getService().setAccessControlEnabled( true );
+
+        try
+        {
+            LdapConnection connection = getAdminConnection( getLdapServer() );
+
+            for ( int i = 0; i < 2; i++ )
+            {
+                EntryCursor cursor = connection.search( "ou=system", "(cn=Kate Bush)", SearchScope.ONELEVEL, "cn",
+                    "sn" );
+                assertTrue( cursor.next() );
+                assertTrue( cursor.get().contains( "sn", "Bush" ) );
+                cursor.close();
+            }
+
+            assertEquals( 0, getLdapServer().getEncodedEntryCache().size() );
+            assertEquals( 0, getLdapServer().getEncodedEntryCache().getHits() );
+            connection.close();
+        }
+        finally
+        {
+            getService().setAccessControlEnabled( false );
+            getLdapServer().setEncodedEntryCacheSize( 0 );
+        }
+    }
 }
@@ -23,6 +23,7 @@ package org.apache.directory.server.core.partition.impl.avl;
 import java.net.URI;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
@@ -220,6 +221,20 @@ public class AvlPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<String, String> createDerivedIndex( AttributeType attributeType, String storageSuffix )
+        throws Exception
+    {
+        AvlIndex<String> derivedIndex = new AvlIndex<String>( attributeType.getOid(), false );
+        derivedIndex.init( schemaManager, attributeType );
+
+        return derivedIndex;
+    }
+
+
     /**
      * {@inheritDoc}
      */
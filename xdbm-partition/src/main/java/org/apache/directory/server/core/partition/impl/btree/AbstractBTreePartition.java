@@ -20,23 +20,27 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
-import net.sf.ehcache.store.LruPolicy;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -68,6 +72,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.CopyOnWriteServerEntry;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -81,19 +86,27 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.Counter;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.GroupCommitCoordinator;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.NgramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.PhoneticIndex;
+import org.apache.directory.server.xdbm.ReverseKeyIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -126,12 +139,45 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The alias cache */
     protected Cache aliasCache;
 
-    /** The ParentIdAndRdn cache */
-    protected Cache piarCache;
-
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
 
+    /** true if the syncs done after the concurrent writes are grouped */
+    protected boolean groupCommit = false;
+
+    /** The maximum time a group commit waits for other writers to join, in milliseconds */
+    protected long groupCommitMaxDelay = 0L;
+
+    /** The number of waiting writes after which a group commit is done, 0 for no limit */
+    protected int groupCommitMaxBatch = 0;
+
+    /** The coordinator grouping the syncs, null if group commit is disabled */
+    private GroupCommitCoordinator groupCommitCoordinator;
+
+    /** The number of threads evaluating the large searches, 0 to evaluate them on the caller thread */
+    protected int parallelSearchThreads = 0;
+
+    /** The minimal number of candidates for a search to be evaluated in parallel */
+    protected int parallelSearchThreshold = 10000;
+
+    /** The maximum number of chunks of candidates a single search evaluates at the same time */
+    protected int parallelSearchMaxChunks = 4;
+
+    /** The pool evaluating the large searches, null if the parallel search is disabled */
+    private ForkJoinPool parallelSearchPool;
+
+    /** Tells if the cached entries are persisted, and loaded back when the partition starts */
+    protected boolean cacheWarmUp = false;
+
+    /** The delay between two saves of the cached entries UUIDs, in milliseconds */
+    protected long cacheWarmUpSaveInterval = 300000L;
+
+    /** The number of entries loaded under a single read lock when warming up the cache */
+    protected int cacheWarmUpBatchSize = 256;
+
+    /** The component warming up the cache, null if the warm-up is disabled */
+    private volatile CacheWarmer cacheWarmer;
+
     /** The suffix UUID */
     private volatile String suffixId;
 
@@ -190,10 +236,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     protected static final boolean REMOVE_CHILD = false;
 
     /** A lock to protect the backend from concurrent reads/writes */
-    private ReadWriteLock rwLock;
+    private volatile ReadWriteLock rwLock;
+
+    /** The in-memory parent pointer tree used to build the entries Dn */
+    private EntryDnTree dnTree;
+
+    /** The number of delete, modify, move and rename operations in progress */
+    private final AtomicInteger activeWrites = new AtomicInteger();
 
-    /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
-    private Cache entryDnCache;
+    /** Incremented when a delete, modify, move or rename operation starts and ends */
+    private final AtomicLong writeSequence = new AtomicLong();
+
+    /** The metrics counters, null if the partition has no metrics registry */
+    private volatile Counter cacheHitsCounter;
+    private volatile Counter cacheMissesCounter;
+    private volatile Counter entriesScannedCounter;
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
@@ -327,6 +384,235 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return true if the syncs done after the concurrent writes are grouped
+     */
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+
+    /**
+     * Enables or disables group commit. When enabled, and if syncOnWrite is set, the
+     * concurrent writers share a single sync of the partition instead of syncing it
+     * after each operation. A writer is still acknowledged only once its changes have
+     * been synced.
+     *
+     * @param groupCommit true to group the syncs
+     */
+    public void setGroupCommit( boolean groupCommit )
+    {
+        checkInitialized( "groupCommit" );
+        this.groupCommit = groupCommit;
+    }
+
+
+    /**
+     * @return The maximum time a group commit waits for other writers to join, in milliseconds
+     */
+    public long getGroupCommitMaxDelay()
+    {
+        return groupCommitMaxDelay;
+    }
+
+
+    /**
+     * Sets the maximum time a group commit waits for other writers to join. With
+     * a 0 delay, the writes done while a sync is in progress are grouped.
+     *
+     * @param groupCommitMaxDelay The maximum delay, in milliseconds
+     */
+    public void setGroupCommitMaxDelay( long groupCommitMaxDelay )
+    {
+        checkInitialized( "groupCommitMaxDelay" );
+        this.groupCommitMaxDelay = groupCommitMaxDelay;
+    }
+
+
+    /**
+     * @return The number of waiting writes after which a group commit is done, 0 for no limit
+     */
+    public int getGroupCommitMaxBatch()
+    {
+        return groupCommitMaxBatch;
+    }
+
+
+    /**
+     * Sets the number of waiting writes after which a group commit is done without
+     * waiting for the maximum delay.
+     *
+     * @param groupCommitMaxBatch The number of writes, 0 for no limit
+     */
+    public void setGroupCommitMaxBatch( int groupCommitMaxBatch )
+    {
+        checkInitialized( "groupCommitMaxBatch" );
+        this.groupCommitMaxBatch = groupCommitMaxBatch;
+    }
+
+
+    /**
+     * @return The number of threads evaluating the large searches, 0 if the parallel search is disabled
+     */
+    public int getParallelSearchThreads()
+    {
+        return parallelSearchThreads;
+    }
+
+
+    /**
+     * Sets the number of threads evaluating the searches having many candidates, typically
+     * subtree searches with a non indexed filter. This is disabled by default : each search
+     * evaluates its candidates on the thread which reads the results.
+     *
+     * @param parallelSearchThreads The number of threads, 0 to disable the parallel search
+     */
+    public void setParallelSearchThreads( int parallelSearchThreads )
+    {
+        checkInitialized( "parallelSearchThreads" );
+        this.parallelSearchThreads = parallelSearchThreads;
+    }
+
+
+    /**
+     * @return The minimal number of candidates for a search to be evaluated in parallel
+     */
+    public int getParallelSearchThreshold()
+    {
+        return parallelSearchThreshold;
+    }
+
+
+    /**
+     * Sets the minimal number of candidates for a search to be evaluated in parallel.
+     *
+     * @param parallelSearchThreshold The number of candidates
+     */
+    public void setParallelSearchThreshold( int parallelSearchThreshold )
+    {
+        checkInitialized( "parallelSearchThreshold" );
+        this.parallelSearchThreshold = parallelSearchThreshold;
+    }
+
+
+    /**
+     * @return The maximum number of chunks of candidates a single search evaluates at the same time
+     */
+    public int getParallelSearchMaxChunks()
+    {
+        return parallelSearchMaxChunks;
+    }
+
+
+    /**
+     * Sets the maximum number of chunks of candidates a single search evaluates at the
+     * same time. This limits the number of threads a single search can use, and the
+     * number of entries it keeps in memory ahead of the results sent to the client.
+     *
+     * @param parallelSearchMaxChunks The number of chunks
+     */
+    public void setParallelSearchMaxChunks( int parallelSearchMaxChunks )
+    {
+        checkInitialized( "parallelSearchMaxChunks" );
+        this.parallelSearchMaxChunks = parallelSearchMaxChunks;
+    }
+
+
+    /**
+     * @return true if the cached entries are loaded back when the partition starts
+     */
+    public boolean isCacheWarmUp()
+    {
+        return cacheWarmUp;
+    }
+
+
+    /**
+     * Enables the cache warm-up. The UUIDs of the cached entries are periodically saved
+     * in the partition directory, and when the partition starts, these entries are
+     * loaded back in the entry cache, the Dn tree, the Dn factory cache and the alias
+     * cache. The warm-up runs in the background, while the partition serves requests :
+     * it starts with the first operation, which gives the partition the OperationManager
+     * lock the entries are read under. This is disabled by default.
+     *
+     * @param cacheWarmUp true to enable the cache warm-up
+     */
+    public void setCacheWarmUp( boolean cacheWarmUp )
+    {
+        checkInitialized( "cacheWarmUp" );
+        this.cacheWarmUp = cacheWarmUp;
+    }
+
+
+    /**
+     * @return The delay between two saves of the cached entries UUIDs, in milliseconds
+     */
+    public long getCacheWarmUpSaveInterval()
+    {
+        return cacheWarmUpSaveInterval;
+    }
+
+
+    /**
+     * Sets the delay between two saves of the cached entries UUIDs. They are always
+     * saved when the partition is destroyed, the periodic saves keep the warm-up
+     * useful after a crash.
+     *
+     * @param cacheWarmUpSaveInterval The delay in milliseconds, 0 to only save on shutdown
+     */
+    public void setCacheWarmUpSaveInterval( long cacheWarmUpSaveInterval )
+    {
+        checkInitialized( "cacheWarmUpSaveInterval" );
+        this.cacheWarmUpSaveInterval = cacheWarmUpSaveInterval;
+    }
+
+
+    /**
+     * @return The number of entries loaded under a single read lock when warming up the cache
+     */
+    public int getCacheWarmUpBatchSize()
+    {
+        return cacheWarmUpBatchSize;
+    }
+
+
+    /**
+     * Sets the number of entries loaded under a single read lock when warming up the
+     * cache. The lock is released between two batches, so that the writes are not
+     * delayed by the warm-up.
+     *
+     * @param cacheWarmUpBatchSize The number of entries
+     */
+    public void setCacheWarmUpBatchSize( int cacheWarmUpBatchSize )
+    {
+        checkInitialized( "cacheWarmUpBatchSize" );
+        this.cacheWarmUpBatchSize = cacheWarmUpBatchSize;
+    }
+
+
+    /**
+     * Syncs the partition after a write, if syncOnWrite is set. With group commit, the
+     * sync is shared with the other concurrent writers.
+     */
+    protected void syncOnWrite() throws Exception
+    {
+        if ( !isSyncOnWrite.get() )
+        {
+            return;
+        }
+
+        if ( ( groupCommitCoordinator != null ) && ( rwLock != null ) )
+        {
+            groupCommitCoordinator.commit( rwLock );
+        }
+        else
+        {
+            sync();
+        }
+    }
+
+
     /**
      * Sets up the system indices.
      */
@@ -432,7 +718,25 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             if ( mr != null )
             {
                 Index<?, String> index = userIndices.get( oid );
+                boolean ngramIndexed = false;
+                boolean reverseKeyIndexed = false;
+                boolean phoneticIndexed = false;
+
+                if ( index instanceof AbstractIndex )
+                {
+                    ngramIndexed = ( ( AbstractIndex<?, ?> ) index ).isNgramIndexed();
+                    reverseKeyIndexed = ( ( AbstractIndex<?, ?> ) index ).isReverseKeyIndexed();
+                    phoneticIndexed = ( ( AbstractIndex<?, ?> ) index ).isPhoneticIndexed();
+                }
+
                 index = convertAndInit( index );
+
+                if ( ngramIndexed || reverseKeyIndexed || phoneticIndexed )
+                {
+                    index = addDerivedIndices( attributeType, index, ngramIndexed, reverseKeyIndexed,
+                        phoneticIndexed );
+                }
+
                 tmp.put( oid, index );
             }
             else
@@ -457,6 +761,89 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Completes a user index with a n-gram index, a reverse key index and/or a phonetic
+     * index, if the attribute and the partition support them. Otherwise, the index is
+     * returned unchanged.
+     */
+    @SuppressWarnings("unchecked")
+    private Index<?, String> addDerivedIndices( AttributeType attributeType, Index<?, String> index,
+        boolean ngramIndexed, boolean reverseKeyIndexed, boolean phoneticIndexed ) throws Exception
+    {
+        if ( !attributeType.getSyntax().isHumanReadable() || !index.hasReverse() )
+        {
+            LOG.warn( "Cannot build a n-gram, reverse key or phonetic index for the attribute {} : it must "
+                + "be human readable, and its index must have a reverse table", attributeType.getName() );
+
+            return index;
+        }
+
+        Index<String, String> result = ( Index<String, String> ) index;
+
+        if ( reverseKeyIndexed )
+        {
+            Index<String, String> reversedIndex = createDerivedIndex( attributeType, ReverseKeyIndex.STORAGE_SUFFIX );
+
+            if ( reversedIndex != null )
+            {
+                ReverseKeyIndex reverseKeyIndex = new ReverseKeyIndex( result, reversedIndex );
+                reverseKeyIndex.init();
+                result = reverseKeyIndex;
+            }
+        }
+
+        if ( phoneticIndexed )
+        {
+            Index<String, String> phoneticKeyIndex = createDerivedIndex( attributeType, PhoneticIndex.STORAGE_SUFFIX );
+
+            if ( phoneticKeyIndex != null )
+            {
+                PhoneticIndex phoneticIndex = new PhoneticIndex( result, phoneticKeyIndex );
+                phoneticIndex.init();
+                result = phoneticIndex;
+            }
+        }
+
+        if ( ngramIndexed )
+        {
+            Index<String, String> gramIndex = createDerivedIndex( attributeType, NgramIndex.STORAGE_SUFFIX );
+
+            if ( gramIndex != null )
+            {
+                NgramIndex ngramIndex = new NgramIndex( result, gramIndex );
+                ngramIndex.init();
+                result = ngramIndex;
+            }
+        }
+
+        if ( result == index )
+        {
+            LOG.warn( "The partition {} does not support derived indices, ignored for the attribute {}", getId(),
+                attributeType.getName() );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Creates and initializes an index derived from an attribute's index, like the
+     * n-gram, the reverse key and the phonetic indices. The index storage must be named using the
+     * given suffix, and it doesn't need a reverse table. The default implementation
+     * returns null, meaning that the partition does not support derived indices.
+     *
+     * @param attributeType The indexed attribute
+     * @param storageSuffix The suffix to add to the attribute OID to name the index storage
+     * @return The initialized index, or null
+     * @throws Exception If the index can't be created
+     */
+    protected Index<String, String> createDerivedIndex( AttributeType attributeType, String storageSuffix )
+        throws Exception
+    {
+        return null;
+    }
+
+
     // -----------------------------------------------------------------------
     // Miscellaneous abstract methods
     // -----------------------------------------------------------------------
@@ -496,10 +883,23 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             return;
         }
 
+        // Save the hot entries while the master table is still open
+        if ( cacheWarmer != null )
+        {
+            cacheWarmer.stop();
+            cacheWarmer = null;
+        }
+
         // don't reset initialized flag
         initialized = false;
 
-        entryDnCache.removeAll();
+        if ( parallelSearchPool != null )
+        {
+            parallelSearchPool.shutdownNow();
+            parallelSearchPool = null;
+        }
+
+        dnTree.clear();
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
@@ -549,6 +949,25 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize() throws LdapException
+    {
+        super.initialize();
+
+        // The master table is only available once the partition is initialized
+        if ( initialized && cacheWarmUp && ( cacheWarmer == null ) && ( partitionPath != null )
+            && "file".equals( partitionPath.getScheme() ) )
+        {
+            // Started by setRWLock(), once the partition shares the OperationManager lock
+            File file = new File( new File( partitionPath ), CacheWarmer.FILE_NAME );
+            cacheWarmer = new CacheWarmer( this, file, cacheWarmUpSaveInterval, cacheWarmUpBatchSize );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -577,6 +996,20 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
+        dnTree = new EntryDnTree( rdnIdx, schemaManager );
+
+        if ( groupCommit )
+        {
+            groupCommitCoordinator = new GroupCommitCoordinator( this, groupCommitMaxDelay, groupCommitMaxBatch );
+        }
+
+        if ( ( parallelSearchThreads > 0 ) && ( searchEngine instanceof DefaultSearchEngine ) )
+        {
+            parallelSearchPool = new ForkJoinPool( parallelSearchThreads );
+            ( ( DefaultSearchEngine ) searchEngine ).setParallelSearch( parallelSearchPool, parallelSearchThreshold,
+                parallelSearchMaxChunks );
+        }
+
         if ( cacheService != null )
         {
             aliasCache = cacheService.getCache( "alias" );
@@ -587,19 +1020,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 aliasCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize );
             }
-            
-            piarCache = cacheService.getCache( "piar" );
-            
-            cacheSizeConfig = piarCache.getCacheConfiguration().getMaxElementsInMemory();
-    
-            if ( cacheSizeConfig < cacheSize )
-            {
-                piarCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize * 3 );
-            }
-            
-            entryDnCache = cacheService.getCache( "entryDn" );
-            entryDnCache.setMemoryStoreEvictionPolicy( new LruPolicy() );
-            entryDnCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize );
         }
     }
 
@@ -845,6 +1265,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 // Update the RDN index
                 rdnIdx.add( key, id );
+                dnTree.add( id, key );
 
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
@@ -866,10 +1287,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite();
         }
         catch ( LdapException le )
         {
@@ -1048,6 +1466,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 // Update the RDN index
                 rdnIdx.add( key, id );
+                dnTree.add( id, key );
 
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
@@ -1069,10 +1488,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite();
         }
         catch ( LdapException le )
         {
@@ -1097,6 +1513,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             setRWLock( deleteContext );
+            beginWrite();
             Dn dn = deleteContext.getDn();
             String id = null;
 
@@ -1141,6 +1558,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage() );
         }
+        finally
+        {
+            endWrite();
+        }
     }
 
 
@@ -1199,6 +1620,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry delete( String id ) throws LdapException
     {
+        beginWrite();
+
         try
         {
             // First get the entry
@@ -1292,7 +1715,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 dumpRdnIdx();
 
-                entryDnCache.remove( id );
+                dnTree.remove( id );
                 
                 Attribute csn = entry.get( entryCsnAT );
                 // can be null while doing subentry deletion
@@ -1308,10 +1731,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite();
 
             return entry;
         }
@@ -1319,6 +1739,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            endWrite();
+        }
     }
 
 
@@ -1417,12 +1841,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry fetch( String id ) throws LdapException
     {
+        // Serve the entry from memory if we can, without waiting for the writers
+        Entry cachedEntry = fetchFromMemory( id );
+
+        if ( cachedEntry != null )
+        {
+            return cachedEntry;
+        }
+
         try
         {
             rwLock.readLock().lock();
 
             Dn dn = buildEntryDn( id );
 
+            if ( dn == null )
+            {
+                // The entry has been deleted, even if it's still in the entry cache
+                return null;
+            }
+
             return fetch( id, dn );
         }
         catch ( Exception e )
@@ -1451,26 +1889,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             if ( entry != null )
             {
-                entry.setDn( dn );
-
-                entry = new ClonedServerEntry( entry );
-
-                // Replace the entry's DN with the provided one
-                Attribute entryDnAt = entry.get( entryDnAT );
-
-                if ( entryDnAt == null )
-                {
-                    entry.add( entryDnAT, dn.getName() );
-                }
-                else
-                {
-                    entryDnAt.clear();
-                    entryDnAt.add( dn.getName() );
-                }
+                countCacheAccess( cacheHitsCounter );
 
-                return entry;
+                return cloneCachedEntry( entry, dn );
             }
 
+            countCacheAccess( cacheMissesCounter );
+
             try
             {
                 rwLock.readLock().lock();
@@ -1489,7 +1914,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // always store original entry in the cache
                 addToCache( id, entry );
 
-                entry = new ClonedServerEntry( entry );
+                // The attributes are only copied when they are modified
+                entry = new CopyOnWriteServerEntry( entry );
 
                 if ( !entry.containsAttribute( entryDnAT ) )
                 {
@@ -1508,6 +1934,122 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Gets back an entry from the entry cache, using the Dn computed by the Dn tree,
+     * without taking the read lock. The copy of the entry is only returned if no
+     * delete, modify, move or rename operation has been running while we were reading
+     * the Dn and copying the entry, otherwise the caller must fall back to a locked fetch.
+     * <br>
+     * This is an optimistic read, not a MVCC scheme : there is no snapshot of the
+     * partition, so a reader which sees a concurrent write gives up instead of reading
+     * a former version. The entries which aren't in the cache are still read from the
+     * master table under the read lock.
+     *
+     * @param id The Entry UUID we want to get back
+     * @return The cached entry, or null if it's not in memory or if a write was in progress
+     */
+    private Entry fetchFromMemory( String id ) throws LdapException
+    {
+        if ( ( id == null ) || ( dnTree == null ) )
+        {
+            return null;
+        }
+
+        long sequence = writeSequence.get();
+
+        if ( activeWrites.get() > 0 )
+        {
+            return null;
+        }
+
+        Dn dn = dnTree.peekDn( id );
+
+        if ( dn == null )
+        {
+            return null;
+        }
+
+        Entry cachedEntry = lookupCache( id );
+
+        if ( cachedEntry == null )
+        {
+            return null;
+        }
+
+        Entry entry;
+
+        try
+        {
+            entry = cloneCachedEntry( cachedEntry, dn );
+        }
+        catch ( RuntimeException re )
+        {
+            // The cached entry has been changed while we were copying it
+            return null;
+        }
+
+        // The copy is only valid if no write started or ran while we were making it
+        if ( ( activeWrites.get() > 0 ) || ( writeSequence.get() != sequence ) )
+        {
+            return null;
+        }
+
+        countCacheAccess( cacheHitsCounter );
+
+        return entry;
+    }
+
+
+    /**
+     * Creates a copy-on-write view of a cached entry, with the given Dn. The cached
+     * entries are replaced, never modified, so their attributes can be copied lazily.
+     */
+    private Entry cloneCachedEntry( Entry cachedEntry, Dn dn ) throws LdapException
+    {
+        // The cached entry is shared by the readers, only the copy gets the Dn
+        Entry entry = new CopyOnWriteServerEntry( cachedEntry );
+        entry.setDn( dn );
+
+        // Replace the entry's DN with the provided one
+        Attribute entryDnAt = entry.get( entryDnAT );
+
+        if ( entryDnAt == null )
+        {
+            entry.add( entryDnAT, dn.getName() );
+        }
+        else
+        {
+            entryDnAt.clear();
+            entryDnAt.add( dn.getName() );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Marks the beginning of an operation modifying existing entries, so that
+     * the lock free readers don't use the Dn tree and the entry cache until it's done.
+     * The brackets can be nested : the operations also mark the update of the entry
+     * cache which follows the write.
+     */
+    private void beginWrite()
+    {
+        activeWrites.incrementAndGet();
+        writeSequence.incrementAndGet();
+    }
+
+
+    /**
+     * Marks the end of an operation modifying existing entries
+     */
+    private void endWrite()
+    {
+        writeSequence.incrementAndGet();
+        activeWrites.decrementAndGet();
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Modify operation
     //---------------------------------------------------------------------------------------------
@@ -1519,6 +2061,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             setRWLock( modifyContext );
+            beginWrite();
 
             Entry modifiedEntry = modify( modifyContext.getDn(),
                 modifyContext.getModItems().toArray( new Modification[]
@@ -1532,6 +2075,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            endWrite();
+        }
     }
 
 
@@ -1540,47 +2087,53 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public final synchronized Entry modify( Dn dn, Modification... mods ) throws Exception
     {
-        String id = getEntryId( dn );
-        Entry entry = master.get( id );
+        beginWrite();
 
-        for ( Modification mod : mods )
+        try
         {
-            Attribute attrMods = mod.getAttribute();
+            String id = getEntryId( dn );
+            Entry entry = master.get( id );
 
-            switch ( mod.getOperation() )
+            for ( Modification mod : mods )
             {
-                case ADD_ATTRIBUTE:
-                    modifyAdd( id, entry, attrMods );
-                    break;
+                Attribute attrMods = mod.getAttribute();
 
-                case REMOVE_ATTRIBUTE:
-                    modifyRemove( id, entry, attrMods );
-                    break;
+                switch ( mod.getOperation() )
+                {
+                    case ADD_ATTRIBUTE:
+                        modifyAdd( id, entry, attrMods );
+                        break;
+
+                    case REMOVE_ATTRIBUTE:
+                        modifyRemove( id, entry, attrMods );
+                        break;
 
-                case REPLACE_ATTRIBUTE:
-                    modifyReplace( id, entry, attrMods );
-                    break;
+                    case REPLACE_ATTRIBUTE:
+                        modifyReplace( id, entry, attrMods );
+                        break;
 
-                default:
-                    throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                    default:
+                        throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                }
             }
-        }
 
-        updateCsnIndex( entry, id );
+            updateCsnIndex( entry, id );
 
-        // Remove the EntryDN
-        entry.removeAttributes( entryDnAT );
+            // Remove the EntryDN
+            entry.removeAttributes( entryDnAT );
 
-        setContextCsn( entry.get( entryCsnAT ).getString() );
+            setContextCsn( entry.get( entryCsnAT ).getString() );
         
-        master.put( id, entry );
+            master.put( id, entry );
+
+            syncOnWrite();
 
-        if ( isSyncOnWrite.get() )
+            return entry;
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
-
-        return entry;
     }
 
 
@@ -2002,6 +2555,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             setRWLock( moveContext );
+            beginWrite();
             Dn oldDn = moveContext.getDn();
             Dn newSuperior = moveContext.getNewSuperior();
             Dn newDn = moveContext.getNewDn();
@@ -2014,6 +2568,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            endWrite();
+        }
     }
 
 
@@ -2023,98 +2581,103 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized void move( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws Exception
     {
-        // Check that the parent Dn exists
-        String newParentId = getEntryId( newSuperiorDn );
+        beginWrite();
 
-        if ( newParentId == null )
+        try
         {
-            // This is not allowed : the parent must exist
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Check that the parent Dn exists
+            String newParentId = getEntryId( newSuperiorDn );
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( newDn );
+            if ( newParentId == null )
+            {
+                // This is not allowed : the parent must exist
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            // Now check that the new entry does not exist
+            String newId = getEntryId( newDn );
 
-        // Get the entry and the old parent IDs
-        String entryId = getEntryId( oldDn );
-        String oldParentId = getParentId( entryId );
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        /*
-         * All aliases including and below oldChildDn, will be affected by
-         * the move operation with respect to one and subtree userIndices since
-         * their relationship to ancestors above oldChildDn will be
-         * destroyed.  For each alias below and including oldChildDn we will
-         * drop the index tuples mapping ancestor ids above oldChildDn to the
-         * respective target ids of the aliases.
-         */
-        dropMovedAliasIndices( oldDn );
+            // Get the entry and the old parent IDs
+            String entryId = getEntryId( oldDn );
+            String oldParentId = getParentId( entryId );
 
-        // Update the Rdn index
-        // First drop the old entry
-        ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( entryId );
+            /*
+             * All aliases including and below oldChildDn, will be affected by
+             * the move operation with respect to one and subtree userIndices since
+             * their relationship to ancestors above oldChildDn will be
+             * destroyed.  For each alias below and including oldChildDn we will
+             * drop the index tuples mapping ancestor ids above oldChildDn to the
+             * respective target ids of the aliases.
+             */
+            dropMovedAliasIndices( oldDn );
 
-        updateRdnIdx( oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+            // Update the Rdn index
+            // First drop the old entry
+            ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( entryId );
 
-        rdnIdx.drop( entryId );
+            updateRdnIdx( oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
 
-        // Now, add the new entry at the right position
-        movedEntry.setParentId( newParentId );
-        rdnIdx.add( movedEntry, entryId );
+            rdnIdx.drop( entryId );
 
-        updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+            // Now, add the new entry at the right position
+            movedEntry.setParentId( newParentId );
+            rdnIdx.add( movedEntry, entryId );
+            dnTree.update( entryId, movedEntry );
 
-        /*
-         * Read Alias Index Tuples
-         *
-         * If this is a name change due to a move operation then the one and
-         * subtree userIndices for aliases were purged before the aliases were
-         * moved.  Now we must add them for each alias entry we have moved.
-         *
-         * aliasTarget is used as a marker to tell us if we're moving an
-         * alias.  If it is null then the moved entry is not an alias.
-         */
-        Dn aliasTarget = aliasIdx.reverseLookup( entryId );
+            updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
-        if ( null != aliasTarget )
-        {
-            aliasTarget.apply( schemaManager );
-            addAliasIndices( entryId, buildEntryDn( entryId ), aliasTarget );
-        }
+            /*
+             * Read Alias Index Tuples
+             *
+             * If this is a name change due to a move operation then the one and
+             * subtree userIndices for aliases were purged before the aliases were
+             * moved.  Now we must add them for each alias entry we have moved.
+             *
+             * aliasTarget is used as a marker to tell us if we're moving an
+             * alias.  If it is null then the moved entry is not an alias.
+             */
+            Dn aliasTarget = aliasIdx.reverseLookup( entryId );
 
-        // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
-        // directly using the Store API, in this case the value of modified entry will be null
-        // we need to lookup the entry to update the parent UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = fetch( entryId );
-        }
+            if ( null != aliasTarget )
+            {
+                aliasTarget.apply( schemaManager );
+                addAliasIndices( entryId, newDn, aliasTarget );
+            }
 
-        // Update the master table with the modified entry
-        modifiedEntry.put( ApacheSchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
+            // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
+            // directly using the Store API, in this case the value of modified entry will be null
+            // we need to lookup the entry to update the parent UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = fetch( entryId );
+            }
 
-        // Remove the EntryDN
-        modifiedEntry.removeAttributes( entryDnAT );
+            // Update the master table with the modified entry
+            modifiedEntry.put( ApacheSchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
 
-        entryDnCache.removeAll();
-        
-        setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
+            // Remove the EntryDN
+            modifiedEntry.removeAttributes( entryDnAT );
+
+            setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
-        master.put( entryId, modifiedEntry );
+            master.put( entryId, modifiedEntry );
 
-        if ( isSyncOnWrite.get() )
+            syncOnWrite();
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
     }
 
@@ -2136,6 +2699,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             setRWLock( moveAndRenameContext );
+            beginWrite();
             Dn oldDn = moveAndRenameContext.getDn();
             Dn newSuperiorDn = moveAndRenameContext.getNewSuperiorDn();
             Rdn newRdn = moveAndRenameContext.getNewRdn();
@@ -2155,6 +2719,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            endWrite();
+        }
     }
 
 
@@ -2164,57 +2732,61 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized void moveAndRename( Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Entry modifiedEntry,
         boolean deleteOldRdn ) throws Exception
     {
-        // Check that the old entry exists
-        String oldId = getEntryId( oldDn );
+        beginWrite();
 
-        if ( oldId == null )
+        try
         {
-            // This is not allowed : the old entry must exist
-            LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, oldDn ) );
-            throw nse;
-        }
+            // Check that the old entry exists
+            String oldId = getEntryId( oldDn );
+
+            if ( oldId == null )
+            {
+                // This is not allowed : the old entry must exist
+                LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, oldDn ) );
+                throw nse;
+            }
 
-        // Check that the new superior exist
-        String newSuperiorId = getEntryId( newSuperiorDn );
+            // Check that the new superior exist
+            String newSuperiorId = getEntryId( newSuperiorDn );
 
-        if ( newSuperiorId == null )
-        {
-            // This is not allowed : the new superior must exist
-            LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn ) );
-            throw nse;
-        }
+            if ( newSuperiorId == null )
+            {
+                // This is not allowed : the new superior must exist
+                LdapNoSuchObjectException nse = new LdapNoSuchObjectException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn ) );
+                throw nse;
+            }
 
-        Dn newDn = newSuperiorDn.add( newRdn );
+            Dn newDn = newSuperiorDn.add( newRdn );
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( newDn );
+            // Now check that the new entry does not exist
+            String newId = getEntryId( newDn );
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-            throw ne;
-        }
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                LdapEntryAlreadyExistsException ne = new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+                throw ne;
+            }
 
-        // First, rename
-        // Get the old UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = master.get( oldId );
-        }
+            // First, rename
+            // Get the old UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = master.get( oldId );
+            }
 
-        rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
-        moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
+            rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
+            moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
 
-        entryDnCache.removeAll();
-        
-        if ( isSyncOnWrite.get() )
+            syncOnWrite();
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
     }
 
@@ -2267,6 +2839,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         movedEntry.setRdns( new Rdn[]
             { newRdn } );
         rdnIdx.add( movedEntry, entryId );
+        dnTree.update( entryId, movedEntry );
 
         updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -2287,7 +2860,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         if ( null != aliasTarget )
         {
             aliasTarget.apply( schemaManager );
-            addAliasIndices( entryId, buildEntryDn( entryId ), aliasTarget );
+            addAliasIndices( entryId, newSuperior.add( newRdn ), aliasTarget );
         }
     }
 
@@ -2303,6 +2876,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             setRWLock( renameContext );
+            beginWrite();
             Dn oldDn = renameContext.getDn();
             Rdn newRdn = renameContext.getNewRdn();
             boolean deleteOldRdn = renameContext.getDeleteOldRdn();
@@ -2323,6 +2897,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
         }
+        finally
+        {
+            endWrite();
+        }
     }
 
 
@@ -2491,35 +3069,40 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @SuppressWarnings("unchecked")
     public final synchronized void rename( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
-        String oldId = getEntryId( dn );
+        beginWrite();
 
-        rename( oldId, newRdn, deleteOldRdn, entry );
+        try
+        {
+            String oldId = getEntryId( dn );
 
-        /*
-         * H A N D L E   D N   C H A N G E
-         * ====================================================================
-         * We only need to update the Rdn index.
-         * No need to calculate the new Dn.
-         */
-        String parentId = getParentId( oldId );
+            rename( oldId, newRdn, deleteOldRdn, entry );
 
-        // Get the old parentIdAndRdn to get the nb of children and descendant
-        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( oldId );
+            /*
+             * H A N D L E   D N   C H A N G E
+             * ====================================================================
+             * We only need to update the Rdn index.
+             * No need to calculate the new Dn.
+             */
+            String parentId = getParentId( oldId );
 
-        // Now we can drop it
-        rdnIdx.drop( oldId );
+            // Get the old parentIdAndRdn to get the nb of children and descendant
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( oldId );
 
-        // Update the descendants
-        parentIdAndRdn.setParentId( parentId );
-        parentIdAndRdn.setRdns( newRdn );
+            // Now we can drop it
+            rdnIdx.drop( oldId );
 
-        rdnIdx.add( parentIdAndRdn, oldId );
+            // Update the descendants
+            parentIdAndRdn.setParentId( parentId );
+            parentIdAndRdn.setRdns( newRdn );
 
-        entryDnCache.removeAll();
-        
-        if ( isSyncOnWrite.get() )
+            rdnIdx.add( parentIdAndRdn, oldId );
+            dnTree.update( oldId, parentIdAndRdn );
+
+            syncOnWrite();
+        }
+        finally
         {
-            sync();
+            endWrite();
         }
     }
 
@@ -2590,83 +3173,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     protected Dn buildEntryDn( String id ) throws Exception
     {
-        String parentId = id;
-        String rootId = Partition.ROOT_ID;
-
-        // Create an array of 10 rdns, just in case. We will extend it if needed
-        Rdn[] rdnArray = new Rdn[10];
-        int pos = 0;
-
-        Dn dn = null;
-        
         try
         {
             rwLock.readLock().lock();
 
-            Element el = entryDnCache.get( id );
-            
-            if ( el != null )
-            {
-                return ( Dn ) el.getValue();
-            }
-            
-            do
-            {
-                ParentIdAndRdn cur = null;
-            
-                if ( piarCache != null )
-                {
-                    Element piar = piarCache.get( parentId );
-                    
-                    if ( piar != null )
-                    {
-                        cur = ( ParentIdAndRdn ) piar.getValue();
-                    }
-                    else
-                    {
-                        cur = rdnIdx.reverseLookup( parentId );
-                        
-                        if ( cur == null )
-                        {
-                            return null;
-                        }
-                        
-                        piarCache.put( new Element( parentId, cur ) );
-                    }
-                }
-                else
-                {
-                    cur = rdnIdx.reverseLookup( parentId );
-                    
-                    if ( cur == null )
-                    {
-                        return null;
-                    }
-                }
-
-                Rdn[] rdns = cur.getRdns();
-
-                for ( Rdn rdn : rdns )
-                {
-                    if ( ( pos > 0 ) && ( pos % 10 == 0 ) )
-                    {
-                        // extend the array
-                        Rdn[] newRdnArray = new Rdn[pos + 10];
-                        System.arraycopy( rdnArray, 0, newRdnArray, 0, pos );
-                        rdnArray = newRdnArray;
-                    }
-
-                    rdnArray[pos++] = rdn;
-                }
-
-                parentId = cur.getParentId();
-            }
-            while ( !parentId.equals( rootId ) );
-            
-            dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
-            
-            entryDnCache.put( new Element( id, dn ) );
-            return dn;
+            return dnTree.getDn( id );
         }
         finally
         {
@@ -2794,14 +3305,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             rwLock.readLock().lock();
-            ParentIdAndRdn key = rdnIdx.reverseLookup( childId );
-
-            if ( key == null )
-            {
-                return null;
-            }
 
-            return key.getParentId();
+            return dnTree.getParentId( childId );
         }
         finally
         {
@@ -3317,20 +3822,74 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              * this for the direct parent of the alias on the one level subtree if
              * the moved base is the alias.
              */
-            if ( aliasDn.equals( movedBase ) )
+            if ( aliasDn.equals( movedBase ) && !hasOtherAlias( targetDn, movedBase, ancestorDn, true ) )
             {
                 oneAliasIdx.drop( ancestorId, targetId );
             }
 
-            subAliasIdx.drop( ancestorId, targetId );
+            if ( !hasOtherAlias( targetDn, movedBase, ancestorDn, false ) )
+            {
+                subAliasIdx.drop( ancestorId, targetId );
+            }
 
             while ( !ancestorDn.equals( suffixDn ) )
             {
                 ancestorDn = ancestorDn.getParent();
                 ancestorId = getEntryId( ancestorDn );
 
-                subAliasIdx.drop( ancestorId, targetId );
+                if ( !hasOtherAlias( targetDn, movedBase, ancestorDn, false ) )
+                {
+                    subAliasIdx.drop( ancestorId, targetId );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tells if an alias to the given target, which is not moved along with the
+     * moved base, is still a child (or a descendant) of an ancestor. In this case,
+     * the ( ancestorId, targetId ) tuple must be kept in the alias indexes.
+     */
+    private boolean hasOtherAlias( Dn targetDn, Dn movedBase, Dn ancestorDn, boolean oneLevel )
+        throws Exception
+    {
+        Cursor<String> cursor = aliasIdx.forwardValueCursor( targetDn );
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                Dn aliasDn = buildEntryDn( cursor.get() );
+
+                // The moved base and its descendants are moved along
+                if ( aliasDn.isDescendantOf( movedBase ) )
+                {
+                    continue;
+                }
+
+                boolean isBelow;
+
+                if ( oneLevel )
+                {
+                    isBelow = ancestorDn.equals( aliasDn.getParent() );
+                }
+                else
+                {
+                    isBelow = aliasDn.isDescendantOf( ancestorDn );
+                }
+
+                if ( isBelow )
+                {
+                    return true;
+                }
             }
+
+            return false;
+        }
+        finally
+        {
+            cursor.close();
         }
     }
 
@@ -3474,6 +4033,135 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Gets the UUIDs of the entries held in the entry cache. They are persisted to
+     * warm up the cache when the partition restarts.
+     *
+     * @return The cached entries UUIDs
+     */
+    public List<String> getCachedIds()
+    {
+        // partition implementations should override this if they use a cache
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Loads some entries in the caches, under a single read lock. The entries which are
+     * already cached, or which don't exist anymore, are skipped. The Dn factory cache is
+     * filled with the entries Dn, and the alias cache with the aliases targets.
+     *
+     * @param ids The entries UUIDs, sorted so that the master table is read sequentially
+     * @return The number of entries read from the master table
+     * @throws Exception If the entries can't be read
+     */
+    int warmUpCache( List<String> ids ) throws Exception
+    {
+        // The warm-up is started once the OperationManager lock is known
+        ReadWriteLock lock = rwLock;
+        int loaded = 0;
+
+        lock.readLock().lock();
+
+        try
+        {
+            for ( String id : ids )
+            {
+                if ( lookupCache( id ) != null )
+                {
+                    continue;
+                }
+
+                Entry entry = master.get( id );
+
+                if ( entry == null )
+                {
+                    continue;
+                }
+
+                Dn dn = dnTree.getDn( id );
+                entry.setDn( dn );
+                addToCache( id, entry );
+                loaded++;
+
+                // The Dn factory cache is keyed on the user provided names
+                if ( dnFactory != null )
+                {
+                    dnFactory.create( dn.getName() );
+                }
+
+                Attribute aliasedObjectName = entry.get( aliasedObjectNameAT );
+
+                if ( ( aliasCache != null ) && ( aliasedObjectName != null ) )
+                {
+                    aliasCache.put( new Element( id, new Dn( schemaManager, aliasedObjectName.getString() ) ) );
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        return loaded;
+    }
+
+
+    /**
+     * @return true when the cache warm-up is done, or if it's disabled
+     */
+    public boolean isCacheWarmedUp()
+    {
+        return ( cacheWarmer == null ) || cacheWarmer.isWarmedUp();
+    }
+
+
+    /**
+     * Increments a cache counter, if the partition has a metrics registry
+     */
+    private void countCacheAccess( Counter counter )
+    {
+        if ( counter != null )
+        {
+            counter.increment();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMetrics( MetricsRegistry metrics )
+    {
+        super.setMetrics( metrics );
+
+        if ( metrics == null )
+        {
+            cacheHitsCounter = null;
+            cacheMissesCounter = null;
+            entriesScannedCounter = null;
+        }
+        else
+        {
+            String prefix = "partition." + id + ".";
+            cacheHitsCounter = metrics.getCounter( prefix + "cache.hits" );
+            cacheMissesCounter = metrics.getCounter( prefix + "cache.misses" );
+            entriesScannedCounter = metrics.getCounter( prefix + "entries.scanned" );
+        }
+    }
+
+
+    /**
+     * @return The counter of the candidates evaluated by the search cursors, or
+     * null if the partition has no metrics registry
+     */
+    Counter getEntriesScannedCounter()
+    {
+        return entriesScannedCounter;
+    }
+
+
     /**
      * adds the given entry to cache
      *  
@@ -3525,6 +4213,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         if ( operationContext.getSession() != null )
         {
             rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+
+            // The entries are loaded under the same lock as the writers take
+            CacheWarmer warmer = cacheWarmer;
+
+            if ( warmer != null )
+            {
+                warmer.start();
+            }
         }
         else
         {
@@ -3640,13 +4336,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 return;
             }
-            origEntry = ( ( ClonedServerEntry ) origEntry ).getOriginalEntry();
             
-            origEntry.removeAttributes( contextCsnAT, entryDnAT );
+            // The cached entry is shared with the readers : update a copy of it
+            Entry contextEntry = ( ( ClonedServerEntry ) origEntry ).getOriginalEntry().clone();
+            
+            contextEntry.removeAttributes( contextCsnAT, entryDnAT );
+            
+            contextEntry.add( contextCsnAT, contextCsn );
             
-            origEntry.add( contextCsnAT, contextCsn );
+            master.put( contextEntryId, contextEntry );
             
-            master.put( contextEntryId, origEntry );
+            addToCache( contextEntryId, contextEntry );
             
             ctxCsnChanged = false;
             
@@ -0,0 +1,402 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.server.xdbm.UuidCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Persists the UUIDs of the entries held in a partition's entry cache, and loads
+ * them back in the caches when the partition starts, so that a restarted server
+ * does not serve its most used entries from the disk for a long time.
+ * <br>
+ * The UUIDs are sorted before being loaded, so that the master table is read
+ * sequentially, and they are loaded by batches, each one under a single read lock,
+ * in a background thread : the partition serves requests while it's warming up.
+ * <br>
+ * The file has the following structure :
+ * <ul>
+ *   <li><b>[magic]</b> : an int, {@link #MAGIC}</li>
+ *   <li><b>[version]</b> : a byte, the format version</li>
+ *   <li><b>[count]</b> : an int, the number of UUIDs</li>
+ *   <li>For each UUID, a byte set to 0 followed by the 16 bytes of a canonical UUID,
+ *   or a byte set to 1 followed by the UUID in modified UTF-8</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class CacheWarmer
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( CacheWarmer.class );
+
+    /** The name of the file, in the partition directory */
+    static final String FILE_NAME = "cache.hotset";
+
+    /** The first int of the file */
+    static final int MAGIC = 0x484F5453;
+
+    /** The current format version */
+    static final byte VERSION = 1;
+
+    /** The marker of a UUID stored as 16 bytes */
+    private static final byte BINARY_UUID = 0;
+
+    /** The marker of a UUID stored as a String */
+    private static final byte STRING_UUID = 1;
+
+    /** The partition to warm up */
+    private final AbstractBTreePartition partition;
+
+    /** The file storing the UUIDs */
+    private final File file;
+
+    /** The delay between two saves, in milliseconds. 0 to only save when stopping */
+    private final long saveInterval;
+
+    /** The number of entries loaded under a single read lock */
+    private final int batchSize;
+
+    /** The thread loading the entries and saving the UUIDs */
+    private final ScheduledExecutorService executor;
+
+    /** Set when the warm-up has been started */
+    private final AtomicBoolean started = new AtomicBoolean( false );
+
+    /** Set when the partition is being destroyed */
+    private volatile boolean stopped;
+
+    /**
+     * Set when the warm-up is done, or has failed. Until then, the file is not overwritten,
+     * and it's never overwritten if the warm-up has been stopped before its end
+     */
+    private volatile boolean warmedUp;
+
+
+    /**
+     * Creates a new instance of CacheWarmer.
+     *
+     * @param partition The partition to warm up
+     * @param file The file storing the UUIDs
+     * @param saveInterval The delay between two saves, in milliseconds
+     * @param batchSize The number of entries loaded under a single read lock
+     */
+    CacheWarmer( AbstractBTreePartition partition, File file, long saveInterval, int batchSize )
+    {
+        this.partition = partition;
+        this.file = file;
+        this.saveInterval = saveInterval;
+        this.batchSize = Math.max( 1, batchSize );
+
+        final String threadName = "cache-warmer-" + partition.getId();
+
+        executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, threadName );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+    }
+
+
+    /**
+     * Starts loading the entries in the background, then saves the UUIDs periodically.
+     * Only the first call starts the warm-up, the next ones do nothing.
+     */
+    void start()
+    {
+        if ( stopped || !started.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    warmUp();
+                }
+            } );
+
+            if ( saveInterval > 0 )
+            {
+                executor.scheduleWithFixedDelay( new Runnable()
+                {
+                    public void run()
+                    {
+                        save();
+                    }
+                }, saveInterval, saveInterval, TimeUnit.MILLISECONDS );
+            }
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The partition is being destroyed
+            LOG.debug( "The cache warmer of partition {} has been stopped before it started", partition.getId() );
+        }
+    }
+
+
+    /**
+     * Stops the background thread and saves the UUIDs a last time. This must be
+     * called while the partition can still be read.
+     */
+    void stop()
+    {
+        stopped = true;
+        executor.shutdownNow();
+
+        try
+        {
+            if ( !executor.awaitTermination( 10, TimeUnit.SECONDS ) )
+            {
+                LOG.warn( "The cache warmer of partition {} did not stop", partition.getId() );
+
+                return;
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            return;
+        }
+
+        save();
+    }
+
+
+    /**
+     * @return true when all the persisted entries have been loaded
+     */
+    boolean isWarmedUp()
+    {
+        return warmedUp;
+    }
+
+
+    /**
+     * Loads the persisted entries in the caches, batch by batch. If the warmer is
+     * stopped meanwhile, the cache only holds a part of the persisted entries, and
+     * the warm-up is not considered as done.
+     */
+    private void warmUp()
+    {
+        try
+        {
+            List<String> ids = read( file );
+
+            if ( ids.size() > partition.getCacheSize() )
+            {
+                ids = ids.subList( 0, partition.getCacheSize() );
+            }
+
+            // The master table is sorted by UUID : read it sequentially
+            Collections.sort( ids );
+
+            long start = System.currentTimeMillis();
+            int loaded = 0;
+
+            for ( int from = 0; from < ids.size(); from += batchSize )
+            {
+                if ( stopped )
+                {
+                    return;
+                }
+
+                loaded += partition.warmUpCache( ids.subList( from, Math.min( ids.size(), from + batchSize ) ) );
+            }
+
+            LOG.info( "Loaded {} entries in the cache of partition {} in {} ms", loaded, partition.getId(),
+                System.currentTimeMillis() - start );
+        }
+        catch ( Exception e )
+        {
+            if ( stopped )
+            {
+                // The warm-up has been interrupted, keep the former file
+                LOG.debug( "The warm-up of partition {} has been stopped", partition.getId() );
+
+                return;
+            }
+
+            // The warm-up is an optimization, the partition works without it
+            LOG.warn( "Failed to warm up the cache of partition {}", partition.getId(), e );
+        }
+
+        warmedUp = true;
+    }
+
+
+    /**
+     * Saves the UUIDs of the cached entries, unless the warm-up is still running or
+     * has been stopped before its end.
+     */
+    private void save()
+    {
+        if ( !warmedUp )
+        {
+            return;
+        }
+
+        try
+        {
+            write( file, partition.getCachedIds() );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to save the hot entries of partition {}", partition.getId(), e );
+        }
+    }
+
+
+    /**
+     * Writes some UUIDs in a file. The file is replaced once the UUIDs have been
+     * written, so that a crash never leaves a truncated file.
+     *
+     * @param file The file to write
+     * @param ids The UUIDs to write
+     * @throws IOException If the file can't be written
+     */
+    static void write( File file, Collection<String> ids ) throws IOException
+    {
+        File tmpFile = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+        byte[] buffer = new byte[UuidCodec.LENGTH];
+
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeByte( VERSION );
+            out.writeInt( ids.size() );
+
+            for ( String id : ids )
+            {
+                if ( UuidCodec.isCanonical( id ) )
+                {
+                    UuidCodec.encode( id, buffer, 0 );
+                    out.writeByte( BINARY_UUID );
+                    out.write( buffer );
+                }
+                else
+                {
+                    out.writeByte( STRING_UUID );
+                    out.writeUTF( id );
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+
+    /**
+     * Reads the UUIDs stored in a file. A missing or invalid file gives an empty list.
+     *
+     * @param file The file to read
+     * @return The UUIDs
+     * @throws IOException If the file can't be read
+     */
+    static List<String> read( File file ) throws IOException
+    {
+        List<String> ids = new ArrayList<String>();
+
+        if ( !file.exists() )
+        {
+            return ids;
+        }
+
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        byte[] buffer = new byte[UuidCodec.LENGTH];
+
+        try
+        {
+            if ( ( in.readInt() != MAGIC ) || ( in.readByte() != VERSION ) )
+            {
+                LOG.warn( "Ignoring the invalid hot entries file {}", file );
+
+                return ids;
+            }
+
+            int count = in.readInt();
+
+            for ( int i = 0; i < count; i++ )
+            {
+                byte marker = in.readByte();
+
+                if ( marker == BINARY_UUID )
+                {
+                    in.readFully( buffer );
+                    ids.add( UuidCodec.decode( buffer, 0 ) );
+                }
+                else if ( marker == STRING_UUID )
+                {
+                    ids.add( in.readUTF() );
+                }
+                else
+                {
+                    LOG.warn( "Ignoring the end of the invalid hot entries file {}", file );
+
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return ids;
+    }
+}
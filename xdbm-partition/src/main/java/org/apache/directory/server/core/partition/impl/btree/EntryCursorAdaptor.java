@@ -30,9 +30,11 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.core.api.metrics.Counter;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.cursor.ParallelEvaluationCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +55,12 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition counter of scanned entries, may be null */
+    private final Counter entriesScannedCounter;
+
+    /** The number of candidates evaluated by this cursor, added to the counter when closed */
+    private long entriesScanned;
+
 
     public EntryCursorAdaptor( AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -61,8 +69,9 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Creating EntryCursorAdaptor {}", this );
         }
 
-        indexCursor = searchResult.getResultSet();
+        indexCursor = searchResult.getResultCursor();
         evaluator = searchResult.getEvaluator();
+        entriesScannedCounter = db.getEntriesScannedCounter();
     }
 
 
@@ -131,6 +140,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         }
 
         indexCursor.close();
+        flushEntriesScanned();
     }
 
 
@@ -145,6 +155,26 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         }
 
         indexCursor.close( cause );
+        flushEntriesScanned();
+    }
+
+
+    /**
+     * Adds the number of evaluated candidates to the partition counter
+     */
+    private void flushEntriesScanned()
+    {
+        if ( indexCursor instanceof ParallelEvaluationCursor )
+        {
+            // The candidates have been evaluated by the cursor, we only got the matching ones
+            entriesScanned = ( ( ParallelEvaluationCursor ) indexCursor ).takeEvaluatedCount();
+        }
+
+        if ( ( entriesScannedCounter != null ) && ( entriesScanned != 0 ) )
+        {
+            entriesScannedCounter.add( entriesScanned );
+            entriesScanned = 0;
+        }
     }
 
 
@@ -163,6 +193,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     public Entry get() throws CursorException
     {
         IndexEntry<String, String> indexEntry = indexCursor.get();
+        entriesScanned++;
 
         try
         {
@@ -0,0 +1,513 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * An in-memory parent pointer tree mirroring the Rdn index of a partition. Each
+ * entry is represented by a node holding the ID of its parent and its Rdns, so
+ * building the Dn of an entry, or checking that an entry is below another one, is
+ * a simple walk up the tree.
+ * <br>
+ * Nodes are loaded from the Rdn index the first time they are needed. The number of
+ * loaded nodes is bounded : once the limit is reached, the nodes which have not been
+ * used recently are evicted, and will be loaded again if needed. As a node only knows
+ * the ID of its parent, evicting a node never leaves a stale ancestor in the tree.
+ * The partition must keep the tree in sync with the Rdn index on add, delete, move
+ * and rename.
+ * <br>
+ * The Dn of a node is computed once and kept until the node or one of its ancestors
+ * is moved or renamed, or until the node is evicted. Each node remembers the tree
+ * version of its last move or rename, so a move only invalidates the Dns of the
+ * moved subtree. As an evicted node forgets it, a reloaded node is considered as
+ * modified at the last modification of an unloaded node. The computed Dns hold the
+ * Rdn instances of the nodes, which are then shared by all the Dns of a subtree.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryDnTree
+{
+    /** The default maximum number of loaded nodes */
+    public static final int DEFAULT_MAX_NODES = 100000;
+
+    /** The Rdn index used to load the missing nodes */
+    private final Index<ParentIdAndRdn, String> rdnIdx;
+
+    /** The schemaManager used to create the Dns */
+    private final SchemaManager schemaManager;
+
+    /** The maximum number of loaded nodes */
+    private final int maxNodes;
+
+    /** The loaded nodes, by entry ID */
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+
+    /** Incremented each time a move or a rename invalidates some computed Dns */
+    private volatile long version;
+
+    /** The version of the last move or rename of a node which is not loaded anymore */
+    private volatile long unloadedVersion;
+
+
+    /**
+     * A node in the tree. The parent ID is the root ID for the context entry.
+     */
+    private static final class Node
+    {
+        private final String id;
+        private volatile String parentId;
+        private volatile Rdn[] rdns;
+        private volatile CachedDn cachedDn;
+
+        /** The tree version of the last move or rename of this node */
+        private volatile long modifiedVersion;
+
+        /** Set when the node is used, cleared when the eviction spares it */
+        private volatile boolean used = true;
+
+
+        private Node( String id, String parentId, Rdn[] rdns, long modifiedVersion )
+        {
+            this.id = id;
+            this.parentId = parentId;
+            this.rdns = rdns;
+            this.modifiedVersion = modifiedVersion;
+        }
+    }
+
+
+    /**
+     * A Dn associated with the tree version it has been computed with
+     */
+    private static final class CachedDn
+    {
+        private final Dn dn;
+        private final long version;
+
+
+        private CachedDn( Dn dn, long version )
+        {
+            this.dn = dn;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntryDnTree, loading at most {@link #DEFAULT_MAX_NODES} nodes.
+     *
+     * @param rdnIdx The Rdn index this tree mirrors
+     * @param schemaManager The SchemaManager
+     */
+    public EntryDnTree( Index<ParentIdAndRdn, String> rdnIdx, SchemaManager schemaManager )
+    {
+        this( rdnIdx, schemaManager, DEFAULT_MAX_NODES );
+    }
+
+
+    /**
+     * Creates a new instance of EntryDnTree.
+     *
+     * @param rdnIdx The Rdn index this tree mirrors
+     * @param schemaManager The SchemaManager
+     * @param maxNodes The maximum number of loaded nodes
+     */
+    public EntryDnTree( Index<ParentIdAndRdn, String> rdnIdx, SchemaManager schemaManager, int maxNodes )
+    {
+        this.rdnIdx = rdnIdx;
+        this.schemaManager = schemaManager;
+        this.maxNodes = Math.max( 1, maxNodes );
+    }
+
+
+    /**
+     * Gets the Dn of an entry
+     *
+     * @param id The entry ID
+     * @return The entry Dn, or null if the entry does not exist
+     * @throws Exception If the Rdn index can't be read
+     */
+    public Dn getDn( String id ) throws Exception
+    {
+        Node node = resolve( id );
+
+        if ( node == null )
+        {
+            return null;
+        }
+
+        long currentVersion = version;
+        CachedDn cachedDn = node.cachedDn;
+
+        if ( ( cachedDn != null ) && isValid( node, cachedDn ) )
+        {
+            return cachedDn.dn;
+        }
+
+        // Create an array of 10 rdns, just in case. We will extend it if needed
+        Rdn[] rdnArray = new Rdn[10];
+        int pos = 0;
+
+        Node current = node;
+
+        while ( true )
+        {
+            for ( Rdn rdn : current.rdns )
+            {
+                if ( pos == rdnArray.length )
+                {
+                    rdnArray = Arrays.copyOf( rdnArray, pos + 10 );
+                }
+
+                rdnArray[pos++] = rdn;
+            }
+
+            String parentId = current.parentId;
+
+            if ( Partition.ROOT_ID.equals( parentId ) )
+            {
+                break;
+            }
+
+            current = resolve( parentId );
+
+            if ( current == null )
+            {
+                // An ancestor is missing in the Rdn index
+                return null;
+            }
+        }
+
+        Dn dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
+        node.cachedDn = new CachedDn( dn, currentVersion );
+
+        return dn;
+    }
+
+
+    /**
+     * Gets the Dn of an entry if it has already been computed and is still valid.
+     * Nothing is loaded from the Rdn index, so this method can be called without
+     * holding the partition lock.
+     *
+     * @param id The entry ID
+     * @return The entry Dn, or null if it's not available in memory
+     */
+    public Dn peekDn( String id )
+    {
+        Node node = nodes.get( id );
+
+        if ( node == null )
+        {
+            return null;
+        }
+
+        CachedDn cachedDn = node.cachedDn;
+
+        if ( ( cachedDn != null ) && isValid( node, cachedDn ) )
+        {
+            node.used = true;
+
+            return cachedDn.dn;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Tells if a computed Dn is still valid : neither the node nor its ancestors have
+     * been moved or renamed since it has been computed. Nothing is loaded : if an
+     * ancestor is not loaded anymore, the Dn has to be computed again.
+     *
+     * @param node The node the Dn has been computed for
+     * @param cachedDn The computed Dn
+     */
+    private boolean isValid( Node node, CachedDn cachedDn )
+    {
+        if ( cachedDn.version == version )
+        {
+            // Nothing has been moved or renamed since
+            return true;
+        }
+
+        Node current = node;
+
+        while ( true )
+        {
+            if ( current.modifiedVersion > cachedDn.version )
+            {
+                return false;
+            }
+
+            String parentId = current.parentId;
+
+            if ( Partition.ROOT_ID.equals( parentId ) )
+            {
+                return true;
+            }
+
+            current = nodes.get( parentId );
+
+            if ( current == null )
+            {
+                return false;
+            }
+        }
+    }
+
+
+    /**
+     * Gets the ID of the parent of an entry
+     *
+     * @param id The entry ID
+     * @return The parent ID, or null if the entry does not exist
+     * @throws Exception If the Rdn index can't be read
+     */
+    public String getParentId( String id ) throws Exception
+    {
+        Node node = resolve( id );
+
+        if ( node == null )
+        {
+            return null;
+        }
+
+        return node.parentId;
+    }
+
+
+    /**
+     * Tells if an entry is a descendant of another entry. An entry is not its
+     * own descendant.
+     *
+     * @param id The candidate entry ID
+     * @param ancestorId The ancestor entry ID
+     * @return true if the candidate is below the ancestor
+     * @throws Exception If the Rdn index can't be read
+     */
+    public boolean isDescendant( String id, String ancestorId ) throws Exception
+    {
+        Node node = resolve( id );
+
+        if ( ( node == null ) || ( ancestorId == null ) )
+        {
+            return false;
+        }
+
+        String parentId = node.parentId;
+
+        while ( !Partition.ROOT_ID.equals( parentId ) )
+        {
+            if ( parentId.equals( ancestorId ) )
+            {
+                return true;
+            }
+
+            Node parent = resolve( parentId );
+
+            if ( parent == null )
+            {
+                return false;
+            }
+
+            parentId = parent.parentId;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Adds a newly created entry in the tree.
+     *
+     * @param id The entry ID
+     * @param parentIdAndRdn The entry's parent ID and Rdns, as stored in the Rdn index
+     */
+    public void add( String id, ParentIdAndRdn parentIdAndRdn )
+    {
+        nodes.put( id, new Node( id, parentIdAndRdn.getParentId(), parentIdAndRdn.getRdns(), 0L ) );
+        evictIfNeeded();
+    }
+
+
+    /**
+     * Updates the position of a moved or renamed entry. The Dns computed for
+     * this entry and its descendants are invalidated, the other ones are kept.
+     *
+     * @param id The entry ID
+     * @param parentIdAndRdn The entry's new parent ID and Rdns, as stored in the Rdn index
+     */
+    public void update( String id, ParentIdAndRdn parentIdAndRdn )
+    {
+        Node node = nodes.get( id );
+
+        if ( node != null )
+        {
+            node.rdns = parentIdAndRdn.getRdns();
+            node.parentId = parentIdAndRdn.getParentId();
+
+            // Invalidate the Dns once the node has been modified, so that a Dn computed
+            // while the node was being modified is not kept
+            synchronized ( nodes )
+            {
+                node.modifiedVersion = ++version;
+            }
+        }
+        else
+        {
+            // The descendants of the entry may be loaded, and they will load it
+            synchronized ( nodes )
+            {
+                unloadedVersion = ++version;
+            }
+        }
+    }
+
+
+    /**
+     * Removes a deleted entry from the tree.
+     *
+     * @param id The entry ID
+     */
+    public void remove( String id )
+    {
+        nodes.remove( id );
+    }
+
+
+    /**
+     * Removes all the loaded nodes.
+     */
+    public void clear()
+    {
+        synchronized ( nodes )
+        {
+            nodes.clear();
+            unloadedVersion = ++version;
+        }
+    }
+
+
+    /**
+     * @return The number of nodes currently loaded
+     */
+    public int size()
+    {
+        return nodes.size();
+    }
+
+
+    /**
+     * Gets the node for an entry, loading it from the Rdn index if needed. Its
+     * ancestors are loaded when the tree is walked up.
+     */
+    private Node resolve( String id ) throws Exception
+    {
+        if ( id == null )
+        {
+            return null;
+        }
+
+        Node node = nodes.get( id );
+
+        if ( node != null )
+        {
+            node.used = true;
+
+            return node;
+        }
+
+        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( id );
+
+        if ( parentIdAndRdn == null )
+        {
+            return null;
+        }
+
+        // The node may have been moved or renamed while it was not loaded
+        node = new Node( id, parentIdAndRdn.getParentId(), parentIdAndRdn.getRdns(), unloadedVersion );
+        Node existing = nodes.putIfAbsent( id, node );
+
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        evictIfNeeded();
+
+        return node;
+    }
+
+
+    /**
+     * Evicts the nodes which have not been used recently once there are too many
+     * loaded nodes. A node used since the previous eviction is spared once : this
+     * is the second chance algorithm, an approximation of a LRU which does not
+     * need to reorder the nodes on each access.
+     */
+    private void evictIfNeeded()
+    {
+        if ( nodes.size() <= maxNodes )
+        {
+            return;
+        }
+
+        synchronized ( nodes )
+        {
+            // Free a quarter of the nodes, so that we don't evict on each load
+            int target = maxNodes - ( maxNodes / 4 );
+
+            for ( int pass = 0; ( pass < 2 ) && ( nodes.size() > target ); pass++ )
+            {
+                Iterator<Node> iterator = nodes.values().iterator();
+
+                while ( iterator.hasNext() && ( nodes.size() > target ) )
+                {
+                    Node node = iterator.next();
+
+                    if ( node.used )
+                    {
+                        node.used = false;
+                    }
+                    else
+                    {
+                        // Remember its modification, which would otherwise be lost
+                        unloadedVersion = Math.max( unloadedVersion, node.modifiedVersion );
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -52,6 +52,18 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** Tells if this index should be completed by a n-gram index for substring searches */
+    protected boolean ngramIndexed;
+
+    /** Tells if this index should be completed by a reverse key index for suffix searches */
+    protected boolean reverseKeyIndexed;
+
+    /** Tells if this index should be completed by a phonetic index for approximate searches */
+    protected boolean phoneticIndexed;
+
+    /** The suffix added to the attribute OID to name the index storage, for derived indices */
+    protected String storageSuffix = "";
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -142,6 +154,99 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     }
 
 
+    /**
+     * @return true if this index is completed by a n-gram index
+     */
+    public boolean isNgramIndexed()
+    {
+        return ngramIndexed;
+    }
+
+
+    /**
+     * Tells the partition to maintain a n-gram index next to this index, so that substring
+     * filters without an initial component, like (cn=*foo*), don't have to scan the whole
+     * index. The attribute must have a human readable syntax and the index a reverse table.
+     *
+     * @param ngramIndexed true to build a n-gram index for this attribute
+     */
+    public void setNgramIndexed( boolean ngramIndexed )
+    {
+        protect( "ngramIndexed" );
+        this.ngramIndexed = ngramIndexed;
+    }
+
+
+    /**
+     * @return true if this index is completed by a reverse key index
+     */
+    public boolean isReverseKeyIndexed()
+    {
+        return reverseKeyIndexed;
+    }
+
+
+    /**
+     * Tells the partition to maintain an index of the reversed values next to this index,
+     * so that substring filters with only a final component, like (mail=*@example.com),
+     * are range scans instead of full index scans. The attribute must have a human readable
+     * syntax and the index a reverse table.
+     *
+     * @param reverseKeyIndexed true to build a reverse key index for this attribute
+     */
+    public void setReverseKeyIndexed( boolean reverseKeyIndexed )
+    {
+        protect( "reverseKeyIndexed" );
+        this.reverseKeyIndexed = reverseKeyIndexed;
+    }
+
+
+    /**
+     * @return true if this index is completed by a phonetic index
+     */
+    public boolean isPhoneticIndexed()
+    {
+        return phoneticIndexed;
+    }
+
+
+    /**
+     * Tells the partition to maintain an index of the phonetic keys of the values next to
+     * this index, so that approximate filters, like (cn~=jon smyth), match the values which
+     * sound alike using an index lookup. Without it, they are evaluated as equality filters.
+     * The attribute must have a human readable syntax and the index a reverse table.
+     *
+     * @param phoneticIndexed true to build a phonetic index for this attribute
+     */
+    public void setPhoneticIndexed( boolean phoneticIndexed )
+    {
+        protect( "phoneticIndexed" );
+        this.phoneticIndexed = phoneticIndexed;
+    }
+
+
+    /**
+     * Sets the suffix added to the attribute OID to name the index storage. This is used
+     * by the indices derived from an attribute index, which must not share its storage.
+     *
+     * @param storageSuffix the suffix
+     */
+    public void setStorageSuffix( String storageSuffix )
+    {
+        protect( "storageSuffix" );
+        this.storageSuffix = storageSuffix;
+    }
+
+
+    /**
+     * @return The name of the index storage : the attribute OID, followed by the storage suffix
+     */
+    protected String getStorageName()
+    {
+        return attributeType.getOid() + storageSuffix;
+    }
+
+
     /**
      * Protects configuration properties from being set after initialization.
      *
@@ -156,6 +261,39 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     }
 
 
+    /**
+     * Gets the number of values starting with a prefix, as the difference between the
+     * number of values greater than the prefix and the number of values greater than
+     * the following prefix. If the index does not count the values exactly, this is
+     * the number of values greater than the prefix.
+     *
+     * @param index The index to count the values in
+     * @param prefix The values prefix
+     * @return The number of values starting with the prefix
+     * @throws Exception If the index can't be read
+     */
+    public static long prefixCount( Index<String, ?> index, String prefix ) throws Exception
+    {
+        long count = index.greaterThanCount( prefix );
+        int length = prefix.length();
+
+        if ( ( length == 0 ) || ( prefix.charAt( length - 1 ) == Character.MAX_VALUE ) )
+        {
+            return count;
+        }
+
+        String next = prefix.substring( 0, length - 1 ) + ( char ) ( prefix.charAt( length - 1 ) + 1 );
+        long beyond = index.greaterThanCount( next );
+
+        if ( beyond < count )
+        {
+            return count - beyond;
+        }
+
+        return count;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,386 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.net.URI;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
+
+
+/**
+ * A base class for the indices completing an attribute index with some derived
+ * data, like the {@link NgramIndex} and the {@link ReverseKeyIndex}. All the methods
+ * are delegated to the decorated index : the implementations override the update
+ * methods to maintain their own data, and add some specific lookup methods. As an
+ * attribute may have more than one derived index, the decorators can be chained.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class AbstractIndexDecorator implements Index<String, String>
+{
+    /** The decorated index */
+    protected final Index<String, String> index;
+
+
+    /**
+     * Creates a new instance of AbstractIndexDecorator.
+     *
+     * @param index The decorated index
+     */
+    protected AbstractIndexDecorator( Index<String, String> index )
+    {
+        this.index = index;
+    }
+
+
+    /**
+     * @return The decorated index
+     */
+    public Index<String, String> getDecoratedIndex()
+    {
+        return index;
+    }
+
+
+    /**
+     * Looks for a decorator of a given type in a chain of decorators.
+     *
+     * @param index The index to look into
+     * @param type The decorator type
+     * @return The decorator, or null if the index isn't decorated by such a decorator
+     */
+    public static <T extends AbstractIndexDecorator> T find( Index<?, ?> index, Class<T> type )
+    {
+        while ( index instanceof AbstractIndexDecorator )
+        {
+            if ( type.isInstance( index ) )
+            {
+                return type.cast( index );
+            }
+
+            index = ( ( AbstractIndexDecorator ) index ).getDecoratedIndex();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the normalizer to apply to the components of a substring filter, the same
+     * way the SubstringNode regexp is built.
+     *
+     * @param attributeType The filter attribute
+     * @return The normalizer of the substring matching rule, or of the equality one
+     */
+    protected static Normalizer getSubstringNormalizer( AttributeType attributeType )
+    {
+        MatchingRule rule = attributeType.getSubstring();
+
+        if ( rule == null )
+        {
+            rule = attributeType.getEquality();
+        }
+
+        if ( rule != null )
+        {
+            return rule.getNormalizer();
+        }
+        else
+        {
+            return new NoOpNormalizer( attributeType.getSyntaxOid() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getAttributeId()
+    {
+        return index.getAttributeId();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAttributeId( String attributeId )
+    {
+        index.setAttributeId( attributeId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCacheSize()
+    {
+        return index.getCacheSize();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCacheSize( int cacheSize )
+    {
+        index.setCacheSize( cacheSize );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setWkDirPath( URI wkDirPath )
+    {
+        index.setWkDirPath( wkDirPath );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public URI getWkDirPath()
+    {
+        return index.getWkDirPath();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public AttributeType getAttribute()
+    {
+        return index.getAttribute();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count() throws Exception
+    {
+        return index.count();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( String attrVal ) throws Exception
+    {
+        return index.count( attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long greaterThanCount( String attrVal ) throws Exception
+    {
+        return index.greaterThanCount( attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lessThanCount( String attrVal ) throws Exception
+    {
+        return index.lessThanCount( attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String forwardLookup( String attrVal ) throws Exception
+    {
+        return index.forwardLookup( attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String reverseLookup( String id ) throws LdapException
+    {
+        return index.reverseLookup( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void add( String attrVal, String id ) throws Exception
+    {
+        index.add( attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void drop( String entryId ) throws Exception
+    {
+        index.drop( entryId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void drop( String attrVal, String id ) throws Exception
+    {
+        index.drop( attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<IndexEntry<String, String>> reverseCursor() throws Exception
+    {
+        return index.reverseCursor();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<IndexEntry<String, String>> forwardCursor() throws LdapException
+    {
+        return index.forwardCursor();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<IndexEntry<String, String>> reverseCursor( String id ) throws Exception
+    {
+        return index.reverseCursor( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<IndexEntry<String, String>> forwardCursor( String key ) throws Exception
+    {
+        return index.forwardCursor( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<String> reverseValueCursor( String id ) throws Exception
+    {
+        return index.reverseValueCursor( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<String> forwardValueCursor( String key ) throws Exception
+    {
+        return index.forwardValueCursor( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean forward( String attrVal ) throws Exception
+    {
+        return index.forward( attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean forward( String attrVal, String id ) throws LdapException
+    {
+        return index.forward( attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean reverse( String id ) throws Exception
+    {
+        return index.reverse( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean reverse( String id, String attrVal ) throws Exception
+    {
+        return index.reverse( id, attrVal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws Exception
+    {
+        index.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        index.sync();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDupsEnabled()
+    {
+        return index.isDupsEnabled();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasReverse()
+    {
+        return index.hasReverse();
+    }
+}
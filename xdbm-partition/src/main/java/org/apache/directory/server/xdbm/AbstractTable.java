@@ -23,7 +23,11 @@ package org.apache.directory.server.xdbm;
 import java.io.IOException;
 import java.util.Comparator;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.i18n.I18n;
 
@@ -59,6 +63,24 @@ public abstract class AbstractTable<K, V> implements Table<K, V>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The default number of values browsed to count the ranks, each time a range is counted */
+    public static final long DEFAULT_RANK_BUILD_STEP = 10000L;
+
+    /** The number of values per key, null until a range is counted */
+    private volatile KeyRankTree<K> ranks;
+
+    /** The first key not counted yet in the ranks, null before the first and after the last step */
+    private K nextRankKey;
+
+    /** Tells if all the keys have been counted in the ranks */
+    private volatile boolean ranksComplete;
+
+    /** Protects the ranks, which are read by the counts and updated by the writes */
+    private final ReadWriteLock ranksLock = new ReentrantReadWriteLock();
+
+    /** The number of values browsed to count the ranks, each time a range is counted */
+    private volatile long rankBuildStep = DEFAULT_RANK_BUILD_STEP;
+
 
     /**
      * Create an instance of Table
@@ -125,6 +147,257 @@ public abstract class AbstractTable<K, V> implements Table<K, V>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public long greaterThanCount( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return count;
+        }
+
+        buildRanks();
+
+        ranksLock.readLock().lock();
+
+        try
+        {
+            if ( ranks == null )
+            {
+                // A concurrent step has failed, nothing is counted
+                return count / 2L;
+            }
+
+            if ( ranksComplete )
+            {
+                return ranks.greaterOrEqualCount( key );
+            }
+
+            // The values not counted yet are all stored under keys above the counted ones
+            long uncounted = Math.max( 0L, count - ranks.size() );
+
+            if ( keyComparator.compare( key, nextRankKey ) < 0 )
+            {
+                return uncounted + ranks.greaterOrEqualCount( key );
+            }
+
+            return uncounted / 2L;
+        }
+        finally
+        {
+            ranksLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lessThanCount( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return count;
+        }
+
+        buildRanks();
+
+        ranksLock.readLock().lock();
+
+        try
+        {
+            if ( ranks == null )
+            {
+                // A concurrent step has failed, nothing is counted
+                return count / 2L;
+            }
+
+            if ( ranksComplete || ( keyComparator.compare( key, nextRankKey ) < 0 ) )
+            {
+                return ranks.lessOrEqualCount( key );
+            }
+
+            long counted = ranks.size();
+
+            return counted + Math.max( 0L, count - counted ) / 2L;
+        }
+        finally
+        {
+            ranksLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the number of values browsed to count the ranks each time a range is counted.
+     *
+     * @return The number of values browsed per range count, until all the keys are counted
+     */
+    public long getRankBuildStep()
+    {
+        return rankBuildStep;
+    }
+
+
+    /**
+     * Sets the number of values browsed to count the ranks each time a range is
+     * counted. The ranks are built step by step, so that no search has to browse
+     * the whole table. Until all the keys are counted, the counts of the ranges
+     * below the last counted key are exact, the others are estimated.
+     *
+     * @param rankBuildStep The number of values browsed per range count
+     */
+    public void setRankBuildStep( long rankBuildStep )
+    {
+        this.rankBuildStep = Math.max( 1L, rankBuildStep );
+    }
+
+
+    /**
+     * Updates the number of values stored under a key in the ranks, if this key
+     * has already been counted. The implementations must call it each time they
+     * add or remove some values, once the count has been updated. The keys not
+     * counted yet will be counted by the next steps of the build.
+     *
+     * @param key The modified key
+     * @param delta The number of added values, negative if some values have been removed
+     */
+    protected void updateRanks( K key, long delta )
+    {
+        if ( ranks == null )
+        {
+            // Nothing to maintain, the tables never used in a range don't lock anything
+            return;
+        }
+
+        ranksLock.writeLock().lock();
+
+        try
+        {
+            if ( ( ranks != null ) && ( ranksComplete || ( keyComparator.compare( key, nextRankKey ) < 0 ) ) )
+            {
+                ranks.add( key, delta );
+            }
+        }
+        finally
+        {
+            ranksLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Counts the values of the next keys in the ranks, browsing at most a step of
+     * values, rounded up to the last values of a key, from the first key not counted
+     * yet. The ranks are then maintained by the updates, so only the tables used in
+     * range filters pay for them, and each range count browses a bounded part of
+     * the table until all the keys are counted.
+     * <br>
+     * The table is browsed holding the write lock on the ranks, so the concurrent
+     * counts wait for the step. The table's writers are supposed to be excluded by
+     * the partition lock the counting search holds.
+     *
+     * @throws Exception If the table can't be read
+     */
+    private void buildRanks() throws Exception
+    {
+        if ( ranksComplete )
+        {
+            return;
+        }
+
+        ranksLock.writeLock().lock();
+
+        try
+        {
+            if ( ranksComplete )
+            {
+                return;
+            }
+
+            if ( ranks == null )
+            {
+                ranks = new KeyRankTree<K>( keyComparator );
+            }
+
+            Cursor<Tuple<K, V>> cursor = cursor();
+
+            try
+            {
+                if ( nextRankKey == null )
+                {
+                    cursor.beforeFirst();
+                }
+                else
+                {
+                    cursor.before( new Tuple<K, V>( nextRankKey, null ) );
+                }
+
+                K current = null;
+                long nbValues = 0L;
+                long browsed = 0L;
+
+                while ( cursor.next() )
+                {
+                    K key = cursor.get().getKey();
+
+                    if ( ( nbValues > 0L ) && ( keyComparator.compare( current, key ) == 0 ) )
+                    {
+                        nbValues++;
+                    }
+                    else
+                    {
+                        ranks.add( current, nbValues );
+
+                        if ( browsed >= rankBuildStep )
+                        {
+                            // The step is done, the next one will start with this key
+                            nextRankKey = key;
+
+                            return;
+                        }
+
+                        current = key;
+                        nbValues = 1L;
+                    }
+
+                    browsed++;
+                }
+
+                ranks.add( current, nbValues );
+                nextRankKey = null;
+                ranksComplete = true;
+            }
+            finally
+            {
+                cursor.close();
+            }
+        }
+        catch ( Exception e )
+        {
+            // A partially counted step can't be resumed, the ranks will be counted again
+            ranks = null;
+            nextRankKey = null;
+
+            throw e;
+        }
+        finally
+        {
+            ranksLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return true if the number of values per key has been counted for all the keys
+     */
+    public boolean hasRanks()
+    {
+        return ranksComplete;
+    }
+
+
     /**
      * @see Object#toString()
      */
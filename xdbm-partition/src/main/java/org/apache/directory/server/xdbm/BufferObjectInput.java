@@ -0,0 +1,415 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * An unsynchronized ObjectInput reading primitives from a byte array, the
+ * counterpart of {@link BufferObjectOutput}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class BufferObjectInput implements ObjectInput
+{
+    /** The buffer */
+    private final byte[] buffer;
+
+    /** The current position in the buffer */
+    private int pos;
+
+    /** The position after the last readable byte */
+    private final int end;
+
+
+    /**
+     * Creates a new instance of BufferObjectInput.
+     *
+     * @param buffer The buffer to read
+     * @param pos The first byte to read
+     * @param length The number of readable bytes
+     */
+    BufferObjectInput( byte[] buffer, int pos, int length )
+    {
+        this.buffer = buffer;
+        this.pos = pos;
+        this.end = pos + length;
+    }
+
+
+    /**
+     * @return The current position in the buffer
+     */
+    int getPosition()
+    {
+        return pos;
+    }
+
+
+    /**
+     * Moves to a given position in the buffer
+     */
+    void setPosition( int position )
+    {
+        pos = position;
+    }
+
+
+    private void require( int nb ) throws EOFException
+    {
+        if ( pos + nb > end )
+        {
+            throw new EOFException();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readFully( byte[] b ) throws IOException
+    {
+        readFully( b, 0, b.length );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readFully( byte[] b, int off, int len ) throws IOException
+    {
+        require( len );
+        System.arraycopy( buffer, pos, b, off, len );
+        pos += len;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int skipBytes( int n )
+    {
+        int skipped = Math.max( 0, Math.min( n, end - pos ) );
+        pos += skipped;
+
+        return skipped;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean readBoolean() throws IOException
+    {
+        return readByte() != 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte readByte() throws IOException
+    {
+        require( 1 );
+
+        return buffer[pos++];
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readUnsignedByte() throws IOException
+    {
+        return readByte() & 0xFF;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public short readShort() throws IOException
+    {
+        return ( short ) readUnsignedShort();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readUnsignedShort() throws IOException
+    {
+        require( 2 );
+        int value = ( ( buffer[pos] & 0xFF ) << 8 ) | ( buffer[pos + 1] & 0xFF );
+        pos += 2;
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public char readChar() throws IOException
+    {
+        return ( char ) readUnsignedShort();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int readInt() throws IOException
+    {
+        require( 4 );
+        int value = ( ( buffer[pos] & 0xFF ) << 24 ) | ( ( buffer[pos + 1] & 0xFF ) << 16 )
+            | ( ( buffer[pos + 2] & 0xFF ) << 8 ) | ( buffer[pos + 3] & 0xFF );
+        pos += 4;
+
+        return value;
+    }
+
+
+    /**
+     * Reads an unsigned int written by {@link BufferObjectOutput#writeVarInt(int)}
+     *
+     * @return The read value
+     * @throws IOException If the value is truncated or too long
+     */
+    int readVarInt() throws IOException
+    {
+        int value = 0;
+
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            byte b = readByte();
+            value |= ( b & 0x7F ) << shift;
+
+            if ( b >= 0 )
+            {
+                return value;
+            }
+        }
+
+        throw new IOException( "Malformed variable length int" );
+    }
+
+
+    /**
+     * Reads a String written by {@link BufferObjectOutput#writeString(String)}
+     *
+     * @return The read String
+     * @throws IOException If the String is truncated
+     */
+    String readString() throws IOException
+    {
+        return readUtf8( readVarInt() );
+    }
+
+
+    /**
+     * Reads a String from some UTF-8 bytes
+     *
+     * @param length The number of bytes to read
+     * @return The read String
+     * @throws IOException If the String is truncated
+     */
+    String readUtf8( int length ) throws IOException
+    {
+        require( length );
+        String value = Strings.utf8ToString( buffer, pos, length );
+        pos += length;
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long readLong() throws IOException
+    {
+        return ( ( long ) readInt() << 32 ) | ( readInt() & 0xFFFFFFFFL );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public float readFloat() throws IOException
+    {
+        return Float.intBitsToFloat( readInt() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public double readDouble() throws IOException
+    {
+        return Double.longBitsToDouble( readLong() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String readLine()
+    {
+        if ( pos >= end )
+        {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        while ( pos < end )
+        {
+            char c = ( char ) ( buffer[pos++] & 0xFF );
+
+            if ( c == '\n' )
+            {
+                break;
+            }
+
+            if ( c == '\r' )
+            {
+                if ( ( pos < end ) && ( buffer[pos] == '\n' ) )
+                {
+                    pos++;
+                }
+
+                break;
+            }
+
+            sb.append( c );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String readUTF() throws IOException
+    {
+        return DataInputStream.readUTF( this );
+    }
+
+
+    /**
+     * Reads an object written by {@link BufferObjectOutput#writeObject(Object)} : its
+     * serialized form, prefixed by its length.
+     */
+    public Object readObject() throws ClassNotFoundException, IOException
+    {
+        int length = readVarInt();
+        require( length );
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer, pos, length ) );
+
+        try
+        {
+            return in.readObject();
+        }
+        finally
+        {
+            in.close();
+            pos += length;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read()
+    {
+        if ( pos >= end )
+        {
+            return -1;
+        }
+
+        return buffer[pos++] & 0xFF;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read( byte[] b )
+    {
+        return read( b, 0, b.length );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read( byte[] b, int off, int len )
+    {
+        if ( pos >= end )
+        {
+            return -1;
+        }
+
+        int nb = Math.min( len, end - pos );
+        System.arraycopy( buffer, pos, b, off, nb );
+        pos += nb;
+
+        return nb;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long skip( long n )
+    {
+        return skipBytes( ( int ) Math.min( n, Integer.MAX_VALUE ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int available()
+    {
+        return end - pos;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * An unsynchronized ObjectOutput writing primitives into a growing byte array. The
+ * Rdns, Attributes and Values only write primitives in their writeExternal() method,
+ * so we don't need the ObjectOutputStream machinery to serialize them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class BufferObjectOutput implements ObjectOutput
+{
+    /** The buffer */
+    private byte[] buffer;
+
+    /** The number of bytes written so far */
+    private int pos;
+
+
+    /**
+     * Creates a new instance of BufferObjectOutput.
+     *
+     * @param size The initial buffer size
+     */
+    BufferObjectOutput( int size )
+    {
+        buffer = new byte[size];
+    }
+
+
+    /**
+     * @return The number of bytes written so far
+     */
+    int size()
+    {
+        return pos;
+    }
+
+
+    /**
+     * Discards the written bytes, keeping the buffer
+     */
+    void reset()
+    {
+        pos = 0;
+    }
+
+
+    /**
+     * Appends the written bytes to another output
+     *
+     * @param out The output to write to
+     */
+    void writeTo( BufferObjectOutput out )
+    {
+        out.write( buffer, 0, pos );
+    }
+
+
+    /**
+     * Writes an unsigned int using 7 bits per byte, the high bit telling if
+     * another byte follows. Values below 128 only use one byte.
+     *
+     * @param v The value to write, considered as unsigned
+     */
+    void writeVarInt( int v )
+    {
+        while ( ( v & ~0x7F ) != 0 )
+        {
+            write( ( v & 0x7F ) | 0x80 );
+            v >>>= 7;
+        }
+
+        write( v );
+    }
+
+
+    /**
+     * Writes a String as its UTF-8 bytes, prefixed by their number.
+     *
+     * @param s The String to write
+     */
+    void writeString( String s )
+    {
+        byte[] bytes = Strings.getBytesUtf8( s );
+        writeVarInt( bytes.length );
+        write( bytes, 0, bytes.length );
+    }
+
+
+    /**
+     * @return A copy of the written bytes
+     */
+    byte[] toByteArray()
+    {
+        return Arrays.copyOf( buffer, pos );
+    }
+
+
+    private void ensureCapacity( int extra )
+    {
+        if ( pos + extra > buffer.length )
+        {
+            buffer = Arrays.copyOf( buffer, Math.max( buffer.length << 1, pos + extra ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write( int b )
+    {
+        ensureCapacity( 1 );
+        buffer[pos++] = ( byte ) b;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write( byte[] b )
+    {
+        write( b, 0, b.length );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write( byte[] b, int off, int len )
+    {
+        ensureCapacity( len );
+        System.arraycopy( b, off, buffer, pos, len );
+        pos += len;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeBoolean( boolean v )
+    {
+        write( v ? 1 : 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeByte( int v )
+    {
+        write( v );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeShort( int v )
+    {
+        ensureCapacity( 2 );
+        buffer[pos++] = ( byte ) ( v >>> 8 );
+        buffer[pos++] = ( byte ) v;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeChar( int v )
+    {
+        writeShort( v );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeInt( int v )
+    {
+        ensureCapacity( 4 );
+        writeIntAt( pos, v );
+        pos += 4;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeLong( long v )
+    {
+        writeInt( ( int ) ( v >>> 32 ) );
+        writeInt( ( int ) v );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeFloat( float v )
+    {
+        writeInt( Float.floatToIntBits( v ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeDouble( double v )
+    {
+        writeLong( Double.doubleToLongBits( v ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeBytes( String s )
+    {
+        int len = s.length();
+        ensureCapacity( len );
+
+        for ( int i = 0; i < len; i++ )
+        {
+            buffer[pos++] = ( byte ) s.charAt( i );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeChars( String s )
+    {
+        int len = s.length();
+
+        for ( int i = 0; i < len; i++ )
+        {
+            writeChar( s.charAt( i ) );
+        }
+    }
+
+
+    /**
+     * Writes a String using the modified UTF-8 encoding described in
+     * {@link java.io.DataOutput#writeUTF(String)}
+     */
+    public void writeUTF( String s ) throws UTFDataFormatException
+    {
+        int strlen = s.length();
+        int utflen = 0;
+
+        for ( int i = 0; i < strlen; i++ )
+        {
+            char c = s.charAt( i );
+
+            if ( ( c >= 0x0001 ) && ( c <= 0x007F ) )
+            {
+                utflen++;
+            }
+            else if ( c > 0x07FF )
+            {
+                utflen += 3;
+            }
+            else
+            {
+                utflen += 2;
+            }
+        }
+
+        if ( utflen > 65535 )
+        {
+            throw new UTFDataFormatException( "encoded string too long: " + utflen + " bytes" );
+        }
+
+        ensureCapacity( utflen + 2 );
+        buffer[pos++] = ( byte ) ( utflen >>> 8 );
+        buffer[pos++] = ( byte ) utflen;
+
+        for ( int i = 0; i < strlen; i++ )
+        {
+            char c = s.charAt( i );
+
+            if ( ( c >= 0x0001 ) && ( c <= 0x007F ) )
+            {
+                buffer[pos++] = ( byte ) c;
+            }
+            else if ( c > 0x07FF )
+            {
+                buffer[pos++] = ( byte ) ( 0xE0 | ( ( c >> 12 ) & 0x0F ) );
+                buffer[pos++] = ( byte ) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                buffer[pos++] = ( byte ) ( 0x80 | ( c & 0x3F ) );
+            }
+            else
+            {
+                buffer[pos++] = ( byte ) ( 0xC0 | ( ( c >> 6 ) & 0x1F ) );
+                buffer[pos++] = ( byte ) ( 0x80 | ( c & 0x3F ) );
+            }
+        }
+    }
+
+
+    /**
+     * Writes an object using the Java serialization, prefixed by its length. The Rdns,
+     * Attributes and Values never do it, so this is not optimized.
+     */
+    public void writeObject( Object obj ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+
+        try
+        {
+            out.writeObject( obj );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        byte[] bytes = baos.toByteArray();
+        writeVarInt( bytes.length );
+        write( bytes, 0, bytes.length );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * Encode and decode entries using a compact binary format, shared by the
+ * master tables. Like the previous format, we only store the entry's Rdn, not its Dn.
+ * <br>
+ * The structure used to store the entry is the following :
+ * <ul>
+ *   <li><b>[marker]</b> : a byte, {@link #MARKER}, to distinguish this format from the
+ *   former ObjectOutputStream based one, which always starts with 0xAC</li>
+ *   <li><b>[version]</b> : a byte, the format version</li>
+ *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+ *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
+ *   <li><b>[numberAttr]</b> : the number of attributes. Can be 0</li>
+ *   <li>For each Attribute :
+ *     <ul>
+ *       <li><b>[attribute's oid]</b> : The attribute's OID, two digits per byte</li>
+ *       <li><b>[length]</b> : The attribute's length</li>
+ *       <li><b>[attribute]</b> : The attribute</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * The reader uses the lengths to move from one attribute to the next one.
+ * <br>
+ * The human readable attributes are stored as their upId, only when it's not the attribute
+ * type's name, followed by their number of values and their up values. They are read back
+ * through the Attribute and Value constructors, which normalize the values. The other
+ * attributes are stored using their writeExternal() method. All the lengths and counts use
+ * one byte up to 127, and the OIDs are stored as their digits rather than as an index in the
+ * schema, so that an entry can still be read after a schema change.
+ * <br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryCodec
+{
+    /** The first byte of a serialized entry */
+    public static final byte MARKER = ( byte ) 0xE1;
+
+    /** The current format version */
+    public static final byte VERSION = 2;
+
+    /** An attribute stored using its writeExternal() method */
+    private static final byte EXTERNAL_ATTRIBUTE = 0;
+
+    /** A human readable attribute which upId is its attribute type's name */
+    private static final byte STRING_ATTRIBUTE = 1;
+
+    /** A human readable attribute followed by its upId */
+    private static final byte STRING_ATTRIBUTE_WITH_UP_ID = 2;
+
+    /** The nibble used to store the dots in the OIDs */
+    private static final int OID_DOT = 0x0A;
+
+    /** The initial size of the encoding buffer */
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /** The initial size of the buffer used to encode an attribute */
+    private static final int DEFAULT_ATTRIBUTE_BUFFER_SIZE = 256;
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of EntryCodec.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public EntryCodec( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * Tells if some bytes contain an entry encoded with this codec. If not, the
+     * entry has been stored using the former format.
+     *
+     * @param bytes The buffer containing the entry
+     * @param pos The entry's position in the buffer
+     * @return true if the entry has been encoded by this codec
+     */
+    public static boolean isEncoded( byte[] bytes, int pos )
+    {
+        return ( bytes.length > pos ) && ( bytes[pos] == MARKER );
+    }
+
+
+    /**
+     * Encodes an entry.
+     *
+     * @param entry The entry to encode
+     * @return The encoded entry
+     * @throws IOException If the entry can't be encoded
+     */
+    public byte[] encode( Entry entry ) throws IOException
+    {
+        BufferObjectOutput out = new BufferObjectOutput( DEFAULT_BUFFER_SIZE );
+
+        out.writeByte( MARKER );
+        out.writeByte( VERSION );
+
+        // The Dn
+        Dn dn = entry.getDn();
+
+        // Write the Rdn of the Dn
+        if ( dn.isEmpty() )
+        {
+            out.writeByte( 0 );
+        }
+        else
+        {
+            out.writeByte( 1 );
+            Rdn rdn = dn.getRdn();
+            rdn.writeExternal( out );
+        }
+
+        // Then the attributes, each one being preceded by its OID and length
+        Collection<Attribute> attributes = entry.getAttributes();
+        BufferObjectOutput attributeOut = new BufferObjectOutput( DEFAULT_ATTRIBUTE_BUFFER_SIZE );
+
+        out.writeVarInt( attributes.size() );
+
+        for ( Attribute attribute : attributes )
+        {
+            writeOid( out, attribute.getAttributeType().getOid() );
+
+            attributeOut.reset();
+            writeAttribute( attributeOut, attribute );
+
+            out.writeVarInt( attributeOut.size() );
+            attributeOut.writeTo( out );
+        }
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Writes an attribute, storing the values of the human readable ones as Strings.
+     */
+    private void writeAttribute( BufferObjectOutput out, Attribute attribute ) throws IOException
+    {
+        if ( !isStringAttribute( attribute ) )
+        {
+            out.writeByte( EXTERNAL_ATTRIBUTE );
+            attribute.writeExternal( out );
+
+            return;
+        }
+
+        String upId = attribute.getUpId();
+
+        if ( upId.equals( attribute.getAttributeType().getName() ) )
+        {
+            out.writeByte( STRING_ATTRIBUTE );
+        }
+        else
+        {
+            out.writeByte( STRING_ATTRIBUTE_WITH_UP_ID );
+            out.writeString( upId );
+        }
+
+        out.writeVarInt( attribute.size() );
+
+        for ( Value<?> value : attribute )
+        {
+            out.writeString( value.getString() );
+        }
+    }
+
+
+    /**
+     * Tells if an attribute can be stored as Strings : it has to be human readable, and
+     * all its values must have an up value and a normalized value.
+     */
+    private boolean isStringAttribute( Attribute attribute )
+    {
+        if ( !attribute.isHumanReadable() || ( attribute.getUpId() == null ) )
+        {
+            return false;
+        }
+
+        for ( Value<?> value : attribute )
+        {
+            if ( !( value instanceof StringValue ) || value.isNull() || ( value.getNormValue() == null ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Writes an OID, two digits per byte, a dot being stored as 0x0A, preceded by its
+     * number of characters.
+     */
+    private void writeOid( BufferObjectOutput out, String oid ) throws IOException
+    {
+        int length = oid.length();
+        out.writeVarInt( length );
+
+        for ( int i = 0; i < length; i += 2 )
+        {
+            int high = oidNibble( oid.charAt( i ) );
+            int low = ( i + 1 < length ) ? oidNibble( oid.charAt( i + 1 ) ) : 0;
+
+            out.writeByte( ( high << 4 ) | low );
+        }
+    }
+
+
+    private int oidNibble( char c ) throws IOException
+    {
+        if ( c == '.' )
+        {
+            return OID_DOT;
+        }
+
+        if ( ( c < '0' ) || ( c > '9' ) )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "invalid OID character " + c ) );
+        }
+
+        return c - '0';
+    }
+
+
+    /**
+     * Reads an OID written by {@link #writeOid(BufferObjectOutput, String)}
+     */
+    private String readOid( BufferObjectInput in ) throws IOException
+    {
+        int length = in.readVarInt();
+        char[] chars = new char[length];
+
+        for ( int i = 0; i < length; i += 2 )
+        {
+            int b = in.readUnsignedByte();
+            chars[i] = oidChar( b >>> 4 );
+
+            if ( i + 1 < length )
+            {
+                chars[i + 1] = oidChar( b & 0x0F );
+            }
+        }
+
+        return new String( chars );
+    }
+
+
+    private char oidChar( int nibble )
+    {
+        return ( nibble == OID_DOT ) ? '.' : ( char ) ( '0' + nibble );
+    }
+
+
+    /**
+     * Decodes an entry.
+     *
+     * @param bytes The buffer containing the entry
+     * @param pos The entry's position in the buffer
+     * @param length The entry's length
+     * @return The decoded entry
+     * @throws IOException If the entry can't be decoded
+     */
+    public Entry decode( byte[] bytes, int pos, int length ) throws IOException
+    {
+        BufferObjectInput in = new BufferObjectInput( bytes, pos, length );
+
+        try
+        {
+            byte marker = in.readByte();
+            byte version = in.readByte();
+
+            if ( ( marker != MARKER ) || ( version != VERSION ) )
+            {
+                throw new IOException( I18n.err( I18n.ERR_134, "unknown format " + marker + "/" + version ) );
+            }
+
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Dn, if any
+            byte hasDn = in.readByte();
+
+            if ( hasDn == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                entry.setDn( new Dn( schemaManager, rdn ) );
+            }
+            else
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            readAttributes( in, entry );
+
+            return entry;
+        }
+        catch ( LdapException le )
+        {
+            // Either the Rdn is invalid, or we weren't able to find the OID
+            IOException ioe = new IOException( I18n.err( I18n.ERR_134, le.getLocalizedMessage() ) );
+            ioe.initCause( le );
+            throw ioe;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            IOException ioe = new IOException( I18n.err( I18n.ERR_134, cnfe.getLocalizedMessage() ) );
+            ioe.initCause( cnfe );
+            throw ioe;
+        }
+    }
+
+
+    /**
+     * Reads the attributes, each one being preceded by its OID and length
+     */
+    private void readAttributes( BufferObjectInput in, Entry entry ) throws IOException, LdapException,
+        ClassNotFoundException
+    {
+        int nbAttributes = in.readVarInt();
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            String oid = readOid( in );
+            int attributeLength = in.readVarInt();
+            int next = in.getPosition() + attributeLength;
+
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+            Attribute attribute;
+            byte kind = in.readByte();
+
+            switch ( kind )
+            {
+                case EXTERNAL_ATTRIBUTE:
+                    attribute = new DefaultAttribute( attributeType );
+                    attribute.readExternal( in );
+                    break;
+
+                case STRING_ATTRIBUTE:
+                    attribute = readStringAttribute( in, attributeType.getName(), attributeType );
+                    break;
+
+                case STRING_ATTRIBUTE_WITH_UP_ID:
+                    attribute = readStringAttribute( in, in.readString(), attributeType );
+                    break;
+
+                default:
+                    throw new IOException( I18n.err( I18n.ERR_134, "unknown attribute kind " + kind ) );
+            }
+
+            entry.add( attribute );
+            in.setPosition( next );
+        }
+    }
+
+
+    /**
+     * Reads the up values of a human readable attribute, written by
+     * {@link #writeAttribute(BufferObjectOutput, Attribute)}
+     */
+    private Attribute readStringAttribute( BufferObjectInput in, String upId, AttributeType attributeType )
+        throws IOException, LdapException
+    {
+        Attribute attribute = new DefaultAttribute( upId, attributeType );
+        int nbValues = in.readVarInt();
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            attribute.add( new StringValue( attributeType, in.readString() ) );
+        }
+
+        return attribute;
+    }
+}
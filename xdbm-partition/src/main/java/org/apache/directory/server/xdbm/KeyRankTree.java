@@ -0,0 +1,320 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.Comparator;
+
+
+/**
+ * An in-memory order-statistic tree counting the values stored under each key of
+ * a Table. Each node of this AVL tree holds the number of values of its key and
+ * the total number of values in its subtree, so the number of values above or
+ * below any key is computed in O(log n), without browsing the Table.
+ * <br>
+ * This class is not thread safe : the Tables using it are responsible for the
+ * synchronization.
+ *
+ * @param <K> The key type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class KeyRankTree<K>
+{
+    /** The key comparator */
+    private final Comparator<K> comparator;
+
+    /** The tree root */
+    private Node<K> root;
+
+    /**
+     * A tree node
+     */
+    private static final class Node<K>
+    {
+        /** The key */
+        private final K key;
+
+        /** The number of values stored under this key */
+        private long weight;
+
+        /** The number of values stored in this subtree */
+        private long total;
+
+        /** The subtree height */
+        private int height;
+
+        /** The subtree containing the lower keys */
+        private Node<K> left;
+
+        /** The subtree containing the greater keys */
+        private Node<K> right;
+
+
+        private Node( K key, long weight )
+        {
+            this.key = key;
+            this.weight = weight;
+            this.total = weight;
+            this.height = 1;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of KeyRankTree.
+     *
+     * @param comparator The key comparator
+     */
+    public KeyRankTree( Comparator<K> comparator )
+    {
+        this.comparator = comparator;
+    }
+
+
+    /**
+     * Updates the number of values stored under a key. The key is removed from
+     * the tree when it has no more values.
+     *
+     * @param key The key
+     * @param delta The number of added values, negative if some values have been removed
+     */
+    public void add( K key, long delta )
+    {
+        if ( ( key != null ) && ( delta != 0L ) )
+        {
+            root = add( root, key, delta );
+        }
+    }
+
+
+    /**
+     * @return The total number of values
+     */
+    public long size()
+    {
+        return total( root );
+    }
+
+
+    /**
+     * Gets the number of values stored under the keys greater than or equal to a key.
+     *
+     * @param key The key
+     * @return The number of values greater than or equal to the key
+     */
+    public long greaterOrEqualCount( K key )
+    {
+        long result = 0L;
+        Node<K> node = root;
+
+        while ( node != null )
+        {
+            if ( comparator.compare( key, node.key ) <= 0 )
+            {
+                result += node.weight + total( node.right );
+                node = node.left;
+            }
+            else
+            {
+                node = node.right;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Gets the number of values stored under the keys lower than or equal to a key.
+     *
+     * @param key The key
+     * @return The number of values lower than or equal to the key
+     */
+    public long lessOrEqualCount( K key )
+    {
+        long result = 0L;
+        Node<K> node = root;
+
+        while ( node != null )
+        {
+            if ( comparator.compare( key, node.key ) >= 0 )
+            {
+                result += node.weight + total( node.left );
+                node = node.right;
+            }
+            else
+            {
+                node = node.left;
+            }
+        }
+
+        return result;
+    }
+
+
+    private Node<K> add( Node<K> node, K key, long delta )
+    {
+        if ( node == null )
+        {
+            if ( delta > 0L )
+            {
+                return new Node<K>( key, delta );
+            }
+
+            return null;
+        }
+
+        int cmp = comparator.compare( key, node.key );
+
+        if ( cmp < 0 )
+        {
+            node.left = add( node.left, key, delta );
+        }
+        else if ( cmp > 0 )
+        {
+            node.right = add( node.right, key, delta );
+        }
+        else
+        {
+            node.weight += delta;
+
+            if ( node.weight <= 0L )
+            {
+                return remove( node );
+            }
+        }
+
+        return balance( node );
+    }
+
+
+    /**
+     * Removes a node, replacing it with its successor if it has two children
+     */
+    private Node<K> remove( Node<K> node )
+    {
+        if ( node.left == null )
+        {
+            return node.right;
+        }
+
+        if ( node.right == null )
+        {
+            return node.left;
+        }
+
+        Node<K> successor = node.right;
+
+        while ( successor.left != null )
+        {
+            successor = successor.left;
+        }
+
+        successor.right = removeFirst( node.right );
+        successor.left = node.left;
+
+        return balance( successor );
+    }
+
+
+    private Node<K> removeFirst( Node<K> node )
+    {
+        if ( node.left == null )
+        {
+            return node.right;
+        }
+
+        node.left = removeFirst( node.left );
+
+        return balance( node );
+    }
+
+
+    private Node<K> balance( Node<K> node )
+    {
+        update( node );
+        int factor = height( node.left ) - height( node.right );
+
+        if ( factor > 1 )
+        {
+            if ( height( node.left.left ) < height( node.left.right ) )
+            {
+                node.left = rotateLeft( node.left );
+            }
+
+            return rotateRight( node );
+        }
+
+        if ( factor < -1 )
+        {
+            if ( height( node.right.right ) < height( node.right.left ) )
+            {
+                node.right = rotateRight( node.right );
+            }
+
+            return rotateLeft( node );
+        }
+
+        return node;
+    }
+
+
+    private Node<K> rotateRight( Node<K> node )
+    {
+        Node<K> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update( node );
+        update( left );
+
+        return left;
+    }
+
+
+    private Node<K> rotateLeft( Node<K> node )
+    {
+        Node<K> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update( node );
+        update( right );
+
+        return right;
+    }
+
+
+    private void update( Node<K> node )
+    {
+        node.height = 1 + Math.max( height( node.left ), height( node.right ) );
+        node.total = node.weight + total( node.left ) + total( node.right );
+    }
+
+
+    private static int height( Node<?> node )
+    {
+        return node == null ? 0 : node.height;
+    }
+
+
+    private static long total( Node<?> node )
+    {
+        return node == null ? 0L : node.total;
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An index completing an attribute index with the trigrams of its values. The
+ * attribute index is used for every operation, the trigram index (which maps each
+ * trigram to the IDs of the entries having a value containing it) is only used to
+ * compute the candidates of a substring filter : the entries matching (cn=*foo*bar*)
+ * are necessarily in the intersection of the 'foo', 'oob', 'oba' and 'bar' posting
+ * lists, which is usually much smaller than the whole attribute index.
+ * <br>
+ * The candidates are a superset of the matching entries, they still have to be
+ * checked against the filter.
+ * <br>
+ * The trigrams are stored hex encoded : the trigram index uses the comparator of
+ * the attribute's equality matching rule, which could otherwise consider two
+ * different trigrams as equal (for instance ' ab' and 'ab ' once trimmed).
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NgramIndex extends AbstractIndexDecorator
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( NgramIndex.class );
+
+    /** The number of chars in a gram */
+    public static final int GRAM_SIZE = 3;
+
+    /** The suffix added to the attribute OID to name the trigram index storage */
+    public static final String STORAGE_SUFFIX = "_ngram";
+
+    /** The chars used to encode the grams */
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    /** The trigram index */
+    private final Index<String, String> gramIndex;
+
+    /** The normalizer used for the substring filter components */
+    private final Normalizer normalizer;
+
+
+    /**
+     * Creates a new instance of NgramIndex. Both indices must have been initialized,
+     * and the attribute index must have a reverse table.
+     *
+     * @param valueIndex The attribute index
+     * @param gramIndex The index storing the trigrams of the attribute values
+     */
+    public NgramIndex( Index<String, String> valueIndex, Index<String, String> gramIndex )
+    {
+        super( valueIndex );
+        this.gramIndex = gramIndex;
+
+        normalizer = getSubstringNormalizer( valueIndex.getAttribute() );
+    }
+
+
+    /**
+     * Fills the trigram index if it's empty while the attribute index is not, which
+     * happens when the n-gram index has just been configured on an existing partition.
+     *
+     * @throws Exception If the indices can't be read or updated
+     */
+    public void init() throws Exception
+    {
+        if ( ( gramIndex.count() > 0 ) || ( index.count() == 0 ) )
+        {
+            return;
+        }
+
+        LOG.info( "Building the trigram index for attribute {}", index.getAttributeId() );
+
+        Cursor<IndexEntry<String, String>> cursor = index.forwardCursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                IndexEntry<String, String> indexEntry = cursor.get();
+
+                addGrams( indexEntry.getKey(), indexEntry.getId() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * @return The trigram index
+     */
+    public Index<String, String> getGramIndex()
+    {
+        return gramIndex;
+    }
+
+
+    // -----------------------------------------------------------------------
+    // Substring filter support
+    // -----------------------------------------------------------------------
+    /**
+     * Gets an estimation of the number of entries matching a substring filter : the
+     * size of the smallest posting list of its trigrams. If the filter components are
+     * too short to contain a trigram, all the attribute index is counted.
+     *
+     * @param node The substring filter
+     * @return The number of candidates
+     * @throws Exception If the index can't be read
+     */
+    public long count( SubstringNode node ) throws Exception
+    {
+        List<String> keys = getGramKeys( node );
+
+        if ( keys.isEmpty() )
+        {
+            return index.count();
+        }
+
+        long count = Long.MAX_VALUE;
+
+        for ( String key : keys )
+        {
+            count = Math.min( count, gramIndex.count( key ) );
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Gets the IDs of the entries which values contain all the trigrams of a substring
+     * filter's components. The posting lists are intersected starting with the smallest
+     * one, the other ones are only probed for the remaining candidates.
+     *
+     * @param node The substring filter
+     * @return The candidate IDs, or null if the filter components are too short to contain a trigram
+     * @throws Exception If the index can't be read
+     */
+    public Set<String> getCandidates( SubstringNode node ) throws Exception
+    {
+        List<String> keys = getGramKeys( node );
+
+        if ( keys.isEmpty() )
+        {
+            return null;
+        }
+
+        // Start with the smallest posting list
+        String smallest = null;
+        long smallestCount = Long.MAX_VALUE;
+
+        for ( String key : keys )
+        {
+            long count = gramIndex.count( key );
+
+            if ( count < smallestCount )
+            {
+                smallest = key;
+                smallestCount = count;
+            }
+        }
+
+        Set<String> candidates = new HashSet<String>();
+
+        if ( smallestCount == 0 )
+        {
+            return candidates;
+        }
+
+        Cursor<String> cursor = gramIndex.forwardValueCursor( smallest );
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                candidates.add( cursor.get() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        // Then remove the candidates which are not in the other posting lists
+        for ( String key : keys )
+        {
+            if ( candidates.isEmpty() )
+            {
+                break;
+            }
+
+            if ( key.equals( smallest ) )
+            {
+                continue;
+            }
+
+            Iterator<String> ids = candidates.iterator();
+
+            while ( ids.hasNext() )
+            {
+                if ( !gramIndex.forward( key, ids.next() ) )
+                {
+                    ids.remove();
+                }
+            }
+        }
+
+        return candidates;
+    }
+
+
+    /**
+     * Gets the encoded trigrams of the normalized components of a substring filter
+     */
+    private List<String> getGramKeys( SubstringNode node ) throws LdapException
+    {
+        Set<String> keys = new LinkedHashSet<String>();
+
+        if ( node.getInitial() != null )
+        {
+            collectGrams( normalizer.normalize( node.getInitial() ), keys );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                collectGrams( normalizer.normalize( any ), keys );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            collectGrams( normalizer.normalize( node.getFinal() ), keys );
+        }
+
+        return new ArrayList<String>( keys );
+    }
+
+
+    /**
+     * Adds the encoded trigrams of a value to a set
+     */
+    private static void collectGrams( String value, Set<String> grams )
+    {
+        if ( value == null )
+        {
+            return;
+        }
+
+        for ( int i = 0; i + GRAM_SIZE <= value.length(); i++ )
+        {
+            char[] encoded = new char[GRAM_SIZE * 4];
+            int pos = 0;
+
+            for ( int j = i; j < i + GRAM_SIZE; j++ )
+            {
+                char c = value.charAt( j );
+                encoded[pos++] = HEX_CHARS[( c >> 12 ) & 0x0F];
+                encoded[pos++] = HEX_CHARS[( c >> 8 ) & 0x0F];
+                encoded[pos++] = HEX_CHARS[( c >> 4 ) & 0x0F];
+                encoded[pos++] = HEX_CHARS[c & 0x0F];
+            }
+
+            grams.add( new String( encoded ) );
+        }
+    }
+
+
+    /**
+     * Gets the encoded trigrams of all the values an entry has in the attribute index
+     */
+    private Set<String> getEntryGrams( String id ) throws Exception
+    {
+        Set<String> grams = new HashSet<String>();
+        Cursor<String> cursor = index.reverseValueCursor( id );
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                collectGrams( cursor.get(), grams );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return grams;
+    }
+
+
+    /**
+     * Adds the trigrams of a value in the trigram index
+     */
+    private void addGrams( String value, String id ) throws Exception
+    {
+        Set<String> grams = new HashSet<String>();
+        collectGrams( value, grams );
+
+        for ( String gram : grams )
+        {
+            if ( !gramIndex.forward( gram, id ) )
+            {
+                gramIndex.add( gram, id );
+            }
+        }
+    }
+
+
+    // -----------------------------------------------------------------------
+    // Index methods
+    // -----------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public void add( String attrVal, String id ) throws Exception
+    {
+        index.add( attrVal, id );
+        addGrams( attrVal, id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void drop( String entryId ) throws Exception
+    {
+        Set<String> grams = getEntryGrams( entryId );
+
+        index.drop( entryId );
+
+        for ( String gram : grams )
+        {
+            gramIndex.drop( gram, entryId );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * A trigram is only removed if none of the remaining entry values contains it.
+     */
+    public void drop( String attrVal, String id ) throws Exception
+    {
+        Set<String> grams = getEntryGrams( id );
+
+        index.drop( attrVal, id );
+
+        grams.removeAll( getEntryGrams( id ) );
+
+        for ( String gram : grams )
+        {
+            gramIndex.drop( gram, id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws Exception
+    {
+        try
+        {
+            gramIndex.close();
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        index.sync();
+        gramIndex.sync();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "NgramIndex<" + index + ">";
+    }
+}
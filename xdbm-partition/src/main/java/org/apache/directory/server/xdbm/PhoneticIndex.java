@@ -0,0 +1,385 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An index completing an attribute index with the phonetic keys of its values, used
+ * to evaluate the approximate filters : (cn~=jon smyth) then matches the entries which
+ * values sound alike, like 'John Smith', with a lookup of the filter's phonetic key.
+ * <br>
+ * The phonetic key of a value is the concatenation of the Soundex codes of its words,
+ * 'J500S530' for both 'jon smyth' and 'john smith'. A value without any letter has no
+ * phonetic key, and is only approximately matched by equal values.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PhoneticIndex extends AbstractIndexDecorator
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PhoneticIndex.class );
+
+    /** The suffix added to the attribute OID to name the phonetic index storage */
+    public static final String STORAGE_SUFFIX = "_phonetic";
+
+    /** The Soundex digit of each letter, from 'a' to 'z'. The vowels are coded 0, 'h' and 'w' are ignored */
+    private static final String SOUNDEX_CODES = "0123012-02245501262301-202";
+
+    /** The length of a Soundex code */
+    private static final int SOUNDEX_LENGTH = 4;
+
+    /** The index storing the phonetic keys */
+    private final Index<String, String> phoneticKeyIndex;
+
+
+    /**
+     * Creates a new instance of PhoneticIndex. Both indices must have been initialized,
+     * and the attribute index must have a reverse table.
+     *
+     * @param valueIndex The attribute index
+     * @param phoneticKeyIndex The index storing the phonetic keys of the attribute values
+     */
+    public PhoneticIndex( Index<String, String> valueIndex, Index<String, String> phoneticKeyIndex )
+    {
+        super( valueIndex );
+        this.phoneticKeyIndex = phoneticKeyIndex;
+    }
+
+
+    /**
+     * Fills the phonetic index if it's empty while the attribute index is not, which
+     * happens when the phonetic index has just been configured on an existing partition.
+     *
+     * @throws Exception If the indices can't be read or updated
+     */
+    public void init() throws Exception
+    {
+        if ( ( phoneticKeyIndex.count() > 0 ) || ( index.count() == 0 ) )
+        {
+            return;
+        }
+
+        LOG.info( "Building the phonetic index for attribute {}", index.getAttributeId() );
+
+        Cursor<IndexEntry<String, String>> cursor = index.forwardCursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                IndexEntry<String, String> indexEntry = cursor.get();
+                String phoneticKey = getPhoneticKey( indexEntry.getKey() );
+
+                if ( phoneticKey != null )
+                {
+                    phoneticKeyIndex.add( phoneticKey, indexEntry.getId() );
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * @return The index storing the phonetic keys of the attribute values
+     */
+    public Index<String, String> getPhoneticKeyIndex()
+    {
+        return phoneticKeyIndex;
+    }
+
+
+    /**
+     * Computes the phonetic key of a value : the Soundex codes of its words, a word being
+     * a sequence of letters.
+     *
+     * @param value The normalized value
+     * @return The phonetic key, or null if the value has no letter
+     */
+    public static String getPhoneticKey( String value )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int length = value.length();
+        int pos = 0;
+
+        while ( pos < length )
+        {
+            if ( !Character.isLetter( value.charAt( pos ) ) )
+            {
+                pos++;
+                continue;
+            }
+
+            int end = pos + 1;
+
+            while ( ( end < length ) && Character.isLetter( value.charAt( end ) ) )
+            {
+                end++;
+            }
+
+            appendSoundex( sb, value, pos, end );
+            pos = end;
+        }
+
+        if ( sb.length() == 0 )
+        {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Gets the phonetic key of an approximate filter's value.
+     *
+     * @param node The approximate filter
+     * @return The phonetic key, or null if the value has no letter or isn't a String
+     */
+    public static String getPhoneticKey( ApproximateNode<?> node )
+    {
+        Object value = node.getValue().getNormValue();
+
+        if ( value instanceof String )
+        {
+            return getPhoneticKey( ( String ) value );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Appends the Soundex code of a word : its first letter followed by the digits
+     * of the next consonants, the adjacent consonants having the same digit, or only
+     * separated by a 'h' or a 'w', being coded once.
+     */
+    private static void appendSoundex( StringBuilder sb, String value, int start, int end )
+    {
+        char first = value.charAt( start );
+        sb.append( Character.toUpperCase( first ) );
+
+        char previous = getSoundexDigit( first );
+        int nbChars = 1;
+
+        for ( int i = start + 1; ( i < end ) && ( nbChars < SOUNDEX_LENGTH ); i++ )
+        {
+            char digit = getSoundexDigit( value.charAt( i ) );
+
+            if ( digit == '-' )
+            {
+                // 'h' and 'w' don't separate the consonants
+                continue;
+            }
+
+            if ( ( digit != '0' ) && ( digit != previous ) )
+            {
+                sb.append( digit );
+                nbChars++;
+            }
+
+            previous = digit;
+        }
+
+        for ( ; nbChars < SOUNDEX_LENGTH; nbChars++ )
+        {
+            sb.append( '0' );
+        }
+    }
+
+
+    /**
+     * Gets the Soundex digit of a letter. The letters which are not ASCII are handled
+     * as vowels.
+     */
+    private static char getSoundexDigit( char c )
+    {
+        char lower = Character.toLowerCase( c );
+
+        if ( ( lower >= 'a' ) && ( lower <= 'z' ) )
+        {
+            return SOUNDEX_CODES.charAt( lower - 'a' );
+        }
+
+        return '0';
+    }
+
+
+    /**
+     * Gets an estimation of the number of entries matching an approximate filter : the
+     * number of entries having a value with the same phonetic key.
+     *
+     * @param node The approximate filter
+     * @return The number of candidates
+     * @throws Exception If the index can't be read
+     */
+    public long count( ApproximateNode<?> node ) throws Exception
+    {
+        String phoneticKey = getPhoneticKey( node );
+
+        if ( phoneticKey == null )
+        {
+            return index.count( ( String ) node.getValue().getValue() );
+        }
+
+        return phoneticKeyIndex.count( phoneticKey );
+    }
+
+
+    /**
+     * Gets the phonetic keys of the values an entry has in the attribute index
+     */
+    private Set<String> getEntryPhoneticKeys( String id ) throws Exception
+    {
+        Set<String> phoneticKeys = new HashSet<String>();
+        Cursor<String> cursor = index.reverseValueCursor( id );
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                String phoneticKey = getPhoneticKey( cursor.get() );
+
+                if ( phoneticKey != null )
+                {
+                    phoneticKeys.add( phoneticKey );
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return phoneticKeys;
+    }
+
+
+    // -----------------------------------------------------------------------
+    // Index methods
+    // -----------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public void add( String attrVal, String id ) throws Exception
+    {
+        index.add( attrVal, id );
+
+        String phoneticKey = getPhoneticKey( attrVal );
+
+        if ( phoneticKey != null )
+        {
+            phoneticKeyIndex.add( phoneticKey, id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void drop( String entryId ) throws Exception
+    {
+        Set<String> phoneticKeys = getEntryPhoneticKeys( entryId );
+
+        index.drop( entryId );
+
+        for ( String phoneticKey : phoneticKeys )
+        {
+            phoneticKeyIndex.drop( phoneticKey, entryId );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The removed keys are the ones no remaining value of the entry has, as two values
+     * may share the same phonetic key.
+     */
+    public void drop( String attrVal, String id ) throws Exception
+    {
+        Set<String> phoneticKeys = getEntryPhoneticKeys( id );
+
+        index.drop( attrVal, id );
+
+        phoneticKeys.removeAll( getEntryPhoneticKeys( id ) );
+
+        for ( String phoneticKey : phoneticKeys )
+        {
+            phoneticKeyIndex.drop( phoneticKey, id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws Exception
+    {
+        try
+        {
+            phoneticKeyIndex.close();
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        index.sync();
+        phoneticKeyIndex.sync();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "PhoneticIndex<" + index + ">";
+    }
+}
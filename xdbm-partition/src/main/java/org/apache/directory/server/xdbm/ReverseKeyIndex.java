@@ -0,0 +1,289 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An index completing an attribute index with its values reversed. A substring filter
+ * with only a final component, like (mail=*@example.com), is then a range scan over
+ * the reversed values starting with the reversed component, 'moc.elpmaxe@', just like
+ * a filter with an initial component is a range scan over the attribute index.
+ * <br>
+ * The reversed index can also be used to list the entries ordered by the suffixes
+ * of their values.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReverseKeyIndex extends AbstractIndexDecorator
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ReverseKeyIndex.class );
+
+    /** The suffix added to the attribute OID to name the reversed index storage */
+    public static final String STORAGE_SUFFIX = "_reversekey";
+
+    /** The index storing the reversed values */
+    private final Index<String, String> reversedIndex;
+
+    /** The normalizer used for the substring filter components */
+    private final Normalizer normalizer;
+
+
+    /**
+     * Creates a new instance of ReverseKeyIndex. Both indices must have been initialized,
+     * and the attribute index must have a reverse table.
+     *
+     * @param valueIndex The attribute index
+     * @param reversedIndex The index storing the reversed attribute values
+     */
+    public ReverseKeyIndex( Index<String, String> valueIndex, Index<String, String> reversedIndex )
+    {
+        super( valueIndex );
+        this.reversedIndex = reversedIndex;
+
+        normalizer = getSubstringNormalizer( valueIndex.getAttribute() );
+    }
+
+
+    /**
+     * Fills the reversed index if it's empty while the attribute index is not, which
+     * happens when the reverse key index has just been configured on an existing partition.
+     *
+     * @throws Exception If the indices can't be read or updated
+     */
+    public void init() throws Exception
+    {
+        if ( ( reversedIndex.count() > 0 ) || ( index.count() == 0 ) )
+        {
+            return;
+        }
+
+        LOG.info( "Building the reverse key index for attribute {}", index.getAttributeId() );
+
+        Cursor<IndexEntry<String, String>> cursor = index.forwardCursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                IndexEntry<String, String> indexEntry = cursor.get();
+
+                if ( indexEntry.getKey() != null )
+                {
+                    reversedIndex.add( reverseValue( indexEntry.getKey() ), indexEntry.getId() );
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * @return The index storing the reversed attribute values
+     */
+    public Index<String, String> getReversedIndex()
+    {
+        return reversedIndex;
+    }
+
+
+    /**
+     * Reverses a value. The surrogate pairs are kept as is.
+     *
+     * @param value The value to reverse
+     * @return The reversed value
+     */
+    public static String reverseValue( String value )
+    {
+        return new StringBuilder( value ).reverse().toString();
+    }
+
+
+    /**
+     * Gets the key the reversed values must start with to match a substring filter :
+     * its normalized final component, reversed.
+     *
+     * @param node The substring filter
+     * @return The reversed final component, or null if the filter has no final component
+     * @throws LdapException If the final component can't be normalized
+     */
+    public String getReversedFinal( SubstringNode node ) throws LdapException
+    {
+        if ( node.getFinal() == null )
+        {
+            return null;
+        }
+
+        return reverseValue( normalizer.normalize( node.getFinal() ) );
+    }
+
+
+    /**
+     * Gets an estimation of the number of entries matching a substring filter final
+     * component : as for the initial component, we count the reversed values starting
+     * with the reversed final component.
+     *
+     * @param node The substring filter
+     * @return The number of candidates
+     * @throws Exception If the index can't be read
+     */
+    public long count( SubstringNode node ) throws Exception
+    {
+        String reversedFinal = getReversedFinal( node );
+
+        if ( reversedFinal == null )
+        {
+            return index.count();
+        }
+
+        return AbstractIndex.prefixCount( reversedIndex, reversedFinal );
+    }
+
+
+    /**
+     * Gets the values an entry has in the attribute index
+     */
+    private Set<String> getEntryValues( String id ) throws Exception
+    {
+        Set<String> values = new HashSet<String>();
+        Cursor<String> cursor = index.reverseValueCursor( id );
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                values.add( cursor.get() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return values;
+    }
+
+
+    // -----------------------------------------------------------------------
+    // Index methods
+    // -----------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    public void add( String attrVal, String id ) throws Exception
+    {
+        index.add( attrVal, id );
+
+        if ( attrVal != null )
+        {
+            reversedIndex.add( reverseValue( attrVal ), id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void drop( String entryId ) throws Exception
+    {
+        Set<String> values = getEntryValues( entryId );
+
+        index.drop( entryId );
+
+        for ( String value : values )
+        {
+            reversedIndex.drop( reverseValue( value ), entryId );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The removed values are the ones the attribute index doesn't contain anymore,
+     * as the given value may not be normalized.
+     */
+    public void drop( String attrVal, String id ) throws Exception
+    {
+        Set<String> values = getEntryValues( id );
+
+        index.drop( attrVal, id );
+
+        values.removeAll( getEntryValues( id ) );
+
+        for ( String value : values )
+        {
+            reversedIndex.drop( reverseValue( value ), id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws Exception
+    {
+        try
+        {
+            reversedIndex.close();
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        index.sync();
+        reversedIndex.sync();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "ReverseKeyIndex<" + index + ">";
+    }
+}
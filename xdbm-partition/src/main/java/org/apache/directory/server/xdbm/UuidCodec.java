@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+/**
+ * Encode and decode the entry UUIDs as 16 bytes, the two longs of the UUID, instead
+ * of their 36 characters String form. Only the canonical lower case form, as
+ * produced by {@link java.util.UUID#toString()}, can be encoded : decoding it back
+ * must produce the exact same String.
+ * <br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class UuidCodec
+{
+    /** The length of an encoded UUID */
+    public static final int LENGTH = 16;
+
+    /** The length of an UUID String */
+    private static final int UUID_STRING_LENGTH = 36;
+
+    /** The hexadecimal digits */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    private UuidCodec()
+    {
+    }
+
+
+    /**
+     * Tells if an UUID String is in its canonical form, and can be encoded.
+     *
+     * @param uuid The UUID
+     * @return true if the UUID can be encoded
+     */
+    public static boolean isCanonical( String uuid )
+    {
+        if ( ( uuid == null ) || ( uuid.length() != UUID_STRING_LENGTH ) )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < UUID_STRING_LENGTH; i++ )
+        {
+            char c = uuid.charAt( i );
+
+            if ( isDashPosition( i ) )
+            {
+                if ( c != '-' )
+                {
+                    return false;
+                }
+            }
+            else if ( ( ( c < '0' ) || ( c > '9' ) ) && ( ( c < 'a' ) || ( c > 'f' ) ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Encodes a canonical UUID into a buffer.
+     *
+     * @param uuid The UUID to encode. It must be canonical
+     * @param buffer The buffer
+     * @param pos The position in the buffer
+     * @return The position following the encoded UUID
+     * @see #isCanonical(String)
+     */
+    public static int encode( String uuid, byte[] buffer, int pos )
+    {
+        int nibble = 0;
+
+        for ( int i = 0; i < UUID_STRING_LENGTH; i++ )
+        {
+            if ( isDashPosition( i ) )
+            {
+                continue;
+            }
+
+            char c = uuid.charAt( i );
+            int value = c <= '9' ? c - '0' : c - 'a' + 10;
+
+            if ( ( nibble & 1 ) == 0 )
+            {
+                buffer[pos + ( nibble >> 1 )] = ( byte ) ( value << 4 );
+            }
+            else
+            {
+                buffer[pos + ( nibble >> 1 )] |= value;
+            }
+
+            nibble++;
+        }
+
+        return pos + LENGTH;
+    }
+
+
+    /**
+     * Decodes an UUID from a buffer.
+     *
+     * @param buffer The buffer
+     * @param pos The position of the encoded UUID in the buffer
+     * @return The UUID String, in its canonical form
+     */
+    public static String decode( byte[] buffer, int pos )
+    {
+        char[] chars = new char[UUID_STRING_LENGTH];
+        int nibble = 0;
+
+        for ( int i = 0; i < UUID_STRING_LENGTH; i++ )
+        {
+            if ( isDashPosition( i ) )
+            {
+                chars[i] = '-';
+                continue;
+            }
+
+            int b = buffer[pos + ( nibble >> 1 )];
+            chars[i] = HEX_DIGITS[( nibble & 1 ) == 0 ? ( b >> 4 ) & 0x0F : b & 0x0F];
+            nibble++;
+        }
+
+        return new String( chars );
+    }
+
+
+    private static boolean isDashPosition( int i )
+    {
+        return ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 );
+    }
+}
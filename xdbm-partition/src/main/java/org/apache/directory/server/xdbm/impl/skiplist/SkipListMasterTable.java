@@ -0,0 +1,52 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.skiplist;
+
+
+import java.util.Comparator;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.server.xdbm.MasterTable;
+
+
+/**
+ * The in memory master table of a SkipListPartition, associating each entry ID
+ * with its Entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SkipListMasterTable extends SkipListTable<String, Entry> implements MasterTable
+{
+    public SkipListMasterTable( String name, Comparator<String> keyComparator, Comparator<Entry> valComparator,
+        boolean dupsEnabled )
+    {
+        super( name, keyComparator, valComparator, dupsEnabled );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getNextId( Entry entry ) throws Exception
+    {
+        return UUID.randomUUID().toString();
+    }
+}
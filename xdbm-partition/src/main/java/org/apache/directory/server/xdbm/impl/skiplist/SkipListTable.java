@@ -0,0 +1,772 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.skiplist;
+
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.server.xdbm.AbstractTable;
+
+
+/**
+ * A thread safe Table implementation backed by in memory concurrent skip lists.
+ * Readers never block : lookups and cursors rely on the lock-free navigation
+ * methods of the underlying {@link ConcurrentSkipListMap}. Writers only synchronize
+ * on the set of values of the key they modify, so writers updating different keys
+ * of a table proceed in parallel. A partition still updates its tables one writer
+ * at a time, see SkipListPartition.
+ * <br>
+ * Cursors are weakly consistent, not snapshots : they never throw a
+ * ConcurrentModificationException and never block writers, each move being resolved
+ * against the current content of the table, so a cursor may return a tuple added
+ * after it has been created.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SkipListTable<K, V> extends AbstractTable<K, V>
+{
+    /** The map used when duplicate keys are not allowed */
+    private final ConcurrentSkipListMap<K, V> map;
+
+    /** The map used when duplicate keys are allowed */
+    private final ConcurrentSkipListMap<K, DupsHolder<V>> dupsMap;
+
+    /** The number of tuples in this table */
+    private final AtomicLong tupleCount = new AtomicLong( 0L );
+
+    /**
+     * The set of values associated with a key when duplicates are allowed.
+     * All the modifications are done while holding the holder's monitor.
+     * Once removed from the map, a holder is flagged so that a concurrent writer
+     * does not add a value into it.
+     */
+    private static final class DupsHolder<V>
+    {
+        /** The ordered values */
+        private final ConcurrentSkipListSet<V> values;
+
+        /** The number of values, readable without locking */
+        private volatile int size;
+
+        /** Tells if this holder has been removed from the table */
+        private boolean removed;
+
+
+        private DupsHolder( Comparator<V> valueComparator )
+        {
+            values = new ConcurrentSkipListSet<V>( valueComparator );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SkipListTable.
+     *
+     * @param name the table name
+     * @param keyComparator the key comparator
+     * @param valueComparator the value comparator, mandatory when duplicates are allowed
+     * @param dupsEnabled tells if duplicate keys are allowed
+     */
+    public SkipListTable( String name, Comparator<K> keyComparator, Comparator<V> valueComparator,
+        boolean dupsEnabled )
+    {
+        super( null, name, keyComparator, valueComparator );
+        allowsDuplicates = dupsEnabled;
+
+        if ( dupsEnabled )
+        {
+            map = null;
+            dupsMap = new ConcurrentSkipListMap<K, DupsHolder<V>>( keyComparator );
+        }
+        else
+        {
+            map = new ConcurrentSkipListMap<K, V>( keyComparator );
+            dupsMap = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws Exception
+    {
+        if ( allowsDuplicates )
+        {
+            dupsMap.clear();
+        }
+        else
+        {
+            map.clear();
+        }
+
+        tupleCount.set( 0L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count()
+    {
+        return tupleCount.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long count( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        if ( allowsDuplicates )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            return holder == null ? 0L : holder.size;
+        }
+
+        return map.containsKey( key ) ? 1L : 0L;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get( K key )
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        if ( allowsDuplicates )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder == null )
+            {
+                return null;
+            }
+
+            return first( holder.values );
+        }
+
+        return map.get( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long greaterThanCount( K key ) throws Exception
+    {
+        return tupleCount.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long lessThanCount( K key ) throws Exception
+    {
+        return tupleCount.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean has( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            return dupsMap.containsKey( key );
+        }
+
+        return map.containsKey( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean has( K key, V value )
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            return ( holder != null ) && holder.values.contains( value );
+        }
+
+        return isSameValue( map.get( key ), value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasGreaterOrEqual( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return ceiling( key, null ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasGreaterOrEqual( K key, V val )
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            Map.Entry<K, DupsHolder<V>> entry = dupsMap.ceilingEntry( key );
+
+            return ( entry != null ) && ( entry.getValue().values.ceiling( val ) != null );
+        }
+
+        Map.Entry<K, V> entry = map.ceilingEntry( key );
+
+        return ( entry != null ) && ( valueComparator.compare( entry.getValue(), val ) >= 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasLessOrEqual( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return floor( key, null ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasLessOrEqual( K key, V val ) throws Exception
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            Map.Entry<K, DupsHolder<V>> entry = dupsMap.floorEntry( key );
+
+            return ( entry != null ) && ( entry.getValue().values.floor( val ) != null );
+        }
+
+        Map.Entry<K, V> entry = map.floorEntry( key );
+
+        return ( entry != null ) && ( valueComparator.compare( entry.getValue(), val ) <= 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDupsEnabled()
+    {
+        return allowsDuplicates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void put( K key, V value ) throws Exception
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            if ( map.put( key, value ) == null )
+            {
+                tupleCount.incrementAndGet();
+            }
+
+            return;
+        }
+
+        while ( true )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder == null )
+            {
+                DupsHolder<V> newHolder = new DupsHolder<V>( valueComparator );
+                holder = dupsMap.putIfAbsent( key, newHolder );
+
+                if ( holder == null )
+                {
+                    holder = newHolder;
+                }
+            }
+
+            synchronized ( holder )
+            {
+                if ( holder.removed )
+                {
+                    // The holder has been removed by a concurrent writer, try again
+                    continue;
+                }
+
+                if ( holder.values.add( value ) )
+                {
+                    holder.size++;
+                    tupleCount.incrementAndGet();
+                }
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            if ( map.remove( key ) != null )
+            {
+                tupleCount.decrementAndGet();
+            }
+
+            return;
+        }
+
+        DupsHolder<V> holder = dupsMap.get( key );
+
+        if ( holder == null )
+        {
+            return;
+        }
+
+        synchronized ( holder )
+        {
+            if ( !holder.removed )
+            {
+                holder.removed = true;
+                dupsMap.remove( key, holder );
+                tupleCount.addAndGet( -holder.size );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove( K key, V value ) throws Exception
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V stored = map.get( key );
+
+            if ( isSameValue( stored, value ) && map.remove( key, stored ) )
+            {
+                tupleCount.decrementAndGet();
+            }
+
+            return;
+        }
+
+        DupsHolder<V> holder = dupsMap.get( key );
+
+        if ( holder == null )
+        {
+            return;
+        }
+
+        synchronized ( holder )
+        {
+            if ( holder.removed || !holder.values.remove( value ) )
+            {
+                return;
+            }
+
+            holder.size--;
+            tupleCount.decrementAndGet();
+
+            if ( holder.size == 0 )
+            {
+                holder.removed = true;
+                dupsMap.remove( key, holder );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new SkipListTableCursor<K, V>( this, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<Tuple<K, V>> cursor( K key ) throws Exception
+    {
+        if ( ( key == null ) || !has( key ) )
+        {
+            return new EmptyCursor<Tuple<K, V>>();
+        }
+
+        return new SkipListTableCursor<K, V>( this, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<V> valueCursor( K key ) throws Exception
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<V>();
+        }
+
+        if ( allowsDuplicates )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder == null )
+            {
+                return new EmptyCursor<V>();
+            }
+
+            return new SkipListValueCursor<V>( holder.values );
+        }
+
+        V value = map.get( key );
+
+        if ( value == null )
+        {
+            return new EmptyCursor<V>();
+        }
+
+        return new SingletonCursor<V>( value, valueComparator );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Navigation methods used by the cursors. A null value means we only
+    // consider the key : before all its values for ceiling() and lower(), after
+    // all its values for higher() and floor(). The value is ignored when the
+    // table does not allow duplicate keys.
+    // ------------------------------------------------------------------------
+    /**
+     * @return the smallest tuple greater than or equal to (key, value), or null
+     */
+    Tuple<K, V> ceiling( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( map.ceilingEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder != null )
+            {
+                V found = holder.values.ceiling( value );
+
+                if ( found != null )
+                {
+                    return new Tuple<K, V>( key, found );
+                }
+            }
+
+            return firstFrom( dupsMap.higherEntry( key ) );
+        }
+
+        return firstFrom( dupsMap.ceilingEntry( key ) );
+    }
+
+
+    /**
+     * @return the smallest tuple strictly greater than (key, value), or null
+     */
+    Tuple<K, V> higher( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( map.higherEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder != null )
+            {
+                V found = holder.values.higher( value );
+
+                if ( found != null )
+                {
+                    return new Tuple<K, V>( key, found );
+                }
+            }
+        }
+
+        return firstFrom( dupsMap.higherEntry( key ) );
+    }
+
+
+    /**
+     * @return the greatest tuple lower than or equal to (key, value), or null
+     */
+    Tuple<K, V> floor( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( map.floorEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder != null )
+            {
+                V found = holder.values.floor( value );
+
+                if ( found != null )
+                {
+                    return new Tuple<K, V>( key, found );
+                }
+            }
+
+            return lastFrom( dupsMap.lowerEntry( key ) );
+        }
+
+        return lastFrom( dupsMap.floorEntry( key ) );
+    }
+
+
+    /**
+     * @return the greatest tuple strictly lower than (key, value), or null
+     */
+    Tuple<K, V> lower( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( map.lowerEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            DupsHolder<V> holder = dupsMap.get( key );
+
+            if ( holder != null )
+            {
+                V found = holder.values.lower( value );
+
+                if ( found != null )
+                {
+                    return new Tuple<K, V>( key, found );
+                }
+            }
+        }
+
+        return lastFrom( dupsMap.lowerEntry( key ) );
+    }
+
+
+    /**
+     * @return the first tuple of this table, or null if it's empty
+     */
+    Tuple<K, V> first()
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( map.firstEntry() );
+        }
+
+        return firstFrom( dupsMap.firstEntry() );
+    }
+
+
+    /**
+     * @return the last tuple of this table, or null if it's empty
+     */
+    Tuple<K, V> last()
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( map.lastEntry() );
+        }
+
+        return lastFrom( dupsMap.lastEntry() );
+    }
+
+
+    /**
+     * Compares a stored value with a given value, using the value comparator
+     * if we have one (the master table does not).
+     */
+    private boolean isSameValue( V stored, V value )
+    {
+        if ( ( stored == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        if ( valueComparator == null )
+        {
+            return stored.equals( value );
+        }
+
+        return valueComparator.compare( stored, value ) == 0;
+    }
+
+
+    private Tuple<K, V> toTuple( Map.Entry<K, V> entry )
+    {
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        return new Tuple<K, V>( entry.getKey(), entry.getValue() );
+    }
+
+
+    /**
+     * Gets the first value of the given entry, or of the following ones
+     * if the entry's values have been concurrently removed.
+     */
+    private Tuple<K, V> firstFrom( Map.Entry<K, DupsHolder<V>> entry )
+    {
+        while ( entry != null )
+        {
+            V value = first( entry.getValue().values );
+
+            if ( value != null )
+            {
+                return new Tuple<K, V>( entry.getKey(), value );
+            }
+
+            entry = dupsMap.higherEntry( entry.getKey() );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the last value of the given entry, or of the preceding ones
+     * if the entry's values have been concurrently removed.
+     */
+    private Tuple<K, V> lastFrom( Map.Entry<K, DupsHolder<V>> entry )
+    {
+        while ( entry != null )
+        {
+            Iterator<V> values = entry.getValue().values.descendingIterator();
+
+            if ( values.hasNext() )
+            {
+                return new Tuple<K, V>( entry.getKey(), values.next() );
+            }
+
+            entry = dupsMap.lowerEntry( entry.getKey() );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the first element of a set, without throwing an exception if the
+     * set has been emptied concurrently.
+     */
+    private static <V> V first( ConcurrentSkipListSet<V> values )
+    {
+        Iterator<V> iterator = values.iterator();
+
+        if ( iterator.hasNext() )
+        {
+            return iterator.next();
+        }
+
+        return null;
+    }
+}
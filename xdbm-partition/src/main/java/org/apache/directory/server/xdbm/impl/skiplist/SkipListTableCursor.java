@@ -0,0 +1,351 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.skiplist;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the Tuples of a SkipListTable. The Cursor does not hold any
+ * reference on the table internal structures : it remembers the last Tuple it
+ * was positioned on, and each move is resolved against the current content of
+ * the table, so the Cursor never blocks and never fails because of concurrent
+ * modifications.
+ * <br>
+ * When a key is given, the Cursor only walks the values of this key : the key of
+ * the Tuples used to position the Cursor is then ignored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SkipListTableCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The table this Cursor traverses over */
+    private final SkipListTable<K, V> table;
+
+    /** The key the cursor is locked on, if any */
+    private final K fixedKey;
+
+    /** The tuple the cursor is positioned on, or next to */
+    private K currentKey;
+    private V currentValue;
+
+    /** The current position of this cursor, relative to the current tuple */
+    private Position position = Position.BEFORE_FIRST;
+
+
+    /**
+     * Creates a new instance of SkipListTableCursor.
+     *
+     * @param table the table to browse
+     * @param fixedKey the key to lock the cursor on, or null to browse all the table
+     */
+    public SkipListTableCursor( SkipListTable<K, V> table, K fixedKey )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating SkipListTableCursor {}", this );
+        }
+
+        this.table = table;
+        this.fixedKey = fixedKey;
+
+        if ( fixedKey != null )
+        {
+            setPosition( fixedKey, null, Position.BEFORE_NODE );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return position == Position.ON_NODE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "before()" );
+
+        if ( fixedKey != null )
+        {
+            setPosition( fixedKey, element.getValue(), Position.BEFORE_NODE );
+        }
+        else if ( element.getKey() == null )
+        {
+            beforeFirst();
+        }
+        else
+        {
+            setPosition( element.getKey(), element.getValue(), Position.BEFORE_NODE );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "after()" );
+
+        if ( fixedKey != null )
+        {
+            setPosition( fixedKey, element.getValue(), Position.AFTER_NODE );
+        }
+        else if ( element.getKey() == null )
+        {
+            afterLast();
+        }
+        else
+        {
+            setPosition( element.getKey(), element.getValue(), Position.AFTER_NODE );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+
+        if ( fixedKey != null )
+        {
+            setPosition( fixedKey, null, Position.BEFORE_NODE );
+        }
+        else
+        {
+            setPosition( null, null, Position.BEFORE_FIRST );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+
+        if ( fixedKey != null )
+        {
+            setPosition( fixedKey, null, Position.AFTER_NODE );
+        }
+        else
+        {
+            setPosition( null, null, Position.AFTER_LAST );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        Tuple<K, V> found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                found = table.first();
+                break;
+
+            case BEFORE_NODE:
+                found = table.ceiling( currentKey, currentValue );
+                break;
+
+            case ON_NODE:
+            case AFTER_NODE:
+                found = table.higher( currentKey, currentValue );
+                break;
+
+            case AFTER_LAST:
+                return false;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( ( found == null ) || !isInRange( found ) )
+        {
+            afterLast();
+
+            return false;
+        }
+
+        setPosition( found.getKey(), found.getValue(), Position.ON_NODE );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        Tuple<K, V> found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case BEFORE_NODE:
+            case ON_NODE:
+                found = table.lower( currentKey, currentValue );
+                break;
+
+            case AFTER_NODE:
+                found = table.floor( currentKey, currentValue );
+                break;
+
+            case AFTER_LAST:
+                found = table.last();
+                break;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( ( found == null ) || !isInRange( found ) )
+        {
+            beforeFirst();
+
+            return false;
+        }
+
+        setPosition( found.getKey(), found.getValue(), Position.ON_NODE );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( position == Position.ON_NODE )
+        {
+            return new Tuple<K, V>( currentKey, currentValue );
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SkipListTableCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SkipListTableCursor {}", this );
+        }
+
+        super.close( cause );
+    }
+
+
+    private void setPosition( K key, V value, Position position )
+    {
+        currentKey = key;
+        currentValue = value;
+        this.position = position;
+    }
+
+
+    /**
+     * Tells if a tuple can be returned by this cursor, ie if it has the
+     * same key than the one this cursor is locked on.
+     */
+    private boolean isInRange( Tuple<K, V> tuple )
+    {
+        return ( fixedKey == null ) || ( table.getKeyComparator().compare( fixedKey, tuple.getKey() ) == 0 );
+    }
+}
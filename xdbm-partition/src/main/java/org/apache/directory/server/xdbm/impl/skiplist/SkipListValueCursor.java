@@ -0,0 +1,311 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.skiplist;
+
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the values associated with a key in a SkipListTable. As for the
+ * {@link SkipListTableCursor}, each move is resolved against the current content
+ * of the set of values, which is never locked.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SkipListValueCursor<V> extends AbstractCursor<V>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The browsed values */
+    private final NavigableSet<V> values;
+
+    /** The value the cursor is positioned on, or next to */
+    private V current;
+
+    /** The current position of this cursor, relative to the current value */
+    private Position position = Position.BEFORE_FIRST;
+
+
+    /**
+     * Creates a new instance of SkipListValueCursor.
+     *
+     * @param values The values to browse
+     */
+    public SkipListValueCursor( NavigableSet<V> values )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating SkipListValueCursor {}", this );
+        }
+
+        this.values = values;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return position == Position.ON_NODE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( V element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "before()" );
+
+        if ( element == null )
+        {
+            beforeFirst();
+        }
+        else
+        {
+            current = element;
+            position = Position.BEFORE_NODE;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( V element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "after()" );
+
+        if ( element == null )
+        {
+            afterLast();
+        }
+        else
+        {
+            current = element;
+            position = Position.AFTER_NODE;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+        current = null;
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+        current = null;
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        V found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                found = firstOf( values.iterator() );
+                break;
+
+            case BEFORE_NODE:
+                found = values.ceiling( current );
+                break;
+
+            case ON_NODE:
+            case AFTER_NODE:
+                found = values.higher( current );
+                break;
+
+            case AFTER_LAST:
+                return false;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( found == null )
+        {
+            afterLast();
+
+            return false;
+        }
+
+        current = found;
+        position = Position.ON_NODE;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        V found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case BEFORE_NODE:
+            case ON_NODE:
+                found = values.lower( current );
+                break;
+
+            case AFTER_NODE:
+                found = values.floor( current );
+                break;
+
+            case AFTER_LAST:
+                found = firstOf( values.descendingIterator() );
+                break;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( found == null )
+        {
+            beforeFirst();
+
+            return false;
+        }
+
+        current = found;
+        position = Position.ON_NODE;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( position == Position.ON_NODE )
+        {
+            return current;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SkipListValueCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SkipListValueCursor {}", this );
+        }
+
+        super.close( cause );
+    }
+
+
+    private V firstOf( Iterator<V> iterator )
+    {
+        if ( iterator.hasNext() )
+        {
+            return iterator.next();
+        }
+
+        return null;
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
@@ -44,6 +45,9 @@ public class PartitionSearchResult
     /** The set of candidate UUIDs selected by the search */
     private SetCursor<IndexEntry<String, String>> resultSet;
 
+    /** The cursor over the results, when they are not read directly from the resultSet */
+    private Cursor<IndexEntry<String, String>> resultCursor;
+
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
 
@@ -84,6 +88,29 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return the cursor over the results, by default the resultSet
+     */
+    public Cursor<IndexEntry<String, String>> getResultCursor()
+    {
+        if ( resultCursor != null )
+        {
+            return resultCursor;
+        }
+
+        return resultSet;
+    }
+
+
+    /**
+     * @param resultCursor the cursor over the results, wrapping the resultSet
+     */
+    public void setResultCursor( Cursor<IndexEntry<String, String>> resultCursor )
+    {
+        this.resultCursor = resultCursor;
+    }
+
+
     /**
      * @return the candidateSet
      */
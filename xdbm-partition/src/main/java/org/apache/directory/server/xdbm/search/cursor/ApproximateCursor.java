@@ -41,10 +41,11 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Cursor over entry candidates matching an approximate assertion filter.
- * This Cursor really is a copy of EqualityCursor for now but later on
- * approximate matching can be implemented and this can change.  It operates
- * in two modes.  The first is when an index exists for the attribute the
- * approximate assertion is built on.  The second is when the user index for
+ * Unless the attribute has a phonetic index, this Cursor really is a copy of
+ * EqualityCursor.  It operates in two modes.  The first is when an index exists
+ * for the attribute the approximate assertion is built on : we then browse the
+ * entries having the asserted phonetic key in the phonetic index, if any, or the
+ * asserted value in the user index.  The second is when the user index for
  * the assertion attribute does not exist.  Different Cursors are used in each
  * of these cases where the other remains null.
  *
@@ -90,7 +91,15 @@ public class ApproximateCursor<V> extends AbstractIndexCursor<V>
         AttributeType attributeType = approximateEvaluator.getExpression().getAttributeType();
         Value<V> value = approximateEvaluator.getExpression().getValue();
 
-        if ( store.hasIndexOn( attributeType ) )
+        if ( approximateEvaluator.getPhoneticKey() != null )
+        {
+            // Browse the entries having a value which sounds like the asserted one
+            Index<String, String> phoneticKeyIndex = approximateEvaluator.getPhoneticIndex().getPhoneticKeyIndex();
+            Cursor<?> phoneticCursor = phoneticKeyIndex.forwardCursor( approximateEvaluator.getPhoneticKey() );
+            userIdxCursor = ( Cursor<IndexEntry<V, String>> ) phoneticCursor;
+            uuidIdxCursor = null;
+        }
+        else if ( store.hasIndexOn( attributeType ) )
         {
             Index<V, String> index = ( Index<V, String> ) store.getIndex( attributeType );
             userIdxCursor = index.forwardCursor( value.getValue() );
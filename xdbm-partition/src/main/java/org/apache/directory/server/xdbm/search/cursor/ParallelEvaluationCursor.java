@@ -0,0 +1,568 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor evaluating the candidates of another Cursor on a ForkJoinPool. The
+ * candidates are read in chunks, each chunk being fetched and evaluated by a worker
+ * thread, and only the matching candidates, with their entry, are returned. A few
+ * chunks are evaluated ahead of the one being read, so the results are streamed,
+ * in the chunks order.
+ * <br>
+ * The worker threads never wait for the partition read lock : they only take it
+ * if it is immediately available, which is always the case when the thread using
+ * this cursor holds it. Otherwise, the chunk is evaluated by the thread reading
+ * the cursor, as it would have been without this cursor.
+ * <br>
+ * The cursor can't be read backward from its end, but it keeps the last returned
+ * candidates, so that it can step back over them : the LDAP handlers read one entry
+ * past the size limit or the page, then move back with previous().
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ParallelEvaluationCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** Error message for unsupported operations */
+    private static final String UNSUPPORTED_MSG = I18n.err( I18n.ERR_719 );
+
+    /** The Cursor over the candidates */
+    private final Cursor<IndexEntry<String, String>> candidates;
+
+    /** The evaluator used to validate the candidates */
+    private final Evaluator<? extends ExprNode> evaluator;
+
+    /** The pool evaluating the chunks */
+    private final ForkJoinPool pool;
+
+    /** The partition read lock, may be null */
+    private final Lock readLock;
+
+    /** The maximum number of chunks evaluated at the same time */
+    private final int maxChunks;
+
+    /** The number of candidates per chunk */
+    private final int chunkSize;
+
+    /** The chunks being evaluated, in the candidates order */
+    private final Deque<Chunk> pending = new ArrayDeque<Chunk>();
+
+    /** The matching candidates of the current chunk */
+    private Iterator<IndexEntry<String, String>> current;
+
+    /** The current element */
+    private IndexEntry<String, String> element;
+
+    /** The last returned candidates before the current one, the most recent last */
+    private final Deque<IndexEntry<String, String>> history = new ArrayDeque<IndexEntry<String, String>>();
+
+    /** Tells if some candidates have been dropped from the history */
+    private boolean historyTruncated;
+
+    /** The candidates we stepped back over, to be returned again, the next one first */
+    private final Deque<IndexEntry<String, String>> replay = new ArrayDeque<IndexEntry<String, String>>();
+
+    /** Tells if the cursor is positioned after the last matching candidate */
+    private boolean afterLastMatch;
+
+    /** Tells if all the candidates have been read */
+    private boolean exhausted;
+
+    /** The number of evaluated candidates, since the last call to takeEvaluatedCount() */
+    private long evaluated;
+
+
+    /**
+     * Creates a new instance of ParallelEvaluationCursor.
+     *
+     * @param candidates The Cursor over the candidates
+     * @param evaluator The evaluator used to validate the candidates
+     * @param pool The pool evaluating the chunks
+     * @param readLock The partition read lock, or null if the partition is not locked
+     * @param maxChunks The maximum number of chunks evaluated at the same time
+     * @param chunkSize The number of candidates per chunk
+     */
+    public ParallelEvaluationCursor( Cursor<IndexEntry<String, String>> candidates,
+        Evaluator<? extends ExprNode> evaluator, ForkJoinPool pool, Lock readLock, int maxChunks, int chunkSize )
+    {
+        this.candidates = candidates;
+        this.evaluator = evaluator;
+        this.pool = pool;
+        this.readLock = readLock;
+        this.maxChunks = Math.max( 1, maxChunks );
+        this.chunkSize = Math.max( 1, chunkSize );
+
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ParallelEvaluationCursor {}", this );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * Gets the number of candidates evaluated since the last call, and resets it.
+     *
+     * @return The number of evaluated candidates
+     */
+    public long takeEvaluatedCount()
+    {
+        long count = evaluated;
+        evaluated = 0;
+
+        return count;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+
+        cancelPending();
+        candidates.beforeFirst();
+        current = null;
+        element = null;
+        history.clear();
+        historyTruncated = false;
+        replay.clear();
+        afterLastMatch = false;
+        exhausted = false;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( getUnsupportedMessage() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        if ( ( element == null ) && !afterLastMatch )
+        {
+            // Before the first candidate : there is nothing to step back over
+            return setAvailable( false );
+        }
+
+        if ( history.isEmpty() && historyTruncated )
+        {
+            // We don't know the candidate before the current one anymore
+            throw new UnsupportedOperationException( getUnsupportedMessage() );
+        }
+
+        if ( element != null )
+        {
+            replay.push( element );
+        }
+
+        afterLastMatch = false;
+        element = history.pollLast();
+
+        return setAvailable( element != null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( !replay.isEmpty() )
+        {
+            keep( element );
+            element = replay.pop();
+
+            return setAvailable( true );
+        }
+
+        while ( true )
+        {
+            if ( ( current != null ) && current.hasNext() )
+            {
+                keep( element );
+                element = current.next();
+
+                return setAvailable( true );
+            }
+
+            submitChunks();
+
+            Chunk chunk = pending.poll();
+
+            if ( chunk == null )
+            {
+                // After the last candidate, previous() returns the last one
+                keep( element );
+                element = null;
+                afterLastMatch = true;
+
+                return setAvailable( false );
+            }
+
+            current = chunk.getMatches().iterator();
+            evaluated += chunk.size();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( element == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return element;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ParallelEvaluationCursor {}", this );
+        }
+
+        cancelPending();
+        candidates.close();
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ParallelEvaluationCursor {}", this );
+        }
+
+        cancelPending();
+        candidates.close( cause );
+
+        super.close( cause );
+    }
+
+
+    /**
+     * Adds the element we are moving away from to the history, dropping the oldest
+     * one if the history is full.
+     */
+    private void keep( IndexEntry<String, String> previousElement )
+    {
+        if ( previousElement == null )
+        {
+            return;
+        }
+
+        if ( history.size() >= chunkSize )
+        {
+            history.pollFirst();
+            historyTruncated = true;
+        }
+
+        history.addLast( previousElement );
+    }
+
+
+    /**
+     * Reads the candidates and submits them to the pool, until the maximum number of
+     * pending chunks is reached or all the candidates have been read.
+     */
+    private void submitChunks() throws LdapException, CursorException
+    {
+        while ( !exhausted && ( pending.size() < maxChunks ) )
+        {
+            List<IndexEntry<String, String>> entries = new ArrayList<IndexEntry<String, String>>( chunkSize );
+
+            while ( entries.size() < chunkSize )
+            {
+                if ( !candidates.next() )
+                {
+                    exhausted = true;
+                    break;
+                }
+
+                entries.add( candidates.get() );
+            }
+
+            if ( entries.isEmpty() )
+            {
+                return;
+            }
+
+            Chunk chunk = new Chunk( entries );
+            chunk.future = pool.submit( chunk );
+            pending.add( chunk );
+        }
+    }
+
+
+    /**
+     * Cancels the chunks which are not yet evaluated
+     */
+    private void cancelPending()
+    {
+        for ( Chunk chunk : pending )
+        {
+            chunk.future.cancel( false );
+        }
+
+        pending.clear();
+    }
+
+
+    /**
+     * A chunk of candidates, evaluated by a worker thread.
+     */
+    private final class Chunk implements Callable<List<IndexEntry<String, String>>>
+    {
+        /** The candidates */
+        private final List<IndexEntry<String, String>> entries;
+
+        /** The result of the evaluation by the pool */
+        private Future<List<IndexEntry<String, String>>> future;
+
+
+        private Chunk( List<IndexEntry<String, String>> entries )
+        {
+            this.entries = entries;
+        }
+
+
+        private int size()
+        {
+            return entries.size();
+        }
+
+
+        /**
+         * Evaluates the candidates, if the read lock is immediately available.
+         *
+         * @return The matching candidates, or null if the read lock was not available
+         */
+        public List<IndexEntry<String, String>> call() throws LdapException
+        {
+            if ( readLock == null )
+            {
+                return evaluate();
+            }
+
+            if ( !readLock.tryLock() )
+            {
+                return null;
+            }
+
+            try
+            {
+                return evaluate();
+            }
+            finally
+            {
+                readLock.unlock();
+            }
+        }
+
+
+        /**
+         * Gets the matching candidates, waiting for the pool to evaluate them. If the
+         * pool was not able to, the candidates are evaluated by the current thread.
+         */
+        private List<IndexEntry<String, String>> getMatches() throws CursorException
+        {
+            List<IndexEntry<String, String>> matches = null;
+
+            try
+            {
+                matches = future.get();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                throw new CursorException( ie.getMessage(), ie );
+            }
+            catch ( ExecutionException ee )
+            {
+                Throwable cause = ee.getCause();
+
+                throw new CursorException( cause.getMessage(), cause );
+            }
+
+            if ( matches != null )
+            {
+                return matches;
+            }
+
+            try
+            {
+                return evaluate();
+            }
+            catch ( LdapException le )
+            {
+                throw new CursorException( le.getMessage(), le );
+            }
+        }
+
+
+        private List<IndexEntry<String, String>> evaluate() throws LdapException
+        {
+            List<IndexEntry<String, String>> matches = null;
+
+            for ( IndexEntry<String, String> entry : entries )
+            {
+                if ( evaluator.evaluate( entry ) )
+                {
+                    if ( matches == null )
+                    {
+                        matches = new ArrayList<IndexEntry<String, String>>();
+                    }
+
+                    matches.add( entry );
+                }
+                else
+                {
+                    entry.setEntry( null );
+                }
+            }
+
+            if ( matches == null )
+            {
+                return Collections.emptyList();
+            }
+
+            return matches;
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "ParallelEvaluationCursor (" );
+        sb.append( "maxChunks=" ).append( maxChunks ).append( ", chunkSize=" ).append( chunkSize ).append( ")\n" );
+
+        if ( candidates != null )
+        {
+            sb.append( tabs ).append( "    " ).append( "Candidates : \n" );
+            sb.append( candidates.toString( tabs + "        " ) );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
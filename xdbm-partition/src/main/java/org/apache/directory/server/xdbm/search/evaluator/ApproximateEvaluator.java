@@ -31,19 +31,28 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexDecorator;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.PhoneticIndex;
 import org.apache.directory.server.xdbm.Store;
 
 
 /**
  * An Evaluator which determines if candidates are matched by ApproximateNode
- * assertions.  Same as equality for now.
+ * assertions. If the attribute has a {@link PhoneticIndex}, the values which
+ * phonetic key is the assertion's one match, otherwise this is the same as equality.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class ApproximateEvaluator<T> extends LeafEvaluator<T>
 {
+    /** The attribute phonetic index, if any */
+    private final PhoneticIndex phoneticIndex;
+
+    /** The phonetic key of the asserted value, null if we have no phonetic index */
+    private final String phoneticKey;
+
     /**
      * Creates a new ApproximateEvaluator
      * @param node The ApproximateNode
@@ -56,26 +65,56 @@ public class ApproximateEvaluator<T> extends LeafEvaluator<T>
     {
         super( node, db, schemaManager );
 
+        MatchingRule mr = attributeType.getEquality();
+
         if ( db.hasIndexOn( attributeType ) )
         {
             idx = ( Index<T, String> ) db.getIndex( attributeType );
-            normalizer = null;
-            ldapComparator = null;
+            phoneticIndex = AbstractIndexDecorator.find( idx, PhoneticIndex.class );
         }
         else
         {
             idx = null;
-
-            MatchingRule mr = attributeType.getEquality();
+            phoneticIndex = null;
 
             if ( mr == null )
             {
                 throw new IllegalStateException( I18n.err( I18n.ERR_709, node ) );
             }
+        }
 
+        if ( mr != null )
+        {
             normalizer = mr.getNormalizer();
             ldapComparator = mr.getLdapComparator();
         }
+
+        if ( phoneticIndex != null )
+        {
+            phoneticKey = PhoneticIndex.getPhoneticKey( node );
+        }
+        else
+        {
+            phoneticKey = null;
+        }
+    }
+
+
+    /**
+     * @return The attribute phonetic index, or null if it has none
+     */
+    public PhoneticIndex getPhoneticIndex()
+    {
+        return phoneticIndex;
+    }
+
+
+    /**
+     * @return The phonetic key of the asserted value, or null if it's not evaluated phonetically
+     */
+    public String getPhoneticKey()
+    {
+        return phoneticKey;
     }
 
 
@@ -168,7 +207,20 @@ public class ApproximateEvaluator<T> extends LeafEvaluator<T>
 
         for ( Value<?> value : attribute )
         {
-            if ( ldapComparator.compare( value.getNormValue(), node.getValue().getNormValue() ) == 0 )
+            if ( ( phoneticKey != null ) && ( value.getNormValue() instanceof String )
+                && phoneticKey.equals( PhoneticIndex.getPhoneticKey( ( String ) value.getNormValue() ) ) )
+            {
+                return true;
+            }
+
+            if ( ldapComparator != null )
+            {
+                if ( ldapComparator.compare( value.getNormValue(), node.getValue().getNormValue() ) == 0 )
+                {
+                    return true;
+                }
+            }
+            else if ( value.getNormValue().equals( node.getValue().getNormValue() ) )
             {
                 return true;
             }
@@ -30,7 +30,6 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
-import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
@@ -119,8 +118,8 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
 
 
     /**
-     * Tells if a candidate is a descendant of the base ID. We have to fetch all 
-     * the parentIdAndRdn up to the baseId. If we terminate on the context entry without 
+     * Tells if a candidate is a descendant of the base ID. We have to walk up the
+     * parents up to the baseId. If we terminate on the context entry without 
      * having found the baseId, then the candidate is not a descendant.
      */
     private boolean isDescendant( String candidateId ) throws LdapException
@@ -129,15 +128,20 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
 
         while ( true )
         {
-            ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( tmp );
+            try
+            {
+                tmp = db.getParentId( tmp );
+            }
+            catch ( Exception e )
+            {
+                throw new LdapException( e.getMessage(), e );
+            }
 
-            if ( parentIdAndRdn == null )
+            if ( tmp == null )
             {
                 return false;
             }
 
-            tmp = parentIdAndRdn.getParentId();
-
             if ( tmp.equals( Partition.ROOT_ID ) )
             {
                 return false;
@@ -47,9 +47,12 @@ import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexDecorator;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.NgramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.ReverseKeyIndex;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
@@ -583,11 +586,37 @@ public class CursorBuilder
         if ( db.hasIndexOn( attributeType ) )
         {
             Index<String, String> userIndex = ( ( Index<String, String> ) db.getIndex( attributeType ) );
+            String initial = node.getInitial();
+
+            // Without an initial component, use the n-gram or the reverse key index if we have one
+            if ( initial == null )
+            {
+                NgramIndex ngramIndex = AbstractIndexDecorator.find( userIndex, NgramIndex.class );
+                ReverseKeyIndex reverseKeyIndex = AbstractIndexDecorator.find( userIndex, ReverseKeyIndex.class );
+                boolean hasAny = ( node.getAny() != null ) && !node.getAny().isEmpty();
+                boolean useReverseKey = ( reverseKeyIndex != null ) && ( node.getFinal() != null );
+
+                // A final component alone is better served by a range scan on the reversed values
+                if ( ( ngramIndex != null ) && !( useReverseKey && !hasAny ) )
+                {
+                    long nbResults = computeNgramSubstring( node, ngramIndex, searchResult );
+
+                    if ( nbResults >= 0 )
+                    {
+                        return nbResults;
+                    }
+                }
+
+                if ( useReverseKey )
+                {
+                    return computeReverseKeySubstring( node, reverseKeyIndex, searchResult );
+                }
+            }
+
             Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor();
 
             // Position the index on the element we should start from
             IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-            String initial = node.getInitial();
             
             boolean fullIndexScan = false;
             
@@ -680,6 +709,130 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the set of candidates for a Substring filter using a n-gram index : the
+     * candidates are the entries which values contain all the filter components trigrams,
+     * and we only check those candidates values against the filter.
+     *
+     * @return The number of candidates, or -1 if the filter components are too short to use the index
+     */
+    private long computeNgramSubstring( SubstringNode node, NgramIndex ngramIndex,
+        PartitionSearchResult searchResult ) throws Exception
+    {
+        Set<String> candidates = ngramIndex.getCandidates( node );
+
+        if ( candidates == null )
+        {
+            return -1L;
+        }
+
+        Pattern regexp = node.getRegex( getSubstringNormalizer( node.getAttributeType() ) );
+        Set<String> uuidSet = searchResult.getCandidateSet();
+        long nbResults = 0L;
+
+        for ( String uuid : candidates )
+        {
+            Cursor<String> values = ngramIndex.reverseValueCursor( uuid );
+
+            try
+            {
+                values.beforeFirst();
+
+                while ( values.next() )
+                {
+                    if ( regexp.matcher( values.get() ).matches() )
+                    {
+                        if ( uuidSet.add( uuid ) )
+                        {
+                            nbResults++;
+                        }
+
+                        break;
+                    }
+                }
+            }
+            finally
+            {
+                values.close();
+            }
+        }
+
+        return nbResults;
+    }
+
+
+    /**
+     * Computes the set of candidates for a Substring filter with a final component using
+     * a reverse key index : the values ending with the final component are the reversed
+     * values starting with the reversed final component, so we browse the reversed index
+     * from this key until we find a value which does not start with it.
+     */
+    private long computeReverseKeySubstring( SubstringNode node, ReverseKeyIndex reverseKeyIndex,
+        PartitionSearchResult searchResult ) throws Exception
+    {
+        String reversedFinal = reverseKeyIndex.getReversedFinal( node );
+        Pattern regexp = node.getRegex( getSubstringNormalizer( node.getAttributeType() ) );
+        Set<String> uuidSet = searchResult.getCandidateSet();
+        long nbResults = 0L;
+
+        Cursor<IndexEntry<String, String>> cursor = reverseKeyIndex.getReversedIndex().forwardCursor();
+
+        try
+        {
+            IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
+            indexEntry.setKey( reversedFinal );
+            cursor.before( indexEntry );
+
+            while ( cursor.next() )
+            {
+                indexEntry = cursor.get();
+                String reversedKey = indexEntry.getKey();
+
+                if ( !reversedKey.startsWith( reversedFinal ) )
+                {
+                    break;
+                }
+
+                // Check the other components, if any
+                if ( regexp.matcher( ReverseKeyIndex.reverseValue( reversedKey ) ).matches()
+                    && uuidSet.add( indexEntry.getId() ) )
+                {
+                    nbResults++;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return nbResults;
+    }
+
+
+    /**
+     * Gets the normalizer used to build a substring filter regexp
+     */
+    private Normalizer getSubstringNormalizer( AttributeType attributeType )
+    {
+        MatchingRule rule = attributeType.getSubstring();
+
+        if ( rule == null )
+        {
+            rule = attributeType.getEquality();
+        }
+
+        if ( rule != null )
+        {
+            return rule.getNormalizer();
+        }
+        else
+        {
+            return new NoOpNormalizer( attributeType.getSyntaxOid() );
+        }
+    }
+
+
     /**
      * Creates a OrCursor over a disjunction expression branch node.
      *
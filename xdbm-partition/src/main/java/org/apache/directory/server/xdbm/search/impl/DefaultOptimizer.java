@@ -45,7 +45,12 @@ import org.apache.directory.api.ldap.model.filter.SubstringNode;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
+import org.apache.directory.server.xdbm.AbstractIndexDecorator;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NgramIndex;
+import org.apache.directory.server.xdbm.PhoneticIndex;
+import org.apache.directory.server.xdbm.ReverseKeyIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
@@ -171,8 +176,7 @@ public class DefaultOptimizer<E> implements Optimizer
             }
             else if ( node instanceof ApproximateNode )
             {
-                /** Feature not implemented so we just use equality matching */
-                count = getEqualityScan( ( ApproximateNode ) leaf );
+                count = getApproximateScan( ( ApproximateNode ) leaf );
             }
             else
             {
@@ -382,6 +386,32 @@ public class DefaultOptimizer<E> implements Optimizer
     }
 
 
+    /**
+     * Gets the number of entries matching an approximate filter : the number of entries
+     * having a value with the asserted phonetic key if the attribute has a phonetic index,
+     * otherwise the approximate filter is evaluated as an equality filter.
+     *
+     * @param node the approximate node to get a count for
+     * @return the number of candidates
+     * @throws Exception if there is an error accessing an index
+     */
+    private <V> long getApproximateScan( ApproximateNode<V> node ) throws Exception
+    {
+        if ( db.hasIndexOn( node.getAttributeType() ) )
+        {
+            PhoneticIndex phoneticIndex = AbstractIndexDecorator.find( db.getIndex( node.getAttributeType() ),
+                PhoneticIndex.class );
+
+            if ( phoneticIndex != null )
+            {
+                return phoneticIndex.count( node );
+            }
+        }
+
+        return getEqualityScan( node );
+    }
+
+
     /**
      * Gets a scan count of the nodes that satisfy the greater or less than test
      * specified by the node.
@@ -414,10 +444,13 @@ public class DefaultOptimizer<E> implements Optimizer
 
 
     /**
-     * Get a scan count based on a Substring node : we will count the entries that are greater
-     * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
+     * Get a scan count based on a Substring node : we will count the entries that are starting
+     * with ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
      * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
-     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan), unless
+     * the attribute has a n-gram index or a reverse key index : we then use the size of the
+     * smallest trigram posting list, or the number of reversed values starting with the reversed
+     * final component.
      * 
      * @param node The substring node
      * @return The number of candidates
@@ -433,12 +466,26 @@ public class DefaultOptimizer<E> implements Optimizer
 
             if ( Strings.isEmpty( initial ) )
             {
-                // Not a (attr=ABC*) filter : full index scan
-                return idx.count();
+                // Not a (attr=ABC*) filter : full index scan, unless we have a derived index
+                long count = idx.count();
+                NgramIndex ngramIndex = AbstractIndexDecorator.find( idx, NgramIndex.class );
+                ReverseKeyIndex reverseKeyIndex = AbstractIndexDecorator.find( idx, ReverseKeyIndex.class );
+
+                if ( ngramIndex != null )
+                {
+                    count = Math.min( count, ngramIndex.count( node ) );
+                }
+
+                if ( ( reverseKeyIndex != null ) && ( node.getFinal() != null ) )
+                {
+                    count = Math.min( count, reverseKeyIndex.count( node ) );
+                }
+
+                return count;
             }
             else
             {
-                return idx.greaterThanCount( initial );
+                return AbstractIndex.prefixCount( idx, initial );
             }
         }
         else
@@ -22,6 +22,9 @@ package org.apache.directory.server.xdbm.search.impl;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import net.sf.ehcache.Element;
 
@@ -38,6 +41,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
@@ -46,7 +50,9 @@ import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.ParallelEvaluationCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PassThroughEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,6 +80,18 @@ public class DefaultSearchEngine implements SearchEngine
     /** creates evaluators which check to see if candidates satisfy a filter expression */
     private final EvaluatorBuilder evaluatorBuilder;
 
+    /** The number of candidates evaluated by a parallel search task */
+    private static final int PARALLEL_SEARCH_CHUNK_SIZE = 256;
+
+    /** The pool evaluating the candidates of the large searches, null if disabled */
+    private ForkJoinPool parallelSearchPool;
+
+    /** The minimal number of candidates for a search to be evaluated in parallel */
+    private int parallelSearchThreshold;
+
+    /** The maximum number of chunks a single search evaluates at the same time */
+    private int parallelSearchMaxChunks;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -108,6 +126,23 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Enables the parallel evaluation of the searches having many candidates. The
+     * candidates are split in chunks, evaluated on the given pool, and the matching
+     * entries are returned as soon as their chunk has been evaluated.
+     *
+     * @param pool The pool evaluating the candidates, or null to disable the parallel evaluation
+     * @param threshold The minimal number of candidates for a search to be evaluated in parallel
+     * @param maxChunks The maximum number of chunks a single search evaluates at the same time
+     */
+    public void setParallelSearch( ForkJoinPool pool, int threshold, int maxChunks )
+    {
+        this.parallelSearchPool = pool;
+        this.parallelSearchThreshold = threshold;
+        this.parallelSearchMaxChunks = maxChunks;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -277,10 +312,39 @@ public class DefaultSearchEngine implements SearchEngine
         searchResult.setEvaluator( evaluator );
         searchResult.setResultSet( resultSet );
 
+        if ( ( parallelSearchPool != null ) && ( resultSet.size() >= parallelSearchThreshold ) )
+        {
+            LOG.debug( "Evaluating the {} candidates in parallel", resultSet.size() );
+
+            // The cursor returns the matching candidates, with their entry
+            searchResult.setResultCursor( new ParallelEvaluationCursor( searchResult.getResultSet(), evaluator,
+                parallelSearchPool, getReadLock(), parallelSearchMaxChunks, PARALLEL_SEARCH_CHUNK_SIZE ) );
+            searchResult.setEvaluator( new PassThroughEvaluator( db ) );
+        }
+
         return searchResult;
     }
 
 
+    /**
+     * @return The partition read lock, or null if the partition has no lock
+     */
+    private Lock getReadLock()
+    {
+        if ( db instanceof AbstractBTreePartition )
+        {
+            ReadWriteLock rwLock = ( ( AbstractBTreePartition ) db ).getReadWriteLock();
+
+            if ( rwLock != null )
+            {
+                return rwLock.readLock();
+            }
+        }
+
+        return null;
+    }
+
+
     /**
      * @see SearchEngine#evaluator(ExprNode)
      */
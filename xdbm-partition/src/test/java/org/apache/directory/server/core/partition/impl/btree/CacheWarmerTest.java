@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the {@link CacheWarmer} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CacheWarmerTest
+{
+    private static SchemaManager schemaManager;
+
+    /** The UUIDs stored in the file before the warm-up */
+    private static final List<String> PERSISTED_IDS = Arrays.asList( Strings.getUUID( 1 ), Strings.getUUID( 2 ),
+        Strings.getUUID( 3 ) );
+
+    /** The UUIDs the partition holds in its cache */
+    private static final List<String> CACHED_IDS = Collections.singletonList( Strings.getUUID( 4 ) );
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    /** Released when the partition starts loading some entries */
+    private CountDownLatch warmUpStarted;
+
+    /** Set to block the warm-up until the thread is interrupted */
+    private boolean blockWarmUp;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = CacheWarmerTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createFile() throws Exception
+    {
+        file = new File( folder.getRoot(), CacheWarmer.FILE_NAME );
+        CacheWarmer.write( file, PERSISTED_IDS );
+        warmUpStarted = new CountDownLatch( 1 );
+    }
+
+
+    /**
+     * Creates a partition which doesn't load anything, and which can block the warm-up
+     */
+    private AbstractBTreePartition createPartition() throws Exception
+    {
+        AbstractBTreePartition partition = new AvlPartition( schemaManager )
+        {
+            @Override
+            int warmUpCache( List<String> ids ) throws Exception
+            {
+                warmUpStarted.countDown();
+
+                if ( blockWarmUp )
+                {
+                    // Only an interruption ends the wait
+                    new CountDownLatch( 1 ).await();
+                }
+
+                return ids.size();
+            }
+
+
+            @Override
+            public int getCacheSize()
+            {
+                // The in-memory partition has no cache, but all the UUIDs must be loaded
+                return PERSISTED_IDS.size();
+            }
+
+
+            @Override
+            public List<String> getCachedIds()
+            {
+                return CACHED_IDS;
+            }
+        };
+
+        partition.setId( "example" );
+
+        return partition;
+    }
+
+
+    @Test
+    public void testStopAfterWarmUpSavesTheCache() throws Exception
+    {
+        CacheWarmer warmer = new CacheWarmer( createPartition(), file, 0L, 1 );
+        warmer.start();
+
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( !warmer.isWarmedUp() )
+        {
+            assertTrue( "The warm-up did not end", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10L );
+        }
+
+        warmer.stop();
+
+        assertEquals( CACHED_IDS, CacheWarmer.read( file ) );
+    }
+
+
+    @Test
+    public void testStopDuringWarmUpKeepsTheFile() throws Exception
+    {
+        blockWarmUp = true;
+        CacheWarmer warmer = new CacheWarmer( createPartition(), file, 0L, 1 );
+        warmer.start();
+
+        assertTrue( warmUpStarted.await( 10L, TimeUnit.SECONDS ) );
+
+        // The warm-up is interrupted : the partial cache must not replace the file
+        warmer.stop();
+
+        assertFalse( warmer.isWarmedUp() );
+        assertEquals( PERSISTED_IDS, CacheWarmer.read( file ) );
+    }
+
+
+    @Test
+    public void testStopBeforeStartKeepsTheFile() throws Exception
+    {
+        CacheWarmer warmer = new CacheWarmer( createPartition(), file, 0L, 1 );
+
+        // The partition is destroyed before any operation has started the warm-up
+        warmer.stop();
+        warmer.start();
+
+        assertFalse( warmer.isWarmedUp() );
+        assertEquals( PERSISTED_IDS, CacheWarmer.read( file ) );
+    }
+}
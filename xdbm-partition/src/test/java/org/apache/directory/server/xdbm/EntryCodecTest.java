@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntryCodec, and the size of its format compared to the former ones.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryCodecTest
+{
+    private static SchemaManager schemaManager;
+
+    private static EntryCodec codec;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = EntryCodecTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        codec = new EntryCodec( schemaManager );
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager,
+            "cn=John Doe,ou=people,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "cn: John Doe",
+            "CN: Johnny",
+            "sn: Doe",
+            "givenName: John",
+            "uid: jdoe",
+            "mail: john.doe@example.com",
+            "telephoneNumber: +1 408 555 1212",
+            "description: A person whose values are not all normalized",
+            "description: lowercase",
+            "manager: cn=Jane Doe,ou=people,dc=example,dc=com",
+            "entryUUID: f6b7ad18-5d3b-4a53-86a5-5f1e9b2b5bd9",
+            "entryCSN: 20161019120000.000000Z#000000#000#000000",
+            "creatorsName: uid=admin,ou=system",
+            "createTimestamp: 20161019120000Z",
+            "userPassword", Strings.getBytesUtf8( "secret" ) );
+    }
+
+
+    /**
+     * Encodes an entry using the format used before the EntryCodec was introduced.
+     */
+    private byte[] encodeFormerFormat( Entry entry ) throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+
+        out.writeByte( 1 );
+        entry.getDn().getRdn().writeExternal( out );
+        out.writeInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    @Test
+    public void testEncodeDecode() throws Exception
+    {
+        Entry entry = createEntry();
+
+        byte[] data = codec.encode( entry );
+        assertTrue( EntryCodec.isEncoded( data, 0 ) );
+        assertEquals( EntryCodec.VERSION, data[1] );
+
+        Entry result = codec.decode( data, 0, data.length );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+        result.setDn( entry.getDn() );
+        assertEquals( entry, result );
+
+        // The upIds must have been kept, and the values normalized again
+        for ( Attribute attribute : entry )
+        {
+            Attribute decoded = result.get( attribute.getAttributeType() );
+            assertEquals( attribute.getUpId(), decoded.getUpId() );
+
+            for ( Value<?> value : attribute )
+            {
+                assertTrue( decoded.contains( value ) );
+            }
+        }
+
+        assertTrue( result.get( "cn" ).contains( "john doe" ) );
+        assertEquals( "uid=admin,ou=system", result.get( "creatorsName" ).getString() );
+    }
+
+
+    @Test
+    public void testEncodeDecodeEmptyDn() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager );
+        entry.add( "objectClass", "top", "extensibleObject" );
+        entry.add( "description", "" );
+
+        byte[] data = codec.encode( entry );
+        Entry result = codec.decode( data, 0, data.length );
+
+        assertTrue( result.getDn().isEmpty() );
+        assertEquals( entry, result );
+    }
+
+
+    /**
+     * The format must be smaller than the former format.
+     */
+    @Test
+    public void testEncodedSize() throws Exception
+    {
+        Entry entry = createEntry();
+
+        int size = codec.encode( entry ).length;
+        int formerSize = encodeFormerFormat( entry ).length;
+
+        assertTrue( "encoded in " + size + " bytes, former format used " + formerSize, size < formerSize );
+    }
+
+
+    /**
+     * The buffers read back the objects and lines they contain.
+     */
+    @Test
+    public void testBufferObjectsAndLines() throws Exception
+    {
+        BufferObjectOutput out = new BufferObjectOutput( 16 );
+        out.writeObject( "an object" );
+        out.writeBytes( "first\r\nsecond\nthird" );
+
+        byte[] data = out.toByteArray();
+        BufferObjectInput in = new BufferObjectInput( data, 0, data.length );
+
+        assertEquals( "an object", in.readObject() );
+        assertEquals( "first", in.readLine() );
+        assertEquals( "second", in.readLine() );
+        assertEquals( "third", in.readLine() );
+        assertEquals( null, in.readLine() );
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link KeyRankTree} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class KeyRankTreeTest
+{
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>()
+    {
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+
+    @Test
+    public void testCounts()
+    {
+        KeyRankTree<Integer> ranks = new KeyRankTree<Integer>( COMPARATOR );
+
+        assertEquals( 0L, ranks.greaterOrEqualCount( 5 ) );
+        assertEquals( 0L, ranks.lessOrEqualCount( 5 ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            ranks.add( i, 1L );
+        }
+
+        ranks.add( 5, 2L );
+
+        assertEquals( 12L, ranks.size() );
+        assertEquals( 7L, ranks.greaterOrEqualCount( 5 ) );
+        assertEquals( 8L, ranks.lessOrEqualCount( 5 ) );
+        assertEquals( 12L, ranks.greaterOrEqualCount( -1 ) );
+        assertEquals( 0L, ranks.greaterOrEqualCount( 10 ) );
+        assertEquals( 0L, ranks.lessOrEqualCount( -1 ) );
+
+        // Removing all the values of a key removes it
+        ranks.add( 5, -3L );
+
+        assertEquals( 9L, ranks.size() );
+        assertEquals( 4L, ranks.greaterOrEqualCount( 5 ) );
+        assertEquals( 5L, ranks.lessOrEqualCount( 5 ) );
+
+        // Removing an unknown key does nothing
+        ranks.add( 20, -1L );
+
+        assertEquals( 9L, ranks.size() );
+    }
+
+
+    @Test
+    public void testRandomUpdates()
+    {
+        KeyRankTree<Integer> ranks = new KeyRankTree<Integer>( COMPARATOR );
+        TreeMap<Integer, Long> expected = new TreeMap<Integer, Long>();
+        Random random = new Random( 42L );
+
+        for ( int i = 0; i < 20000; i++ )
+        {
+            Integer key = random.nextInt( 500 );
+            Long current = expected.get( key );
+            long delta = ( ( current != null ) && random.nextBoolean() ) ? -random.nextInt( 3 ) - 1 : random
+                .nextInt( 3 ) + 1;
+
+            ranks.add( key, delta );
+
+            long updated = ( current == null ? 0L : current ) + delta;
+
+            if ( updated > 0L )
+            {
+                expected.put( key, updated );
+            }
+            else
+            {
+                expected.remove( key );
+            }
+
+            if ( i % 100 == 0 )
+            {
+                Integer probe = random.nextInt( 520 ) - 10;
+
+                assertEquals( sum( expected.tailMap( probe, true ) ), ranks.greaterOrEqualCount( probe ) );
+                assertEquals( sum( expected.headMap( probe, true ) ), ranks.lessOrEqualCount( probe ) );
+                assertEquals( sum( expected ), ranks.size() );
+            }
+        }
+    }
+
+
+    private static long sum( Map<Integer, Long> values )
+    {
+        long total = 0L;
+
+        for ( Long value : values.values() )
+        {
+            total += value;
+        }
+
+        return total;
+    }
+}
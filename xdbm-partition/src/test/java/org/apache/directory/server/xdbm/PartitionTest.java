@@ -25,6 +25,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -54,6 +55,7 @@ import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.impl.btree.EntryDnTree;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
@@ -402,6 +404,117 @@ public class PartitionTest
     }
 
 
+    @Test
+    public void testEntryDnAfterRenameAndMove() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        String entryId = partition.getEntryId( dn );
+        String apacheId = partition.getEntryId( dn.getParent() );
+        String boardId = partition.getEntryId( dn.getParent().getParent() );
+
+        // Load the Dn before modifying its ancestors
+        assertEquals( dn, partition.getEntryDn( entryId ) );
+        assertEquals( apacheId, partition.getParentId( entryId ) );
+
+        // rename an ancestor
+        Dn boardDn = new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." );
+        partition.rename( boardDn, new Rdn( schemaManager, "ou=Board" ), false, null );
+
+        assertEquals( new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board,o=Good Times Co." ),
+            partition.getEntryDn( entryId ) );
+
+        // move the parent
+        Dn apacheDn = new Dn( schemaManager, "ou=Apache,ou=Board,o=Good Times Co." );
+        Dn newSuperior = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        partition.move( apacheDn, newSuperior, newSuperior.add( apacheDn.getRdn() ), null );
+
+        assertEquals( new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Engineering,o=Good Times Co." ),
+            partition.getEntryDn( entryId ) );
+        assertEquals( partition.getEntryId( newSuperior ), partition.getParentId( apacheId ) );
+        assertEquals( new Dn( schemaManager, "ou=Board,o=Good Times Co." ), partition.getEntryDn( boardId ) );
+    }
+
+
+    @Test
+    public void testEntryDnTreeEviction() throws Exception
+    {
+        // A tree holding at most 2 nodes, while the entry is 3 levels deep
+        EntryDnTree dnTree = new EntryDnTree( partition.getRdnIndex(), schemaManager, 2 );
+        Dn dn = new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        String entryId = partition.getEntryId( dn );
+        String apacheId = partition.getEntryId( dn.getParent() );
+        String boardId = partition.getEntryId( dn.getParent().getParent() );
+
+        assertEquals( dn, dnTree.getDn( entryId ) );
+        assertTrue( dnTree.size() <= 2 );
+        assertTrue( dnTree.isDescendant( entryId, boardId ) );
+        assertEquals( apacheId, dnTree.getParentId( entryId ) );
+
+        // Evicted ancestors are loaded again, and see the renames
+        Dn boardDn = new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." );
+        partition.rename( boardDn, new Rdn( schemaManager, "ou=Board" ), false, null );
+        dnTree.update( boardId, partition.getRdnIndex().reverseLookup( boardId ) );
+
+        assertEquals( new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board,o=Good Times Co." ),
+            dnTree.getDn( entryId ) );
+        assertTrue( dnTree.size() <= 2 );
+    }
+
+
+    @Test
+    public void testEntryDnTreeSubtreeInvalidation() throws Exception
+    {
+        EntryDnTree dnTree = new EntryDnTree( partition.getRdnIndex(), schemaManager );
+        Dn movedDn = new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        Dn otherDn = new Dn( schemaManager, "cn=Jim Bean,ou=Sales,o=Good Times Co." );
+        String movedId = partition.getEntryId( movedDn );
+        String otherId = partition.getEntryId( otherDn );
+        String boardId = partition.getEntryId( movedDn.getParent().getParent() );
+
+        Dn otherCachedDn = dnTree.getDn( otherId );
+        assertEquals( movedDn, dnTree.getDn( movedId ) );
+
+        // Rename an ancestor of the first entry only
+        Dn boardDn = new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." );
+        partition.rename( boardDn, new Rdn( schemaManager, "ou=Board" ), false, null );
+        dnTree.update( boardId, partition.getRdnIndex().reverseLookup( boardId ) );
+
+        // The Dns of the renamed subtree are computed again
+        assertNull( dnTree.peekDn( movedId ) );
+        assertEquals( new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board,o=Good Times Co." ),
+            dnTree.getDn( movedId ) );
+
+        // The other Dns are kept
+        assertSame( otherCachedDn, dnTree.peekDn( otherId ) );
+        assertSame( otherCachedDn, dnTree.getDn( otherId ) );
+    }
+
+
+    @Test
+    public void testAliasIndicesAfterMove() throws Exception
+    {
+        // Two aliases to the same target, one below the other
+        Dn aliasDn = new Dn( schemaManager, "commonName=Jim Bean,ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        String targetId = partition.getEntryId( new Dn( schemaManager, "cn=Jim Bean,ou=Sales,o=Good Times Co." ) );
+        String apacheId = partition.getEntryId( aliasDn.getParent() );
+        String boardId = partition.getEntryId( aliasDn.getParent().getParent() );
+        Dn engineeringDn = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        String engineeringId = partition.getEntryId( engineeringDn );
+
+        partition.move( aliasDn, engineeringDn, engineeringDn.add( aliasDn.getRdn() ), null );
+
+        // The moved alias is below its new parent
+        assertTrue( partition.getOneAliasIndex().forward( engineeringId, targetId ) );
+        assertTrue( partition.getSubAliasIndex().forward( engineeringId, targetId ) );
+        assertFalse( partition.getOneAliasIndex().forward( apacheId, targetId ) );
+        assertFalse( partition.getSubAliasIndex().forward( apacheId, targetId ) );
+
+        // The other alias is still below ou=Board of Directors
+        assertTrue( partition.getOneAliasIndex().forward( boardId, targetId ) );
+        assertTrue( partition.getSubAliasIndex().forward( boardId, targetId ) );
+    }
+
+
     private Entry verifyParentId( Dn dn ) throws Exception
     {
         String entryId = partition.getEntryId( dn );
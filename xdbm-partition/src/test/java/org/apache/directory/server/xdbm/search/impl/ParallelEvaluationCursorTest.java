@@ -0,0 +1,366 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.SetCursor;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.cursor.ParallelEvaluationCursor;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the ParallelEvaluationCursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ParallelEvaluationCursorTest
+{
+    File wkdir;
+    Store store;
+    static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+    private static ForkJoinPool pool;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ParallelEvaluationCursorTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+        pool = new ForkJoinPool( 3 );
+    }
+
+
+    @AfterClass
+    public static void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, dnFactory );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+        ( ( Partition ) store ).setSuffixDn( suffixDn );
+
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private Set<IndexEntry<String, String>> getAllCandidates() throws Exception
+    {
+        Set<IndexEntry<String, String>> candidates = new HashSet<IndexEntry<String, String>>();
+        Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( store.getMasterTable().cursor(), true );
+
+        while ( cursor.next() )
+        {
+            IndexEntry<String, String> candidate = new IndexEntry<String, String>();
+            candidate.setId( cursor.get().getKey() );
+            candidates.add( candidate );
+        }
+
+        cursor.close();
+
+        return candidates;
+    }
+
+
+    private Set<String> evaluateSerially( String filter ) throws Exception
+    {
+        ExprNode node = FilterParser.parse( schemaManager, filter );
+        Evaluator<? extends ExprNode> evaluator = new EvaluatorBuilder( store, schemaManager ).build( node );
+        Set<String> uuids = new HashSet<String>();
+
+        for ( IndexEntry<String, String> candidate : getAllCandidates() )
+        {
+            if ( evaluator.evaluate( candidate ) )
+            {
+                uuids.add( candidate.getId() );
+            }
+        }
+
+        return uuids;
+    }
+
+
+    private Set<String> evaluateInParallel( String filter, ReadWriteLock lock, int chunkSize ) throws Exception
+    {
+        ExprNode node = FilterParser.parse( schemaManager, filter );
+        Evaluator<? extends ExprNode> evaluator = new EvaluatorBuilder( store, schemaManager ).build( node );
+        ParallelEvaluationCursor cursor = new ParallelEvaluationCursor(
+            new SetCursor<IndexEntry<String, String>>( getAllCandidates() ), evaluator, pool,
+            lock == null ? null : lock.readLock(), 2, chunkSize );
+        Set<String> uuids = new HashSet<String>();
+
+        while ( cursor.next() )
+        {
+            IndexEntry<String, String> candidate = cursor.get();
+
+            // The entry has been fetched by the evaluation
+            assertNotNull( candidate.getEntry() );
+            assertTrue( uuids.add( candidate.getId() ) );
+        }
+
+        assertFalse( cursor.available() );
+        assertEquals( 11L, cursor.takeEvaluatedCount() );
+        cursor.close();
+
+        return uuids;
+    }
+
+
+    @Test
+    public void testSameResults() throws Exception
+    {
+        String[] filters = new String[]
+            { "(cn=*a*)", "(objectClass=person)", "(|(ou=Sales)(cn=jim bean))", "(!(ou=*s*))", "(cn=nobody)" };
+
+        for ( String filter : filters )
+        {
+            Set<String> expected = evaluateSerially( filter );
+
+            for ( int chunkSize = 1; chunkSize < 5; chunkSize++ )
+            {
+                assertEquals( filter, expected, evaluateInParallel( filter, null, chunkSize ) );
+                assertEquals( filter, expected, evaluateInParallel( filter, new ReentrantReadWriteLock(), chunkSize ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void testWriteLocked() throws Exception
+    {
+        // The workers can't get the read lock, the chunks are evaluated by this thread
+        ReadWriteLock lock = new ReentrantReadWriteLock( true );
+        Set<String> expected = evaluateSerially( "(cn=*a*)" );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            assertEquals( expected, evaluateInParallel( "(cn=*a*)", lock, 3 ) );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Test
+    public void testBeforeFirst() throws Exception
+    {
+        ExprNode node = FilterParser.parse( schemaManager, "(objectClass=*)" );
+        Evaluator<? extends ExprNode> evaluator = new EvaluatorBuilder( store, schemaManager ).build( node );
+        ParallelEvaluationCursor cursor = new ParallelEvaluationCursor(
+            new SetCursor<IndexEntry<String, String>>( getAllCandidates() ), evaluator, pool, null, 2, 2 );
+
+        assertTrue( cursor.next() );
+        assertTrue( cursor.next() );
+
+        int count = 0;
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            count++;
+        }
+
+        assertEquals( 11, count );
+        cursor.close();
+    }
+
+
+    @Test
+    public void testPrevious() throws Exception
+    {
+        ExprNode node = FilterParser.parse( schemaManager, "(objectClass=*)" );
+        Evaluator<? extends ExprNode> evaluator = new EvaluatorBuilder( store, schemaManager ).build( node );
+        ParallelEvaluationCursor cursor = new ParallelEvaluationCursor(
+            new SetCursor<IndexEntry<String, String>>( getAllCandidates() ), evaluator, pool, null, 2, 4 );
+
+        // Before the first candidate
+        assertFalse( cursor.previous() );
+
+        assertTrue( cursor.next() );
+        String first = cursor.get().getId();
+        assertTrue( cursor.next() );
+        String second = cursor.get().getId();
+        assertTrue( cursor.next() );
+        String third = cursor.get().getId();
+
+        // Step back, as the search handler does once it has read one entry too many
+        assertTrue( cursor.previous() );
+        assertEquals( second, cursor.get().getId() );
+        assertTrue( cursor.previous() );
+        assertEquals( first, cursor.get().getId() );
+        assertFalse( cursor.previous() );
+        assertFalse( cursor.available() );
+
+        // The candidates we stepped back over are returned again
+        assertTrue( cursor.next() );
+        assertEquals( first, cursor.get().getId() );
+        assertTrue( cursor.next() );
+        assertEquals( second, cursor.get().getId() );
+        assertTrue( cursor.next() );
+        assertEquals( third, cursor.get().getId() );
+
+        Set<String> uuids = new HashSet<String>();
+        uuids.add( first );
+        uuids.add( second );
+        uuids.add( third );
+        String last = third;
+
+        while ( cursor.next() )
+        {
+            last = cursor.get().getId();
+            assertTrue( uuids.add( last ) );
+        }
+
+        assertEquals( 11, uuids.size() );
+
+        // After the last candidate, previous() moves back to it
+        assertTrue( cursor.previous() );
+        assertEquals( last, cursor.get().getId() );
+        assertFalse( cursor.next() );
+
+        // Only the last chunkSize candidates are kept
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertTrue( cursor.previous() );
+        }
+
+        try
+        {
+            cursor.previous();
+            fail();
+        }
+        catch ( UnsupportedOperationException uoe )
+        {
+            // Expected
+        }
+
+        cursor.close();
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.AbstractIndexDecorator;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.PhoneticIndex;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the approximate searches using a phonetic index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PhoneticIndexTest
+{
+    File wkdir;
+    Store store;
+    static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = PhoneticIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( loader.getSchema( "collective" ) );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, dnFactory );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+
+        AvlIndex<String> cnIndex = new AvlIndex<String>( SchemaConstants.CN_AT_OID );
+        cnIndex.setPhoneticIndexed( true );
+        store.addIndex( cnIndex );
+
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+        ( ( Partition ) store ).setSuffixDn( suffixDn );
+
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    private Set<String> search( String filter ) throws Exception
+    {
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        searchResult.setCandidateSet( new HashSet<String>() );
+        CursorBuilder cursorBuilder = new CursorBuilder( store, new EvaluatorBuilder( store, schemaManager ) );
+
+        cursorBuilder.build( FilterParser.parse( schemaManager, filter ), searchResult );
+
+        return searchResult.getCandidateSet();
+    }
+
+
+    @Test
+    public void testPhoneticKey() throws Exception
+    {
+        assertEquals( "J500S530", PhoneticIndex.getPhoneticKey( "jon smyth" ) );
+        assertEquals( "J500S530", PhoneticIndex.getPhoneticKey( "john smith" ) );
+        assertEquals( "R163", PhoneticIndex.getPhoneticKey( "Robert" ) );
+        assertEquals( "R163", PhoneticIndex.getPhoneticKey( "rupert" ) );
+        assertEquals( "A261", PhoneticIndex.getPhoneticKey( "ashcraft" ) );
+        assertEquals( "T522", PhoneticIndex.getPhoneticKey( "tymczak" ) );
+        assertEquals( "P236", PhoneticIndex.getPhoneticKey( "pfister" ) );
+        assertEquals( "L000", PhoneticIndex.getPhoneticKey( "lee-42" ) );
+        assertNull( PhoneticIndex.getPhoneticKey( "1234" ) );
+    }
+
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        Index<?, String> index = store.getIndex( schemaManager.getAttributeType( SchemaConstants.CN_AT_OID ) );
+        assertNotNull( AbstractIndexDecorator.find( index, PhoneticIndex.class ) );
+
+        Set<String> uuids = search( "(cn~=jon walkor)" );
+
+        assertEquals( 2, uuids.size() );
+        assertTrue( uuids.contains( Strings.getUUID( 5 ) ) );
+        assertTrue( uuids.contains( Strings.getUUID( 11 ) ) );
+
+        uuids = search( "(cn~=jym been)" );
+
+        assertEquals( 3, uuids.size() );
+        assertTrue( uuids.contains( Strings.getUUID( 6 ) ) );
+        assertTrue( uuids.contains( Strings.getUUID( 9 ) ) );
+        assertTrue( uuids.contains( Strings.getUUID( 10 ) ) );
+
+        assertTrue( search( "(cn~=jack walker)" ).isEmpty() );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testEvaluator() throws Exception
+    {
+        ApproximateNode<String> node = ( ApproximateNode<String> ) FilterParser.parse( schemaManager,
+            "(cn~=jak danyels)" );
+        ApproximateEvaluator<String> evaluator = new ApproximateEvaluator<String>( node, store, schemaManager );
+
+        assertEquals( "J200D542", evaluator.getPhoneticKey() );
+        assertTrue( evaluator.evaluate( store.fetch( Strings.getUUID( 8 ) ) ) );
+        assertFalse( evaluator.evaluate( store.fetch( Strings.getUUID( 6 ) ) ) );
+    }
+
+
+    @Test
+    public void testOptimizerCount() throws Exception
+    {
+        ExprNode node = FilterParser.parse( schemaManager, "(cn~=jon walkor)" );
+        new DefaultOptimizer<Object>( store ).annotate( node );
+
+        assertEquals( 2L, ( ( Long ) node.get( "count" ) ).longValue() );
+    }
+
+
+    @Test
+    public void testDropValue() throws Exception
+    {
+        Index<?, String> index = store.getIndex( schemaManager.getAttributeType( SchemaConstants.CN_AT_OID ) );
+        PhoneticIndex phoneticIndex = AbstractIndexDecorator.find( index, PhoneticIndex.class );
+        String uuid = Strings.getUUID( 5 );
+
+        // The dropped value may not be normalized
+        phoneticIndex.drop( "JOhnny WAlkeR", uuid );
+
+        Set<String> uuids = search( "(cn~=jon walkor)" );
+
+        assertFalse( uuids.contains( uuid ) );
+        assertTrue( uuids.contains( Strings.getUUID( 11 ) ) );
+    }
+}